@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ltasks.CodecPool;
+
+/**
+ * Gzips and gunzips one body, as a request and a response do. "jdk" uses a
+ * new {@link GZIPOutputStream} or {@link GZIPInputStream} each time, as the
+ * client did, "unpooled" a {@link CodecPool} that keeps nothing, and "pooled"
+ * one that reuses the deflaters, inflaters and buffers. The codecs created
+ * are printed at the end of each trial: each one holds native zlib memory
+ * that the heap allocation rate does not show.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecPoolBenchmark {
+
+	@Param({ "jdk", "unpooled", "pooled" })
+	public String mode;
+
+	/** The length of the body */
+	@Param({ "1024", "65536" })
+	public int size;
+
+	private CodecPool mPool;
+
+	private byte[] mPlain;
+
+	private byte[] mCompressed;
+
+	/** Discards the bytes written */
+	private static final class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		mPool = "pooled".equals(mode) ? new CodecPool(
+				CodecPool.DEFAULT_MAX_IDLE) : new CodecPool(0);
+		mPlain = Fixtures.text(size).getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(mPlain);
+		gzip.close();
+		mCompressed = out.toByteArray();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (!"jdk".equals(mode)) {
+			System.out.println();
+			System.out.println(mode + " " + size + ": " + mPool.getStats());
+		}
+	}
+
+	@Benchmark
+	public void compress() throws IOException {
+		OutputStream out = new NullOutputStream();
+		if ("jdk".equals(mode)) {
+			out = new GZIPOutputStream(out, 8192);
+		} else {
+			out = mPool.newGZIPOutputStream(out, -1, 8192);
+		}
+		out.write(mPlain);
+		out.close();
+	}
+
+	@Benchmark
+	public int decompress() throws IOException {
+		InputStream in = new ByteArrayInputStream(mCompressed);
+		if ("jdk".equals(mode)) {
+			in = new GZIPInputStream(in, 8192);
+		} else {
+			in = mPool.newGZIPInputStream(in, 8192);
+		}
+		byte[] buffer = new byte[4096];
+		int total = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			total += read;
+		}
+		in.close();
+		return total;
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ltasks.LtasksObject;
+import com.ltasks.NamedEntity;
+import com.ltasks.NerType;
+
+/**
+ * Builds the benchmark inputs from a small corpus of synthetic Portuguese
+ * sentences shipped with the benchmarks. The inputs only depend on the
+ * requested size, so results are reproducible offline and across runs.
+ */
+final class Fixtures {
+
+	/** An entity in the corpus: {type:text} */
+	private static final Pattern ENTITY = Pattern
+			.compile("\\{([a-z]+):([^}]+)\\}");
+
+	private static final List<String> SENTENCES = new ArrayList<String>();
+
+	/** The entities of each sentence, offsets relative to the sentence */
+	private static final List<List<NamedEntity>> SENTENCE_ENTITIES = new ArrayList<List<NamedEntity>>();
+
+	static {
+		try {
+			load();
+		} catch (IOException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Fixtures() {
+	}
+
+	private static void load() throws IOException {
+		InputStream in = Fixtures.class.getResourceAsStream("corpus-pt.txt");
+		if (in == null) {
+			throw new IOException("corpus-pt.txt not found");
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+				StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				StringBuilder sentence = new StringBuilder();
+				List<NamedEntity> entities = new ArrayList<NamedEntity>();
+				Matcher m = ENTITY.matcher(line);
+				int last = 0;
+				while (m.find()) {
+					sentence.append(line, last, m.start());
+					int begin = sentence.length();
+					sentence.append(m.group(2));
+					entities.add(new NamedEntity(m.group(2), NerType
+							.fromValue(m.group(1)), begin, sentence.length()));
+					last = m.end();
+				}
+				sentence.append(line, last, line.length());
+				SENTENCES.add(sentence.toString());
+				SENTENCE_ENTITIES.add(entities);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Creates a text
+	 * 
+	 * @param aLength
+	 *            the length of the text, in chars
+	 * @return the text
+	 */
+	static String text(int aLength) {
+		StringBuilder sb = new StringBuilder(aLength + 200);
+		for (int i = 0; sb.length() < aLength; i++) {
+			sb.append(SENTENCES.get(i % SENTENCES.size())).append(' ');
+		}
+		sb.setLength(aLength);
+		return sb.toString();
+	}
+
+	/**
+	 * Creates an HTML page, a paragraph per sentence
+	 * 
+	 * @param aLength
+	 *            the approximate length of the page, in chars
+	 * @return the page
+	 */
+	static String html(int aLength) {
+		StringBuilder sb = new StringBuilder(aLength + 200);
+		sb.append("<html><head><title>Notícias</title></head><body>");
+		for (int i = 0; sb.length() < aLength - 14; i++) {
+			sb.append("<p>").append(SENTENCES.get(i % SENTENCES.size()))
+					.append("</p>");
+		}
+		return sb.append("</body></html>").toString();
+	}
+
+	/**
+	 * Creates a result with sentences from the corpus
+	 * 
+	 * @param aEntities
+	 *            the number of entities
+	 * @return the result
+	 */
+	static LtasksObject result(int aEntities) {
+		StringBuilder text = new StringBuilder();
+		List<NamedEntity> entities = new ArrayList<NamedEntity>(aEntities);
+		for (int i = 0; entities.size() < aEntities; i++) {
+			int offset = text.length();
+			int sentence = i % SENTENCES.size();
+			text.append(SENTENCES.get(sentence)).append(' ');
+			for (NamedEntity e : SENTENCE_ENTITIES.get(sentence)) {
+				if (entities.size() == aEntities) {
+					break;
+				}
+				entities.add(new NamedEntity(e.getText(), e.getType(), offset
+						+ e.getBegin(), offset + e.getEnd()));
+			}
+		}
+		return new LtasksObject(text.toString(), null, true,
+				Collections.unmodifiableList(entities));
+	}
+
+	/**
+	 * Creates the XML the service returns for {@link #result(int)}
+	 * 
+	 * @param aEntities
+	 *            the number of entities
+	 * @return the UTF-8 response body
+	 */
+	static byte[] response(int aEntities) {
+		LtasksObject result = result(aEntities);
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+		xml.append("<result><text>").append(result.getSourceText())
+				.append("</text><namedEntities>");
+		for (NamedEntity e : result.getNamedEntities()) {
+			xml.append("<namedEntity text=\"").append(e.getText())
+					.append("\" type=\"").append(e.getType().value())
+					.append("\" begin=\"").append(e.getBegin())
+					.append("\" end=\"").append(e.getEnd()).append("\"/>");
+		}
+		xml.append("</namedEntities></result>");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
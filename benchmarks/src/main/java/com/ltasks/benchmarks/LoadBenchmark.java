@@ -0,0 +1,476 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ltasks.ConnectionPool;
+import com.ltasks.LtasksNameFinderClient;
+import com.ltasks.LtasksObject;
+import com.ltasks.StandInNerServer;
+import com.ltasks.metrics.LatencyHistogram;
+import com.ltasks.transport.JdkHttpTransport;
+import com.ltasks.transport.Transport;
+
+/**
+ * <p>
+ * Drives {@link LtasksNameFinderClient} against a {@link StandInNerServer} in
+ * the same JVM, for every combination of concurrent callers, gzip, source
+ * text and document size, and reports throughput, latency percentiles,
+ * allocation and GC per scenario.
+ * </p>
+ * <p>
+ * Each scenario runs twice. First the callers send back to back to find the
+ * maximum throughput. Then they send on a fixed schedule, at a fraction of
+ * that throughput, and the latency of each request is measured from the time
+ * it was scheduled rather than sent. A stalled request then counts for the
+ * requests it held back, so the percentiles do not suffer from coordinated
+ * omission.
+ * </p>
+ * <p>
+ * The results can be saved and compared against a baseline: the run fails,
+ * with exit status 1, if the throughput dropped, or the p99 latency or the
+ * allocation per request grew, by more than the threshold. Run with:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.ltasks.benchmarks.LoadBenchmark [options]
+ * mvn -Pload verify -Dload.args="[options]"
+ * 
+ *   --quick                 1 and 16 callers, tweet and article, short runs
+ *   --concurrency=1,16,...  callers (1,16,256,4096)
+ *   --documents=tweet,...   tweet, article and/or page (all)
+ *   --gzip=on|off|both      (both)
+ *   --source=on|off|both    include the source text (both)
+ *   --warmup=SECONDS        time finding the maximum throughput (3)
+ *   --duration=SECONDS      time measuring the latency (5)
+ *   --load=FRACTION         rate of the latency run, of the maximum (0.8)
+ *   --latency=MS            latency of the stand-in server (0)
+ *   --transport=commons|jdk transport of the client (commons)
+ *   --memory=MB             skips scenarios with more documents in flight (512)
+ *   --output=FILE           saves the results
+ *   --baseline=FILE         compares against saved results
+ *   --threshold=FRACTION    tolerated regression (0.25)
+ * </pre>
+ */
+public class LoadBenchmark {
+
+	private static final String KEY = "b2c4cf5c-52d3-4fef-ac9b-67dbe6b5e52d";
+
+	/** Latency differences below this are noise, whatever the threshold */
+	private static final double LATENCY_SLACK_MILLIS = 1;
+
+	private int[] mConcurrency = { 1, 16, 256, 4096 };
+
+	private List<LoadScenario.Document> mDocuments = new ArrayList<LoadScenario.Document>(
+			List.of(LoadScenario.Document.values()));
+
+	private boolean[] mGzip = { true, false };
+
+	private boolean[] mSourceText = { true, false };
+
+	private long mWarmupNanos = TimeUnit.SECONDS.toNanos(3);
+
+	private long mDurationNanos = TimeUnit.SECONDS.toNanos(5);
+
+	private double mLoad = 0.8;
+
+	private long mServerLatency;
+
+	private boolean mIsJdkTransport;
+
+	private long mMemoryBudget = 512L * 1024 * 1024;
+
+	private String mOutput;
+
+	private String mBaseline;
+
+	private double mThreshold = 0.25;
+
+	private boolean mIsWarm;
+
+	public static void main(String[] args) throws Exception {
+		LoadBenchmark benchmark = new LoadBenchmark();
+		benchmark.parse(args);
+		System.exit(benchmark.run() ? 0 : 1);
+	}
+
+	private void parse(String[] args) {
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			String name = eq < 0 ? arg : arg.substring(0, eq);
+			String value = eq < 0 ? null : arg.substring(eq + 1);
+			switch (name) {
+			case "--quick":
+				mConcurrency = new int[] { 1, 16 };
+				mDocuments = List.of(LoadScenario.Document.TWEET,
+						LoadScenario.Document.ARTICLE);
+				mWarmupNanos = TimeUnit.SECONDS.toNanos(1);
+				mDurationNanos = TimeUnit.SECONDS.toNanos(2);
+				break;
+			case "--concurrency":
+				String[] values = value.split(",");
+				mConcurrency = new int[values.length];
+				for (int i = 0; i < values.length; i++) {
+					mConcurrency[i] = Integer.parseInt(values[i].trim());
+				}
+				break;
+			case "--documents":
+				mDocuments = new ArrayList<LoadScenario.Document>();
+				for (String document : value.split(",")) {
+					mDocuments.add(LoadScenario.Document.valueOf(document
+							.trim().toUpperCase(Locale.ROOT)));
+				}
+				break;
+			case "--gzip":
+				mGzip = flags(value);
+				break;
+			case "--source":
+				mSourceText = flags(value);
+				break;
+			case "--warmup":
+				mWarmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+				break;
+			case "--duration":
+				mDurationNanos = TimeUnit.SECONDS
+						.toNanos(Long.parseLong(value));
+				break;
+			case "--load":
+				mLoad = Double.parseDouble(value);
+				break;
+			case "--latency":
+				mServerLatency = Long.parseLong(value);
+				break;
+			case "--transport":
+				if (!"commons".equals(value) && !"jdk".equals(value)) {
+					throw new IllegalArgumentException(
+							"expected commons or jdk: " + value);
+				}
+				mIsJdkTransport = "jdk".equals(value);
+				break;
+			case "--memory":
+				mMemoryBudget = Long.parseLong(value) * 1024 * 1024;
+				break;
+			case "--output":
+				mOutput = value;
+				break;
+			case "--baseline":
+				mBaseline = value;
+				break;
+			case "--threshold":
+				mThreshold = Double.parseDouble(value);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option: " + arg);
+			}
+		}
+		if (mLoad <= 0 || mLoad > 1) {
+			throw new IllegalArgumentException(
+					"the load must be between 0 and 1.");
+		}
+	}
+
+	private static boolean[] flags(String aValue) {
+		switch (aValue) {
+		case "on":
+			return new boolean[] { true };
+		case "off":
+			return new boolean[] { false };
+		case "both":
+			return new boolean[] { true, false };
+		default:
+			throw new IllegalArgumentException("expected on, off or both: "
+					+ aValue);
+		}
+	}
+
+	/**
+	 * Runs all scenarios
+	 * 
+	 * @return false if a regression against the baseline was found
+	 */
+	private boolean run() throws Exception {
+		int maxConcurrency = 1;
+		for (int concurrency : mConcurrency) {
+			maxConcurrency = Math.max(maxConcurrency, concurrency);
+		}
+		Properties results = new Properties();
+		StandInNerServer server = new StandInNerServer(maxConcurrency * 2);
+		try {
+			server.setLatency(mServerLatency);
+			System.out.println(LoadResult.header());
+			for (LoadScenario.Document document : mDocuments) {
+				String content = document.create();
+				for (int concurrency : mConcurrency) {
+					for (boolean gzip : mGzip) {
+						for (boolean sourceText : mSourceText) {
+							LoadScenario scenario = new LoadScenario(
+									concurrency, gzip, sourceText, document);
+							// the request body and the echoed text
+							long inFlight = 3L * concurrency
+									* document.getLength();
+							if (inFlight > mMemoryBudget) {
+								System.out.println(String.format(
+										"%-28s skipped, over the memory budget",
+										scenario.getName()));
+								continue;
+							}
+							LoadResult result = run(scenario, content,
+									server.getEndpoint());
+							System.out.println(result);
+							result.store(results);
+						}
+					}
+				}
+			}
+		} finally {
+			server.close();
+		}
+
+		if (mOutput != null) {
+			OutputStream out = new FileOutputStream(mOutput);
+			try {
+				results.store(out, "ltasks4j load benchmark");
+			} finally {
+				out.close();
+			}
+		}
+		if (mBaseline != null) {
+			Properties baseline = new Properties();
+			InputStream in = new FileInputStream(mBaseline);
+			try {
+				baseline.load(in);
+			} finally {
+				in.close();
+			}
+			return compare(baseline, results);
+		}
+		return true;
+	}
+
+	private LoadResult run(LoadScenario aScenario, String aContent,
+			String aEndpoint) throws InterruptedException {
+		int concurrency = aScenario.getConcurrency();
+		ConnectionPool pool = new ConnectionPool(concurrency, concurrency);
+		Transport transport = null;
+		try {
+			LtasksNameFinderClient client = new LtasksNameFinderClient(KEY,
+					aScenario.isIncludeSourceText(), aScenario.isGzip(), pool);
+			client.setEndpoint(aEndpoint);
+			if (mIsJdkTransport) {
+				transport = new JdkHttpTransport();
+				client.setTransport(transport);
+			}
+
+			if (!mIsWarm) {
+				// compiles the request path before the first measurement
+				new Callers(client, aScenario, aContent, 0).run(mWarmupNanos);
+				mIsWarm = true;
+			}
+			Callers max = new Callers(client, aScenario, aContent, 0);
+			max.run(mWarmupNanos);
+			double maxThroughput = max.mLatency.getCount()
+					/ (mWarmupNanos / 1e9);
+
+			double rate = Math.max(maxThroughput * mLoad, 1);
+			long gcCount = gcCount();
+			long gcMillis = gcMillis();
+			Callers paced = new Callers(client, aScenario, aContent, rate);
+			paced.run(mDurationNanos);
+			return new LoadResult(aScenario, maxThroughput, rate,
+					paced.mLatency, paced.mFailures.sum(),
+					paced.mAllocatedBytes.get(), gcCount() - gcCount,
+					gcMillis() - gcMillis);
+		} finally {
+			if (transport != null) {
+				transport.close();
+			}
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compares the results against a baseline
+	 * 
+	 * @return false if a scenario regressed
+	 */
+	private boolean compare(Properties aBaseline, Properties aResults) {
+		boolean ok = true;
+		for (String key : aResults.stringPropertyNames()) {
+			String base = aBaseline.getProperty(key);
+			if (base == null) {
+				continue;
+			}
+			double before = Double.parseDouble(base);
+			double after = Double.parseDouble(aResults.getProperty(key));
+			boolean regressed;
+			if (key.endsWith("." + LoadResult.THROUGHPUT)) {
+				regressed = after < before * (1 - mThreshold);
+			} else if (key.endsWith("." + LoadResult.P99)) {
+				regressed = after > before * (1 + mThreshold)
+						&& after - before > LATENCY_SLACK_MILLIS;
+			} else if (key.endsWith("." + LoadResult.ALLOCATION)) {
+				regressed = before >= 0 && after > before * (1 + mThreshold);
+			} else {
+				// other percentiles are reported, not checked
+				regressed = false;
+			}
+			if (regressed) {
+				System.out.println(String.format(Locale.ROOT,
+						"REGRESSION %s: %s -> %s", key, base,
+						aResults.getProperty(key)));
+				ok = false;
+			}
+		}
+		System.out.println(ok ? "No regression over " + mThreshold * 100
+				+ "% against " + mBaseline : "Regressions found against "
+				+ mBaseline);
+		return ok;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	/**
+	 * The callers of a run. Each caller is a platform thread, so the bytes it
+	 * allocates can be read.
+	 */
+	private static final class Callers {
+
+		private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		private final LtasksNameFinderClient mClient;
+
+		private final LoadScenario mScenario;
+
+		private final String mContent;
+
+		/** Nanoseconds between the requests of a caller, 0 to not wait */
+		private final long mInterval;
+
+		private final LatencyHistogram mLatency = new LatencyHistogram();
+
+		private final LongAdder mFailures = new LongAdder();
+
+		/** Bytes allocated by the callers, -1 if not supported */
+		private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+		Callers(LtasksNameFinderClient aClient, LoadScenario aScenario,
+				String aContent, double aRate) {
+			mClient = aClient;
+			mScenario = aScenario;
+			mContent = aContent;
+			mInterval = aRate <= 0 ? 0 : (long) (aScenario.getConcurrency()
+					* 1e9 / aRate);
+			if (!THREADS.isThreadAllocatedMemorySupported()) {
+				mAllocatedBytes.set(-1);
+			} else if (!THREADS.isThreadAllocatedMemoryEnabled()) {
+				THREADS.setThreadAllocatedMemoryEnabled(true);
+			}
+		}
+
+		void run(long aDurationNanos) throws InterruptedException {
+			int concurrency = mScenario.getConcurrency();
+			final CountDownLatch done = new CountDownLatch(concurrency);
+			final long start = System.nanoTime() + TimeUnit.MILLISECONDS
+					.toNanos(50);
+			final long end = start + aDurationNanos;
+			for (int i = 0; i < concurrency; i++) {
+				// spreads the first requests over an interval
+				final long first = start + mInterval * i / concurrency;
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						try {
+							call(first, end);
+						} finally {
+							done.countDown();
+						}
+					}
+				}, "ltasks4j-load-" + i);
+				thread.setDaemon(true);
+				thread.start();
+			}
+			done.await();
+		}
+
+		private void call(long aFirst, long aEnd) {
+			long id = Thread.currentThread().getId();
+			long allocated = mAllocatedBytes.get() < 0 ? 0 : THREADS
+					.getThreadAllocatedBytes(id);
+			long scheduled = aFirst;
+			while (scheduled < aEnd) {
+				long now = System.nanoTime();
+				if (now < scheduled) {
+					LockSupport.parkNanos(scheduled - now);
+				} else if (mInterval == 0) {
+					scheduled = now;
+				}
+				try {
+					LtasksObject result = mScenario.getDocument().isHtml() ? mClient
+							.processHtml(mContent) : mClient
+							.processText(mContent);
+					if (!result.isProcessedOk()) {
+						mFailures.increment();
+					}
+				} catch (Exception e) {
+					mFailures.increment();
+				}
+				// measured from the schedule, not from when it was sent
+				mLatency.record(System.nanoTime() - scheduled);
+				scheduled += mInterval;
+			}
+			if (mAllocatedBytes.get() >= 0) {
+				mAllocatedBytes.addAndGet(THREADS.getThreadAllocatedBytes(id)
+						- allocated);
+			}
+		}
+
+	}
+
+}
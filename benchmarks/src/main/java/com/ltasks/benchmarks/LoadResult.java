@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.ltasks.metrics.LatencyHistogram;
+
+/**
+ * The outcome of a {@link LoadScenario}.
+ */
+final class LoadResult {
+
+	/** Keys of the values compared against a baseline */
+	static final String THROUGHPUT = "throughput";
+
+	static final String P50 = "p50";
+
+	static final String P99 = "p99";
+
+	static final String ALLOCATION = "allocation";
+
+	private final LoadScenario mScenario;
+
+	private final double mMaxThroughput;
+
+	private final double mRate;
+
+	private final LatencyHistogram mLatency;
+
+	private final long mFailures;
+
+	private final long mAllocatedBytes;
+
+	private final long mGcCount;
+
+	private final long mGcMillis;
+
+	LoadResult(LoadScenario aScenario, double aMaxThroughput, double aRate,
+			LatencyHistogram aLatency, long aFailures, long aAllocatedBytes,
+			long aGcCount, long aGcMillis) {
+		mScenario = aScenario;
+		mMaxThroughput = aMaxThroughput;
+		mRate = aRate;
+		mLatency = aLatency;
+		mFailures = aFailures;
+		mAllocatedBytes = aAllocatedBytes;
+		mGcCount = aGcCount;
+		mGcMillis = aGcMillis;
+	}
+
+	LoadScenario getScenario() {
+		return mScenario;
+	}
+
+	/**
+	 * Gets the throughput with callers sending back to back
+	 * 
+	 * @return the requests per second
+	 */
+	double getMaxThroughput() {
+		return mMaxThroughput;
+	}
+
+	/**
+	 * Gets a latency percentile at the measured rate
+	 * 
+	 * @param aPercentile
+	 *            the percentile, from 0 to 100
+	 * @return the latency in milliseconds
+	 */
+	double getLatency(double aPercentile) {
+		return mLatency.getPercentile(aPercentile)
+				/ (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Gets the bytes allocated by the callers per request
+	 * 
+	 * @return the bytes per request, or -1 if not measured
+	 */
+	long getAllocationPerRequest() {
+		long count = mLatency.getCount();
+		return mAllocatedBytes < 0 || count == 0 ? -1 : mAllocatedBytes
+				/ count;
+	}
+
+	/**
+	 * Adds the values of this result to the properties
+	 * 
+	 * @param aProperties
+	 *            the properties, keyed by scenario name and value
+	 */
+	void store(Properties aProperties) {
+		String prefix = mScenario.getName() + ".";
+		aProperties.setProperty(prefix + THROUGHPUT,
+				String.format(Locale.ROOT, "%.1f", mMaxThroughput));
+		aProperties.setProperty(prefix + P50, String.format(Locale.ROOT, "%.3f",
+				getLatency(50)));
+		aProperties.setProperty(prefix + P99, String.format(Locale.ROOT, "%.3f",
+				getLatency(99)));
+		aProperties.setProperty(prefix + ALLOCATION,
+				Long.toString(getAllocationPerRequest()));
+	}
+
+	static String header() {
+		return String.format("%-28s %10s %9s %9s %9s %9s %9s %8s %7s %8s",
+				"scenario", "max req/s", "rate", "p50 ms", "p99 ms",
+				"p99.9 ms", "max ms", "failures", "gc", "KB/req");
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%-28s %10.1f %9.1f %9.2f %9.2f %9.2f %9.2f %8d %3d/%-4d %8.1f",
+				mScenario.getName(), mMaxThroughput, mRate, getLatency(50),
+				getLatency(99), getLatency(99.9), getLatency(100), mFailures,
+				mGcCount, mGcMillis, getAllocationPerRequest() / 1024.0);
+	}
+
+}
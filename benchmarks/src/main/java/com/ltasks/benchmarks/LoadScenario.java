@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+/**
+ * A combination of the load benchmark parameters.
+ */
+final class LoadScenario {
+
+	/** The documents sent, from a tweet to a large web page */
+	enum Document {
+
+		TWEET(280, false), ARTICLE(50 * 1024, false), PAGE(5 * 1024 * 1024,
+				true);
+
+		private final int mLength;
+
+		private final boolean mIsHtml;
+
+		Document(int aLength, boolean aIsHtml) {
+			mLength = aLength;
+			mIsHtml = aIsHtml;
+		}
+
+		/**
+		 * Gets the length of the document
+		 * 
+		 * @return the length in chars
+		 */
+		int getLength() {
+			return mLength;
+		}
+
+		/**
+		 * Tells if the document is sent as HTML
+		 * 
+		 * @return true for HTML, false for text
+		 */
+		boolean isHtml() {
+			return mIsHtml;
+		}
+
+		/**
+		 * Creates the document from the corpus
+		 * 
+		 * @return the document
+		 */
+		String create() {
+			return mIsHtml ? Fixtures.html(mLength) : Fixtures.text(mLength);
+		}
+
+	}
+
+	private final int mConcurrency;
+
+	private final boolean mIsGzip;
+
+	private final boolean mIsIncludeSourceText;
+
+	private final Document mDocument;
+
+	LoadScenario(int aConcurrency, boolean aIsGzip,
+			boolean aIsIncludeSourceText, Document aDocument) {
+		mConcurrency = aConcurrency;
+		mIsGzip = aIsGzip;
+		mIsIncludeSourceText = aIsIncludeSourceText;
+		mDocument = aDocument;
+	}
+
+	int getConcurrency() {
+		return mConcurrency;
+	}
+
+	boolean isGzip() {
+		return mIsGzip;
+	}
+
+	boolean isIncludeSourceText() {
+		return mIsIncludeSourceText;
+	}
+
+	Document getDocument() {
+		return mDocument;
+	}
+
+	/**
+	 * Gets the name of the scenario, used as key of the results
+	 * 
+	 * @return the name, like <code>tweet.c16.gzip.source</code>
+	 */
+	String getName() {
+		return mDocument.name().toLowerCase() + ".c" + mConcurrency
+				+ (mIsGzip ? ".gzip" : ".plain")
+				+ (mIsIncludeSourceText ? ".source" : ".nosource");
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+}
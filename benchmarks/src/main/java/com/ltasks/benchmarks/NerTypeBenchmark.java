@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ltasks.NerType;
+
+/**
+ * Looks up the entity types by their value, as the parser does for every
+ * entity. The values are fresh strings, like the ones the SAX parser returns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NerTypeBenchmark {
+
+	private String[] mValues;
+
+	private int mIndex;
+
+	@Setup
+	public void setUp() {
+		NerType[] types = NerType.values();
+		mValues = new String[types.length];
+		for (int i = 0; i < types.length; i++) {
+			mValues[i] = new String(types[i].value().toCharArray());
+		}
+	}
+
+	@Benchmark
+	public NerType fromValue() {
+		mIndex = (mIndex + 1) % mValues.length;
+		return NerType.fromValue(mValues[mIndex]);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ltasks.GZipPostMethod;
+
+/**
+ * Generates the request entity of a {@link GZipPostMethod} and writes it, as
+ * the connection would, to a stream that discards the bytes. The entity is
+ * encoded and compressed while it is written, so generating it alone would
+ * measure nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestEntityBenchmark {
+
+	/** The length of the text, from 1 KB to 10 MB */
+	@Param({ "1024", "65536", "1048576", "10485760" })
+	public int size;
+
+	@Param({ "true", "false" })
+	public boolean gzip;
+
+	/** If true the text is sent as a plain UTF-8 body instead of a form */
+	@Param({ "false", "true" })
+	public boolean raw;
+
+	private Post mMethod;
+
+	/** Exposes the entity, which is only generated when the method is sent */
+	private static final class Post extends GZipPostMethod {
+
+		Post(boolean aIsGzip) {
+			super("http://localhost/", aIsGzip);
+		}
+
+		RequestEntity entity() {
+			return generateRequestEntity();
+		}
+
+	}
+
+	/** Counts the bytes written and discards them */
+	private static final class CountingOutputStream extends OutputStream {
+
+		long mCount;
+
+		@Override
+		public void write(int b) {
+			mCount++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			mCount += len;
+		}
+
+	}
+
+	@Setup
+	public void setUp() {
+		mMethod = new Post(gzip);
+		if (raw) {
+			mMethod.setDocument(Fixtures.text(size), "text/plain; charset=utf-8");
+		} else {
+			mMethod.addParameter("apikey", "APIKEY");
+			mMethod.addParameter("text", Fixtures.text(size));
+		}
+	}
+
+	@Benchmark
+	public long generateAndWrite() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		mMethod.entity().writeRequest(out);
+		return out.mCount;
+	}
+
+}
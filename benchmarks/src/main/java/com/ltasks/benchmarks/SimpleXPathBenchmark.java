@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ltasks.htmlfilteroptions.SimpleXPath;
+
+/**
+ * Parses and formats the simplified XPath queries of the HTML filter options.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleXPathBenchmark {
+
+	private static final String QUERY = "//table|//sup[@title]|//span[@class='editsection']"
+			+ "|//div[@id='rodapé']|//p[@class='legenda']|//script";
+
+	private List<SimpleXPath> mXPaths;
+
+	@Setup
+	public void setUp() {
+		mXPaths = SimpleXPath.parse(QUERY);
+	}
+
+	@Benchmark
+	public List<SimpleXPath> parse() {
+		return SimpleXPath.parse(QUERY);
+	}
+
+	@Benchmark
+	public String toStringList() {
+		return SimpleXPath.toString(mXPaths);
+	}
+
+}
@@ -17,38 +17,124 @@
 
 package com.ltasks;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.NameValuePair;
 import org.xml.sax.SAXException;
 
+import com.ltasks.cache.CacheKey;
+import com.ltasks.cache.ResultCache;
 import com.ltasks.htmlfilteroptions.HtmlFilterOptions;
 import com.ltasks.htmlfilteroptions.SimpleXPath;
+import com.ltasks.metrics.ClientMetricsListener;
+import com.ltasks.metrics.RequestMetrics;
+import com.ltasks.resilience.AdaptiveConcurrencyLimiter;
+import com.ltasks.resilience.CircuitBreaker;
+import com.ltasks.resilience.CircuitOpenException;
+import com.ltasks.resilience.HedgingPolicy;
+import com.ltasks.resilience.RateLimiter;
+import com.ltasks.resilience.RetryPolicy;
+import com.ltasks.transport.CommonsHttpTransport;
+import com.ltasks.transport.Exchange;
+import com.ltasks.transport.Transport;
+import com.ltasks.transport.TransportRequest;
 
 /**
  * BaseClient implements common methods that should be used by different tasks.
  */
 public abstract class BaseClient {
 
+	private static final String USER_AGENT = "ltasks4j/0.0.3";
+
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded; charset=utf-8";
+
+	private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+
+	private static final String HTML_CONTENT_TYPE = "text/html; charset=utf-8";
+
+	/** Sends the hedges of all clients, a thread per hedge in flight */
+	private static final ExecutorService HEDGE_EXECUTOR = createHedgeExecutor();
+
 	/** The user API KEY */
 	private final String mApiKey;
 
-	/** The http client */
-	private HttpClient client;
+	/** Sends the blocking requests */
+	private volatile Transport mTransport;
+
+	/** The non-blocking http client, created on the first asynchronous call */
+	private volatile java.net.http.HttpClient mAsyncClient;
+
+	/** The connection pool, null if the client owns a single connection */
+	private final ConnectionPool mConnectionPool;
 
 	private boolean mIsIncludeSource;
 
 	private boolean mIsGZipContentEncoding;
 
+	private volatile int mCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+	private volatile int mCompressionBufferSize = GZipPostMethod.DEFAULT_BUFFER_SIZE;
+
+	/** Gives the deflaters, inflaters and buffers of the bodies */
+	private volatile CodecPool mCodecPool = CodecPool.getDefault();
+
+	/** The result cache, null if results are not cached */
+	private volatile ResultCache mResultCache;
+
+	/** Shares one response among concurrent identical requests */
+	private final SingleFlight mSingleFlight = new SingleFlight();
+
+	private volatile boolean mIsRequestCoalescing;
+
+	private volatile AdaptiveConcurrencyLimiter mConcurrencyLimiter;
+
+	private volatile RateLimiter mRateLimiter;
+
+	private volatile RetryPolicy mRetryPolicy;
+
+	private volatile HedgingPolicy mHedgingPolicy;
+
+	private volatile CircuitBreaker mCircuitBreaker;
+
+	private volatile boolean mIsCompactEntities;
+
+	/** if true documents are sent as plain UTF-8 bodies */
+	private volatile boolean mIsRawBody;
+
+	private final List<ClientMetricsListener> mMetricsListeners = new CopyOnWriteArrayList<ClientMetricsListener>();
+
 	/**
 	 * Creates a new BaseClient. By default will not include text source, and
 	 * communication not gzipped.
@@ -79,10 +165,42 @@ public abstract class BaseClient {
 	 */
 	public BaseClient(String aApiKey, boolean aIsIncludeSource,
 			boolean aIsGZipContentEncoding) throws IllegalArgumentException {
+		this(aApiKey, aIsIncludeSource, aIsGZipContentEncoding, null);
+	}
+
+	/**
+	 * Creates a new BaseClient that gets its connections from a pool. The
+	 * client is thread-safe and the pool can be shared with other clients.
+	 * 
+	 * @param aApiKey
+	 *            the user api key
+	 * @param aIsIncludeSource
+	 *            if to include the source text (default is true)
+	 * @param aIsGZipContentEncoding
+	 *            if true will gzip contents to communicate with server (default
+	 *            is true)
+	 * @param aConnectionPool
+	 *            the connection pool, or null to use a single connection that
+	 *            should not be used by more than one thread at a time
+	 * @throws IllegalArgumentException
+	 *             the api key does not conform with the standard
+	 *             representation.
+	 */
+	public BaseClient(String aApiKey, boolean aIsIncludeSource,
+			boolean aIsGZipContentEncoding, ConnectionPool aConnectionPool)
+			throws IllegalArgumentException {
 		validateApiKey(aApiKey);
 		mApiKey = aApiKey;
-		client = new HttpClient();
-		client.getParams().setParameter("http.useragent", "ltasks4j/0.0.3");
+		mConnectionPool = aConnectionPool;
+		HttpClient client;
+		if (aConnectionPool != null) {
+			client = new HttpClient(aConnectionPool.getConnectionManager());
+			client.getParams().setConnectionManagerTimeout(
+					aConnectionPool.getAcquireTimeout());
+		} else {
+			client = new HttpClient();
+		}
+		mTransport = new CommonsHttpTransport(client);
 		mIsIncludeSource = aIsIncludeSource;
 		mIsGZipContentEncoding = aIsGZipContentEncoding;
 	}
@@ -101,6 +219,410 @@ public abstract class BaseClient {
 		UUID.fromString(aApiKey);
 	}
 
+	/**
+	 * Gets the connection pool used by this client
+	 * 
+	 * @return the connection pool, or null if the client owns a single
+	 *         connection
+	 */
+	public ConnectionPool getConnectionPool() {
+		return mConnectionPool;
+	}
+
+	/**
+	 * Gets the transport of the blocking requests
+	 * 
+	 * @return the transport
+	 */
+	public Transport getTransport() {
+		return mTransport;
+	}
+
+	/**
+	 * Sets the transport of the blocking requests. The default is a
+	 * {@link CommonsHttpTransport} on the connection pool of the client, or on
+	 * a single connection. A {@link com.ltasks.transport.JdkHttpTransport}
+	 * multiplexes concurrent requests on a few HTTP/2 connections, and is not
+	 * limited by the connection pool. Requests already sent are not affected,
+	 * and the previous transport is not closed. Asynchronous requests always
+	 * use the JDK client.
+	 * 
+	 * @param aTransport
+	 *            the transport
+	 * @throws IllegalArgumentException
+	 *             if the transport is null, or requests are hedged and it
+	 *             runs one request at a time
+	 */
+	public void setTransport(Transport aTransport)
+			throws IllegalArgumentException {
+		if (aTransport == null) {
+			throw new IllegalArgumentException(
+					"the transport can not be null.");
+		}
+		if (mHedgingPolicy != null && aTransport.getMaxConcurrency() < 2) {
+			throw new IllegalArgumentException(
+					"hedged requests need a transport that runs concurrent requests.");
+		}
+		mTransport = aTransport;
+	}
+
+	/**
+	 * Gets the pool of the deflaters, inflaters and buffers that gzip and
+	 * encode the request and response bodies
+	 * 
+	 * @return the pool
+	 */
+	public CodecPool getCodecPool() {
+		return mCodecPool;
+	}
+
+	/**
+	 * Sets the pool of the deflaters, inflaters and buffers that gzip and
+	 * encode the request and response bodies. The default is the
+	 * {@link CodecPool#getDefault() default pool}, shared by all clients.
+	 * 
+	 * @param aCodecPool
+	 *            the pool
+	 * @throws IllegalArgumentException
+	 *             if the pool is null
+	 */
+	public void setCodecPool(CodecPool aCodecPool)
+			throws IllegalArgumentException {
+		if (aCodecPool == null) {
+			throw new IllegalArgumentException(
+					"the codec pool can not be null.");
+		}
+		mCodecPool = aCodecPool;
+	}
+
+	/**
+	 * Gets the maximum number of blocking requests that can run at the same
+	 * time, as reported by the transport in use.
+	 */
+	int getConcurrencyLimit() {
+		return mTransport.getMaxConcurrency();
+	}
+
+	/**
+	 * Gets the compression level of gzipped requests
+	 * 
+	 * @return the compression level, from 0 to 9, or -1 for the default
+	 */
+	public int getCompressionLevel() {
+		return mCompressionLevel;
+	}
+
+	/**
+	 * Sets the compression level of gzipped requests. Lower levels use less
+	 * CPU, higher levels send fewer bytes.
+	 * 
+	 * @param aCompressionLevel
+	 *            the compression level, from 0 to 9, or -1 for the default
+	 * @throws IllegalArgumentException
+	 *             if the level is out of range
+	 */
+	public void setCompressionLevel(int aCompressionLevel)
+			throws IllegalArgumentException {
+		if (aCompressionLevel < Deflater.DEFAULT_COMPRESSION
+				|| aCompressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException(
+					"the compression level must be between -1 and 9.");
+		}
+		mCompressionLevel = aCompressionLevel;
+	}
+
+	/**
+	 * Gets the size of the buffers used to encode and compress requests and
+	 * to decompress responses
+	 * 
+	 * @return the buffer size in bytes
+	 */
+	public int getCompressionBufferSize() {
+		return mCompressionBufferSize;
+	}
+
+	/**
+	 * Sets the size of the buffers used to encode and compress requests and
+	 * to decompress responses. The request body is streamed to the
+	 * connection, so this is all the memory a request body takes, whatever
+	 * the document size. The buffers are reused from the
+	 * {@link #getCodecPool() codec pool}, which keeps them by size.
+	 * 
+	 * @param aBufferSize
+	 *            the buffer size in bytes
+	 * @throws IllegalArgumentException
+	 *             if the size is not positive
+	 */
+	public void setCompressionBufferSize(int aBufferSize)
+			throws IllegalArgumentException {
+		if (aBufferSize <= 0) {
+			throw new IllegalArgumentException(
+					"the buffer size must be positive.");
+		}
+		mCompressionBufferSize = aBufferSize;
+	}
+
+	/**
+	 * Gets the result cache
+	 * 
+	 * @return the result cache, or null if results are not cached
+	 */
+	public ResultCache getResultCache() {
+		return mResultCache;
+	}
+
+	/**
+	 * Sets a cache of results. A document already annotated with the same
+	 * options is answered from the cache without calling the server. Calls
+	 * that stream entities to a {@link NamedEntityListener} skip the cache.
+	 * 
+	 * @param aResultCache
+	 *            the result cache, or null to disable caching
+	 */
+	public void setResultCache(ResultCache aResultCache) {
+		mResultCache = aResultCache;
+	}
+
+	/**
+	 * Checks if concurrent identical requests are coalesced
+	 * 
+	 * @return true if concurrent identical requests are coalesced
+	 */
+	public boolean isRequestCoalescing() {
+		return mIsRequestCoalescing;
+	}
+
+	/**
+	 * Sets if concurrent identical requests are coalesced. When enabled, a
+	 * request with the same parameters as one already in flight does not call
+	 * the server: it waits for the request in flight and gets the same result,
+	 * or the same failure. Requests that stream entities to a
+	 * {@link NamedEntityListener} are never coalesced. Disabled by default.
+	 * 
+	 * @param aIsRequestCoalescing
+	 *            true to coalesce concurrent identical requests
+	 */
+	public void setRequestCoalescing(boolean aIsRequestCoalescing) {
+		mIsRequestCoalescing = aIsRequestCoalescing;
+	}
+
+	/**
+	 * Gets the number of requests answered by an identical request in flight
+	 * instead of calling the server
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalescedRequestCount() {
+		return mSingleFlight.getCoalescedCount();
+	}
+
+	/**
+	 * Gets the limiter of requests in flight
+	 * 
+	 * @return the concurrency limiter, or null if not limited
+	 */
+	public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+		return mConcurrencyLimiter;
+	}
+
+	/**
+	 * Sets the limiter of requests in flight. Each request, blocking or
+	 * asynchronous, waits for a permit before it is sent, and the limit adapts
+	 * to the latency and the status of the responses, so the client backs off
+	 * when the service slows down or throttles. By default requests are not
+	 * limited.
+	 * 
+	 * @param aConcurrencyLimiter
+	 *            the concurrency limiter, or null to not limit requests
+	 */
+	public void setConcurrencyLimiter(
+			AdaptiveConcurrencyLimiter aConcurrencyLimiter) {
+		mConcurrencyLimiter = aConcurrencyLimiter;
+	}
+
+	/**
+	 * Gets the limiter of the request rate
+	 * 
+	 * @return the rate limiter, or null if not limited
+	 */
+	public RateLimiter getRateLimiter() {
+		return mRateLimiter;
+	}
+
+	/**
+	 * Sets the limiter of the request rate. Requests wait for a token before
+	 * they are sent. Clients using the same API key should share a limiter.
+	 * By default the rate is not limited.
+	 * 
+	 * @param aRateLimiter
+	 *            the rate limiter, or null to not limit the rate
+	 */
+	public void setRateLimiter(RateLimiter aRateLimiter) {
+		mRateLimiter = aRateLimiter;
+	}
+
+	/**
+	 * Gets the policy that retries failed requests
+	 * 
+	 * @return the retry policy, or null if requests are not retried
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return mRetryPolicy;
+	}
+
+	/**
+	 * Sets the policy that retries failed requests, blocking or asynchronous,
+	 * that got a retryable status or failed with a retryable exception. Each
+	 * attempt goes through the limiters. A request streaming entities to a
+	 * {@link NamedEntityListener} is not retried once its result started to be
+	 * read. By default requests are not retried.
+	 * 
+	 * @param aRetryPolicy
+	 *            the retry policy, or null to not retry requests
+	 */
+	public void setRetryPolicy(RetryPolicy aRetryPolicy) {
+		mRetryPolicy = aRetryPolicy;
+	}
+
+	/**
+	 * Gets the policy that hedges slow requests
+	 * 
+	 * @return the hedging policy, or null if requests are not hedged
+	 */
+	public HedgingPolicy getHedgingPolicy() {
+		return mHedgingPolicy;
+	}
+
+	/**
+	 * Sets the policy that hedges slow requests. A blocking request still
+	 * running after the hedging delay is sent again, and the first response
+	 * wins; the other request is aborted and its connection released. Each
+	 * request retries on its own. Requests streaming entities to a
+	 * {@link NamedEntityListener} and asynchronous requests are not hedged.
+	 * By default requests are not hedged.
+	 * 
+	 * @param aHedgingPolicy
+	 *            the hedging policy, or null to not hedge requests
+	 * @throws IllegalArgumentException
+	 *             if the transport runs one request at a time, as the
+	 *             default transport does without a {@link ConnectionPool}
+	 */
+	public void setHedgingPolicy(HedgingPolicy aHedgingPolicy)
+			throws IllegalArgumentException {
+		if (aHedgingPolicy != null && getConcurrencyLimit() < 2) {
+			throw new IllegalArgumentException(
+					"hedged requests need a transport that runs concurrent requests.");
+		}
+		mHedgingPolicy = aHedgingPolicy;
+	}
+
+	/**
+	 * Gets the circuit breaker of the requests
+	 * 
+	 * @return the circuit breaker, or null if requests are always sent
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return mCircuitBreaker;
+	}
+
+	/**
+	 * Sets the circuit breaker of the requests. Each attempt, blocking or
+	 * asynchronous, asks the breaker before it is sent and reports its
+	 * outcome. While the breaker is open requests fail at once with a
+	 * {@link CircuitOpenException}. By default requests are always sent.
+	 * 
+	 * @param aCircuitBreaker
+	 *            the circuit breaker, or null to always send requests
+	 */
+	public void setCircuitBreaker(CircuitBreaker aCircuitBreaker) {
+		mCircuitBreaker = aCircuitBreaker;
+	}
+
+	/**
+	 * Tells if the results include the source text, as normalized by the
+	 * server
+	 * 
+	 * @return true if the source text is asked to the server
+	 */
+	public boolean isIncludeSourceText() {
+		return mIsIncludeSource;
+	}
+
+	/**
+	 * Tells if the entities of the results are stored in compact columns
+	 * 
+	 * @return true if they are compact
+	 */
+	public boolean isCompactEntities() {
+		return mIsCompactEntities;
+	}
+
+	/**
+	 * Stores the entities of the results in compact columns: arrays of
+	 * offsets and types, with the entity texts read from the source text when
+	 * asked. A result then retains a small fraction of the memory of a list
+	 * of {@link NamedEntity} objects, which matters for pages with many
+	 * entities. The list returns a new view on each get, so entities should be
+	 * compared with equals. Default is false.
+	 * 
+	 * @param aIsCompactEntities
+	 *            if true the entities are stored in compact columns
+	 */
+	public void setCompactEntities(boolean aIsCompactEntities) {
+		mIsCompactEntities = aIsCompactEntities;
+	}
+
+	/**
+	 * Tells if texts and HTMLs are sent as plain UTF-8 bodies
+	 * 
+	 * @return true if they are not url-encoded
+	 */
+	public boolean isRawBody() {
+		return mIsRawBody;
+	}
+
+	/**
+	 * Sends the text or HTML of a request as a plain UTF-8 body, gzipped if
+	 * this client uses gzip, with the content type <code>text/plain</code> or
+	 * <code>text/html</code>. The API key, the flags and the filter options
+	 * go in the query string. Url-encoding writes every UTF-8 byte of an
+	 * accented character as a three byte escape, so &aacute; takes six bytes
+	 * (<code>%C3%A1</code>) instead of two and a Portuguese text is up to three
+	 * times larger in a form than in UTF-8. URL requests are still sent as
+	 * forms. The server must accept plain bodies. Default is false.
+	 * 
+	 * @param aIsRawBody
+	 *            if true texts and HTMLs are not url-encoded
+	 */
+	public void setRawBody(boolean aIsRawBody) {
+		mIsRawBody = aIsRawBody;
+	}
+
+	/**
+	 * Adds a listener of the metrics of each request: the time spent in each
+	 * {@link com.ltasks.metrics.Phase}, the bytes sent and received, the
+	 * number of entities and the status. A
+	 * {@link com.ltasks.metrics.ClientMetrics} aggregates them in histograms
+	 * and exposes them through JMX. Metrics are only measured while the
+	 * client has listeners.
+	 * 
+	 * @param aListener
+	 *            the listener
+	 */
+	public void addMetricsListener(ClientMetricsListener aListener) {
+		mMetricsListeners.add(aListener);
+	}
+
+	/**
+	 * Removes a listener of the metrics of each request
+	 * 
+	 * @param aListener
+	 *            the listener
+	 */
+	public void removeMetricsListener(ClientMetricsListener aListener) {
+		mMetricsListeners.remove(aListener);
+	}
+
 	/**
 	 * The resource URL.
 	 */
@@ -121,69 +643,821 @@ public abstract class BaseClient {
 	 */
 	protected LtasksObject post(List<NameValuePair> data) throws HttpException,
 			IOException, IllegalArgumentException {
-		GZipPostMethod method = new GZipPostMethod(getResourceUrl(),
-				mIsGZipContentEncoding);
+		return post(data, null);
+	}
+
+	/**
+	 * Post the data to the remote resource, streaming the entities to a
+	 * listener while the response is read from the network.
+	 * 
+	 * @param data
+	 *            the data to post
+	 * @param aListener
+	 *            receives the entities, or null to collect them in the result
+	 * @return the returned object. If a listener was given its entity list is
+	 *         empty.
+	 * @throws HttpException
+	 *             Got a protocol error.
+	 * @throws IOException
+	 *             Failed to communicate or to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	protected LtasksObject post(List<NameValuePair> data,
+			NamedEntityListener aListener) throws HttpException, IOException,
+			IllegalArgumentException {
+		return postBody(createRequestBody(data), aListener);
+	}
+
+	/**
+	 * Post a complete request body, with the parameters common to all
+	 * requests.
+	 */
+	LtasksObject postBody(final NameValuePair[] body,
+			NamedEntityListener aListener) throws HttpException, IOException,
+			IllegalArgumentException {
+		ResultCache cache = mResultCache;
+		boolean isCoalescing = mIsRequestCoalescing;
+		if (aListener != null || (cache == null && !isCoalescing)) {
+			return execute(body, aListener);
+		}
+		CacheKey key = createCacheKey(body);
+		if (cache != null) {
+			LtasksObject cached = cache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		LtasksObject result;
+		if (isCoalescing) {
+			result = mSingleFlight.execute(key, new SingleFlight.Call() {
+				public LtasksObject call() throws IOException {
+					return execute(body, null);
+				}
+			});
+		} else {
+			result = execute(body, null);
+		}
+		if (cache != null) {
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Sends the request body to the remote resource, hedging it if enabled.
+	 */
+	private LtasksObject execute(NameValuePair[] body,
+			NamedEntityListener aListener) throws HttpException, IOException,
+			IllegalArgumentException {
+		HedgingPolicy hedgingPolicy = mHedgingPolicy;
+		if (hedgingPolicy == null || aListener != null) {
+			return execute(body, aListener, null);
+		}
+		return executeHedged(body, hedgingPolicy);
+	}
+
+	/**
+	 * Sends the request body, and a duplicate if it is still running after
+	 * the hedging delay. The first response wins and the other request is
+	 * aborted.
+	 */
+	private LtasksObject executeHedged(final NameValuePair[] body,
+			final HedgingPolicy hedgingPolicy) throws HttpException,
+			IOException, IllegalArgumentException {
+		final long start = System.nanoTime();
+		final Cancellation primary = new Cancellation();
+		final Cancellation hedge = new Cancellation();
+		final CompletableFuture<LtasksObject> hedgeResult = new CompletableFuture<LtasksObject>();
+		hedgingPolicy.onRequest();
+		Executor delayed = CompletableFuture.delayedExecutor(
+				hedgingPolicy.getDelayNanos(), TimeUnit.NANOSECONDS,
+				HEDGE_EXECUTOR);
+		delayed.execute(new Runnable() {
+			public void run() {
+				if (!hedge.start() || !hedgingPolicy.tryHedge()) {
+					hedgeResult.cancel(false);
+					return;
+				}
+				try {
+					LtasksObject result = execute(body, null, hedge);
+					if (primary.cancel()) {
+						hedgingPolicy.onHedgeWin();
+					}
+					hedgeResult.complete(result);
+				} catch (Throwable e) {
+					hedgeResult.completeExceptionally(e);
+				}
+			}
+		});
+
+		try {
+			LtasksObject result = execute(body, null, primary);
+			// done: a hedge completing now is not a win
+			primary.cancel();
+			hedge.cancel();
+			hedgingPolicy.onLatency(System.nanoTime() - start);
+			return result;
+		} catch (IOException e) {
+			return awaitHedge(hedge, hedgeResult, e, hedgingPolicy, start);
+		} catch (RuntimeException e) {
+			return awaitHedge(hedge, hedgeResult, e, hedgingPolicy, start);
+		}
+	}
+
+	/**
+	 * Gets the result of the hedge after the original request failed or was
+	 * aborted, or throws the failure if there is no hedge.
+	 */
+	private static <E extends Exception> LtasksObject awaitHedge(
+			Cancellation aHedge, CompletableFuture<LtasksObject> aHedgeResult,
+			E aFailure, HedgingPolicy aHedgingPolicy, long aStart) throws E,
+			IOException {
+		if (aHedge.cancelIfNotStarted()) {
+			// never sent: the failure is final
+			throw aFailure;
+		}
+		try {
+			LtasksObject result = aHedgeResult.get();
+			// the original took at least this long
+			aHedgingPolicy.onLatency(System.nanoTime() - aStart);
+			return result;
+		} catch (InterruptedException e) {
+			aHedge.cancel();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for a hedged request.");
+		} catch (ExecutionException e) {
+			throw aFailure;
+		} catch (CancellationException e) {
+			throw aFailure;
+		}
+	}
+
+	/**
+	 * Sends the request body to the remote resource, recording its metrics
+	 * if there are listeners.
+	 * 
+	 * @param aCancellation
+	 *            aborts the request when cancelled, or null
+	 */
+	private LtasksObject execute(NameValuePair[] body,
+			NamedEntityListener aListener, Cancellation aCancellation)
+			throws HttpException, IOException, IllegalArgumentException {
+		Recorder recorder = newRecorder();
+		if (recorder == null) {
+			return execute(body, aListener, aCancellation, null);
+		}
+		Throwable failure = null;
+		try {
+			return execute(body, aListener, aCancellation, recorder);
+		} catch (IOException e) {
+			failure = e;
+			throw e;
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} finally {
+			publish(recorder, failure);
+		}
+	}
+
+	/**
+	 * Sends the request body to the remote resource, retrying it if enabled.
+	 * 
+	 * @param aCancellation
+	 *            aborts the request when cancelled, or null
+	 * @param aRecorder
+	 *            records the metrics, or null
+	 */
+	private LtasksObject execute(NameValuePair[] body,
+			NamedEntityListener aListener, Cancellation aCancellation,
+			Recorder aRecorder) throws HttpException, IOException,
+			IllegalArgumentException {
+		RetryPolicy retryPolicy = mRetryPolicy;
+		RetryPolicy.Execution retry = retryPolicy == null ? null
+				: retryPolicy.newExecution();
+		while (true) {
+			CircuitBreaker breaker = mCircuitBreaker;
+			if (breaker != null) {
+				breaker.acquire();
+			}
+			Exchange exchange = null;
+			AdaptiveConcurrencyLimiter.Permit permit = null;
+			boolean isStreaming = false;
+			// when the request was sent, and if it failed for the breaker
+			long sent = 0;
+			Boolean isFailure = null;
+			int code = -1;
+			try {
+				// created once the breaker lets it through, so it is always
+				// released below
+				exchange = mTransport.newExchange(createRequest(body,
+						aRecorder));
+				RateLimiter rateLimiter = mRateLimiter;
+				if (rateLimiter != null) {
+					rateLimiter.acquire();
+				}
+				AdaptiveConcurrencyLimiter limiter = mConcurrencyLimiter;
+				if (limiter != null) {
+					permit = limiter.acquire();
+				}
+				if (aCancellation != null && !aCancellation.begin(exchange)) {
+					throw new InterruptedIOException("Request cancelled.");
+				}
+				sent = System.nanoTime();
+				if (aRecorder != null) {
+					aRecorder.startExchange();
+				}
+				code = exchange.execute();
+				if (aRecorder != null) {
+					aRecorder.endExchange(code);
+				}
+				// the latency of the service, as in the asynchronous path,
+				// without the parsing and the listener
+				if (permit != null) {
+					permit.onResponse(code);
+				}
+				isFailure = code >= 500;
+				if (retry == null
+						|| !retry.canRetry(code,
+								exchange.getResponseHeader("Retry-After"))) {
+					isStreaming = aListener != null;
+					String encoding = exchange
+							.getResponseHeader("Content-Encoding");
+					return readResult(code, exchange.getResponseBody(),
+							encoding != null && encoding.contains("gzip"),
+							aListener, aRecorder);
+				}
+			} catch (ConnectionPoolTimeoutException e) {
+				// the local pool is exhausted, the service is not to blame
+				if (retry == null || !retry.canRetry(e)) {
+					throw e;
+				}
+			} catch (IOException e) {
+				boolean isCancelled = aCancellation != null
+						&& aCancellation.isCancelled();
+				if (permit != null && !isCancelled) {
+					permit.onFailure();
+				}
+				if (sent != 0 && !isCancelled) {
+					isFailure = Boolean.TRUE;
+				}
+				// entities given to the listener can not be taken back
+				if (retry == null || isStreaming || isCancelled
+						|| !retry.canRetry(e)) {
+					throw e;
+				}
+			} finally {
+				if (aRecorder != null && sent != 0 && code < 0) {
+					// sent without a response
+					aRecorder.endExchange(-1);
+				}
+				if (permit != null) {
+					permit.release();
+				}
+				if (breaker != null) {
+					if (isFailure == null) {
+						breaker.onIgnored();
+					} else {
+						breaker.onResult(isFailure, System.nanoTime() - sent);
+					}
+				}
+				// always give the connection back, or a pooled client would
+				// leak it when the request fails
+				if (exchange != null) {
+					exchange.release();
+				}
+			}
+			retry.pause();
+		}
+	}
+
+	/**
+	 * Creates the request that sends the request body.
+	 */
+	private TransportRequest createRequest(NameValuePair[] body,
+			Recorder aRecorder) {
+		int document = findDocument(body);
+		String contentType = getContentType(body, document);
+		StreamingFormRequestEntity entity;
+		if (document < 0) {
+			entity = new StreamingFormRequestEntity(body,
+					mIsGZipContentEncoding, mCompressionLevel,
+					mCompressionBufferSize, aRecorder, mCodecPool);
+		} else {
+			entity = new StreamingFormRequestEntity(body[document].getValue(),
+					contentType, mIsGZipContentEncoding, mCompressionLevel,
+					mCompressionBufferSize, aRecorder, mCodecPool);
+		}
+		TransportRequest request = new TransportRequest(createUrl(body,
+				document), entity);
 
 		// Set input content type
-		method.setRequestHeader("Content-Type",
-				"application/x-www-form-urlencoded; charset=utf-8");
+		request.setHeader("Content-Type", contentType);
 
 		// Set response/output format
-		method.setRequestHeader("Accept", "application/xml");
+		request.setHeader("Accept", "application/xml");
 
-		method.setRequestHeader("Accept-Charset", "utf-8");
-		
+		request.setHeader("Accept-Charset", "utf-8");
+
+		request.setHeader("User-Agent", USER_AGENT);
+
+		if (mIsGZipContentEncoding) {
+			request.setHeader("Accept-Encoding", "gzip");
+			request.setHeader("Content-Encoding", "gzip");
+		}
+		return request;
+	}
+
+	/**
+	 * Post the data to the remote resource without blocking the calling
+	 * thread. The request is sent by a non-blocking http client shared by all
+	 * asynchronous calls of this client, so many requests can be in flight
+	 * using only a few threads. This method is thread-safe even if the client
+	 * does not use a {@link ConnectionPool}.
+	 * 
+	 * @param data
+	 *            the data to post
+	 * @return a future that completes with the returned object, or
+	 *         exceptionally with an {@link IOException} if it failed to
+	 *         communicate, or an {@link IllegalArgumentException} if the data
+	 *         received from server was invalid.
+	 */
+	protected CompletableFuture<LtasksObject> postAsync(
+			List<NameValuePair> data) {
+		return postBodyAsync(createRequestBody(data));
+	}
+
+	/**
+	 * Post a complete request body without blocking the calling thread.
+	 */
+	CompletableFuture<LtasksObject> postBodyAsync(final NameValuePair[] body) {
+		final ResultCache cache = mResultCache;
+		boolean isCoalescing = mIsRequestCoalescing;
+		if (cache == null && !isCoalescing) {
+			return executeAsync(body);
+		}
+		final CacheKey key = createCacheKey(body);
+		if (cache != null) {
+			LtasksObject cached = cache.get(key);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+		}
+		CompletableFuture<LtasksObject> result = isCoalescing ? mSingleFlight
+				.executeAsync(key, () -> executeAsync(body))
+				: executeAsync(body);
+		if (cache == null) {
+			return result;
+		}
+		return result.thenApply(value -> {
+			cache.put(key, value);
+			return value;
+		});
+	}
+
+	/**
+	 * Sends the request body to the remote resource without blocking.
+	 */
+	private CompletableFuture<LtasksObject> executeAsync(NameValuePair[] body) {
+		final Recorder recorder = newRecorder();
+		int document = findDocument(body);
+		byte[] content;
+		try {
+			content = encodeRequestBody(body, document, recorder);
+		} catch (IOException e) {
+			if (recorder != null) {
+				publish(recorder, e);
+			}
+			return CompletableFuture.failedFuture(e);
+		}
+
+		HttpRequest.Builder request = HttpRequest
+				.newBuilder(URI.create(createUrl(body, document)))
+				.header("Content-Type", getContentType(body, document))
+				.header("Accept", "application/xml")
+				.header("Accept-Charset", "utf-8")
+				.header("User-Agent", USER_AGENT)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(content));
+		if (mIsGZipContentEncoding) {
+			request.header("Accept-Encoding", "gzip");
+			request.header("Content-Encoding", "gzip");
+		}
+
+		RetryPolicy retryPolicy = mRetryPolicy;
+		CompletableFuture<LtasksObject> result = attemptAsync(request.build(),
+				retryPolicy == null ? null : retryPolicy.newExecution(),
+				recorder).thenApply(response -> readResult(response, recorder));
+		if (recorder == null) {
+			return result;
+		}
+		return result.whenComplete((value, error) -> publish(recorder,
+				error instanceof CompletionException && error.getCause() != null
+						? error.getCause() : error));
+	}
+
+	/**
+	 * Sends a request without blocking, retrying it as the policy allows.
+	 */
+	private CompletableFuture<HttpResponse<byte[]>> attemptAsync(
+			final HttpRequest request, final RetryPolicy.Execution retry,
+			final Recorder recorder) {
+		CompletableFuture<HttpResponse<byte[]>> response = send(request,
+				recorder);
+		if (retry == null) {
+			return response;
+		}
+		return response.handle((value, error) -> {
+			if (error == null) {
+				if (!retry.canRetry(value.statusCode(), value.headers()
+						.firstValue("Retry-After").orElse(null))) {
+					return CompletableFuture.completedFuture(value);
+				}
+			} else {
+				Throwable cause = error instanceof CompletionException
+						&& error.getCause() != null ? error.getCause() : error;
+				if (!(cause instanceof IOException)
+						|| !retry.canRetry((IOException) cause)) {
+					return CompletableFuture
+							.<HttpResponse<byte[]>> failedFuture(cause);
+				}
+			}
+			return retry.pauseAsync().thenCompose(
+					v -> attemptAsync(request, retry, recorder));
+		}).thenCompose(next -> next);
+	}
+
+	/**
+	 * Sends a request without blocking, once the circuit breaker and the
+	 * limiters allow it.
+	 */
+	private CompletableFuture<HttpResponse<byte[]>> send(
+			final HttpRequest request, final Recorder recorder) {
+		final CircuitBreaker breaker = mCircuitBreaker;
+		if (breaker != null) {
+			try {
+				breaker.acquire();
+			} catch (CircuitOpenException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+		RateLimiter rateLimiter = mRateLimiter;
+		CompletableFuture<Void> ready = rateLimiter == null ? CompletableFuture
+				.completedFuture(null) : rateLimiter.acquireAsync();
+		final AdaptiveConcurrencyLimiter limiter = mConcurrencyLimiter;
+		CompletableFuture<AdaptiveConcurrencyLimiter.Permit> permitted = limiter == null ? ready
+				.thenApply(v -> null) : ready.thenCompose(v -> limiter
+				.acquireAsync());
+		if (breaker != null) {
+			permitted = permitted.whenComplete((permit, error) -> {
+				if (error != null) {
+					// never sent
+					breaker.onIgnored();
+				}
+			});
+		}
+		return permitted.thenCompose(permit -> exchange(request, breaker,
+				permit, recorder));
+	}
+
+	/**
+	 * Sends a request without blocking, reporting its outcome to the circuit
+	 * breaker, the limiter and the recorder.
+	 */
+	private CompletableFuture<HttpResponse<byte[]>> exchange(
+			HttpRequest request, final CircuitBreaker breaker,
+			final AdaptiveConcurrencyLimiter.Permit permit,
+			final Recorder recorder) {
+		final long sent = System.nanoTime();
+		if (recorder != null) {
+			recorder.startExchange();
+		}
+		CompletableFuture<HttpResponse<byte[]>> response;
+		try {
+			response = getAsyncClient().sendAsync(request,
+					HttpResponse.BodyHandlers.ofByteArray());
+		} catch (RuntimeException e) {
+			// not sent: the probe and the permit say nothing about the service
+			if (recorder != null) {
+				recorder.endExchange(-1);
+			}
+			if (permit != null) {
+				permit.release();
+			}
+			if (breaker != null) {
+				breaker.onIgnored();
+			}
+			return CompletableFuture.failedFuture(e);
+		}
+		return response.whenComplete(
+				(value, error) -> {
+					if (recorder != null) {
+						recorder.endExchange(error != null ? -1 : value
+								.statusCode());
+					}
+					if (permit != null) {
+						if (error != null) {
+							permit.onFailure();
+						} else {
+							permit.onResponse(value.statusCode());
+						}
+					}
+					if (breaker != null) {
+						breaker.onResult(
+								error != null || value.statusCode() >= 500,
+								System.nanoTime() - sent);
+					}
+				});
+	}
+
+	/**
+	 * Reads the result of an asynchronous request.
+	 */
+	private LtasksObject readResult(HttpResponse<byte[]> response,
+			Recorder recorder) {
+		try {
+			return readResult(response.statusCode(), new ByteArrayInputStream(
+					response.body()), response.headers()
+					.firstValue("Content-Encoding").orElse("")
+					.contains("gzip"), null, recorder);
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Creates the recorder of a request, or null if nobody listens to the
+	 * metrics.
+	 */
+	private Recorder newRecorder() {
+		return mMetricsListeners.isEmpty() ? null : new Recorder();
+	}
+
+	/**
+	 * Gives the metrics of a completed request to the listeners.
+	 */
+	private void publish(Recorder aRecorder, Throwable aFailure) {
+		RequestMetrics metrics = aRecorder.toMetrics(aFailure);
+		for (ClientMetricsListener listener : mMetricsListeners) {
+			try {
+				listener.onRequest(metrics);
+			} catch (RuntimeException e) {
+				// a broken listener must not fail the request
+			}
+		}
+	}
+
+	/**
+	 * Creates the request body: the data plus the parameters common to all
+	 * requests. An includeSourceText in the data overrides the client one.
+	 */
+	private NameValuePair[] createRequestBody(List<NameValuePair> data) {
 		List<NameValuePair> body = new ArrayList<NameValuePair>(data.size() + 2);
 		body.addAll(data);
 		body.add(new NameValuePair("apikey", mApiKey));
-		body.add(new NameValuePair("includeSourceText",
-						Boolean.toString(mIsIncludeSource)));
+		boolean hasIncludeSource = false;
+		for (NameValuePair pair : data) {
+			hasIncludeSource |= "includeSourceText".equals(pair.getName());
+		}
+		if (!hasIncludeSource) {
+			body.add(new NameValuePair("includeSourceText",
+					Boolean.toString(mIsIncludeSource)));
+		}
+		return body.toArray(new NameValuePair[body.size()]);
+	}
 
-		method.setRequestBody(body.toArray(new NameValuePair[body.size()]));
-		method.setContentChunked(true);
+	/**
+	 * Encodes once the constant parameters of many requests, with the
+	 * parameters common to all requests. A request body is then the variable
+	 * parameters followed by the encoded ones.
+	 * 
+	 * @param data
+	 *            the constant parameters
+	 * @return the encoded parameters
+	 */
+	NameValuePair compileParameters(List<NameValuePair> data) {
+		return FormEncoder.compile(createRequestBody(data));
+	}
 
-		if (mIsGZipContentEncoding) {
-			method.setRequestHeader("Accept-Encoding", "gzip");
-			method.setRequestHeader("Content-Encoding", "gzip");
+	/**
+	 * Creates the cache key of a request: a SHA-256 hash of the resource URL
+	 * and the url-encoded body, computed without copying the body.
+	 */
+	private CacheKey createCacheKey(NameValuePair[] body) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform must support SHA-256
+			throw new IllegalStateException(e);
 		}
-
-		boolean processedOk = false;
-		int code = client.executeMethod(method);
-		if (code == 200) {
-			processedOk = true;
+		digest.update(getResourceUrl().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '?');
+		try {
+			new FormEncoder(new DigestOutputStream(
+					OutputStream.nullOutputStream(), digest), 4096).write(body);
+		} catch (IOException e) {
+			// the null stream never fails
+			throw new IllegalStateException(e);
 		}
-		InputStream is;
-		if (method.getResponseHeader("Content-Encoding") != null && method.getResponseHeader("Content-Encoding").getValue().contains("gzip")) {
-			is = new GZIPInputStream(method.getResponseBodyAsStream());
+		return new CacheKey(digest.digest());
+	}
+
+	/**
+	 * Url-encodes the request body, or writes its document as plain UTF-8,
+	 * gzipping it if this client uses gzip.
+	 */
+	private byte[] encodeRequestBody(NameValuePair[] body, int document,
+			Recorder recorder) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		if (document < 0) {
+			new StreamingFormRequestEntity(body, mIsGZipContentEncoding,
+					mCompressionLevel, mCompressionBufferSize, recorder,
+					mCodecPool).writeRequest(baos);
 		} else {
-			is = method.getResponseBodyAsStream();
+			new StreamingFormRequestEntity(body[document].getValue(),
+					getContentType(body, document), mIsGZipContentEncoding,
+					mCompressionLevel, mCompressionBufferSize, recorder,
+					mCodecPool).writeRequest(baos);
 		}
+		return baos.toByteArray();
+	}
 
-		LtasksObject result = null;
-		if (is != null) {
+	/**
+	 * Finds the document of a request that is sent as a plain body.
+	 * 
+	 * @return its index in the body, or -1 to send a form
+	 */
+	private int findDocument(NameValuePair[] body) {
+		if (!mIsRawBody) {
+			return -1;
+		}
+		for (int i = 0; i < body.length; i++) {
+			String name = body[i].getName();
+			if (("text".equals(name) || "html".equals(name))
+					&& body[i].getValue() != null) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates the request URL: the resource URL, with the parameters in the
+	 * query string if the document is sent as a plain body.
+	 */
+	private String createUrl(NameValuePair[] body, int document) {
+		String url = getResourceUrl();
+		if (document < 0) {
+			return url;
+		}
+		NameValuePair[] query = new NameValuePair[body.length - 1];
+		for (int i = 0, j = 0; i < body.length; i++) {
+			if (i != document) {
+				query[j++] = body[i];
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			new FormEncoder(out, 256).write(query);
+		} catch (IOException e) {
+			// a byte array stream never fails
+			throw new IllegalStateException(e);
+		}
+		return url + (url.indexOf('?') < 0 ? '?' : '&')
+				+ new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	private static String getContentType(NameValuePair[] body, int document) {
+		if (document < 0) {
+			return FORM_CONTENT_TYPE;
+		}
+		return "html".equals(body[document].getName()) ? HTML_CONTENT_TYPE
+				: TEXT_CONTENT_TYPE;
+	}
+
+	/**
+	 * Reads the result from a response body.
+	 * 
+	 * @param aCode
+	 *            the http status code
+	 * @param aBody
+	 *            the response body, can be null
+	 * @param aIsGZipped
+	 *            if true the body is gzipped
+	 * @param aListener
+	 *            receives the entities, or null to collect them in the result
+	 * @param aRecorder
+	 *            records the metrics, or null
+	 * @return the returned object
+	 * @throws IOException
+	 *             Failed to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	private LtasksObject readResult(int aCode, InputStream aBody,
+			boolean aIsGZipped, NamedEntityListener aListener,
+			final Recorder aRecorder) throws IOException,
+			IllegalArgumentException {
+		if (aBody == null) {
+			return new LtasksObject(null, "Failed to process request. Code: "
+					+ aCode, false, null);
+		}
+		if (aRecorder == null) {
+			InputStream is = aIsGZipped ? new PooledGZIPInputStream(aBody,
+					mCodecPool, mCompressionBufferSize) : aBody;
 			try {
-				result = ResultParser.parse(is, processedOk);
-			} catch (ParserConfigurationException e) {
-				throw new IllegalArgumentException(
-						"Got an invalid response from server.", e);
-			} catch (SAXException e) {
-				throw new IllegalArgumentException(
-						"Got an invalid response from server.", e);
+				return parseResult(aCode, is, aListener, mIsCompactEntities);
+			} finally {
+				is.close();
 			}
-		} else {
-			result = new LtasksObject(null, "Failed to process request. Code: "
-					+ code, false, null);
 		}
-		is.close();
-		method.releaseConnection();
-		return result;
+
+		long start = System.nanoTime();
+		Recorder.MeteredInputStream wire = new Recorder.MeteredInputStream(
+				aBody);
+		Recorder.MeteredInputStream inflated = null;
+		InputStream is = wire;
+		if (aIsGZipped) {
+			long header = System.nanoTime();
+			inflated = new Recorder.MeteredInputStream(
+					new PooledGZIPInputStream(wire, mCodecPool,
+							mCompressionBufferSize));
+			// the gzip header is read by the constructor
+			inflated.mNanos = System.nanoTime() - header;
+			is = inflated;
+		}
+		NamedEntityListener listener = aListener;
+		if (aListener != null) {
+			final NamedEntityListener delegate = aListener;
+			listener = new NamedEntityListener() {
+				public void onNamedEntity(NamedEntity aEntity) {
+					aRecorder.addEntities(1);
+					delegate.onNamedEntity(aEntity);
+				}
+			};
+		}
+		try {
+			LtasksObject result = parseResult(aCode, is, listener,
+					mIsCompactEntities);
+			if (result.getNamedEntities() != null) {
+				aRecorder.addEntities(result.getNamedEntities().size());
+			}
+			return result;
+		} finally {
+			is.close();
+			aRecorder.onResponseBody(System.nanoTime() - start, wire, inflated);
+		}
 	}
-	
+
+	/**
+	 * Parses a result, reporting an invalid one as an
+	 * {@link IllegalArgumentException}.
+	 */
+	private static LtasksObject parseResult(int aCode, InputStream aIs,
+			NamedEntityListener aListener, boolean aIsCompact)
+			throws IOException, IllegalArgumentException {
+		try {
+			return ResultParser.parse(aIs, aCode == 200, aListener, aIsCompact);
+		} catch (ParserConfigurationException e) {
+			throw new IllegalArgumentException(
+					"Got an invalid response from server.", e);
+		} catch (SAXException e) {
+			throw new IllegalArgumentException(
+					"Got an invalid response from server.", e);
+		}
+	}
+
+	/**
+	 * Gets the non-blocking http client, creating it on first use.
+	 */
+	private java.net.http.HttpClient getAsyncClient() {
+		java.net.http.HttpClient asyncClient = mAsyncClient;
+		if (asyncClient == null) {
+			synchronized (this) {
+				asyncClient = mAsyncClient;
+				if (asyncClient == null) {
+					asyncClient = java.net.http.HttpClient.newBuilder()
+							.version(java.net.http.HttpClient.Version.HTTP_1_1)
+							.followRedirects(
+									java.net.http.HttpClient.Redirect.NORMAL)
+							.build();
+					mAsyncClient = asyncClient;
+				}
+			}
+		}
+		return asyncClient;
+	}
+
 	protected List<NameValuePair> createNameValuePairs(
 			NameValuePair data, HtmlFilterOptions filterOptions) {
 		List<NameValuePair> list = new ArrayList<NameValuePair>(4);
 		
 		list.add(data);
+		if(filterOptions == null) {
+			return list;
+		}
 		if(filterOptions.getInclude() != null) {
 			list.add(new NameValuePair("include", SimpleXPath.toString(filterOptions.getInclude())));
 		}
@@ -196,4 +1470,93 @@ public abstract class BaseClient {
 		
 		return list;
 	}
+
+	private static ExecutorService createHedgeExecutor() {
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ltasks4j-hedge-"
+						+ mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Aborts the running method of a request. A request is cancelled at most
+	 * once, and is not sent again after it.
+	 */
+	private static final class Cancellation {
+
+		private boolean mIsStarted;
+
+		private boolean mIsCancelled;
+
+		private Exchange mExchange;
+
+		/**
+		 * Marks the request as started.
+		 * 
+		 * @return false if it was cancelled before starting
+		 */
+		synchronized boolean start() {
+			if (mIsCancelled) {
+				return false;
+			}
+			mIsStarted = true;
+			return true;
+		}
+
+		/**
+		 * Cancels the request if it did not start.
+		 * 
+		 * @return true if it did not start and never will
+		 */
+		synchronized boolean cancelIfNotStarted() {
+			if (mIsStarted) {
+				return false;
+			}
+			mIsCancelled = true;
+			return true;
+		}
+
+		synchronized boolean isCancelled() {
+			return mIsCancelled;
+		}
+
+		/**
+		 * Sets the exchange about to be executed.
+		 * 
+		 * @return false if the request was cancelled
+		 */
+		synchronized boolean begin(Exchange aExchange) {
+			mExchange = aExchange;
+			return !mIsCancelled;
+		}
+
+		/**
+		 * Cancels the request, aborting its exchange.
+		 * 
+		 * @return false if it was already cancelled
+		 */
+		boolean cancel() {
+			Exchange exchange;
+			synchronized (this) {
+				if (mIsCancelled) {
+					return false;
+				}
+				mIsCancelled = true;
+				exchange = mExchange;
+			}
+			if (exchange != null) {
+				// closes the connection, the owner of the exchange releases it
+				exchange.abort();
+			}
+			return true;
+		}
+
+	}
+
 }
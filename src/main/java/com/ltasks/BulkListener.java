@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+/**
+ * Receives the outcome of each item of a bulk call as soon as it completes.
+ * 
+ * @param <T>
+ *            the input type
+ */
+public interface BulkListener<T> {
+
+	/**
+	 * Called once for each item. It can be called from different threads at
+	 * the same time, so implementations must be thread-safe.
+	 * 
+	 * @param aResult
+	 *            the outcome of the item
+	 */
+	void onResult(BulkResult<T> aResult);
+
+}
@@ -0,0 +1,330 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ltasks.htmlfilteroptions.HtmlFilterOptions;
+
+/**
+ * <p>
+ * Processes many documents with a {@link LtasksNameFinderClient}, running at
+ * most a given number of requests at the same time. A failed item does not
+ * abort the bulk: its error is reported in its {@link BulkResult}.
+ * </p>
+ * <p>
+ * Requests run on virtual threads when the JVM supports them (Java 21 or
+ * later), otherwise on a pool with one platform thread per concurrent request.
+ * Items are read lazily from the {@link Iterable}, so an unbounded input can
+ * be processed with a {@link BulkListener} in constant memory.
+ * </p>
+ * <p>
+ * The concurrency is capped at the number of requests the transport of the
+ * client runs at the same time: the pool per host limit for the default
+ * transport, which needs a {@link ConnectionPool} for concurrent requests,
+ * and no limit for a {@link com.ltasks.transport.JdkHttpTransport}. The pool
+ * itself makes requests wait for a connection on a semaphore, not in a
+ * monitor that would pin the carrier of a virtual thread, so it can also be
+ * shared with other processors and clients.
+ * </p>
+ * <p>
+ * If a listener throws, or a request fails with an {@link Error}, no more
+ * items are started, and the first such failure is thrown by the process
+ * method once the running items are done.
+ * </p>
+ */
+public class BulkProcessor {
+
+	/** Creates a virtual thread per task executor, null if not supported */
+	private static final Method VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+	private final LtasksNameFinderClient mClient;
+
+	private final int mMaxConcurrency;
+
+	/**
+	 * Creates a new bulk processor
+	 *
+	 * @param aClient
+	 *            the client used to process the items
+	 * @param aMaxConcurrency
+	 *            the maximum number of requests running at the same time
+	 * @throws IllegalArgumentException
+	 *             if the concurrency is not positive, or it is larger than 1
+	 *             and the transport of the client runs one request at a time,
+	 *             as the default transport does without a
+	 *             {@link ConnectionPool}.
+	 */
+	public BulkProcessor(LtasksNameFinderClient aClient, int aMaxConcurrency)
+			throws IllegalArgumentException {
+		if (aMaxConcurrency <= 0) {
+			throw new IllegalArgumentException(
+					"the concurrency must be positive.");
+		}
+		int limit = aClient.getConcurrencyLimit();
+		if (limit == 1 && aMaxConcurrency > 1) {
+			throw new IllegalArgumentException(
+					"concurrent requests need a transport that runs them concurrently.");
+		}
+		mClient = aClient;
+		mMaxConcurrency = Math.min(aMaxConcurrency, limit);
+	}
+
+	/**
+	 * Gets the maximum number of requests running at the same time
+	 *
+	 * @return the maximum number of requests running at the same time
+	 */
+	public int getMaxConcurrency() {
+		return mMaxConcurrency;
+	}
+
+	/**
+	 * Annotate texts
+	 *
+	 * @param aTexts
+	 *            the texts to annotate
+	 * @return one outcome per text, in input order
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; pending items are cancelled
+	 */
+	public List<BulkResult<String>> processTexts(Iterable<String> aTexts)
+			throws InterruptedException {
+		return collect(aTexts, mTextCall);
+	}
+
+	/**
+	 * Annotate texts, reporting each outcome as soon as it completes
+	 *
+	 * @param aTexts
+	 *            the texts to annotate
+	 * @param aListener
+	 *            receives the outcomes, in completion order
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; pending items are cancelled
+	 */
+	public void processTexts(Iterable<String> aTexts,
+			BulkListener<String> aListener) throws InterruptedException {
+		run(aTexts, mTextCall, aListener);
+	}
+
+	/**
+	 * Annotate HTMLs
+	 *
+	 * @param aHtmls
+	 *            the HTMLs to annotate
+	 * @param filterOptions
+	 *            the html filter options, or null
+	 * @return one outcome per HTML, in input order
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; pending items are cancelled
+	 */
+	public List<BulkResult<String>> processHtmls(Iterable<String> aHtmls,
+			HtmlFilterOptions filterOptions) throws InterruptedException {
+		return collect(aHtmls, html(filterOptions));
+	}
+
+	/**
+	 * Annotate HTMLs, reporting each outcome as soon as it completes
+	 *
+	 * @param aHtmls
+	 *            the HTMLs to annotate
+	 * @param filterOptions
+	 *            the html filter options, or null
+	 * @param aListener
+	 *            receives the outcomes, in completion order
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; pending items are cancelled
+	 */
+	public void processHtmls(Iterable<String> aHtmls,
+			HtmlFilterOptions filterOptions, BulkListener<String> aListener)
+			throws InterruptedException {
+		run(aHtmls, html(filterOptions), aListener);
+	}
+
+	/**
+	 * Annotate URLs
+	 *
+	 * @param aUrls
+	 *            the URLs to annotate
+	 * @param filterOptions
+	 *            the html filter options, or null
+	 * @return one outcome per URL, in input order
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; pending items are cancelled
+	 */
+	public List<BulkResult<URL>> processUrls(Iterable<URL> aUrls,
+			HtmlFilterOptions filterOptions) throws InterruptedException {
+		return collect(aUrls, url(filterOptions));
+	}
+
+	/**
+	 * Annotate URLs, reporting each outcome as soon as it completes
+	 *
+	 * @param aUrls
+	 *            the URLs to annotate
+	 * @param filterOptions
+	 *            the html filter options, or null
+	 * @param aListener
+	 *            receives the outcomes, in completion order
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; pending items are cancelled
+	 */
+	public void processUrls(Iterable<URL> aUrls,
+			HtmlFilterOptions filterOptions, BulkListener<URL> aListener)
+			throws InterruptedException {
+		run(aUrls, url(filterOptions), aListener);
+	}
+
+	/** A single call to the client */
+	private interface Call<T> {
+		LtasksObject process(T aInput) throws IOException;
+	}
+
+	private final Call<String> mTextCall = new Call<String>() {
+		public LtasksObject process(String aInput) throws IOException {
+			return mClient.processText(aInput);
+		}
+	};
+
+	private Call<String> html(final HtmlFilterOptions filterOptions) {
+		return new Call<String>() {
+			public LtasksObject process(String aInput) throws IOException {
+				return filterOptions == null ? mClient.processHtml(aInput)
+						: mClient.processHtml(aInput, filterOptions);
+			}
+		};
+	}
+
+	private Call<URL> url(final HtmlFilterOptions filterOptions) {
+		return new Call<URL>() {
+			public LtasksObject process(URL aInput) throws IOException {
+				return filterOptions == null ? mClient.processUrl(aInput)
+						: mClient.processUrl(aInput, filterOptions);
+			}
+		};
+	}
+
+	private <T> List<BulkResult<T>> collect(Iterable<T> aInputs, Call<T> aCall)
+			throws InterruptedException {
+		final List<BulkResult<T>> results = new ArrayList<BulkResult<T>>();
+		run(aInputs, aCall, new BulkListener<T>() {
+			public void onResult(BulkResult<T> aResult) {
+				synchronized (results) {
+					while (results.size() <= aResult.getIndex()) {
+						results.add(null);
+					}
+					results.set(aResult.getIndex(), aResult);
+				}
+			}
+		});
+		return Collections.unmodifiableList(results);
+	}
+
+	private <T> void run(Iterable<T> aInputs, final Call<T> aCall,
+			final BulkListener<T> aListener) throws InterruptedException {
+		final Semaphore permits = new Semaphore(mMaxConcurrency);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		ExecutorService executor = newExecutor();
+		try {
+			int index = 0;
+			for (final T input : aInputs) {
+				permits.acquire();
+				if (failure.get() != null) {
+					permits.release();
+					break;
+				}
+				final int i = index++;
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							BulkResult<T> result;
+							try {
+								result = new BulkResult<T>(i, input,
+										aCall.process(input), null);
+							} catch (Exception e) {
+								result = new BulkResult<T>(i, input, null, e);
+							}
+							aListener.onResult(result);
+						} catch (Throwable t) {
+							// the executor would swallow it
+							failure.compareAndSet(null, t);
+						} finally {
+							permits.release();
+						}
+					}
+				});
+			}
+			// all permits are back once every item has been reported
+			permits.acquire(mMaxConcurrency);
+			permits.release(mMaxConcurrency);
+			Throwable t = failure.get();
+			if (t instanceof Error) {
+				throw (Error) t;
+			} else if (t != null) {
+				throw (RuntimeException) t;
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			throw e;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private ExecutorService newExecutor() {
+		if (VIRTUAL_THREAD_EXECUTOR != null) {
+			try {
+				return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+			} catch (Exception e) {
+				// virtual threads are not enabled, use platform threads
+			}
+		}
+		return Executors.newFixedThreadPool(mMaxConcurrency,
+				new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ltasks4j-bulk-"
+								+ mCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	private static Method findVirtualThreadExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+}
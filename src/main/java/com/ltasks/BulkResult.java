@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+/**
+ * Holds the outcome of one item of a bulk call. Either the result or the error
+ * is set.
+ * 
+ * @param <T>
+ *            the input type
+ */
+public class BulkResult<T> {
+
+	/** The position of the input in the bulk */
+	private final int mIndex;
+
+	/** The input */
+	private final T mInput;
+
+	/** The call result, null if the call failed */
+	private final LtasksObject mResult;
+
+	/** The error, null if the call succeeded */
+	private final Exception mError;
+
+	/**
+	 * Creates a new bulk item outcome
+	 * 
+	 * @param aIndex
+	 *            the position of the input in the bulk
+	 * @param aInput
+	 *            the input
+	 * @param aResult
+	 *            the call result, null if the call failed
+	 * @param aError
+	 *            the error, null if the call succeeded
+	 */
+	public BulkResult(int aIndex, T aInput, LtasksObject aResult,
+			Exception aError) {
+		super();
+		mIndex = aIndex;
+		mInput = aInput;
+		mResult = aResult;
+		mError = aError;
+	}
+
+	/**
+	 * Gets the position of the input in the bulk, starting at 0
+	 * 
+	 * @return the position of the input
+	 */
+	public int getIndex() {
+		return mIndex;
+	}
+
+	/**
+	 * Gets the input
+	 * 
+	 * @return the input
+	 */
+	public T getInput() {
+		return mInput;
+	}
+
+	/**
+	 * Gets the call result. Note that a result can be present but not
+	 * {@link LtasksObject#isProcessedOk() processed ok}.
+	 * 
+	 * @return the call result or null if the call failed
+	 */
+	public LtasksObject getResult() {
+		return mResult;
+	}
+
+	/**
+	 * Gets the error that made the call fail
+	 * 
+	 * @return the error or null
+	 */
+	public Exception getError() {
+		return mError;
+	}
+
+	/**
+	 * If true the call failed with an error and there is no result
+	 * 
+	 * @return true if the call failed
+	 */
+	public boolean isFailed() {
+		return mError != null;
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Keeps the deflaters, inflaters and byte buffers of the request and response
+ * bodies for reuse. A deflater or inflater holds native zlib memory, about
+ * 256 KB for a deflater, that a new instance allocates again and that is only
+ * freed when it is ended or finalized. Reusing them keeps the native memory
+ * and the garbage of a long-running client flat.
+ * </p>
+ * <p>
+ * At most maxIdle instances of each kind, and of each buffer size, are kept;
+ * the others are freed when they are given back. A pool is thread-safe and is
+ * shared by all the clients that use it, by default the
+ * {@link #getDefault() default pool}.
+ * </p>
+ */
+public class CodecPool {
+
+	/** The default number of idle instances kept of each kind */
+	public static final int DEFAULT_MAX_IDLE = 64;
+
+	private static final CodecPool DEFAULT = new CodecPool(DEFAULT_MAX_IDLE);
+
+	private final int mMaxIdle;
+
+	private final Slot<Deflater> mDeflaters = new Slot<Deflater>();
+
+	private final Slot<Inflater> mInflaters = new Slot<Inflater>();
+
+	/** Buffers by size */
+	private final ConcurrentHashMap<Integer, Slot<byte[]>> mBuffers = new ConcurrentHashMap<Integer, Slot<byte[]>>();
+
+	private final LongAdder mDeflaterCreatedCount = new LongAdder();
+
+	private final LongAdder mDeflaterReusedCount = new LongAdder();
+
+	private final LongAdder mInflaterCreatedCount = new LongAdder();
+
+	private final LongAdder mInflaterReusedCount = new LongAdder();
+
+	private final LongAdder mBufferCreatedCount = new LongAdder();
+
+	private final LongAdder mBufferReusedCount = new LongAdder();
+
+	/**
+	 * Creates a new pool
+	 * 
+	 * @param aMaxIdle
+	 *            the number of idle instances kept of each kind, 0 to free
+	 *            them as soon as they are given back
+	 * @throws IllegalArgumentException
+	 *             if the number is negative
+	 */
+	public CodecPool(int aMaxIdle) throws IllegalArgumentException {
+		if (aMaxIdle < 0) {
+			throw new IllegalArgumentException(
+					"the number of idle instances can not be negative.");
+		}
+		mMaxIdle = aMaxIdle;
+	}
+
+	/**
+	 * Gets the pool shared by the clients that were not given another one
+	 * 
+	 * @return the default pool
+	 */
+	public static CodecPool getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Gets the number of idle instances kept of each kind
+	 * 
+	 * @return the number of idle instances
+	 */
+	public int getMaxIdle() {
+		return mMaxIdle;
+	}
+
+	/**
+	 * Creates a gzip stream that compresses with a pooled deflater and
+	 * buffer. Closing it finishes the compressed data, gives them back and
+	 * closes the stream it writes to.
+	 * 
+	 * @param aOut
+	 *            where the compressed bytes are written
+	 * @param aLevel
+	 *            the compression level, from 0 to 9, or -1 for the default
+	 * @param aBufferSize
+	 *            the size of the compression buffer
+	 * @return the stream
+	 * @throws IOException
+	 *             if the gzip header could not be written
+	 */
+	public OutputStream newGZIPOutputStream(OutputStream aOut, int aLevel,
+			int aBufferSize) throws IOException {
+		return new PooledGZIPOutputStream(aOut, this, aLevel, aBufferSize);
+	}
+
+	/**
+	 * Creates a gzip stream that decompresses with a pooled inflater and
+	 * buffer. Closing it gives them back and closes the stream it reads.
+	 * 
+	 * @param aIn
+	 *            the compressed bytes
+	 * @param aBufferSize
+	 *            the size of the input buffer
+	 * @return the stream
+	 * @throws IOException
+	 *             if the gzip header could not be read
+	 */
+	public InputStream newGZIPInputStream(InputStream aIn, int aBufferSize)
+			throws IOException {
+		return new PooledGZIPInputStream(aIn, this, aBufferSize);
+	}
+
+	/**
+	 * Gets a snapshot of the pool statistics
+	 * 
+	 * @return the statistics
+	 */
+	public CodecPoolStats getStats() {
+		int idleBuffers = 0;
+		for (Slot<byte[]> slot : mBuffers.values()) {
+			idleBuffers += slot.mIdleCount.get();
+		}
+		return new CodecPoolStats(mDeflaterCreatedCount.sum(),
+				mDeflaterReusedCount.sum(), mDeflaters.mIdleCount.get(),
+				mInflaterCreatedCount.sum(), mInflaterReusedCount.sum(),
+				mInflaters.mIdleCount.get(), mBufferCreatedCount.sum(),
+				mBufferReusedCount.sum(), idleBuffers);
+	}
+
+	/**
+	 * Takes a deflater of raw deflate data, as gzip needs
+	 */
+	Deflater acquireDeflater(int aLevel) {
+		Deflater deflater = mDeflaters.poll();
+		if (deflater == null) {
+			mDeflaterCreatedCount.increment();
+			return new Deflater(aLevel, true);
+		}
+		mDeflaterReusedCount.increment();
+		deflater.setLevel(aLevel);
+		return deflater;
+	}
+
+	void releaseDeflater(Deflater aDeflater) {
+		aDeflater.reset();
+		if (!mDeflaters.offer(aDeflater, mMaxIdle)) {
+			aDeflater.end();
+		}
+	}
+
+	/**
+	 * Takes an inflater of raw deflate data, as gzip needs
+	 */
+	Inflater acquireInflater() {
+		Inflater inflater = mInflaters.poll();
+		if (inflater == null) {
+			mInflaterCreatedCount.increment();
+			return new Inflater(true);
+		}
+		mInflaterReusedCount.increment();
+		return inflater;
+	}
+
+	void releaseInflater(Inflater aInflater) {
+		aInflater.reset();
+		if (!mInflaters.offer(aInflater, mMaxIdle)) {
+			aInflater.end();
+		}
+	}
+
+	/**
+	 * Takes a buffer of the given size. Its content is undefined.
+	 */
+	byte[] acquireBuffer(int aSize) {
+		Slot<byte[]> slot = mBuffers.get(aSize);
+		byte[] buffer = slot == null ? null : slot.poll();
+		if (buffer == null) {
+			mBufferCreatedCount.increment();
+			return new byte[aSize];
+		}
+		mBufferReusedCount.increment();
+		return buffer;
+	}
+
+	void releaseBuffer(byte[] aBuffer) {
+		if (mMaxIdle == 0) {
+			return;
+		}
+		Slot<byte[]> slot = mBuffers.get(aBuffer.length);
+		if (slot == null) {
+			slot = mBuffers.computeIfAbsent(aBuffer.length,
+					k -> new Slot<byte[]>());
+		}
+		slot.offer(aBuffer, mMaxIdle);
+	}
+
+	/** The idle instances of a kind */
+	private static final class Slot<T> {
+
+		private final Queue<T> mIdle = new ConcurrentLinkedQueue<T>();
+
+		private final AtomicInteger mIdleCount = new AtomicInteger();
+
+		/**
+		 * Takes an idle instance
+		 * 
+		 * @return the instance, or null if there is none
+		 */
+		T poll() {
+			T value = mIdle.poll();
+			if (value != null) {
+				mIdleCount.decrementAndGet();
+			}
+			return value;
+		}
+
+		/**
+		 * Keeps an instance if there is room for it.
+		 * 
+		 * @return false if it was not kept
+		 */
+		boolean offer(T aValue, int aMaxIdle) {
+			if (mIdleCount.incrementAndGet() > aMaxIdle) {
+				mIdleCount.decrementAndGet();
+				return false;
+			}
+			mIdle.offer(aValue);
+			return true;
+		}
+
+	}
+
+}
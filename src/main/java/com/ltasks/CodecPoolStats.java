@@ -0,0 +1,174 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+/**
+ * An immutable snapshot of the statistics of a {@link CodecPool}.
+ */
+public class CodecPoolStats {
+
+	private final long mDeflaterCreatedCount;
+
+	private final long mDeflaterReusedCount;
+
+	private final int mIdleDeflaterCount;
+
+	private final long mInflaterCreatedCount;
+
+	private final long mInflaterReusedCount;
+
+	private final int mIdleInflaterCount;
+
+	private final long mBufferCreatedCount;
+
+	private final long mBufferReusedCount;
+
+	private final int mIdleBufferCount;
+
+	/**
+	 * Creates a new snapshot
+	 * 
+	 * @param aDeflaterCreatedCount
+	 *            the number of deflaters created because none was idle
+	 * @param aDeflaterReusedCount
+	 *            the number of times an idle deflater was reused
+	 * @param aIdleDeflaterCount
+	 *            the number of idle deflaters
+	 * @param aInflaterCreatedCount
+	 *            the number of inflaters created because none was idle
+	 * @param aInflaterReusedCount
+	 *            the number of times an idle inflater was reused
+	 * @param aIdleInflaterCount
+	 *            the number of idle inflaters
+	 * @param aBufferCreatedCount
+	 *            the number of buffers allocated because none was idle
+	 * @param aBufferReusedCount
+	 *            the number of times an idle buffer was reused
+	 * @param aIdleBufferCount
+	 *            the number of idle buffers, of all sizes
+	 */
+	public CodecPoolStats(long aDeflaterCreatedCount,
+			long aDeflaterReusedCount, int aIdleDeflaterCount,
+			long aInflaterCreatedCount, long aInflaterReusedCount,
+			int aIdleInflaterCount, long aBufferCreatedCount,
+			long aBufferReusedCount, int aIdleBufferCount) {
+		super();
+		mDeflaterCreatedCount = aDeflaterCreatedCount;
+		mDeflaterReusedCount = aDeflaterReusedCount;
+		mIdleDeflaterCount = aIdleDeflaterCount;
+		mInflaterCreatedCount = aInflaterCreatedCount;
+		mInflaterReusedCount = aInflaterReusedCount;
+		mIdleInflaterCount = aIdleInflaterCount;
+		mBufferCreatedCount = aBufferCreatedCount;
+		mBufferReusedCount = aBufferReusedCount;
+		mIdleBufferCount = aIdleBufferCount;
+	}
+
+	/**
+	 * Gets the number of deflaters created because none was idle
+	 * 
+	 * @return the number of deflaters created
+	 */
+	public long getDeflaterCreatedCount() {
+		return mDeflaterCreatedCount;
+	}
+
+	/**
+	 * Gets the number of times an idle deflater was reused
+	 * 
+	 * @return the number of reuses
+	 */
+	public long getDeflaterReusedCount() {
+		return mDeflaterReusedCount;
+	}
+
+	/**
+	 * Gets the number of idle deflaters, which hold native memory
+	 * 
+	 * @return the number of idle deflaters
+	 */
+	public int getIdleDeflaterCount() {
+		return mIdleDeflaterCount;
+	}
+
+	/**
+	 * Gets the number of inflaters created because none was idle
+	 * 
+	 * @return the number of inflaters created
+	 */
+	public long getInflaterCreatedCount() {
+		return mInflaterCreatedCount;
+	}
+
+	/**
+	 * Gets the number of times an idle inflater was reused
+	 * 
+	 * @return the number of reuses
+	 */
+	public long getInflaterReusedCount() {
+		return mInflaterReusedCount;
+	}
+
+	/**
+	 * Gets the number of idle inflaters, which hold native memory
+	 * 
+	 * @return the number of idle inflaters
+	 */
+	public int getIdleInflaterCount() {
+		return mIdleInflaterCount;
+	}
+
+	/**
+	 * Gets the number of buffers allocated because none was idle
+	 * 
+	 * @return the number of buffers allocated
+	 */
+	public long getBufferCreatedCount() {
+		return mBufferCreatedCount;
+	}
+
+	/**
+	 * Gets the number of times an idle buffer was reused
+	 * 
+	 * @return the number of reuses
+	 */
+	public long getBufferReusedCount() {
+		return mBufferReusedCount;
+	}
+
+	/**
+	 * Gets the number of idle buffers, of all sizes
+	 * 
+	 * @return the number of idle buffers
+	 */
+	public int getIdleBufferCount() {
+		return mIdleBufferCount;
+	}
+
+	@Override
+	public String toString() {
+		return "CodecPoolStats[deflaters=" + mDeflaterCreatedCount
+				+ " created/" + mDeflaterReusedCount + " reused/"
+				+ mIdleDeflaterCount + " idle, inflaters="
+				+ mInflaterCreatedCount + " created/" + mInflaterReusedCount
+				+ " reused/" + mIdleInflaterCount + " idle, buffers="
+				+ mBufferCreatedCount + " created/" + mBufferReusedCount
+				+ " reused/" + mIdleBufferCount + " idle]";
+	}
+
+}
@@ -0,0 +1,423 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * <p>
+ * A thread-safe pool of keep-alive connections that can be used by one or more
+ * clients. Without a pool each client owns a single connection and must not be
+ * used by more than one thread at a time.
+ * </p>
+ * <p>
+ * A pool can be shared among many {@link BaseClient} instances, so they reuse
+ * the same warm connections. Idle connections are closed by a background
+ * thread after {@link #getIdleTimeout()} milliseconds.
+ * </p>
+ * <p>
+ * A request waits for a free connection on a semaphore shared by all the
+ * clients of the pool, never inside the monitor of the connection manager,
+ * so a waiting virtual thread does not pin its carrier.
+ * </p>
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * ConnectionPool pool = new ConnectionPool(32, 32);
+ * LtasksNameFinderClient a = new LtasksNameFinderClient(key, true, true, pool);
+ * LtasksNameFinderClient b = new LtasksNameFinderClient(key, false, true, pool);
+ * // ...
+ * pool.shutdown();
+ * </pre>
+ */
+public class ConnectionPool {
+
+	/** Default time, in milliseconds, an idle connection is kept open */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+	/** Default interval, in milliseconds, between idle connection checks */
+	public static final long DEFAULT_EVICTION_INTERVAL = 5000;
+
+	/** The underlying connection manager */
+	private final CheckoutManager mManager;
+
+	/** The thread that closes idle connections, null if eviction is off */
+	private IdleConnectionTimeoutThread mEvictionThread;
+
+	private long mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	private long mEvictionInterval = DEFAULT_EVICTION_INTERVAL;
+
+	private long mAcquireTimeout;
+
+	/**
+	 * Creates a new pool with stale connection checking and idle connection
+	 * eviction enabled.
+	 *
+	 * @param aMaxTotal
+	 *            the maximum number of connections in the pool
+	 * @param aMaxPerHost
+	 *            the maximum number of connections to a single host
+	 * @throws IllegalArgumentException
+	 *             if a limit is not positive or the per host limit is larger
+	 *             than the total limit.
+	 */
+	public ConnectionPool(int aMaxTotal, int aMaxPerHost)
+			throws IllegalArgumentException {
+		if (aMaxTotal <= 0 || aMaxPerHost <= 0) {
+			throw new IllegalArgumentException(
+					"the connection limits must be positive.");
+		}
+		if (aMaxPerHost > aMaxTotal) {
+			throw new IllegalArgumentException(
+					"the per host limit can not be larger than the total limit.");
+		}
+		mManager = new CheckoutManager(aMaxTotal, aMaxPerHost);
+		HttpConnectionManagerParams params = mManager.getParams();
+		params.setMaxTotalConnections(aMaxTotal);
+		params.setDefaultMaxConnectionsPerHost(aMaxPerHost);
+		params.setStaleCheckingEnabled(true);
+		startEviction();
+	}
+
+	/**
+	 * Gets the maximum number of connections in the pool
+	 *
+	 * @return the maximum number of connections in the pool
+	 */
+	public int getMaxTotal() {
+		return mManager.getParams().getMaxTotalConnections();
+	}
+
+	/**
+	 * Gets the maximum number of connections to a single host
+	 *
+	 * @return the maximum number of connections to a single host
+	 */
+	public int getMaxPerHost() {
+		return mManager.getParams().getDefaultMaxConnectionsPerHost();
+	}
+
+	/**
+	 * If true, a pooled connection is checked before it is reused, so a
+	 * connection closed by the server is not used to send a request.
+	 *
+	 * @return true if stale checking is enabled
+	 */
+	public boolean isStaleCheckingEnabled() {
+		return mManager.getParams().isStaleCheckingEnabled();
+	}
+
+	/**
+	 * Enables or disables stale connection checking (default is true).
+	 * Disabling it saves a few milliseconds per request but a request can fail
+	 * if the server has closed the connection.
+	 *
+	 * @param aIsEnabled
+	 *            true to check connections before reusing them
+	 */
+	public void setStaleCheckingEnabled(boolean aIsEnabled) {
+		mManager.getParams().setStaleCheckingEnabled(aIsEnabled);
+	}
+
+	/**
+	 * Gets the time, in milliseconds, an idle connection is kept open
+	 *
+	 * @return the idle timeout, or 0 if idle connections are never closed
+	 */
+	public synchronized long getIdleTimeout() {
+		return mIdleTimeout;
+	}
+
+	/**
+	 * Sets the time, in milliseconds, an idle connection is kept open before
+	 * being closed. Use 0 to disable the eviction of idle connections.
+	 *
+	 * @param aIdleTimeout
+	 *            the idle timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the timeout is negative
+	 */
+	public synchronized void setIdleTimeout(long aIdleTimeout)
+			throws IllegalArgumentException {
+		if (aIdleTimeout < 0) {
+			throw new IllegalArgumentException(
+					"the idle timeout can not be negative.");
+		}
+		mIdleTimeout = aIdleTimeout;
+		stopEviction();
+		startEviction();
+	}
+
+	/**
+	 * Gets the interval, in milliseconds, between idle connection checks
+	 *
+	 * @return the eviction interval
+	 */
+	public synchronized long getEvictionInterval() {
+		return mEvictionInterval;
+	}
+
+	/**
+	 * Sets the interval, in milliseconds, between idle connection checks.
+	 *
+	 * @param aEvictionInterval
+	 *            the eviction interval in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the interval is not positive
+	 */
+	public synchronized void setEvictionInterval(long aEvictionInterval)
+			throws IllegalArgumentException {
+		if (aEvictionInterval <= 0) {
+			throw new IllegalArgumentException(
+					"the eviction interval must be positive.");
+		}
+		mEvictionInterval = aEvictionInterval;
+		stopEviction();
+		startEviction();
+	}
+
+	/**
+	 * Gets the time, in milliseconds, a request waits for a free connection
+	 *
+	 * @return the acquire timeout, or 0 to wait indefinitely
+	 */
+	public long getAcquireTimeout() {
+		return mAcquireTimeout;
+	}
+
+	/**
+	 * Sets the time, in milliseconds, a request waits for a free connection
+	 * when all connections are in use. If the timeout expires the request
+	 * fails with an {@link java.io.IOException}. Default is 0, wait
+	 * indefinitely. The timeout is read when a client is created, so it must
+	 * be set before the pool is given to the clients.
+	 *
+	 * @param aAcquireTimeout
+	 *            the acquire timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the timeout is negative
+	 */
+	public void setAcquireTimeout(long aAcquireTimeout)
+			throws IllegalArgumentException {
+		if (aAcquireTimeout < 0) {
+			throw new IllegalArgumentException(
+					"the acquire timeout can not be negative.");
+		}
+		mAcquireTimeout = aAcquireTimeout;
+	}
+
+	/**
+	 * Gets the number of open connections, in use or idle
+	 *
+	 * @return the number of open connections
+	 */
+	public int getConnectionsInPool() {
+		return mManager.getConnectionsInPool();
+	}
+
+	/**
+	 * Gets the number of connections currently executing a request
+	 *
+	 * @return the number of connections in use
+	 */
+	public int getConnectionsInUse() {
+		return mManager.mInUse.get();
+	}
+
+	/**
+	 * Gets the number of open connections waiting for a request
+	 *
+	 * @return the number of idle connections
+	 */
+	public int getIdleConnections() {
+		return Math.max(0, getConnectionsInPool() - getConnectionsInUse());
+	}
+
+	/**
+	 * Closes all idle connections now.
+	 */
+	public void closeIdleConnections() {
+		mManager.closeIdleConnections(0);
+	}
+
+	/**
+	 * Closes all connections and stops the eviction thread. Clients using this
+	 * pool can not be used after it is shut down.
+	 */
+	public synchronized void shutdown() {
+		stopEviction();
+		mManager.shutdown();
+	}
+
+	/**
+	 * The connection manager used by the http client.
+	 */
+	HttpConnectionManager getConnectionManager() {
+		return mManager;
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionPool[inPool=" + getConnectionsInPool() + ", inUse="
+				+ getConnectionsInUse() + ", maxTotal=" + getMaxTotal()
+				+ ", maxPerHost=" + getMaxPerHost() + "]";
+	}
+
+	/**
+	 * Counts the connections checked out. The count of the manager itself,
+	 * getConnectionsInUse(), is the number of connections in the pool.
+	 * <p>
+	 * A checkout first takes a permit of its host and one of the pool, so the
+	 * manager always has a connection to give and never waits in its monitor.
+	 * </p>
+	 */
+	private static class CheckoutManager extends
+			MultiThreadedHttpConnectionManager {
+
+		private final AtomicInteger mInUse = new AtomicInteger();
+
+		private final int mMaxPerHost;
+
+		private final Semaphore mTotalPermits;
+
+		/** Permits by host, see {@link #hostKey} */
+		private final ConcurrentHashMap<String, Semaphore> mHostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+		CheckoutManager(int aMaxTotal, int aMaxPerHost) {
+			mMaxPerHost = aMaxPerHost;
+			mTotalPermits = new Semaphore(aMaxTotal, true);
+		}
+
+		@Override
+		public HttpConnection getConnectionWithTimeout(
+				HostConfiguration aHostConfiguration, long aTimeout)
+				throws ConnectionPoolTimeoutException {
+			Semaphore host = hostPermits(hostKey(aHostConfiguration
+					.getProtocol().getScheme(), aHostConfiguration.getHost(),
+					aHostConfiguration.getPort(), aHostConfiguration
+							.getProxyHost(), aHostConfiguration.getProxyPort()));
+			long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(aTimeout);
+			acquire(host, aTimeout, deadline);
+			HttpConnection connection = null;
+			try {
+				acquire(mTotalPermits, aTimeout, deadline);
+				try {
+					connection = super.getConnectionWithTimeout(
+							aHostConfiguration, aTimeout);
+				} finally {
+					if (connection == null) {
+						mTotalPermits.release();
+					}
+				}
+			} finally {
+				if (connection == null) {
+					host.release();
+				}
+			}
+			mInUse.incrementAndGet();
+			return connection;
+		}
+
+		@Override
+		public void releaseConnection(HttpConnection aConnection) {
+			super.releaseConnection(aConnection);
+			mInUse.decrementAndGet();
+			mTotalPermits.release();
+			hostPermits(
+					hostKey(aConnection.getProtocol().getScheme(),
+							aConnection.getHost(), aConnection.getPort(),
+							aConnection.getProxyHost(),
+							aConnection.getProxyPort())).release();
+		}
+
+		private Semaphore hostPermits(String aKey) {
+			Semaphore permits = mHostPermits.get(aKey);
+			if (permits == null) {
+				permits = mHostPermits.computeIfAbsent(aKey,
+						k -> new Semaphore(mMaxPerHost, true));
+			}
+			return permits;
+		}
+
+		/**
+		 * The key of a host, as the manager tells hosts apart
+		 */
+		private static String hostKey(String aScheme, String aHost,
+				int aPort, String aProxyHost, int aProxyPort) {
+			String key = aScheme + "://" + aHost + ":" + aPort;
+			return aProxyHost == null ? key : key + " via " + aProxyHost
+					+ ":" + aProxyPort;
+		}
+
+		/**
+		 * Takes a permit, waiting until the deadline, or indefinitely if the
+		 * timeout is 0.
+		 */
+		private static void acquire(Semaphore aPermits, long aTimeout,
+				long aDeadline) throws ConnectionPoolTimeoutException {
+			try {
+				if (aTimeout == 0) {
+					aPermits.acquire();
+				} else if (!aPermits.tryAcquire(aDeadline - System.nanoTime(),
+						TimeUnit.NANOSECONDS)) {
+					throw new ConnectionPoolTimeoutException(
+							"Timeout waiting for connection");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ConnectionPoolTimeoutException(
+						"Interrupted while waiting for connection");
+			}
+		}
+
+	}
+
+	private void startEviction() {
+		if (mIdleTimeout > 0) {
+			mEvictionThread = new IdleConnectionTimeoutThread();
+			mEvictionThread.setName("ltasks4j-connection-eviction");
+			mEvictionThread.setConnectionTimeout(mIdleTimeout);
+			mEvictionThread.setTimeoutInterval(mEvictionInterval);
+			mEvictionThread.addConnectionManager(mManager);
+			mEvictionThread.start();
+		}
+	}
+
+	private void stopEviction() {
+		if (mEvictionThread != null) {
+			mEvictionThread.shutdown();
+			mEvictionThread = null;
+		}
+	}
+
+}
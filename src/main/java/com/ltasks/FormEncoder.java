@@ -0,0 +1,276 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.httpclient.NameValuePair;
+
+/**
+ * Writes parameters as an <code>application/x-www-form-urlencoded</code> UTF-8
+ * body straight to a stream, without building the encoded string first. The
+ * output is the same as
+ * {@link org.apache.commons.httpclient.util.EncodingUtil#formUrlEncode(NameValuePair[], String)}
+ * . It also writes a document as a plain UTF-8 body. Parameters that do not
+ * change can be encoded once with {@link #compile(NameValuePair[])}. An
+ * encoder is not thread-safe.
+ */
+class FormEncoder {
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6',
+			'7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	/** Characters written as they are, all others but space are escaped */
+	private static final boolean[] SAFE = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			SAFE[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			SAFE[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			SAFE[c] = true;
+		}
+		SAFE['-'] = true;
+		SAFE['_'] = true;
+		SAFE['.'] = true;
+		SAFE['*'] = true;
+	}
+
+	private final OutputStream mOut;
+
+	private final byte[] mBuffer;
+
+	private int mCount;
+
+	/**
+	 * Creates a new encoder
+	 *
+	 * @param aOut
+	 *            where the encoded bytes are written
+	 * @param aBufferSize
+	 *            the size of the internal buffer
+	 */
+	FormEncoder(OutputStream aOut, int aBufferSize) {
+		this(aOut, new byte[bufferSize(aBufferSize)]);
+	}
+
+	/**
+	 * Creates a new encoder that writes through a given buffer
+	 *
+	 * @param aOut
+	 *            where the encoded bytes are written
+	 * @param aBuffer
+	 *            the buffer, of at least {@link #bufferSize(int)} bytes
+	 */
+	FormEncoder(OutputStream aOut, byte[] aBuffer) {
+		mOut = aOut;
+		mBuffer = aBuffer;
+	}
+
+	/**
+	 * Gets the size of the buffer an encoder needs
+	 *
+	 * @param aBufferSize
+	 *            the size asked
+	 * @return the size
+	 */
+	static int bufferSize(int aBufferSize) {
+		// one escaped code point takes up to 12 bytes
+		return Math.max(aBufferSize, 16);
+	}
+
+	/**
+	 * Encodes parameters once. The result is a parameter that is written as
+	 * the encoded parameters, without encoding them again.
+	 * 
+	 * @param aPairs
+	 *            the parameters
+	 * @return the encoded parameters
+	 */
+	static NameValuePair compile(NameValuePair[] aPairs) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			new FormEncoder(out, 256).write(aPairs);
+		} catch (IOException e) {
+			// a byte array stream never fails
+			throw new IllegalStateException(e);
+		}
+		return new Compiled(out.toByteArray());
+	}
+
+	/**
+	 * Writes the parameters, separated by '&amp;', and flushes the buffer.
+	 *
+	 * @param aPairs
+	 *            the parameters
+	 * @throws IOException
+	 *             if the stream fails
+	 */
+	void write(NameValuePair[] aPairs) throws IOException {
+		for (int i = 0; i < aPairs.length; i++) {
+			if (i > 0) {
+				put('&');
+			}
+			if (aPairs[i] instanceof Compiled) {
+				put(((Compiled) aPairs[i]).mBytes);
+				continue;
+			}
+			if (aPairs[i].getName() != null) {
+				encode(aPairs[i].getName());
+			}
+			put('=');
+			if (aPairs[i].getValue() != null) {
+				encode(aPairs[i].getValue());
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Writes a text as plain UTF-8, without escaping, and flushes the buffer.
+	 * 
+	 * @param aText
+	 *            the text
+	 * @throws IOException
+	 *             if the stream fails
+	 */
+	void writeText(CharSequence aText) throws IOException {
+		int length = aText.length();
+		for (int i = 0; i < length; i++) {
+			if (mBuffer.length - mCount < 4) {
+				flush();
+			}
+			char c = aText.charAt(i);
+			if (c < 0x80) {
+				mBuffer[mCount++] = (byte) c;
+			} else if (c < 0x800) {
+				mBuffer[mCount++] = (byte) (0xC0 | (c >> 6));
+				mBuffer[mCount++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(aText.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, aText.charAt(++i));
+				mBuffer[mCount++] = (byte) (0xF0 | (cp >> 18));
+				mBuffer[mCount++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				mBuffer[mCount++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				mBuffer[mCount++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				mBuffer[mCount++] = '?';
+			} else {
+				mBuffer[mCount++] = (byte) (0xE0 | (c >> 12));
+				mBuffer[mCount++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				mBuffer[mCount++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Writes the buffered bytes to the stream.
+	 */
+	void flush() throws IOException {
+		if (mCount > 0) {
+			mOut.write(mBuffer, 0, mCount);
+			mCount = 0;
+		}
+	}
+
+	/**
+	 * Writes a UTF-8, url-encoded value.
+	 */
+	void encode(CharSequence aValue) throws IOException {
+		int length = aValue.length();
+		for (int i = 0; i < length; i++) {
+			if (mBuffer.length - mCount < 12) {
+				flush();
+			}
+			char c = aValue.charAt(i);
+			if (c < 0x80) {
+				if (SAFE[c]) {
+					mBuffer[mCount++] = (byte) c;
+				} else if (c == ' ') {
+					mBuffer[mCount++] = '+';
+				} else {
+					escape(c);
+				}
+			} else if (c < 0x800) {
+				escape(0xC0 | (c >> 6));
+				escape(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(aValue.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, aValue.charAt(++i));
+				escape(0xF0 | (cp >> 18));
+				escape(0x80 | ((cp >> 12) & 0x3F));
+				escape(0x80 | ((cp >> 6) & 0x3F));
+				escape(0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, replaced like String.getBytes does
+				escape('?');
+			} else {
+				escape(0xE0 | (c >> 12));
+				escape(0x80 | ((c >> 6) & 0x3F));
+				escape(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void put(char c) throws IOException {
+		if (mCount == mBuffer.length) {
+			flush();
+		}
+		mBuffer[mCount++] = (byte) c;
+	}
+
+	private void put(byte[] aBytes) throws IOException {
+		if (mBuffer.length - mCount < aBytes.length) {
+			flush();
+			if (aBytes.length > mBuffer.length) {
+				mOut.write(aBytes);
+				return;
+			}
+		}
+		System.arraycopy(aBytes, 0, mBuffer, mCount, aBytes.length);
+		mCount += aBytes.length;
+	}
+
+	private void escape(int b) {
+		mBuffer[mCount++] = '%';
+		mBuffer[mCount++] = HEX[(b >> 4) & 0xF];
+		mBuffer[mCount++] = HEX[b & 0xF];
+	}
+
+	/** Parameters already encoded, written as they are */
+	static final class Compiled extends NameValuePair {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] mBytes;
+
+		Compiled(byte[] aBytes) {
+			super(null, new String(aBytes, StandardCharsets.US_ASCII));
+			mBytes = aBytes;
+		}
+
+	}
+
+}
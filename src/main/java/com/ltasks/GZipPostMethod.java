@@ -17,21 +17,53 @@
 
 package com.ltasks;
 
-import java.io.ByteArrayOutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
-import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.util.EncodingUtil;
 
+/**
+ * A form post whose body is url-encoded, and optionally gzipped, while it is
+ * written to the connection. It can send a plain UTF-8 document instead of
+ * the form. It must be sent chunked.
+ */
 public class GZipPostMethod extends PostMethod{
-	
+
+	/** Default size of the encoding and compression buffers */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
     private boolean mIsGzip;
 
+    private int mCompressionLevel;
+
+    private int mBufferSize;
+
+    private CharSequence mDocument;
+
+    private String mDocumentType;
+
 	public GZipPostMethod(String uri, boolean aIsGzip) {
+        this(uri, aIsGzip, Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+    }
+
+	/**
+	 * Creates a new post method
+	 * 
+	 * @param uri
+	 *            the resource URI
+	 * @param aIsGzip
+	 *            if true the body is gzipped
+	 * @param aCompressionLevel
+	 *            the compression level, from 0 to 9, or -1 for the default
+	 * @param aBufferSize
+	 *            the size of the encoding and compression buffers
+	 */
+	public GZipPostMethod(String uri, boolean aIsGzip, int aCompressionLevel,
+			int aBufferSize) {
         super(uri);
         mIsGzip = aIsGzip;
+        mCompressionLevel = aCompressionLevel;
+        mBufferSize = aBufferSize;
     }
 	
 	@Override
@@ -39,36 +71,33 @@ public class GZipPostMethod extends PostMethod{
 		return super.generateRequestBody();
 	};
 	
+	/**
+	 * Sends a document as a plain UTF-8 body instead of the form parameters.
+	 * 
+	 * @param aDocument
+	 *            the document
+	 * @param aContentType
+	 *            the content type of the document
+	 */
+	public void setDocument(CharSequence aDocument, String aContentType) {
+		mDocument = aDocument;
+		mDocumentType = aContentType;
+	}
+
+	@Override
+	protected boolean hasRequestContent() {
+		return mDocument != null || super.hasRequestContent();
+	}
+
 	@Override
 	protected RequestEntity generateRequestEntity() {
-		if(mIsGzip) {
-			try {
-            String contentStr = EncodingUtil.formUrlEncode(getParameters(), getRequestCharSet());
-            
-            ByteArrayOutputStream originalContent = new ByteArrayOutputStream();
-            originalContent.write(EncodingUtil.getAsciiBytes(contentStr));
-     
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            //ChunkedOutputStream chunkedOut = new ChunkedOutputStream(baos);
-            GZIPOutputStream gzipOut = new GZIPOutputStream(baos);
-     
-            originalContent.writeTo(gzipOut);
-     
-            gzipOut.finish();
-            byte[] content = baos.toByteArray();
-     
-            ByteArrayRequestEntity entity = new ByteArrayRequestEntity(
-                content,
-                FORM_URL_ENCODED_CONTENT_TYPE
-            );
-            return entity;
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-            return null;
-		} else {
-			return super.generateRequestEntity();
+		if (mDocument != null) {
+			return new StreamingFormRequestEntity(mDocument, mDocumentType,
+					mIsGzip, mCompressionLevel, mBufferSize, null,
+					CodecPool.getDefault());
 		}
+		return new StreamingFormRequestEntity(getParameters(), mIsGzip,
+				mCompressionLevel, mBufferSize);
 	}
 	
 
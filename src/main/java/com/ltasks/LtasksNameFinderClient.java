@@ -18,8 +18,16 @@
 package com.ltasks;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -33,8 +41,27 @@ import com.ltasks.htmlfilteroptions.SimpleXPath;
 
 public class LtasksNameFinderClient extends BaseClient {
 
-	/** the NER resource URL */
-	private static final String RESOURCE = "http://api.ltasks.com/app/v0b/ner";
+	/** the default NER resource URL */
+	public static final String DEFAULT_ENDPOINT = "http://api.ltasks.com/app/v0b/ner";
+
+	/** the NER resource URL used by this client */
+	private volatile String mEndpoint = DEFAULT_ENDPOINT;
+
+	/** splits large texts, null to send them whole */
+	private volatile TextChunker mChunker;
+
+	/** joins small texts, null to send them one per request */
+	private volatile TextBatcher mBatcher;
+
+	/** if true texts are not sent back, results refer to the caller's text */
+	private volatile boolean mIsLocalSourceText;
+
+	/** sends the joined texts of a batch */
+	private final TextBatcher.Sender mBatchSender = new TextBatcher.Sender() {
+		public CompletableFuture<LtasksObject> send(String aText) {
+			return postTextAsync(aText);
+		}
+	};
 
 	/**
 	 * Creates a new Name Finder client. By default will include text source,
@@ -70,9 +97,257 @@ public class LtasksNameFinderClient extends BaseClient {
 		super(aApiKey, aIsIncludeSourceText, aIsUseGZipEncoding);
 	}
 
+	/**
+	 * Creates a new Name Finder client that gets its connections from a pool.
+	 * The client is thread-safe and the pool can be shared with other clients.
+	 * 
+	 * @param aApiKey
+	 *            the user api key
+	 * @param aIsIncludeSourceText
+	 *            if true will include the normalized text to the response.
+	 *            Default is true.
+	 * @param aIsUseGZipEncoding
+	 *            if true the request and response will be gzipped
+	 * @param aConnectionPool
+	 *            the connection pool, or null to use a single connection
+	 * @throws IllegalArgumentException
+	 *             the api key does not conform with the standard
+	 *             representation.
+	 */
+	public LtasksNameFinderClient(String aApiKey, boolean aIsIncludeSourceText,
+			boolean aIsUseGZipEncoding, ConnectionPool aConnectionPool)
+			throws IllegalArgumentException {
+		super(aApiKey, aIsIncludeSourceText, aIsUseGZipEncoding,
+				aConnectionPool);
+	}
+
+	/**
+	 * Gets the URL of the NER resource
+	 * 
+	 * @return the resource URL
+	 */
+	public String getEndpoint() {
+		return mEndpoint;
+	}
+
+	/**
+	 * Sets the URL of the NER resource, for example a staging server. Requests
+	 * already sent are not affected. Cached results are keyed by the URL, so
+	 * they are not shared between endpoints.
+	 * 
+	 * @param aEndpoint
+	 *            the absolute http or https URL of the resource
+	 * @throws IllegalArgumentException
+	 *             if the URL is not a valid http or https URL
+	 */
+	public void setEndpoint(String aEndpoint) throws IllegalArgumentException {
+		if (aEndpoint == null) {
+			throw new IllegalArgumentException("the endpoint can not be null.");
+		}
+		URI uri;
+		try {
+			uri = new URI(aEndpoint);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("the endpoint is not a valid URL.",
+					e);
+		}
+		if (!"http".equalsIgnoreCase(uri.getScheme())
+				&& !"https".equalsIgnoreCase(uri.getScheme())
+				|| uri.getHost() == null) {
+			throw new IllegalArgumentException(
+					"the endpoint must be an absolute http or https URL.");
+		}
+		mEndpoint = aEndpoint;
+	}
+
+	/**
+	 * Gets the chunker of large texts
+	 * 
+	 * @return the chunker, or null if texts are sent whole
+	 */
+	public TextChunker getChunker() {
+		return mChunker;
+	}
+
+	/**
+	 * Sets the chunker of large texts. A text longer than the chunk length is
+	 * split, its chunks are sent at the same time as asynchronous requests,
+	 * and the results are merged with the offsets of the whole text. Only
+	 * texts are split: HTMLs and URLs are filtered by the server and always
+	 * sent whole.
+	 * 
+	 * @param aChunker
+	 *            the chunker, or null to send texts whole
+	 */
+	public void setChunker(TextChunker aChunker) {
+		mChunker = aChunker;
+	}
+
+	/**
+	 * Gets the batcher of small texts
+	 * 
+	 * @return the batcher, or null if texts are sent one per request
+	 */
+	public TextBatcher getBatcher() {
+		return mBatcher;
+	}
+
+	/**
+	 * Sets the batcher of small texts. Texts short enough, annotated at about
+	 * the same time, are sent together in a single non-blocking request, and
+	 * each caller gets its own result. Only texts are batched.
+	 * 
+	 * @param aBatcher
+	 *            the batcher, or null to send texts one per request
+	 */
+	public void setBatcher(TextBatcher aBatcher) {
+		mBatcher = aBatcher;
+	}
+
+	/**
+	 * Tells if the source text of text results is the caller's text instead
+	 * of one sent back by the server
+	 * 
+	 * @return true if the source text is not sent back
+	 */
+	public boolean isLocalSourceText() {
+		return mIsLocalSourceText;
+	}
+
+	/**
+	 * Asks the server not to send back the source text of texts, and uses the
+	 * caller's text as the source text of their results. The response gets
+	 * smaller and faster to parse, and the result retains the caller's string
+	 * instead of a copy of it. With {@link #setCompactEntities(boolean)} the
+	 * entity texts are read from the caller's text as well. HTMLs and URLs
+	 * are normalized by the server, so their source text is always sent back.
+	 * It has no effect if the client does not include the source text. The
+	 * server must not normalize plain texts, otherwise the entity offsets
+	 * would not match the caller's text. Default is false.
+	 * 
+	 * @param aIsLocalSourceText
+	 *            if true the source text of texts is not sent back
+	 */
+	public void setLocalSourceText(boolean aIsLocalSourceText) {
+		mIsLocalSourceText = aIsLocalSourceText;
+	}
+
 	@Override
 	protected String getResourceUrl() {
-		return RESOURCE;
+		return mEndpoint;
+	}
+
+	/**
+	 * Creates the data of a text request.
+	 */
+	private static List<NameValuePair> createTextData(String aText,
+			boolean aIsLocalSource) {
+		if (!aIsLocalSource) {
+			return Collections.singletonList(new NameValuePair("text", aText));
+		}
+		List<NameValuePair> data = new ArrayList<NameValuePair>(2);
+		data.add(new NameValuePair("text", aText));
+		data.add(new NameValuePair("includeSourceText", "false"));
+		return data;
+	}
+
+	/**
+	 * Tells if the next text request should leave the source text out.
+	 */
+	private boolean isSourceTextOmitted() {
+		return mIsLocalSourceText && isIncludeSourceText();
+	}
+
+	/**
+	 * Sets the caller's text as the source text of a result.
+	 */
+	static LtasksObject withSourceText(LtasksObject aResult, String aText) {
+		if (!aResult.isProcessedOk()) {
+			return aResult;
+		}
+		List<NamedEntity> entities = aResult.getNamedEntities();
+		if (entities instanceof CompactEntityList) {
+			entities = ((CompactEntityList) entities).withSourceText(aText);
+		}
+		return new LtasksObject(aText, aResult.getMessage(), true, entities);
+	}
+
+	/**
+	 * Posts a single text.
+	 */
+	private LtasksObject postText(String aText, NamedEntityListener aListener)
+			throws HttpException, IOException {
+		boolean local = isSourceTextOmitted();
+		List<NameValuePair> data = createTextData(aText, local);
+		LtasksObject result = post(data, aListener);
+		return local ? withSourceText(result, aText) : result;
+	}
+
+	/**
+	 * Posts a single text without blocking.
+	 */
+	private CompletableFuture<LtasksObject> postTextAsync(final String aText) {
+		boolean local = isSourceTextOmitted();
+		CompletableFuture<LtasksObject> future = postAsync(createTextData(
+				aText, local));
+		return local ? future.thenApply(r -> withSourceText(r, aText))
+				: future;
+	}
+
+	/**
+	 * Annotates the chunks of a text and merges the results.
+	 */
+	private LtasksObject processChunks(TextChunker aChunker, String aText)
+			throws IOException {
+		CompletableFuture<LtasksObject> future = processChunksAsync(aChunker,
+				aText);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for the chunks.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CompletionException
+					&& cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Sends the chunks of a text at the same time, without blocking, and
+	 * merges the results.
+	 */
+	private CompletableFuture<LtasksObject> processChunksAsync(
+			final TextChunker aChunker, final String aText) {
+		final List<TextChunker.Chunk> chunks = aChunker.split(aText);
+		final List<CompletableFuture<LtasksObject>> futures = new ArrayList<CompletableFuture<LtasksObject>>(
+				chunks.size());
+		for (TextChunker.Chunk chunk : chunks) {
+			futures.add(postTextAsync(chunk.getText()));
+		}
+		return CompletableFuture.allOf(
+				futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+			List<LtasksObject> results = new ArrayList<LtasksObject>(futures
+					.size());
+			for (CompletableFuture<LtasksObject> future : futures) {
+				results.add(future.join());
+			}
+			return aChunker.merge(aText, chunks, results);
+		});
 	}
 
 	/**
@@ -167,7 +442,209 @@ public class LtasksNameFinderClient extends BaseClient {
 	 */
 	public LtasksObject processText(String aText) throws HttpException,
 			IOException {
-		return post(Collections.singletonList(new NameValuePair("text", aText)));
+		TextChunker chunker = mChunker;
+		if (chunker != null && aText.length() > chunker.getMaxLength()) {
+			return processChunks(chunker, aText);
+		}
+		TextBatcher batcher = mBatcher;
+		if (batcher != null && batcher.accepts(aText)) {
+			return batcher.process(aText, mBatchSender);
+		}
+		return postText(aText, null);
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a URL, streaming the entities
+	 * to a listener as they arrive
+	 * 
+	 * @param aUrl
+	 *            the URL
+	 * @param filterOptions
+	 *            the html filter options, or null
+	 * @param aListener
+	 *            receives the entities
+	 * @return the annotation object, without entities
+	 * @throws HttpException
+	 *             Got a protocol error.
+	 * @throws IOException
+	 *             Failed to communicate or to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	public LtasksObject processUrl(URL aUrl, HtmlFilterOptions filterOptions,
+			NamedEntityListener aListener) throws HttpException, IOException,
+			IllegalArgumentException {
+		return post(createNameValuePairs(
+				new NameValuePair("url", aUrl.toString()), filterOptions),
+				aListener);
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a HTML, streaming the entities
+	 * to a listener as they arrive
+	 * 
+	 * @param aHtml
+	 *            the HTML
+	 * @param filterOptions
+	 *            the html filter options, or null
+	 * @param aListener
+	 *            receives the entities
+	 * @return the annotation object, without entities
+	 * @throws HttpException
+	 *             Got a protocol error.
+	 * @throws IOException
+	 *             Failed to communicate or to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	public LtasksObject processHtml(String aHtml,
+			HtmlFilterOptions filterOptions, NamedEntityListener aListener)
+			throws HttpException, IOException {
+		return post(createNameValuePairs(new NameValuePair("html", aHtml),
+				filterOptions), aListener);
+	}
+
+	/**
+	 * Annotate a text, streaming the entities to a listener as they arrive
+	 * 
+	 * @param aText
+	 *            the text to annotate
+	 * @param aListener
+	 *            receives the entities
+	 * @return the annotation object, without entities
+	 * @throws HttpException
+	 *             Got a protocol error.
+	 * @throws IOException
+	 *             Failed to communicate or to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	public LtasksObject processText(String aText, NamedEntityListener aListener)
+			throws HttpException, IOException {
+		TextChunker chunker = mChunker;
+		TextBatcher batcher = mBatcher;
+		boolean chunked = chunker != null
+				&& aText.length() > chunker.getMaxLength();
+		if (chunked || batcher != null && batcher.accepts(aText)) {
+			// entities are only final once the chunks are merged, or the
+			// batch is split
+			LtasksObject result = chunked ? processChunks(chunker, aText)
+					: batcher.process(aText, mBatchSender);
+			// a failed chunk or batch may have no entities at all
+			if (result.isProcessedOk() && result.getNamedEntities() != null) {
+				for (NamedEntity entity : result.getNamedEntities()) {
+					aListener.onNamedEntity(entity);
+				}
+			}
+			return new LtasksObject(result.getSourceText(),
+					result.getMessage(), result.isProcessedOk(),
+					Collections.<NamedEntity> emptyList());
+		}
+		return postText(aText, aListener);
+	}
+
+	/**
+	 * Annotate a normalized text from a URL without blocking the calling
+	 * thread
+	 * 
+	 * @param aUrl
+	 *            the URL
+	 * @return a future that completes with the annotation object
+	 * @see #postAsync(java.util.List)
+	 */
+	public CompletableFuture<LtasksObject> processUrlAsync(URL aUrl) {
+		return postAsync(Collections.singletonList(new NameValuePair("url",
+				aUrl.toString())));
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a URL without blocking the
+	 * calling thread
+	 * 
+	 * @param aUrl
+	 *            the URL
+	 * @param filterOptions
+	 *            the html filter options
+	 * @return a future that completes with the annotation object
+	 * @see #postAsync(java.util.List)
+	 */
+	public CompletableFuture<LtasksObject> processUrlAsync(URL aUrl,
+			HtmlFilterOptions filterOptions) {
+		return postAsync(createNameValuePairs(
+				new NameValuePair("url", aUrl.toString()), filterOptions));
+	}
+
+	/**
+	 * Annotate a normalized text from a HTML without blocking the calling
+	 * thread
+	 * 
+	 * @param aHtml
+	 *            the HTML
+	 * @return a future that completes with the annotation object
+	 * @see #postAsync(java.util.List)
+	 */
+	public CompletableFuture<LtasksObject> processHtmlAsync(String aHtml) {
+		return postAsync(Collections.singletonList(new NameValuePair("html",
+				aHtml)));
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a HTML without blocking the
+	 * calling thread
+	 * 
+	 * @param aHtml
+	 *            the HTML
+	 * @param filterOptions
+	 *            the html filter options
+	 * @return a future that completes with the annotation object
+	 * @see #postAsync(java.util.List)
+	 */
+	public CompletableFuture<LtasksObject> processHtmlAsync(String aHtml,
+			HtmlFilterOptions filterOptions) {
+		return postAsync(createNameValuePairs(new NameValuePair("html", aHtml),
+				filterOptions));
+	}
+
+	/**
+	 * Annotate a text without blocking the calling thread
+	 * 
+	 * @param aText
+	 *            the text to annotate
+	 * @return a future that completes with the annotation object
+	 * @see #postAsync(java.util.List)
+	 */
+	public CompletableFuture<LtasksObject> processTextAsync(String aText) {
+		TextChunker chunker = mChunker;
+		if (chunker != null && aText.length() > chunker.getMaxLength()) {
+			return processChunksAsync(chunker, aText);
+		}
+		TextBatcher batcher = mBatcher;
+		if (batcher != null && batcher.accepts(aText)) {
+			return batcher.submit(aText, mBatchSender);
+		}
+		return postTextAsync(aText);
+	}
+
+	/**
+	 * Annotate many texts, running at most aMaxConcurrency requests at the
+	 * same time. A failed text does not abort the others. For HTMLs, URLs and
+	 * results in completion order use a {@link BulkProcessor}.
+	 * 
+	 * @param aTexts
+	 *            the texts to annotate
+	 * @param aMaxConcurrency
+	 *            the maximum number of requests running at the same time
+	 * @return one outcome per text, in input order
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; pending texts are cancelled
+	 * @throws IllegalArgumentException
+	 *             if aMaxConcurrency is larger than 1 and this client uses
+	 *             the default transport without a {@link ConnectionPool}
+	 */
+	public List<BulkResult<String>> processAll(Iterable<String> aTexts,
+			int aMaxConcurrency) throws InterruptedException,
+			IllegalArgumentException {
+		return new BulkProcessor(this, aMaxConcurrency).processTexts(aTexts);
 	}
 
 	public static void main(String[] args) throws HttpException, IOException,
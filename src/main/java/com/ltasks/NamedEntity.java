@@ -23,10 +23,10 @@ package com.ltasks;
  */
 public class NamedEntity {
 
-	private String mText;
-	private NerType mType;
-	private int mBegin;
-	private int mEnd;
+	private final String mText;
+	private final NerType mType;
+	private final int mBegin;
+	private final int mEnd;
 
 	/**
 	 * Creates a new object representing the entities from the text
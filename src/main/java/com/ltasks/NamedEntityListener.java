@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+/**
+ * Receives the named entities while the response is still being read from the
+ * network, so they can be consumed before the whole document is parsed and
+ * without keeping them all in memory.
+ */
+public interface NamedEntityListener {
+
+	/**
+	 * Called for each entity, in document order, by the thread that is
+	 * reading the response. A {@link RuntimeException} thrown here aborts the
+	 * call.
+	 * 
+	 * @param aEntity
+	 *            the entity
+	 */
+	void onNamedEntity(NamedEntity aEntity);
+
+}
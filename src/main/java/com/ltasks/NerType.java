@@ -17,6 +17,9 @@
 
 package com.ltasks;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * The named entities types supported by LTasks. For more info check the <a href="http://ltasks.com">documentation</a>.
  *
@@ -34,6 +37,14 @@ public enum NerType {
 	TIME("time"), 
 	NUMERIC("numeric");
 	
+	private static final Map<String, NerType> BY_VALUE = new HashMap<String, NerType>();
+
+	static {
+		for (NerType c : NerType.values()) {
+			BY_VALUE.put(c.value, c);
+		}
+	}
+
 	private final String value;
 
 	NerType(String v) {
@@ -45,12 +56,11 @@ public enum NerType {
 	}
 
 	public static NerType fromValue(String v) {
-		for (NerType c : NerType.values()) {
-			if (c.value.equals(v)) {
-				return c;
-			}
+		NerType c = BY_VALUE.get(v);
+		if (c == null) {
+			throw new IllegalArgumentException(v);
 		}
-		throw new IllegalArgumentException(v);
+		return c;
 	}
 
 }
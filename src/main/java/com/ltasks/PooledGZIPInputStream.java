@@ -0,0 +1,248 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A gzip stream that decompresses with an inflater and a buffer taken from a
+ * {@link CodecPool}. It reads what {@link java.util.zip.GZIPInputStream}
+ * reads, but only the first member of the data: a response is a single
+ * member. Closing it gives the inflater and the buffer back. A stream is not
+ * thread-safe.
+ */
+class PooledGZIPInputStream extends InputStream {
+
+	private static final int FHCRC = 2;
+
+	private static final int FEXTRA = 4;
+
+	private static final int FNAME = 8;
+
+	private static final int FCOMMENT = 16;
+
+	private final InputStream mIn;
+
+	private final CodecPool mPool;
+
+	private final CRC32 mCrc = new CRC32();
+
+	private Inflater mInflater;
+
+	/** The compressed bytes read, from mPosition to mLimit not inflated yet */
+	private byte[] mBuffer;
+
+	private int mPosition;
+
+	private int mLimit;
+
+	private boolean mIsEof;
+
+	/**
+	 * Creates a new stream and reads the gzip header
+	 * 
+	 * @param aIn
+	 *            the compressed bytes
+	 * @param aPool
+	 *            gives the inflater and the buffer
+	 * @param aBufferSize
+	 *            the size of the input buffer
+	 * @throws IOException
+	 *             if the header could not be read or is not a gzip header
+	 */
+	PooledGZIPInputStream(InputStream aIn, CodecPool aPool, int aBufferSize)
+			throws IOException {
+		if (aBufferSize <= 0) {
+			throw new IllegalArgumentException(
+					"the buffer size must be positive.");
+		}
+		mIn = aIn;
+		mPool = aPool;
+		mInflater = aPool.acquireInflater();
+		mBuffer = aPool.acquireBuffer(aBufferSize);
+		try {
+			readHeader();
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (mInflater == null) {
+			throw new IOException("Stream closed");
+		}
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (mIsEof) {
+			return -1;
+		}
+		try {
+			while (true) {
+				int count = mInflater.inflate(b, off, len);
+				if (count > 0) {
+					mCrc.update(b, off, count);
+					return count;
+				}
+				if (mInflater.finished()) {
+					readTrailer();
+					mIsEof = true;
+					return -1;
+				}
+				if (mInflater.needsDictionary()) {
+					throw new ZipException("unexpected preset dictionary");
+				}
+				if (mInflater.needsInput()) {
+					if (mPosition == mLimit) {
+						fill();
+					}
+					mInflater.setInput(mBuffer, mPosition, mLimit - mPosition);
+					mPosition = mLimit;
+				}
+			}
+		} catch (DataFormatException e) {
+			String message = e.getMessage();
+			throw new ZipException(message != null ? message
+					: "Invalid ZLIB data format");
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (mInflater == null) {
+			throw new IOException("Stream closed");
+		}
+		return mIsEof ? 0 : 1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mInflater == null) {
+			return;
+		}
+		release();
+		mIn.close();
+	}
+
+	private void release() {
+		mPool.releaseInflater(mInflater);
+		mInflater = null;
+		mPool.releaseBuffer(mBuffer);
+		mBuffer = null;
+	}
+
+	private void readHeader() throws IOException {
+		mCrc.reset();
+		if (readByte() != 0x1f || readByte() != 0x8b) {
+			throw new ZipException("Not in GZIP format");
+		}
+		if (readByte() != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		int flags = readByte();
+		// time, extra flags and operating system
+		for (int i = 0; i < 6; i++) {
+			readByte();
+		}
+		if ((flags & FEXTRA) != 0) {
+			int length = readByte() | (readByte() << 8);
+			for (int i = 0; i < length; i++) {
+				readByte();
+			}
+		}
+		if ((flags & FNAME) != 0) {
+			while (readByte() != 0) {
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (readByte() != 0) {
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			int crc = (int) mCrc.getValue() & 0xffff;
+			if ((readByte() | (readByte() << 8)) != crc) {
+				throw new ZipException("Corrupt GZIP header");
+			}
+		}
+		mCrc.reset();
+	}
+
+	private void readTrailer() throws IOException {
+		// the bytes the inflater did not need are the start of the trailer
+		mPosition = mLimit - mInflater.getRemaining();
+		long expected = mCrc.getValue();
+		long crc = readInt();
+		long size = readInt();
+		if (crc != expected) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+		if (size != (mInflater.getBytesWritten() & 0xffffffffL)) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+	}
+
+	private long readInt() throws IOException {
+		long value = 0;
+		for (int i = 0; i < 4; i++) {
+			value |= (long) readByte() << (i * 8);
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a header or trailer byte from the buffer, updating the checksum
+	 */
+	private int readByte() throws IOException {
+		if (mPosition == mLimit) {
+			fill();
+		}
+		int b = mBuffer[mPosition++] & 0xff;
+		mCrc.update(b);
+		return b;
+	}
+
+	/**
+	 * Reads more compressed bytes into the empty buffer
+	 */
+	private void fill() throws IOException {
+		int count = mIn.read(mBuffer, 0, mBuffer.length);
+		if (count == -1) {
+			throw new EOFException("Unexpected end of ZLIB input stream");
+		}
+		mPosition = 0;
+		mLimit = count;
+	}
+
+}
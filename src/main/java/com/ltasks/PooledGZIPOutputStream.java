@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream that compresses with a deflater and a buffer taken from a
+ * {@link CodecPool}. It writes the same bytes as
+ * {@link java.util.zip.GZIPOutputStream}. {@link #release()} gives them back
+ * without closing the underlying stream, so a body can be gzipped straight
+ * to a connection that stays open. A stream is not thread-safe.
+ */
+class PooledGZIPOutputStream extends OutputStream {
+
+	/** Magic number, deflate method, no flags, time or extra flags, unknown OS */
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0,
+			0, 0, (byte) 0xff };
+
+	private final OutputStream mOut;
+
+	private final CodecPool mPool;
+
+	private final CRC32 mCrc = new CRC32();
+
+	private Deflater mDeflater;
+
+	private byte[] mBuffer;
+
+	private boolean mIsFinished;
+
+	/**
+	 * Creates a new stream and writes the gzip header
+	 * 
+	 * @param aOut
+	 *            where the compressed bytes are written
+	 * @param aPool
+	 *            gives the deflater and the buffer
+	 * @param aLevel
+	 *            the compression level, from 0 to 9, or -1 for the default
+	 * @param aBufferSize
+	 *            the size of the compression buffer
+	 * @throws IOException
+	 *             if the header could not be written
+	 */
+	PooledGZIPOutputStream(OutputStream aOut, CodecPool aPool, int aLevel,
+			int aBufferSize) throws IOException {
+		if (aBufferSize <= 0) {
+			throw new IllegalArgumentException(
+					"the buffer size must be positive.");
+		}
+		mOut = aOut;
+		mPool = aPool;
+		mDeflater = aPool.acquireDeflater(aLevel);
+		mBuffer = aPool.acquireBuffer(aBufferSize);
+		try {
+			mOut.write(HEADER);
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (mDeflater == null) {
+			throw new IOException("Stream released");
+		}
+		if (mIsFinished) {
+			throw new IOException("write beyond end of stream");
+		}
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return;
+		}
+		mDeflater.setInput(b, off, len);
+		while (!mDeflater.needsInput()) {
+			deflate();
+		}
+		mCrc.update(b, off, len);
+	}
+
+	/**
+	 * Writes the rest of the compressed data and the gzip trailer, without
+	 * closing the underlying stream.
+	 * 
+	 * @throws IOException
+	 *             if the stream fails
+	 */
+	void finish() throws IOException {
+		if (mIsFinished) {
+			return;
+		}
+		if (mDeflater == null) {
+			throw new IOException("Stream released");
+		}
+		mDeflater.finish();
+		while (!mDeflater.finished()) {
+			deflate();
+		}
+		mIsFinished = true;
+		byte[] trailer = new byte[8];
+		writeInt((int) mCrc.getValue(), trailer, 0);
+		writeInt((int) mDeflater.getBytesRead(), trailer, 4);
+		mOut.write(trailer);
+	}
+
+	/**
+	 * Gives the deflater and the buffer back to the pool. The underlying
+	 * stream stays open. It can be called more than once.
+	 */
+	void release() {
+		if (mDeflater != null) {
+			mPool.releaseDeflater(mDeflater);
+			mDeflater = null;
+		}
+		if (mBuffer != null) {
+			mPool.releaseBuffer(mBuffer);
+			mBuffer = null;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		mOut.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (mDeflater != null) {
+				finish();
+			}
+		} finally {
+			release();
+			mOut.close();
+		}
+	}
+
+	private void deflate() throws IOException {
+		int count = mDeflater.deflate(mBuffer, 0, mBuffer.length);
+		if (count > 0) {
+			mOut.write(mBuffer, 0, count);
+		}
+	}
+
+	/** Writes an int in little-endian order, as gzip does */
+	private static void writeInt(int aValue, byte[] aBytes, int aOffset) {
+		aBytes[aOffset] = (byte) aValue;
+		aBytes[aOffset + 1] = (byte) (aValue >> 8);
+		aBytes[aOffset + 2] = (byte) (aValue >> 16);
+		aBytes[aOffset + 3] = (byte) (aValue >> 24);
+	}
+
+}
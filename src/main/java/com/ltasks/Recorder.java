@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.ltasks.metrics.Phase;
+import com.ltasks.metrics.RequestMetrics;
+
+/**
+ * Collects the {@link RequestMetrics} of one request while it runs. The
+ * attempts of a request run one after the other, so a recorder is not
+ * thread-safe.
+ */
+class Recorder {
+
+	private final long mStart = System.nanoTime();
+
+	private final long[] mDurations = new long[Phase.values().length];
+
+	/** Time spent writing request bodies, all phases included */
+	private long mWriteNanos;
+
+	private long mExchangeStart;
+
+	private long mExchangeWriteNanos;
+
+	private long mRequestBytes;
+
+	private long mRequestWireBytes;
+
+	private long mResponseWireBytes;
+
+	private long mResponseBytes;
+
+	private int mEntityCount;
+
+	private int mStatusCode = -1;
+
+	private int mAttempts;
+
+	void add(Phase aPhase, long aNanos) {
+		mDurations[aPhase.ordinal()] += aNanos;
+	}
+
+	/**
+	 * Records the writing of a request body.
+	 * 
+	 * @param aTotal
+	 *            the time to write the body
+	 * @param aPlain
+	 *            counts what was written before compression, or null if not
+	 *            compressed
+	 * @param aCompressNanos
+	 *            the time spent finishing the compression
+	 * @param aWire
+	 *            counts what was written to the connection
+	 */
+	void onRequestBody(long aTotal, MeteredOutputStream aPlain,
+			long aCompressNanos, MeteredOutputStream aWire) {
+		long inner = aPlain == null ? aWire.mNanos : aPlain.mNanos
+				+ aCompressNanos;
+		add(Phase.ENCODE, aTotal - inner);
+		add(Phase.COMPRESS, inner - aWire.mNanos);
+		add(Phase.SEND, aWire.mNanos);
+		mWriteNanos += aTotal;
+		mRequestBytes += aPlain == null ? aWire.mCount : aPlain.mCount;
+		mRequestWireBytes += aWire.mCount;
+	}
+
+	/**
+	 * Marks an attempt as sent.
+	 */
+	void startExchange() {
+		mAttempts++;
+		mExchangeStart = System.nanoTime();
+		mExchangeWriteNanos = mWriteNanos;
+	}
+
+	/**
+	 * Marks the response of an attempt as received, or failed.
+	 * 
+	 * @param aStatusCode
+	 *            the HTTP status, or -1 if no response was received
+	 */
+	void endExchange(int aStatusCode) {
+		long written = mWriteNanos - mExchangeWriteNanos;
+		add(Phase.WAIT, System.nanoTime() - mExchangeStart - written);
+		mStatusCode = aStatusCode;
+	}
+
+	/**
+	 * Records the reading of a response body.
+	 * 
+	 * @param aTotal
+	 *            the time to read and parse the body
+	 * @param aWire
+	 *            counts what was read from the connection
+	 * @param aInflated
+	 *            counts what was read after decompression, or null if not
+	 *            compressed
+	 */
+	void onResponseBody(long aTotal, MeteredInputStream aWire,
+			MeteredInputStream aInflated) {
+		MeteredInputStream plain = aInflated == null ? aWire : aInflated;
+		add(Phase.RECEIVE, aWire.mNanos);
+		add(Phase.DECOMPRESS, plain.mNanos - aWire.mNanos);
+		add(Phase.PARSE, aTotal - plain.mNanos);
+		mResponseWireBytes += aWire.mCount;
+		mResponseBytes += plain.mCount;
+	}
+
+	void addEntities(int aCount) {
+		mEntityCount += aCount;
+	}
+
+	/**
+	 * Creates the metrics of the request, now complete.
+	 * 
+	 * @param aFailure
+	 *            the failure, or null if a result was returned
+	 */
+	RequestMetrics toMetrics(Throwable aFailure) {
+		mDurations[Phase.TOTAL.ordinal()] = System.nanoTime() - mStart;
+		return new RequestMetrics(mDurations, mRequestBytes,
+				mRequestWireBytes, mResponseWireBytes, mResponseBytes,
+				mEntityCount, mStatusCode, mAttempts, aFailure);
+	}
+
+	/**
+	 * Counts the bytes written and the time spent writing them.
+	 */
+	static class MeteredOutputStream extends FilterOutputStream {
+
+		long mCount;
+
+		long mNanos;
+
+		MeteredOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			long start = System.nanoTime();
+			out.write(b);
+			mNanos += System.nanoTime() - start;
+			mCount++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			out.write(b, off, len);
+			mNanos += System.nanoTime() - start;
+			mCount += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			long start = System.nanoTime();
+			out.flush();
+			mNanos += System.nanoTime() - start;
+		}
+
+	}
+
+	/**
+	 * Counts the bytes read and the time spent reading them.
+	 */
+	static class MeteredInputStream extends FilterInputStream {
+
+		long mCount;
+
+		long mNanos;
+
+		MeteredInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			int b = in.read();
+			mNanos += System.nanoTime() - start;
+			if (b >= 0) {
+				mCount++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int n = in.read(b, off, len);
+			mNanos += System.nanoTime() - start;
+			if (n > 0) {
+				mCount += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long start = System.nanoTime();
+			long skipped = in.skip(n);
+			mNanos += System.nanoTime() - start;
+			mCount += skipped;
+			return skipped;
+		}
+
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.NameValuePair;
+
+import com.ltasks.htmlfilteroptions.HtmlFilterOptions;
+
+/**
+ * <p>
+ * A precompiled request of a {@link LtasksNameFinderClient}: the API key,
+ * the flags and the html filter options are url-encoded once, when the
+ * template is created, and each request only encodes its document. It saves
+ * the list, the pairs and the encoding of the constant parameters, which are
+ * a large share of the work for short texts.
+ * </p>
+ * <p>
+ * The filter options are read when the template is created, so later changes
+ * to them do not affect it; the same holds for the client source text
+ * settings. Everything else, such as the connection, the cache or the retry
+ * policy, is taken from the client on each request. Each document is sent in
+ * its own request: the client chunker and batcher are not used. A template is
+ * immutable and thread-safe.
+ * </p>
+ */
+public final class RequestTemplate {
+
+	private final LtasksNameFinderClient mClient;
+
+	/** the encoded parameters of texts */
+	private final NameValuePair mTextParameters;
+
+	/** the encoded parameters of HTMLs and URLs, with the filter options */
+	private final NameValuePair mFilteredParameters;
+
+	/** if true texts are not sent back and become the source text */
+	private final boolean mIsLocalSourceText;
+
+	/**
+	 * Creates a new template
+	 * 
+	 * @param aClient
+	 *            the client that sends the requests
+	 * @param aFilterOptions
+	 *            the html filter options of HTMLs and URLs, or null
+	 */
+	public RequestTemplate(LtasksNameFinderClient aClient,
+			HtmlFilterOptions aFilterOptions) {
+		mClient = aClient;
+		mIsLocalSourceText = aClient.isLocalSourceText()
+				&& aClient.isIncludeSourceText();
+		List<NameValuePair> text = new ArrayList<NameValuePair>(1);
+		if (mIsLocalSourceText) {
+			text.add(new NameValuePair("includeSourceText", "false"));
+		}
+		mTextParameters = aClient.compileParameters(text);
+		// the document is added by each request
+		List<NameValuePair> filtered = aClient.createNameValuePairs(null,
+				aFilterOptions);
+		mFilteredParameters = aClient.compileParameters(filtered.subList(1,
+				filtered.size()));
+	}
+
+	/**
+	 * Gets the client that sends the requests
+	 * 
+	 * @return the client
+	 */
+	public LtasksNameFinderClient getClient() {
+		return mClient;
+	}
+
+	/**
+	 * Annotate a text
+	 * 
+	 * @param aText
+	 *            the text to annotate
+	 * @return the annotation object
+	 * @throws HttpException
+	 *             Got a protocol error.
+	 * @throws IOException
+	 *             Failed to communicate or to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	public LtasksObject processText(String aText) throws HttpException,
+			IOException {
+		LtasksObject result = mClient.postBody(
+				body("text", aText, mTextParameters), null);
+		return mIsLocalSourceText ? LtasksNameFinderClient.withSourceText(
+				result, aText) : result;
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a HTML
+	 * 
+	 * @param aHtml
+	 *            the HTML
+	 * @return the annotation object
+	 * @throws HttpException
+	 *             Got a protocol error.
+	 * @throws IOException
+	 *             Failed to communicate or to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	public LtasksObject processHtml(String aHtml) throws HttpException,
+			IOException {
+		return mClient.postBody(body("html", aHtml, mFilteredParameters),
+				null);
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a URL
+	 * 
+	 * @param aUrl
+	 *            the URL
+	 * @return the annotation object
+	 * @throws HttpException
+	 *             Got a protocol error.
+	 * @throws IOException
+	 *             Failed to communicate or to read the result.
+	 * @throws IllegalArgumentException
+	 *             The data received from server was invalid.
+	 */
+	public LtasksObject processUrl(URL aUrl) throws HttpException,
+			IOException {
+		return mClient.postBody(
+				body("url", aUrl.toString(), mFilteredParameters), null);
+	}
+
+	/**
+	 * Annotate a text without blocking the calling thread
+	 * 
+	 * @param aText
+	 *            the text to annotate
+	 * @return a future that completes with the annotation object
+	 * @see LtasksNameFinderClient#processTextAsync(String)
+	 */
+	public CompletableFuture<LtasksObject> processTextAsync(final String aText) {
+		CompletableFuture<LtasksObject> future = mClient
+				.postBodyAsync(body("text", aText, mTextParameters));
+		return mIsLocalSourceText ? future.thenApply(r -> LtasksNameFinderClient
+				.withSourceText(r, aText)) : future;
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a HTML without blocking the
+	 * calling thread
+	 * 
+	 * @param aHtml
+	 *            the HTML
+	 * @return a future that completes with the annotation object
+	 * @see LtasksNameFinderClient#processHtmlAsync(String)
+	 */
+	public CompletableFuture<LtasksObject> processHtmlAsync(String aHtml) {
+		return mClient.postBodyAsync(body("html", aHtml, mFilteredParameters));
+	}
+
+	/**
+	 * Annotate a filtered normalized text from a URL without blocking the
+	 * calling thread
+	 * 
+	 * @param aUrl
+	 *            the URL
+	 * @return a future that completes with the annotation object
+	 * @see LtasksNameFinderClient#processUrlAsync(URL)
+	 */
+	public CompletableFuture<LtasksObject> processUrlAsync(URL aUrl) {
+		return mClient.postBodyAsync(body("url", aUrl.toString(),
+				mFilteredParameters));
+	}
+
+	private static NameValuePair[] body(String aName, String aDocument,
+			NameValuePair aParameters) {
+		return new NameValuePair[] { new NameValuePair(aName, aDocument),
+				aParameters };
+	}
+
+}
@@ -33,16 +33,64 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
- * Parses the XML result. It implements SAX.
+ * Parses the XML result. It implements SAX. The underlying SAX parser is
+ * reused by each thread.
  *
  */
 public class ResultParser extends DefaultHandler {
 
+	/** Shared factory, only used while holding its lock */
+	private static final SAXParserFactory FACTORY = SAXParserFactory
+			.newInstance();
+
+	/**
+	 * Parsers are expensive to create and not thread-safe, so each thread
+	 * keeps one and reuses it for all responses it reads.
+	 */
+	private static final ThreadLocal<SAXParser> PARSERS = new ThreadLocal<SAXParser>();
+
 	private boolean mIsTextElement = false;
 	private StringBuilder mSourceTextBuilder;
 	private List<NamedEntity> mNamedEntities = new ArrayList<NamedEntity>();
 	private StringBuilder mMessageBuilder;
 	private boolean mIsMessageElement;
+	private final NamedEntityListener mListener;
+	/** Collects the entities in columns, null to collect objects */
+	private final CompactEntityList.Builder mCompactEntities;
+
+	/**
+	 * Creates a new parser that collects the entities in the result.
+	 */
+	public ResultParser() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new parser.
+	 * 
+	 * @param aListener
+	 *            receives the entities as they are parsed, or null to collect
+	 *            them in the result
+	 */
+	public ResultParser(NamedEntityListener aListener) {
+		this(aListener, false);
+	}
+
+	/**
+	 * Creates a new parser.
+	 * 
+	 * @param aListener
+	 *            receives the entities as they are parsed, or null to collect
+	 *            them in the result
+	 * @param aIsCompact
+	 *            if true the entities are collected in a compact list, whose
+	 *            entity texts are read from the source text
+	 */
+	public ResultParser(NamedEntityListener aListener, boolean aIsCompact) {
+		mListener = aListener;
+		mCompactEntities = aIsCompact && aListener == null ? new CompactEntityList.Builder()
+				: null;
+	}
 
 	@Override
 	public void characters(char[] ch, int start, int length)
@@ -56,17 +104,24 @@ public class ResultParser extends DefaultHandler {
 
 	public void startElement(String uri, String localName, String qName,
 			Attributes attrs) throws SAXException {
-		if ("result".equals(qName) || "namedEntities".equals(qName)) {
+		// a string switch dispatches on the hash code, no linear scan
+		switch (qName) {
+		case "result":
+		case "namedEntities":
 			// skip parent
-		} else if (qName.equals("text")) {
+			break;
+		case "text":
 			this.mSourceTextBuilder = new StringBuilder();
 			this.mIsTextElement = true;
-		} else if (qName.equals("namedEntity")) {
+			break;
+		case "namedEntity":
 			addNamedEntity(attrs);
-		} else if (qName.equals("message")) {
+			break;
+		case "message":
 			this.mMessageBuilder = new StringBuilder();
 			this.mIsMessageElement = true;
-		} else {
+			break;
+		default:
 			throw new IllegalArgumentException("Element '" + qName
 					+ "' is not allowed here");
 		}
@@ -77,25 +132,66 @@ public class ResultParser extends DefaultHandler {
 		NerType type = null;
 		int begin = 0, end = 0;
 		for (int i = 0; i < attrs.getLength(); i++) {
-			if ("text".equals(attrs.getQName(i))) {
+			switch (attrs.getQName(i)) {
+			case "text":
 				text = attrs.getValue(i);
-			} else if ("type".equals(attrs.getQName(i))) {
+				break;
+			case "type":
 				type = NerType.fromValue(attrs.getValue(i));
-			} else if ("begin".equals(attrs.getQName(i))) {
-				begin = Integer.parseInt(attrs.getValue(i));
-			} else if ("end".equals(attrs.getQName(i))) {
-				end = Integer.parseInt(attrs.getValue(i));
+				break;
+			case "begin":
+				begin = parseOffset(attrs.getValue(i));
+				break;
+			case "end":
+				end = parseOffset(attrs.getValue(i));
+				break;
+			default:
+				break;
+			}
+		}
+		if (mCompactEntities != null) {
+			mCompactEntities.add(text, type, begin, end);
+			return;
+		}
+		NamedEntity entity = new NamedEntity(text, type, begin, end);
+		if (mListener != null) {
+			mListener.onNamedEntity(entity);
+		} else {
+			mNamedEntities.add(entity);
+		}
+	}
+
+	/**
+	 * Parses a non-negative offset reading the digits in place.
+	 */
+	private static int parseOffset(String aValue) {
+		int length = aValue.length();
+		if (length == 0 || length > 9) {
+			// empty, or may overflow: let parseInt report it
+			return Integer.parseInt(aValue);
+		}
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			int digit = aValue.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.parseInt(aValue);
 			}
+			value = value * 10 + digit;
 		}
-		mNamedEntities.add(new NamedEntity(text, type, begin, end));
+		return value;
 	}
 
 	public void endElement(String uri, String localName, String qName)
 			throws SAXException {
-		if (qName.equals("text")) {
+		switch (qName) {
+		case "text":
 			this.mIsTextElement = false;
-		} else if (qName.equals("message")) {
+			break;
+		case "message":
 			this.mIsMessageElement = false;
+			break;
+		default:
+			break;
 		}
 	}
 
@@ -110,21 +206,72 @@ public class ResultParser extends DefaultHandler {
 		if (mMessageBuilder != null) {
 			message = mMessageBuilder.toString();
 		}
-		return new LtasksObject(text, message, aIsOK,
-				Collections.unmodifiableList(mNamedEntities));
+		List<NamedEntity> entities;
+		if (mCompactEntities != null) {
+			entities = mCompactEntities.build(text);
+		} else {
+			entities = Collections.unmodifiableList(mNamedEntities);
+		}
+		return new LtasksObject(text, message, aIsOK, entities);
 	}
 
 	public static LtasksObject parse(InputStream aXML, boolean aIsOk)
 			throws ParserConfigurationException, SAXException, IOException {
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		SAXParser parser = factory.newSAXParser();
-		ResultParser handler = new ResultParser();
-		
-		InputSource inputSource = new InputSource(aXML);
-		//inputSource.setSystemId("http://www.oreilly.com");
-		//inputSource.setEncoding("UTF-8");
-		
-		parser.parse(inputSource, handler);
+		return parse(aXML, aIsOk, null);
+	}
+
+	/**
+	 * Parses a result, streaming the entities to a listener as they are read.
+	 * 
+	 * @param aXML
+	 *            the result XML
+	 * @param aIsOk
+	 *            if true the result was OK
+	 * @param aListener
+	 *            receives the entities, or null to collect them in the result
+	 * @return the result. If a listener was given its entity list is empty.
+	 */
+	public static LtasksObject parse(InputStream aXML, boolean aIsOk,
+			NamedEntityListener aListener) throws ParserConfigurationException,
+			SAXException, IOException {
+		return parse(aXML, aIsOk, aListener, false);
+	}
+
+	/**
+	 * Parses a result, streaming the entities to a listener as they are read.
+	 * 
+	 * @param aXML
+	 *            the result XML
+	 * @param aIsOk
+	 *            if true the result was OK
+	 * @param aListener
+	 *            receives the entities, or null to collect them in the result
+	 * @param aIsCompact
+	 *            if true and there is no listener, the entities are collected
+	 *            in a compact list: columns of offsets and types, and texts
+	 *            read from the source text when they are asked
+	 * @return the result. If a listener was given its entity list is empty.
+	 */
+	public static LtasksObject parse(InputStream aXML, boolean aIsOk,
+			NamedEntityListener aListener, boolean aIsCompact)
+			throws ParserConfigurationException, SAXException, IOException {
+		SAXParser parser = PARSERS.get();
+		if (parser == null) {
+			synchronized (FACTORY) {
+				parser = FACTORY.newSAXParser();
+			}
+		} else {
+			// a listener may parse another response while this one is read
+			PARSERS.remove();
+		}
+		ResultParser handler = new ResultParser(aListener, aIsCompact);
+		try {
+			parser.parse(new InputSource(aXML), handler);
+		} finally {
+			// leaves the parser ready for the next response of this thread
+			parser.reset();
+			PARSERS.set(parser);
+		}
 		return handler.getObject(aIsOk);
 	}
 
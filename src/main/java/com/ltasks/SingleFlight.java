@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.ltasks.cache.CacheKey;
+
+/**
+ * Coalesces concurrent identical requests: while a request is in flight, other
+ * requests with the same key wait for it and get the same result instead of
+ * calling the server again. If the request fails, they get the same
+ * exception.
+ */
+class SingleFlight {
+
+	/** A blocking call */
+	interface Call {
+		LtasksObject call() throws IOException;
+	}
+
+	private final ConcurrentMap<CacheKey, CompletableFuture<LtasksObject>> mInFlight = new ConcurrentHashMap<CacheKey, CompletableFuture<LtasksObject>>();
+
+	private final AtomicLong mCoalescedCount = new AtomicLong();
+
+	/**
+	 * Runs the call, unless an identical one is in flight, in which case its
+	 * outcome is shared.
+	 */
+	LtasksObject execute(CacheKey aKey, Call aCall) throws IOException {
+		CompletableFuture<LtasksObject> flight = new CompletableFuture<LtasksObject>();
+		CompletableFuture<LtasksObject> leader = mInFlight.putIfAbsent(aKey,
+				flight);
+		if (leader != null) {
+			mCoalescedCount.incrementAndGet();
+			return await(leader);
+		}
+		try {
+			LtasksObject result = aCall.call();
+			flight.complete(result);
+			return result;
+		} catch (Throwable t) {
+			// an Error too, or the followers would wait forever
+			flight.completeExceptionally(t);
+			throw t;
+		} finally {
+			mInFlight.remove(aKey, flight);
+		}
+	}
+
+	/**
+	 * Starts the call, unless an identical one is in flight, in which case its
+	 * outcome is shared.
+	 */
+	CompletableFuture<LtasksObject> executeAsync(final CacheKey aKey,
+			Supplier<CompletableFuture<LtasksObject>> aCall) {
+		CompletableFuture<LtasksObject> flight = new CompletableFuture<LtasksObject>();
+		CompletableFuture<LtasksObject> leader = mInFlight.putIfAbsent(aKey,
+				flight);
+		if (leader != null) {
+			mCoalescedCount.incrementAndGet();
+			// a copy, so a waiter cancelling its future does not affect others
+			return leader.copy();
+		}
+		final CompletableFuture<LtasksObject> own = flight;
+		CompletableFuture<LtasksObject> call;
+		try {
+			call = aCall.get();
+		} catch (RuntimeException e) {
+			call = CompletableFuture.failedFuture(e);
+		}
+		call.whenComplete((result, error) -> {
+			mInFlight.remove(aKey, own);
+			if (error != null) {
+				own.completeExceptionally(error);
+			} else {
+				own.complete(result);
+			}
+		});
+		return own.copy();
+	}
+
+	/**
+	 * Gets the number of requests that were answered by an identical request
+	 * in flight
+	 */
+	long getCoalescedCount() {
+		return mCoalescedCount.get();
+	}
+
+	/**
+	 * Waits for the leader, rethrowing its exception, so callers can tell a
+	 * {@link com.ltasks.resilience.CircuitOpenException} or a timeout apart.
+	 */
+	private static LtasksObject await(CompletableFuture<LtasksObject> aLeader)
+			throws IOException {
+		try {
+			return aLeader.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for an identical request.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CompletionException
+					&& cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import com.ltasks.transport.RequestBody;
+
+/**
+ * A form request entity that url-encodes, and optionally gzips, the
+ * parameters while they are written to the connection. It can also send a
+ * single document as a plain UTF-8 body. Only a buffer of bufferSize bytes is
+ * held in memory, whatever the size of the parameters, and it is taken from a
+ * {@link CodecPool} along with the deflater. The length is unknown, so the
+ * request must be sent chunked.
+ */
+class StreamingFormRequestEntity implements RequestEntity, RequestBody {
+
+	private final NameValuePair[] mParameters;
+
+	/** The document sent as plain UTF-8, null to send the parameters */
+	private final CharSequence mDocument;
+
+	private final String mContentType;
+
+	private final boolean mIsGzip;
+
+	private final int mCompressionLevel;
+
+	private final int mBufferSize;
+
+	private final Recorder mRecorder;
+
+	private final CodecPool mPool;
+
+	/**
+	 * Creates a new entity
+	 * 
+	 * @param aParameters
+	 *            the form parameters
+	 * @param aIsGzip
+	 *            if true the body is gzipped
+	 * @param aCompressionLevel
+	 *            the compression level, from 0 to 9, or -1 for the default
+	 * @param aBufferSize
+	 *            the size of the encoding and compression buffers
+	 */
+	StreamingFormRequestEntity(NameValuePair[] aParameters, boolean aIsGzip,
+			int aCompressionLevel, int aBufferSize) {
+		this(aParameters, aIsGzip, aCompressionLevel, aBufferSize, null,
+				CodecPool.getDefault());
+	}
+
+	/**
+	 * Creates a new entity that records the time and bytes of each write
+	 * 
+	 * @param aParameters
+	 *            the form parameters
+	 * @param aIsGzip
+	 *            if true the body is gzipped
+	 * @param aCompressionLevel
+	 *            the compression level, from 0 to 9, or -1 for the default
+	 * @param aBufferSize
+	 *            the size of the encoding and compression buffers
+	 * @param aRecorder
+	 *            records the writes, or null
+	 * @param aPool
+	 *            gives the buffers and the deflater
+	 */
+	StreamingFormRequestEntity(NameValuePair[] aParameters, boolean aIsGzip,
+			int aCompressionLevel, int aBufferSize, Recorder aRecorder,
+			CodecPool aPool) {
+		mParameters = aParameters;
+		mDocument = null;
+		mContentType = PostMethod.FORM_URL_ENCODED_CONTENT_TYPE;
+		mIsGzip = aIsGzip;
+		mCompressionLevel = aCompressionLevel;
+		mBufferSize = aBufferSize;
+		mRecorder = aRecorder;
+		mPool = aPool;
+	}
+
+	/**
+	 * Creates a new entity that sends a document as a plain UTF-8 body
+	 * 
+	 * @param aDocument
+	 *            the document, written as it is read
+	 * @param aContentType
+	 *            the content type of the document
+	 * @param aIsGzip
+	 *            if true the body is gzipped
+	 * @param aCompressionLevel
+	 *            the compression level, from 0 to 9, or -1 for the default
+	 * @param aBufferSize
+	 *            the size of the encoding and compression buffers
+	 * @param aRecorder
+	 *            records the writes, or null
+	 * @param aPool
+	 *            gives the buffers and the deflater
+	 */
+	StreamingFormRequestEntity(CharSequence aDocument, String aContentType,
+			boolean aIsGzip, int aCompressionLevel, int aBufferSize,
+			Recorder aRecorder, CodecPool aPool) {
+		mParameters = null;
+		mDocument = aDocument;
+		mContentType = aContentType;
+		mIsGzip = aIsGzip;
+		mCompressionLevel = aCompressionLevel;
+		mBufferSize = aBufferSize;
+		mRecorder = aRecorder;
+		mPool = aPool;
+	}
+
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	public void writeRequest(OutputStream out) throws IOException {
+		long start = mRecorder == null ? 0 : System.nanoTime();
+		Recorder.MeteredOutputStream wire = null;
+		if (mRecorder != null) {
+			wire = new Recorder.MeteredOutputStream(out);
+			out = wire;
+		}
+		if (!mIsGzip) {
+			encode(out);
+			if (mRecorder != null) {
+				mRecorder.onRequestBody(System.nanoTime() - start, null, 0,
+						wire);
+			}
+			return;
+		}
+		PooledGZIPOutputStream gzipOut = new PooledGZIPOutputStream(out,
+				mPool, mCompressionLevel, mBufferSize);
+		try {
+			Recorder.MeteredOutputStream plain = null;
+			if (mRecorder == null) {
+				encode(gzipOut);
+				gzipOut.finish();
+			} else {
+				plain = new Recorder.MeteredOutputStream(gzipOut);
+				encode(plain);
+				long finish = System.nanoTime();
+				gzipOut.finish();
+				long end = System.nanoTime();
+				mRecorder.onRequestBody(end - start, plain, end - finish,
+						wire);
+			}
+		} finally {
+			// the connection stream stays open, the deflater goes back
+			gzipOut.release();
+		}
+	}
+
+	private void encode(OutputStream out) throws IOException {
+		byte[] buffer = mPool.acquireBuffer(FormEncoder.bufferSize(mBufferSize));
+		try {
+			FormEncoder encoder = new FormEncoder(out, buffer);
+			if (mDocument != null) {
+				encoder.writeText(mDocument);
+			} else {
+				encoder.write(mParameters);
+			}
+		} finally {
+			mPool.releaseBuffer(buffer);
+		}
+	}
+
+	public long getContentLength() {
+		return -1;
+	}
+
+	public String getContentType() {
+		return mContentType;
+	}
+
+}
@@ -0,0 +1,417 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Groups small texts annotated at about the same time in a single request. A
+ * batch is sent when it has the maximum number of texts or length, or when
+ * the first text waited the maximum delay. The texts are joined with a line
+ * holding a single period, which ends both the sentence and the paragraph, and
+ * the entities of the result are given back to each text with its own
+ * offsets. An entity that would cross two texts is dropped.
+ * </p>
+ * <p>
+ * Each caller gets its own result, as if its text was sent alone: a failed
+ * batch fails all its texts. Batching trades up to the maximum delay of
+ * latency for fewer requests, so it pays off with many short texts sent
+ * concurrently. A batcher is thread-safe and can be shared by clients of the
+ * same resource.
+ * </p>
+ * 
+ * @see LtasksNameFinderClient#setBatcher(TextBatcher)
+ */
+public class TextBatcher {
+
+	/** Joins the texts of a batch */
+	static final String SEPARATOR = "\n.\n";
+
+	/** Sends the joined texts of a batch */
+	interface Sender {
+		CompletableFuture<LtasksObject> send(String aText);
+	}
+
+	/** The texts waiting to be sent together */
+	private static final class Batch {
+
+		final StringBuilder mText = new StringBuilder();
+
+		final List<String> mTexts = new ArrayList<String>();
+
+		final List<Integer> mOffsets = new ArrayList<Integer>();
+
+		final List<CompletableFuture<LtasksObject>> mFutures = new ArrayList<CompletableFuture<LtasksObject>>();
+
+		final Sender mSender;
+
+		Batch(Sender aSender) {
+			mSender = aSender;
+		}
+
+		void add(String aText, CompletableFuture<LtasksObject> aFuture) {
+			if (mText.length() > 0) {
+				mText.append(SEPARATOR);
+			}
+			mOffsets.add(mText.length());
+			mText.append(aText);
+			mTexts.add(aText);
+			mFutures.add(aFuture);
+		}
+
+	}
+
+	private final int mMaxTexts;
+
+	private final long mMaxDelayNanos;
+
+	private final Executor mDelayedExecutor;
+
+	private volatile int mMaxTextLength = 1024;
+
+	private volatile int mMaxLength = 64 * 1024;
+
+	/** The batch being filled, null if none */
+	private Batch mBatch;
+
+	private final AtomicLong mBatchCount = new AtomicLong();
+
+	private final AtomicLong mTextCount = new AtomicLong();
+
+	/**
+	 * Creates a new batcher
+	 * 
+	 * @param aMaxTexts
+	 *            the maximum number of texts of a batch
+	 * @param aMaxDelay
+	 *            the maximum time, in milliseconds, a text waits for others
+	 * @throws IllegalArgumentException
+	 *             if the number of texts is not positive or the delay is
+	 *             negative
+	 */
+	public TextBatcher(int aMaxTexts, long aMaxDelay)
+			throws IllegalArgumentException {
+		if (aMaxTexts <= 0) {
+			throw new IllegalArgumentException(
+					"the maximum number of texts must be positive.");
+		}
+		if (aMaxDelay < 0) {
+			throw new IllegalArgumentException(
+					"the maximum delay can not be negative.");
+		}
+		mMaxTexts = aMaxTexts;
+		mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(aMaxDelay);
+		mDelayedExecutor = CompletableFuture.delayedExecutor(aMaxDelay,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the maximum number of texts of a batch
+	 * 
+	 * @return the number of texts
+	 */
+	public int getMaxTexts() {
+		return mMaxTexts;
+	}
+
+	/**
+	 * Gets the maximum time a text waits for others
+	 * 
+	 * @return the delay in milliseconds
+	 */
+	public long getMaxDelay() {
+		return TimeUnit.NANOSECONDS.toMillis(mMaxDelayNanos);
+	}
+
+	/**
+	 * Gets the maximum length of a text to be batched
+	 * 
+	 * @return the length in chars
+	 */
+	public int getMaxTextLength() {
+		return mMaxTextLength;
+	}
+
+	/**
+	 * Sets the maximum length of a text to be batched. Longer texts are sent
+	 * alone. Default is 1024.
+	 * 
+	 * @param aMaxTextLength
+	 *            the length in chars
+	 * @throws IllegalArgumentException
+	 *             if the length is not positive
+	 */
+	public void setMaxTextLength(int aMaxTextLength)
+			throws IllegalArgumentException {
+		if (aMaxTextLength <= 0) {
+			throw new IllegalArgumentException(
+					"the maximum text length must be positive.");
+		}
+		mMaxTextLength = aMaxTextLength;
+	}
+
+	/**
+	 * Gets the maximum length of the joined texts of a batch
+	 * 
+	 * @return the length in chars
+	 */
+	public int getMaxLength() {
+		return mMaxLength;
+	}
+
+	/**
+	 * Sets the maximum length of the joined texts of a batch. Default is
+	 * 65536.
+	 * 
+	 * @param aMaxLength
+	 *            the length in chars
+	 * @throws IllegalArgumentException
+	 *             if the length is not positive
+	 */
+	public void setMaxLength(int aMaxLength) throws IllegalArgumentException {
+		if (aMaxLength <= 0) {
+			throw new IllegalArgumentException(
+					"the maximum length must be positive.");
+		}
+		mMaxLength = aMaxLength;
+	}
+
+	/**
+	 * Gets the number of batches sent
+	 * 
+	 * @return the number of requests
+	 */
+	public long getBatchCount() {
+		return mBatchCount.get();
+	}
+
+	/**
+	 * Gets the number of texts sent in batches
+	 * 
+	 * @return the number of texts
+	 */
+	public long getTextCount() {
+		return mTextCount.get();
+	}
+
+	/**
+	 * Sends the batch being filled now, without waiting for more texts.
+	 */
+	public void flush() {
+		Batch batch;
+		synchronized (this) {
+			batch = mBatch;
+			mBatch = null;
+		}
+		send(batch);
+	}
+
+	/**
+	 * Tells if a text is short enough to be batched
+	 */
+	boolean accepts(String aText) {
+		return aText.length() <= mMaxTextLength
+				&& aText.length() <= mMaxLength;
+	}
+
+	/**
+	 * Adds a text to the batch being filled
+	 * 
+	 * @param aText
+	 *            the text
+	 * @param aSender
+	 *            sends the batch. The sender of the first text of a batch is
+	 *            used.
+	 * @return the result of the text
+	 */
+	CompletableFuture<LtasksObject> submit(String aText, Sender aSender) {
+		CompletableFuture<LtasksObject> future = new CompletableFuture<LtasksObject>();
+		// the batch the text does not fit in
+		Batch previous = null;
+		Batch full = null;
+		Batch started = null;
+		synchronized (this) {
+			Batch batch = mBatch;
+			if (batch != null
+					&& batch.mText.length() + SEPARATOR.length()
+							+ aText.length() > mMaxLength) {
+				previous = batch;
+				batch = null;
+			}
+			if (batch == null) {
+				batch = new Batch(aSender);
+				started = batch;
+			}
+			batch.add(aText, future);
+			if (batch.mTexts.size() >= mMaxTexts
+					|| batch.mText.length() >= mMaxLength) {
+				full = batch;
+				mBatch = null;
+			} else {
+				mBatch = batch;
+			}
+		}
+		send(previous);
+		send(full);
+		if (started != null && started != full) {
+			final Batch timed = started;
+			mDelayedExecutor.execute(new Runnable() {
+				public void run() {
+					synchronized (TextBatcher.this) {
+						if (mBatch != timed) {
+							// already sent
+							return;
+						}
+						mBatch = null;
+					}
+					send(timed);
+				}
+			});
+		}
+		return future;
+	}
+
+	/**
+	 * Adds a text to the batch being filled and waits for its result
+	 * 
+	 * @param aText
+	 *            the text
+	 * @param aSender
+	 *            sends the batch
+	 * @return the result of the text
+	 * @throws IOException
+	 *             if the batch failed
+	 */
+	LtasksObject process(String aText, Sender aSender) throws IOException {
+		try {
+			return submit(aText, aSender).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for a batch.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CompletionException
+					&& cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private void send(final Batch aBatch) {
+		if (aBatch == null) {
+			return;
+		}
+		mBatchCount.incrementAndGet();
+		mTextCount.addAndGet(aBatch.mTexts.size());
+		CompletableFuture<LtasksObject> result;
+		try {
+			result = aBatch.mSender.send(aBatch.mText.toString());
+		} catch (RuntimeException e) {
+			result = CompletableFuture.failedFuture(e);
+		}
+		result.whenComplete((r, e) -> {
+			if (e != null) {
+				fail(aBatch, e);
+				return;
+			}
+			try {
+				if (r.isProcessedOk()) {
+					split(aBatch, r);
+				} else {
+					// no entities to split, maybe not even a list
+					for (CompletableFuture<LtasksObject> future : aBatch.mFutures) {
+						future.complete(r);
+					}
+				}
+			} catch (Throwable t) {
+				// or the texts would wait forever
+				fail(aBatch, t);
+			}
+		});
+	}
+
+	/**
+	 * Completes the texts of a batch not completed yet with a failure.
+	 */
+	private static void fail(Batch aBatch, Throwable aFailure) {
+		for (CompletableFuture<LtasksObject> future : aBatch.mFutures) {
+			future.completeExceptionally(aFailure);
+		}
+	}
+
+	/**
+	 * Completes each text of a batch with its part of the result.
+	 */
+	private static void split(Batch aBatch, LtasksObject aResult) {
+		int count = aBatch.mTexts.size();
+		List<List<NamedEntity>> entities = new ArrayList<List<NamedEntity>>(
+				count);
+		for (int i = 0; i < count; i++) {
+			entities.add(new ArrayList<NamedEntity>());
+		}
+		for (NamedEntity entity : aResult.getNamedEntities()) {
+			int i = Collections.binarySearch(aBatch.mOffsets,
+					entity.getBegin());
+			if (i < 0) {
+				// the text starting before the entity
+				i = -i - 2;
+			}
+			if (i < 0) {
+				continue;
+			}
+			int offset = aBatch.mOffsets.get(i);
+			if (entity.getEnd() - offset > aBatch.mTexts.get(i).length()) {
+				// in the separator, or crossing to the next text
+				continue;
+			}
+			entities.get(i).add(
+					new NamedEntity(entity.getText(), entity.getType(), entity
+							.getBegin() - offset, entity.getEnd() - offset));
+		}
+		for (int i = 0; i < count; i++) {
+			aBatch.mFutures.get(i).complete(
+					new LtasksObject(aResult.getSourceText() == null ? null
+							: aBatch.mTexts.get(i), aResult.getMessage(),
+							aResult.isProcessedOk(), Collections
+									.unmodifiableList(entities.get(i))));
+		}
+	}
+
+}
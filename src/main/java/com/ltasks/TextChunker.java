@@ -0,0 +1,317 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * Splits a large text in chunks of a maximum length, so it can be annotated
+ * with several requests processed in parallel, and merges the results back.
+ * A chunk ends at the last paragraph break of its second half, or else at the
+ * last end of sentence, or else at the last space. The next chunk starts a
+ * little before, at the first sentence of the overlap, so an entity cut at
+ * the end of a chunk is found whole in the next one.
+ * </p>
+ * <p>
+ * When merging, the offsets of the entities are remapped to the whole text.
+ * In an overlap, entities starting before its middle are taken from the first
+ * chunk and the others from the second, but an entity crossing the middle is
+ * kept once, the longest found by either chunk. A chunker is immutable and can
+ * be shared.
+ * </p>
+ * 
+ * @see LtasksNameFinderClient#setChunker(TextChunker)
+ */
+public class TextChunker {
+
+	/** A part of the text */
+	public static final class Chunk {
+
+		private final String mText;
+
+		private final int mOffset;
+
+		Chunk(String aText, int aOffset) {
+			mText = aText;
+			mOffset = aOffset;
+		}
+
+		/**
+		 * Gets the text of the chunk
+		 * 
+		 * @return the text
+		 */
+		public String getText() {
+			return mText;
+		}
+
+		/**
+		 * Gets the begin of the chunk in the whole text
+		 * 
+		 * @return the offset of the first char
+		 */
+		public int getOffset() {
+			return mOffset;
+		}
+
+		/**
+		 * Gets the end of the chunk in the whole text
+		 * 
+		 * @return the offset after the last char
+		 */
+		public int getEnd() {
+			return mOffset + mText.length();
+		}
+
+	}
+
+	private static final Comparator<NamedEntity> BY_POSITION = new Comparator<NamedEntity>() {
+		public int compare(NamedEntity a, NamedEntity b) {
+			if (a.getBegin() != b.getBegin()) {
+				return Integer.compare(a.getBegin(), b.getBegin());
+			}
+			return Integer.compare(a.getEnd(), b.getEnd());
+		}
+	};
+
+	private final int mMaxLength;
+
+	private final int mOverlap;
+
+	/**
+	 * Creates a new chunker
+	 * 
+	 * @param aMaxLength
+	 *            the maximum length of a chunk, in chars
+	 * @param aOverlap
+	 *            the length of text sent in two consecutive chunks, in chars.
+	 *            It should be longer than the longest entity expected.
+	 * @throws IllegalArgumentException
+	 *             if the length is less than 2, or the overlap is negative or
+	 *             not less than half the length
+	 */
+	public TextChunker(int aMaxLength, int aOverlap)
+			throws IllegalArgumentException {
+		if (aMaxLength < 2) {
+			throw new IllegalArgumentException(
+					"the maximum length must be at least 2.");
+		}
+		if (aOverlap < 0 || aOverlap * 2 >= aMaxLength) {
+			throw new IllegalArgumentException(
+					"the overlap must be between 0 and half the maximum length.");
+		}
+		mMaxLength = aMaxLength;
+		mOverlap = aOverlap;
+	}
+
+	/**
+	 * Gets the maximum length of a chunk
+	 * 
+	 * @return the length in chars
+	 */
+	public int getMaxLength() {
+		return mMaxLength;
+	}
+
+	/**
+	 * Gets the length of text sent in two consecutive chunks
+	 * 
+	 * @return the length in chars
+	 */
+	public int getOverlap() {
+		return mOverlap;
+	}
+
+	/**
+	 * Splits a text
+	 * 
+	 * @param aText
+	 *            the text
+	 * @return the chunks, in order. A text not longer than the maximum length
+	 *         is a single chunk.
+	 */
+	public List<Chunk> split(String aText) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int start = 0;
+		while (aText.length() - start > mMaxLength) {
+			int end = findEnd(aText, start + mMaxLength / 2, start
+					+ mMaxLength);
+			chunks.add(new Chunk(aText.substring(start, end), start));
+			start = mOverlap == 0 ? end : findStart(aText, end - mOverlap, end);
+		}
+		chunks.add(new Chunk(aText.substring(start), start));
+		return chunks;
+	}
+
+	/**
+	 * Finds where a chunk ends, in a range
+	 */
+	private static int findEnd(String aText, int aFrom, int aTo) {
+		for (int i = aTo - 1; i >= aFrom; i--) {
+			if (aText.charAt(i) == '\n') {
+				return i + 1;
+			}
+		}
+		for (int i = aTo - 1; i > aFrom; i--) {
+			if (Character.isWhitespace(aText.charAt(i))
+					&& isSentenceEnd(aText.charAt(i - 1))) {
+				return i + 1;
+			}
+		}
+		for (int i = aTo - 1; i >= aFrom; i--) {
+			if (Character.isWhitespace(aText.charAt(i))) {
+				return i + 1;
+			}
+		}
+		return splitPoint(aText, aTo, -1);
+	}
+
+	/**
+	 * Finds where the next chunk starts, in a range
+	 */
+	private static int findStart(String aText, int aFrom, int aTo) {
+		for (int i = Math.max(aFrom, 2); i < aTo; i++) {
+			if (aText.charAt(i - 1) == '\n'
+					|| Character.isWhitespace(aText.charAt(i - 1))
+					&& isSentenceEnd(aText.charAt(i - 2))) {
+				return i;
+			}
+		}
+		for (int i = Math.max(aFrom, 1); i < aTo; i++) {
+			if (Character.isWhitespace(aText.charAt(i - 1))) {
+				return i;
+			}
+		}
+		// forward, the chunk must start after the previous one
+		return splitPoint(aText, aFrom, 1);
+	}
+
+	private static boolean isSentenceEnd(char c) {
+		return c == '.' || c == '!' || c == '?' || c == '…';
+	}
+
+	/**
+	 * Moves a split point off the middle of a surrogate pair, in a direction.
+	 */
+	private static int splitPoint(String aText, int aIndex, int aDirection) {
+		if (Character.isLowSurrogate(aText.charAt(aIndex))
+				&& Character.isHighSurrogate(aText.charAt(aIndex - 1))) {
+			return aIndex + aDirection;
+		}
+		return aIndex;
+	}
+
+	/**
+	 * Merges the results of the chunks of a text
+	 * 
+	 * @param aText
+	 *            the whole text
+	 * @param aChunks
+	 *            the chunks of the text
+	 * @param aResults
+	 *            the result of each chunk, in the same order
+	 * @return the result of the whole text, or the first chunk result that was
+	 *         not processed OK. The source text is the whole text if all
+	 *         chunk results have a source text.
+	 */
+	public LtasksObject merge(String aText, List<Chunk> aChunks,
+			List<LtasksObject> aResults) {
+		if (aChunks.size() != aResults.size()) {
+			throw new IllegalArgumentException(
+					"there must be a result per chunk.");
+		}
+		boolean hasSourceText = true;
+		String message = null;
+		for (LtasksObject result : aResults) {
+			if (!result.isProcessedOk()) {
+				return result;
+			}
+			hasSourceText &= result.getSourceText() != null;
+			if (message == null) {
+				message = result.getMessage();
+			}
+		}
+
+		List<NamedEntity> merged = new ArrayList<NamedEntity>();
+		// indexes in merged of the entities crossing the last cut
+		List<Integer> crossing = new ArrayList<Integer>();
+		int low = Integer.MIN_VALUE;
+		for (int k = 0; k < aChunks.size(); k++) {
+			Chunk chunk = aChunks.get(k);
+			int high = Integer.MAX_VALUE;
+			if (k + 1 < aChunks.size()) {
+				// the middle of the overlap with the next chunk
+				high = (chunk.getEnd() + aChunks.get(k + 1).getOffset()) >>> 1;
+			}
+			List<NamedEntity> entities = new ArrayList<NamedEntity>(aResults
+					.get(k).getNamedEntities());
+			Collections.sort(entities, BY_POSITION);
+			List<Integer> next = new ArrayList<Integer>();
+			for (NamedEntity e : entities) {
+				int begin = e.getBegin() + chunk.getOffset();
+				int end = e.getEnd() + chunk.getOffset();
+				if (begin >= high) {
+					continue;
+				}
+				NamedEntity entity = new NamedEntity(e.getText(), e.getType(),
+						begin, end);
+				if (begin < low) {
+					// the previous chunk may have cut it
+					replaceOverlapped(merged, crossing, entity);
+				} else if (!replaceOverlapped(merged, crossing, entity)) {
+					if (high != Integer.MAX_VALUE && end > high) {
+						next.add(merged.size());
+					}
+					merged.add(entity);
+				}
+			}
+			crossing = next;
+			low = high;
+		}
+		Collections.sort(merged, BY_POSITION);
+		return new LtasksObject(hasSourceText ? aText : null, message, true,
+				Collections.unmodifiableList(merged));
+	}
+
+	/**
+	 * Keeps the longest of an entity and the one of the previous chunk it
+	 * overlaps, if any.
+	 * 
+	 * @return true if the entity overlapped one already merged
+	 */
+	private static boolean replaceOverlapped(List<NamedEntity> aMerged,
+			List<Integer> aCrossing, NamedEntity aEntity) {
+		for (int index : aCrossing) {
+			NamedEntity other = aMerged.get(index);
+			if (other.getEnd() > aEntity.getBegin()
+					&& other.getBegin() < aEntity.getEnd()) {
+				if (aEntity.getEnd() - aEntity.getBegin() > other.getEnd()
+						- other.getBegin()) {
+					aMerged.set(index, aEntity);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a cached result by a content hash of everything that was sent to
+ * the server: the resource, the document and all the options. The key does
+ * not keep a reference to the document.
+ */
+public final class CacheKey {
+
+	private final byte[] mDigest;
+
+	private final int mHashCode;
+
+	/**
+	 * Creates a new key
+	 * 
+	 * @param aDigest
+	 *            a cryptographic hash of the request, it is copied
+	 */
+	public CacheKey(byte[] aDigest) {
+		mDigest = aDigest.clone();
+		mHashCode = Arrays.hashCode(mDigest);
+	}
+
+	/**
+	 * Gets the request hash
+	 * 
+	 * @return a copy of the request hash
+	 */
+	public byte[] getDigest() {
+		return mDigest.clone();
+	}
+
+	@Override
+	public int hashCode() {
+		return mHashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CacheKey)) {
+			return false;
+		}
+		return Arrays.equals(mDigest, ((CacheKey) obj).mDigest);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(mDigest.length * 2);
+		for (byte b : mDigest) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+					Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+}
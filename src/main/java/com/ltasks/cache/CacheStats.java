@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+/**
+ * An immutable snapshot of the statistics of a {@link ResultCache}.
+ */
+public class CacheStats {
+
+	private final long mHitCount;
+
+	private final long mMissCount;
+
+	private final long mEvictionCount;
+
+	private final long mExpirationCount;
+
+	private final long mSize;
+
+	/**
+	 * Creates a new snapshot
+	 * 
+	 * @param aHitCount
+	 *            the number of lookups that found a result
+	 * @param aMissCount
+	 *            the number of lookups that did not find a result
+	 * @param aEvictionCount
+	 *            the number of results removed, or not admitted, to respect
+	 *            the size bound
+	 * @param aExpirationCount
+	 *            the number of results removed because they were too old
+	 * @param aSize
+	 *            the number of cached results
+	 */
+	public CacheStats(long aHitCount, long aMissCount, long aEvictionCount,
+			long aExpirationCount, long aSize) {
+		super();
+		mHitCount = aHitCount;
+		mMissCount = aMissCount;
+		mEvictionCount = aEvictionCount;
+		mExpirationCount = aExpirationCount;
+		mSize = aSize;
+	}
+
+	/**
+	 * Gets the number of lookups that found a result
+	 * 
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * Gets the number of lookups that did not find a result
+	 * 
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * Gets the number of results removed, or not admitted, to respect the size
+	 * bound
+	 * 
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return mEvictionCount;
+	}
+
+	/**
+	 * Gets the number of results removed because they were too old
+	 * 
+	 * @return the number of expirations
+	 */
+	public long getExpirationCount() {
+		return mExpirationCount;
+	}
+
+	/**
+	 * Gets the number of cached results
+	 * 
+	 * @return the number of cached results
+	 */
+	public long getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the ratio of lookups that found a result
+	 * 
+	 * @return the hit rate, from 0 to 1
+	 */
+	public double getHitRate() {
+		long requests = mHitCount + mMissCount;
+		return requests == 0 ? 1.0 : (double) mHitCount / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats[hits=" + mHitCount + ", misses=" + mMissCount
+				+ ", evictions=" + mEvictionCount + ", expirations="
+				+ mExpirationCount + ", size=" + mSize + "]";
+	}
+
+}
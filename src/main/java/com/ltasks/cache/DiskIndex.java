@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+import java.util.Arrays;
+
+/**
+ * A compact hash index from a 64 bit key hash to a record location, stored in
+ * two primitive arrays with linear probing. Not thread-safe.
+ */
+class DiskIndex {
+
+	private static final long EMPTY = -1;
+
+	private long[] mHashes;
+
+	private long[] mLocations;
+
+	private int mSize;
+
+	DiskIndex() {
+		mHashes = new long[1024];
+		mLocations = new long[1024];
+		Arrays.fill(mLocations, EMPTY);
+	}
+
+	int size() {
+		return mSize;
+	}
+
+	/**
+	 * Gets a location
+	 * 
+	 * @return the location, or -1 if absent
+	 */
+	long get(long aHash) {
+		int mask = mHashes.length - 1;
+		for (int i = slot(aHash, mask);; i = (i + 1) & mask) {
+			if (mLocations[i] == EMPTY) {
+				return EMPTY;
+			}
+			if (mHashes[i] == aHash) {
+				return mLocations[i];
+			}
+		}
+	}
+
+	/**
+	 * Sets a location
+	 * 
+	 * @return the previous location, or -1 if absent
+	 */
+	long put(long aHash, long aLocation) {
+		if (mSize >= mHashes.length * 7 / 10) {
+			resize();
+		}
+		int mask = mHashes.length - 1;
+		for (int i = slot(aHash, mask);; i = (i + 1) & mask) {
+			if (mLocations[i] == EMPTY) {
+				mHashes[i] = aHash;
+				mLocations[i] = aLocation;
+				mSize++;
+				return EMPTY;
+			}
+			if (mHashes[i] == aHash) {
+				long previous = mLocations[i];
+				mLocations[i] = aLocation;
+				return previous;
+			}
+		}
+	}
+
+	/**
+	 * Removes a location
+	 * 
+	 * @return the removed location, or -1 if absent
+	 */
+	long remove(long aHash) {
+		int mask = mHashes.length - 1;
+		int i = slot(aHash, mask);
+		while (mHashes[i] != aHash || mLocations[i] == EMPTY) {
+			if (mLocations[i] == EMPTY) {
+				return EMPTY;
+			}
+			i = (i + 1) & mask;
+		}
+		long removed = mLocations[i];
+		// shift back the following entries of the probe sequence
+		for (int j = (i + 1) & mask; mLocations[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slot(mHashes[j], mask);
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				mHashes[i] = mHashes[j];
+				mLocations[i] = mLocations[j];
+				i = j;
+			}
+		}
+		mLocations[i] = EMPTY;
+		mSize--;
+		return removed;
+	}
+
+	private void resize() {
+		long[] hashes = mHashes;
+		long[] locations = mLocations;
+		mHashes = new long[hashes.length * 2];
+		mLocations = new long[hashes.length * 2];
+		Arrays.fill(mLocations, EMPTY);
+		mSize = 0;
+		for (int i = 0; i < hashes.length; i++) {
+			if (locations[i] != EMPTY) {
+				put(hashes[i], locations[i]);
+			}
+		}
+	}
+
+	private static int slot(long aHash, int aMask) {
+		long h = aHash * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & aMask;
+	}
+
+}
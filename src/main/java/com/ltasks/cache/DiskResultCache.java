@@ -0,0 +1,718 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import com.ltasks.LtasksObject;
+import com.ltasks.NamedEntity;
+import com.ltasks.NerType;
+
+/**
+ * <p>
+ * A {@link ResultCache} stored on disk that survives restarts, so a warm
+ * restart does not call the server for documents already annotated.
+ * </p>
+ * <p>
+ * Results are appended to memory-mapped segment files of a fixed size. An
+ * in-memory hash index, two <code>long</code>s per result, points to the
+ * newest record of each key; it is rebuilt by scanning the segments when the
+ * cache is opened. A record is checksummed, so a record half written by a
+ * crash is ignored.
+ * </p>
+ * <p>
+ * A background thread compacts segments whose records are mostly replaced or
+ * expired, copying the live ones to the active segment. When there are more
+ * segments than the limit, the oldest one is evicted with all its records.
+ * </p>
+ * <p>
+ * Reads run concurrently; writes are serialized. Only one cache instance may
+ * use a directory at a time.
+ * </p>
+ */
+public class DiskResultCache implements ResultCache, Closeable {
+
+	/** Default segment size, in bytes */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/** Default maximum number of segments */
+	public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+	/** Segments with less live data than this ratio are compacted */
+	private static final double COMPACTION_THRESHOLD = 0.5;
+
+	private static final long COMPACTION_INTERVAL_SECONDS = 30;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".dat";
+
+	/** The record length, key length, write time and checksum */
+	private static final int RECORD_OVERHEAD = 4 + 2 + 8 + 4;
+
+	private final File mDirectory;
+
+	private final int mSegmentSize;
+
+	private final int mMaxSegments;
+
+	private final long mTimeToLiveMillis;
+
+	private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+	/** Segments by id, the last one is the active segment */
+	private final TreeMap<Integer, Segment> mSegments = new TreeMap<Integer, Segment>();
+
+	private final DiskIndex mIndex = new DiskIndex();
+
+	private final ScheduledExecutorService mCompactor;
+
+	private final AtomicLong mHitCount = new AtomicLong();
+
+	private final AtomicLong mMissCount = new AtomicLong();
+
+	private final AtomicLong mEvictionCount = new AtomicLong();
+
+	private final AtomicLong mExpirationCount = new AtomicLong();
+
+	private boolean mIsClosed;
+
+	/**
+	 * Opens a cache with the default segment size and count, and no time to
+	 * live.
+	 *
+	 * @param aDirectory
+	 *            the cache directory, created if needed
+	 * @throws IOException
+	 *             if the directory or its segments can not be read
+	 */
+	public DiskResultCache(File aDirectory) throws IOException {
+		this(aDirectory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, 0,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Opens a cache, loading the results already in the directory.
+	 *
+	 * @param aDirectory
+	 *            the cache directory, created if needed
+	 * @param aSegmentSize
+	 *            the size of each segment file, in bytes. Larger results are
+	 *            not cached.
+	 * @param aMaxSegments
+	 *            the maximum number of segment files
+	 * @param aTimeToLive
+	 *            how long a result is kept, or 0 to keep it until evicted
+	 * @param aUnit
+	 *            the time to live unit
+	 * @throws IOException
+	 *             if the directory or its segments can not be read
+	 * @throws IllegalArgumentException
+	 *             if a size is not positive or the time to live is negative
+	 */
+	public DiskResultCache(File aDirectory, int aSegmentSize,
+			int aMaxSegments, long aTimeToLive, TimeUnit aUnit)
+			throws IOException, IllegalArgumentException {
+		if (aSegmentSize <= RECORD_OVERHEAD || aMaxSegments < 2) {
+			throw new IllegalArgumentException(
+					"the segment size must be positive and there must be at least two segments.");
+		}
+		if (aTimeToLive < 0) {
+			throw new IllegalArgumentException(
+					"the time to live can not be negative.");
+		}
+		if (!aDirectory.isDirectory() && !aDirectory.mkdirs()) {
+			throw new IOException("Can not create the cache directory "
+					+ aDirectory);
+		}
+		mDirectory = aDirectory;
+		mSegmentSize = aSegmentSize;
+		mMaxSegments = aMaxSegments;
+		mTimeToLiveMillis = aUnit.toMillis(aTimeToLive);
+
+		load();
+
+		mCompactor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r,
+								"ltasks4j-disk-cache-compaction");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		mCompactor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				compact();
+			}
+		}, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS,
+				TimeUnit.SECONDS);
+	}
+
+	public LtasksObject get(CacheKey aKey) {
+		byte[] digest = aKey.getDigest();
+		long hash = hash(digest);
+		Record record;
+		mLock.readLock().lock();
+		try {
+			checkOpen();
+			record = read(mIndex.get(hash));
+		} finally {
+			mLock.readLock().unlock();
+		}
+		if (record == null || !Arrays.equals(digest, record.mKey)) {
+			mMissCount.incrementAndGet();
+			return null;
+		}
+		if (isExpired(record.mWriteTime)) {
+			mLock.writeLock().lock();
+			try {
+				if (!mIsClosed && mIndex.get(hash) == record.mLocation) {
+					mIndex.remove(hash);
+					release(record.mLocation, record.mSize);
+					mExpirationCount.incrementAndGet();
+				}
+			} finally {
+				mLock.writeLock().unlock();
+			}
+			mMissCount.incrementAndGet();
+			return null;
+		}
+		try {
+			LtasksObject result = deserialize(record.mPayload);
+			mHitCount.incrementAndGet();
+			return result;
+		} catch (IOException e) {
+			// the checksum matched, so this is a format problem
+			mMissCount.incrementAndGet();
+			return null;
+		}
+	}
+
+	public void put(CacheKey aKey, LtasksObject aResult) {
+		if (!aResult.isProcessedOk()) {
+			return;
+		}
+		byte[] digest = aKey.getDigest();
+		byte[] payload = serialize(aResult);
+		int size = RECORD_OVERHEAD + digest.length + payload.length;
+		if (size > mSegmentSize) {
+			return;
+		}
+		mLock.writeLock().lock();
+		try {
+			checkOpen();
+			append(hash(digest), digest, System.currentTimeMillis(), payload);
+		} catch (IOException e) {
+			// the cache is an optimization, a failed write is only a miss
+		} finally {
+			mLock.writeLock().unlock();
+		}
+	}
+
+	public CacheStats getStats() {
+		int size;
+		mLock.readLock().lock();
+		try {
+			size = mIndex.size();
+		} finally {
+			mLock.readLock().unlock();
+		}
+		return new CacheStats(mHitCount.get(), mMissCount.get(),
+				mEvictionCount.get(), mExpirationCount.get(), size);
+	}
+
+	/**
+	 * Gets the number of segment files
+	 *
+	 * @return the number of segment files
+	 */
+	public int getSegmentCount() {
+		mLock.readLock().lock();
+		try {
+			return mSegments.size();
+		} finally {
+			mLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Compacts the sealed segments whose live data fell below half of their
+	 * size. It is called periodically by a background thread.
+	 */
+	public void compact() {
+		List<Segment> candidates = new ArrayList<Segment>();
+		mLock.readLock().lock();
+		try {
+			if (mIsClosed) {
+				return;
+			}
+			for (Segment segment : mSegments.headMap(mSegments.lastKey())
+					.values()) {
+				if (segment.mLiveBytes < segment.mWritePosition
+						* COMPACTION_THRESHOLD) {
+					candidates.add(segment);
+				}
+			}
+		} finally {
+			mLock.readLock().unlock();
+		}
+		for (Segment segment : candidates) {
+			compact(segment);
+		}
+	}
+
+	/**
+	 * Stops the compaction and flushes the segments to disk. The cache can not
+	 * be used after it is closed.
+	 */
+	public void close() throws IOException {
+		mCompactor.shutdownNow();
+		mLock.writeLock().lock();
+		try {
+			if (!mIsClosed) {
+				mIsClosed = true;
+				for (Segment segment : mSegments.values()) {
+					segment.mBuffer.force();
+				}
+				mSegments.clear();
+			}
+		} finally {
+			mLock.writeLock().unlock();
+		}
+	}
+
+	private void load() throws IOException {
+		File[] files = mDirectory.listFiles();
+		List<Integer> ids = new ArrayList<Integer>();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.startsWith(SEGMENT_PREFIX)
+						&& name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						ids.add(Integer.valueOf(name.substring(
+								SEGMENT_PREFIX.length(), name.length()
+										- SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						// not a segment
+					}
+				}
+			}
+		}
+		Collections.sort(ids);
+		for (Integer id : ids) {
+			Segment segment = open(id);
+			mSegments.put(id, segment);
+			scan(segment);
+		}
+		if (mSegments.isEmpty()) {
+			mSegments.put(0, open(0));
+		}
+	}
+
+	/**
+	 * Indexes the valid records of a segment and finds its end.
+	 */
+	private void scan(Segment aSegment) {
+		ByteBuffer buffer = aSegment.mBuffer.duplicate();
+		int offset = 0;
+		while (true) {
+			Record record = read(aSegment, buffer, offset);
+			if (record == null) {
+				break;
+			}
+			long previous = mIndex.put(hash(record.mKey), record.mLocation);
+			if (previous >= 0) {
+				release(previous, sizeAt(previous));
+			}
+			aSegment.mLiveBytes += record.mSize;
+			offset += record.mSize;
+		}
+		aSegment.mWritePosition = offset;
+	}
+
+	private void compact(Segment aSegment) {
+		ByteBuffer buffer = aSegment.mBuffer.duplicate();
+		int offset = 0;
+		while (offset < aSegment.mWritePosition) {
+			Record record = read(aSegment, buffer, offset);
+			if (record == null) {
+				break;
+			}
+			offset += record.mSize;
+			mLock.writeLock().lock();
+			try {
+				if (mIsClosed || !mSegments.containsKey(aSegment.mId)) {
+					return;
+				}
+				long hash = hash(record.mKey);
+				if (mIndex.get(hash) != record.mLocation) {
+					continue;
+				}
+				if (isExpired(record.mWriteTime)) {
+					mIndex.remove(hash);
+					release(record.mLocation, record.mSize);
+					mExpirationCount.incrementAndGet();
+				} else {
+					append(hash, record.mKey, record.mWriteTime,
+							record.mPayload);
+				}
+			} catch (IOException e) {
+				return;
+			} finally {
+				mLock.writeLock().unlock();
+			}
+		}
+		mLock.writeLock().lock();
+		try {
+			if (!mIsClosed && mSegments.get(aSegment.mId) == aSegment
+					&& aSegment.mLiveBytes == 0) {
+				mSegments.remove(aSegment.mId);
+				delete(aSegment);
+			}
+		} finally {
+			mLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends a record to the active segment. Must hold the write lock.
+	 */
+	private void append(long aHash, byte[] aKey, long aWriteTime,
+			byte[] aPayload) throws IOException {
+		int size = RECORD_OVERHEAD + aKey.length + aPayload.length;
+		Segment active = mSegments.lastEntry().getValue();
+		if (mSegmentSize - active.mWritePosition < size) {
+			active = roll();
+		}
+		ByteBuffer buffer = active.mBuffer.duplicate();
+		int offset = active.mWritePosition;
+		buffer.position(offset + 4);
+		buffer.putShort((short) aKey.length);
+		buffer.put(aKey);
+		buffer.putLong(aWriteTime);
+		buffer.put(aPayload);
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = active.mBuffer.duplicate();
+		checked.position(offset + 4).limit(offset + size - 4);
+		crc.update(checked);
+		buffer.putInt((int) crc.getValue());
+		// the length is written last, so a partial record is never valid
+		active.mBuffer.putInt(offset, size - 4);
+		active.mWritePosition += size;
+		active.mLiveBytes += size;
+
+		long location = ((long) active.mId << 32) | offset;
+		long previous = mIndex.put(aHash, location);
+		if (previous >= 0) {
+			release(previous, sizeAt(previous));
+		}
+	}
+
+	/**
+	 * Seals the active segment and opens a new one, evicting the oldest
+	 * segment if there are too many. Must hold the write lock.
+	 */
+	private Segment roll() throws IOException {
+		Segment sealed = mSegments.lastEntry().getValue();
+		sealed.mBuffer.force();
+		Segment active = open(sealed.mId + 1);
+		mSegments.put(active.mId, active);
+		while (mSegments.size() > mMaxSegments) {
+			evict(mSegments.firstEntry().getValue());
+		}
+		return active;
+	}
+
+	/**
+	 * Removes a segment and all the results that point to it. Must hold the
+	 * write lock.
+	 */
+	private void evict(Segment aSegment) {
+		ByteBuffer buffer = aSegment.mBuffer.duplicate();
+		int offset = 0;
+		while (offset < aSegment.mWritePosition) {
+			Record record = read(aSegment, buffer, offset);
+			if (record == null) {
+				break;
+			}
+			long hash = hash(record.mKey);
+			if (mIndex.get(hash) == record.mLocation) {
+				mIndex.remove(hash);
+				mEvictionCount.incrementAndGet();
+			}
+			offset += record.mSize;
+		}
+		mSegments.remove(aSegment.mId);
+		delete(aSegment);
+	}
+
+	private Segment open(int aId) throws IOException {
+		File file = new File(mDirectory, String.format("%s%08d%s",
+				SEGMENT_PREFIX, aId, SEGMENT_SUFFIX));
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			// the mapping stays valid after the channel is closed
+			return new Segment(aId, file, channel.map(
+					FileChannel.MapMode.READ_WRITE, 0, mSegmentSize));
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void delete(Segment aSegment) {
+		if (!aSegment.mFile.delete()) {
+			aSegment.mFile.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Reads the record at a location, or null. Must hold a lock.
+	 */
+	private Record read(long aLocation) {
+		if (aLocation < 0) {
+			return null;
+		}
+		Segment segment = mSegments.get((int) (aLocation >>> 32));
+		if (segment == null) {
+			return null;
+		}
+		return read(segment, segment.mBuffer.duplicate(), (int) aLocation);
+	}
+
+	/**
+	 * Reads and checks a record, or returns null if there is no valid record
+	 * at the offset.
+	 */
+	private Record read(Segment aSegment, ByteBuffer aBuffer, int aOffset) {
+		if (aOffset + RECORD_OVERHEAD > mSegmentSize) {
+			return null;
+		}
+		int length = aBuffer.getInt(aOffset);
+		if (length < RECORD_OVERHEAD - 4 || aOffset + 4 + length > mSegmentSize) {
+			return null;
+		}
+		ByteBuffer checked = aBuffer.duplicate();
+		checked.position(aOffset + 4).limit(aOffset + length);
+		CRC32 crc = new CRC32();
+		crc.update(checked);
+		if ((int) crc.getValue() != aBuffer.getInt(aOffset + length)) {
+			return null;
+		}
+		ByteBuffer record = aBuffer.duplicate();
+		record.position(aOffset + 4);
+		int keyLength = record.getShort() & 0xFFFF;
+		if (keyLength > length - (RECORD_OVERHEAD - 4)) {
+			return null;
+		}
+		byte[] key = new byte[keyLength];
+		record.get(key);
+		long writeTime = record.getLong();
+		byte[] payload = new byte[length - (RECORD_OVERHEAD - 4) - keyLength];
+		record.get(payload);
+		return new Record(((long) aSegment.mId << 32) | aOffset, length + 4,
+				key, writeTime, payload);
+	}
+
+	private int sizeAt(long aLocation) {
+		Segment segment = mSegments.get((int) (aLocation >>> 32));
+		return segment == null ? 0 : segment.mBuffer.getInt((int) aLocation) + 4;
+	}
+
+	private void release(long aLocation, int aSize) {
+		Segment segment = mSegments.get((int) (aLocation >>> 32));
+		if (segment != null) {
+			segment.mLiveBytes -= aSize;
+		}
+	}
+
+	private boolean isExpired(long aWriteTime) {
+		return mTimeToLiveMillis > 0
+				&& System.currentTimeMillis() - aWriteTime >= mTimeToLiveMillis;
+	}
+
+	private void checkOpen() {
+		if (mIsClosed) {
+			throw new IllegalStateException("the cache is closed.");
+		}
+	}
+
+	/**
+	 * The index key: the first 8 bytes of the digest, which is already a good
+	 * hash. Records keep the whole digest to rule out collisions.
+	 */
+	private static long hash(byte[] aDigest) {
+		long hash = 0;
+		for (int i = 0; i < aDigest.length; i++) {
+			hash = i < 8 ? (hash << 8) | (aDigest[i] & 0xFF) : hash * 31
+					+ aDigest[i];
+		}
+		return hash;
+	}
+
+	static byte[] serialize(LtasksObject aResult) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeBoolean(aResult.isProcessedOk());
+			writeString(out, aResult.getSourceText());
+			writeString(out, aResult.getMessage());
+			List<NamedEntity> entities = aResult.getNamedEntities();
+			out.writeInt(entities == null ? -1 : entities.size());
+			if (entities != null) {
+				for (NamedEntity entity : entities) {
+					writeString(out, entity.getText());
+					out.writeByte(entity.getType() == null ? -1 : entity
+							.getType().ordinal());
+					out.writeInt(entity.getBegin());
+					out.writeInt(entity.getEnd());
+				}
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// a byte array stream never fails
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static LtasksObject deserialize(byte[] aPayload) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(aPayload));
+		boolean ok = in.readBoolean();
+		String text = readString(in);
+		String message = readString(in);
+		int count = in.readInt();
+		List<NamedEntity> entities = null;
+		if (count >= 0) {
+			entities = new ArrayList<NamedEntity>(count);
+			NerType[] types = NerType.values();
+			for (int i = 0; i < count; i++) {
+				String entityText = readString(in);
+				int type = in.readByte();
+				int begin = in.readInt();
+				int end = in.readInt();
+				if (type >= types.length) {
+					throw new IOException("Unknown entity type " + type);
+				}
+				entities.add(new NamedEntity(entityText, type < 0 ? null
+						: types[type], begin, end));
+			}
+			entities = Collections.unmodifiableList(entities);
+		}
+		return new LtasksObject(text, message, ok, entities);
+	}
+
+	private static void writeString(DataOutputStream aOut, String aValue)
+			throws IOException {
+		if (aValue == null) {
+			aOut.writeInt(-1);
+		} else {
+			byte[] bytes = aValue.getBytes(StandardCharsets.UTF_8);
+			aOut.writeInt(bytes.length);
+			aOut.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream aIn) throws IOException {
+		int length = aIn.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		aIn.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** A segment file */
+	private static class Segment {
+
+		final int mId;
+
+		final File mFile;
+
+		final MappedByteBuffer mBuffer;
+
+		/** The end of the last record */
+		int mWritePosition;
+
+		/** The bytes of the records still pointed by the index */
+		int mLiveBytes;
+
+		Segment(int aId, File aFile, MappedByteBuffer aBuffer) {
+			mId = aId;
+			mFile = aFile;
+			mBuffer = aBuffer;
+		}
+	}
+
+	/** A record read from a segment */
+	private static class Record {
+
+		final long mLocation;
+
+		final int mSize;
+
+		final byte[] mKey;
+
+		final long mWriteTime;
+
+		final byte[] mPayload;
+
+		Record(long aLocation, int aSize, byte[] aKey, long aWriteTime,
+				byte[] aPayload) {
+			mLocation = aLocation;
+			mSize = aSize;
+			mKey = aKey;
+			mWriteTime = aWriteTime;
+			mPayload = aPayload;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DiskResultCache[" + mDirectory + ", " + getStats() + "]";
+	}
+
+}
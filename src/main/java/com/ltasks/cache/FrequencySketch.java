@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+/**
+ * Estimates how often keys were seen recently, using a count-min sketch of
+ * 4-bit counters. All counters are halved periodically, so old popularity
+ * fades. Not thread-safe.
+ */
+class FrequencySketch {
+
+	private static final int MAX_COUNT = 15;
+
+	private static final int[] SEEDS = { 0x97cb3127, 0xc3a5c85c, 0x9ae16a3b,
+			0x3c6ef372 };
+
+	/** One row of counters per hash function */
+	private final byte[][] mTable;
+
+	private final int mMask;
+
+	/** The number of increments before all counters are halved */
+	private final int mSampleSize;
+
+	private int mSize;
+
+	/**
+	 * Creates a new sketch
+	 * 
+	 * @param aMaximumSize
+	 *            the maximum number of entries of the cache
+	 */
+	FrequencySketch(int aMaximumSize) {
+		int width = Integer.highestOneBit(Math.max(16, aMaximumSize) * 2 - 1) << 1;
+		mTable = new byte[SEEDS.length][width];
+		mMask = width - 1;
+		mSampleSize = 10 * Math.max(16, aMaximumSize);
+	}
+
+	/**
+	 * Records one more occurrence of a key.
+	 */
+	void increment(Object aKey) {
+		int hash = spread(aKey.hashCode());
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			byte[] row = mTable[i];
+			int index = indexOf(hash, i);
+			if (row[index] < MAX_COUNT) {
+				row[index]++;
+				added = true;
+			}
+		}
+		if (added && ++mSize == mSampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Estimates how many times a key was seen recently.
+	 */
+	int frequency(Object aKey) {
+		int hash = spread(aKey.hashCode());
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; i++) {
+			frequency = Math.min(frequency, mTable[i][indexOf(hash, i)]);
+		}
+		return frequency;
+	}
+
+	private int indexOf(int aHash, int aRow) {
+		int h = (aHash + SEEDS[aRow]) * SEEDS[aRow];
+		return (h ^ (h >>> 16)) & mMask;
+	}
+
+	private void reset() {
+		for (byte[] row : mTable) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] >>= 1;
+			}
+		}
+		mSize /= 2;
+	}
+
+	private static int spread(int h) {
+		h ^= h >>> 17;
+		h *= 0xed5ad4bb;
+		h ^= h >>> 11;
+		return h;
+	}
+
+}
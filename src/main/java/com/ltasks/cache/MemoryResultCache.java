@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.ltasks.LtasksObject;
+
+/**
+ * <p>
+ * A bounded in-memory {@link ResultCache}. Results expire after a fixed time
+ * to live.
+ * </p>
+ * <p>
+ * When the cache is full, a new result only replaces the least recently used
+ * one if its key was requested more often recently. Frequencies are estimated
+ * by a small sketch, so a burst of documents seen only once (a crawl, for
+ * example) does not flush the popular ones.
+ * </p>
+ * <p>
+ * Results are immutable and are shared by all threads that hit the same key.
+ * </p>
+ */
+public class MemoryResultCache implements ResultCache {
+
+	private final int mMaximumSize;
+
+	private final long mTimeToLiveNanos;
+
+	/** Entries in access order, the eldest is the eviction candidate */
+	private final LinkedHashMap<CacheKey, Entry> mEntries;
+
+	private final FrequencySketch mSketch;
+
+	private long mHitCount;
+
+	private long mMissCount;
+
+	private long mEvictionCount;
+
+	private long mExpirationCount;
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param aMaximumSize
+	 *            the maximum number of results
+	 * @param aTimeToLive
+	 *            how long a result is kept, or 0 to keep it until evicted
+	 * @param aUnit
+	 *            the time to live unit
+	 * @throws IllegalArgumentException
+	 *             if the size is not positive or the time to live is negative
+	 */
+	public MemoryResultCache(int aMaximumSize, long aTimeToLive, TimeUnit aUnit)
+			throws IllegalArgumentException {
+		if (aMaximumSize <= 0) {
+			throw new IllegalArgumentException(
+					"the maximum size must be positive.");
+		}
+		if (aTimeToLive < 0) {
+			throw new IllegalArgumentException(
+					"the time to live can not be negative.");
+		}
+		mMaximumSize = aMaximumSize;
+		mTimeToLiveNanos = aUnit.toNanos(aTimeToLive);
+		mEntries = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true);
+		mSketch = new FrequencySketch(aMaximumSize);
+	}
+
+	/**
+	 * Gets the maximum number of results
+	 * 
+	 * @return the maximum number of results
+	 */
+	public int getMaximumSize() {
+		return mMaximumSize;
+	}
+
+	public synchronized LtasksObject get(CacheKey aKey) {
+		mSketch.increment(aKey);
+		Entry entry = mEntries.get(aKey);
+		if (entry == null) {
+			mMissCount++;
+			return null;
+		}
+		if (isExpired(entry, System.nanoTime())) {
+			mEntries.remove(aKey);
+			mExpirationCount++;
+			mMissCount++;
+			return null;
+		}
+		mHitCount++;
+		return entry.mResult;
+	}
+
+	public synchronized void put(CacheKey aKey, LtasksObject aResult) {
+		if (!aResult.isProcessedOk()) {
+			return;
+		}
+		Entry entry = new Entry(aResult, System.nanoTime());
+		if (mEntries.containsKey(aKey)) {
+			mEntries.put(aKey, entry);
+			return;
+		}
+		if (mEntries.size() >= mMaximumSize && !makeRoomFor(aKey, entry)) {
+			mEvictionCount++;
+			return;
+		}
+		mEntries.put(aKey, entry);
+	}
+
+	/**
+	 * Removes all results.
+	 */
+	public synchronized void invalidateAll() {
+		mEntries.clear();
+	}
+
+	public synchronized CacheStats getStats() {
+		return new CacheStats(mHitCount, mMissCount, mEvictionCount,
+				mExpirationCount, mEntries.size());
+	}
+
+	/**
+	 * Removes an expired result or, if none, the least recently used one when
+	 * the candidate is more popular.
+	 * 
+	 * @return false if the candidate should not be admitted
+	 */
+	private boolean makeRoomFor(CacheKey aCandidate, Entry aEntry) {
+		Iterator<Map.Entry<CacheKey, Entry>> it = mEntries.entrySet()
+				.iterator();
+		Map.Entry<CacheKey, Entry> victim = it.next();
+		if (isExpired(victim.getValue(), aEntry.mWriteTime)) {
+			it.remove();
+			mExpirationCount++;
+			return true;
+		}
+		if (mSketch.frequency(aCandidate) <= mSketch
+				.frequency(victim.getKey())) {
+			return false;
+		}
+		it.remove();
+		mEvictionCount++;
+		return true;
+	}
+
+	private boolean isExpired(Entry aEntry, long aNow) {
+		return mTimeToLiveNanos > 0
+				&& aNow - aEntry.mWriteTime >= mTimeToLiveNanos;
+	}
+
+	private static class Entry {
+
+		final LtasksObject mResult;
+
+		final long mWriteTime;
+
+		Entry(LtasksObject aResult, long aWriteTime) {
+			mResult = aResult;
+			mWriteTime = aWriteTime;
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+import com.ltasks.LtasksObject;
+
+/**
+ * A cache of call results used by {@link com.ltasks.BaseClient} to skip the
+ * server for documents it has already annotated. Only results that were
+ * {@link LtasksObject#isProcessedOk() processed ok} are stored. Implementations
+ * must be thread-safe.
+ */
+public interface ResultCache {
+
+	/**
+	 * Gets a cached result
+	 * 
+	 * @param aKey
+	 *            the request key
+	 * @return the result, or null if it is not cached
+	 */
+	LtasksObject get(CacheKey aKey);
+
+	/**
+	 * Stores a result. The cache may decide not to keep it.
+	 * 
+	 * @param aKey
+	 *            the request key
+	 * @param aResult
+	 *            the result
+	 */
+	void put(CacheKey aKey, LtasksObject aResult);
+
+	/**
+	 * Gets a snapshot of the cache statistics
+	 * 
+	 * @return the statistics
+	 */
+	CacheStats getStats();
+
+}
@@ -0,0 +1,249 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Aggregates the metrics of the requests of one or more clients: a latency
+ * histogram per {@link Phase}, byte and entity counters, and a counter per
+ * HTTP status. Add it to a client with
+ * {@link com.ltasks.BaseClient#addMetricsListener(ClientMetricsListener)}.
+ * </p>
+ * <p>
+ * Recording is lock-free and costs a few atomic increments, so the metrics
+ * can stay on in production. They can be read through this class or, once
+ * {@link #register(String) registered}, through JMX.
+ * </p>
+ */
+public class ClientMetrics implements ClientMetricsListener,
+		ClientMetricsMXBean {
+
+	private final Map<Phase, LatencyHistogram> mLatencies = new EnumMap<Phase, LatencyHistogram>(
+			Phase.class);
+
+	private final LongAdder mRequestCount = new LongAdder();
+
+	private final LongAdder mFailureCount = new LongAdder();
+
+	private final LongAdder mRetriedRequestCount = new LongAdder();
+
+	private final LongAdder mRequestBytes = new LongAdder();
+
+	private final LongAdder mRequestWireBytes = new LongAdder();
+
+	private final LongAdder mResponseWireBytes = new LongAdder();
+
+	private final LongAdder mResponseBytes = new LongAdder();
+
+	private final LongAdder mEntityCount = new LongAdder();
+
+	private final ConcurrentMap<Integer, LongAdder> mStatusCounts = new ConcurrentHashMap<Integer, LongAdder>();
+
+	private ObjectName mObjectName;
+
+	/**
+	 * Creates new empty metrics
+	 */
+	public ClientMetrics() {
+		for (Phase phase : Phase.values()) {
+			mLatencies.put(phase, new LatencyHistogram());
+		}
+	}
+
+	public void onRequest(RequestMetrics aMetrics) {
+		for (Phase phase : Phase.values()) {
+			mLatencies.get(phase).record(
+					aMetrics.getDuration(phase, TimeUnit.NANOSECONDS));
+		}
+		mRequestCount.increment();
+		if (aMetrics.isFailed()) {
+			mFailureCount.increment();
+		}
+		if (aMetrics.getAttempts() > 1) {
+			mRetriedRequestCount.increment();
+		}
+		mRequestBytes.add(aMetrics.getRequestBytes());
+		mRequestWireBytes.add(aMetrics.getRequestWireBytes());
+		mResponseWireBytes.add(aMetrics.getResponseWireBytes());
+		mResponseBytes.add(aMetrics.getResponseBytes());
+		mEntityCount.add(aMetrics.getEntityCount());
+		if (aMetrics.getStatusCode() >= 0) {
+			LongAdder count = mStatusCounts.get(aMetrics.getStatusCode());
+			if (count == null) {
+				count = mStatusCounts.computeIfAbsent(
+						aMetrics.getStatusCode(), code -> new LongAdder());
+			}
+			count.increment();
+		}
+	}
+
+	/**
+	 * Gets the latency histogram of a phase
+	 * 
+	 * @param aPhase
+	 *            the phase
+	 * @return the histogram, in nanoseconds
+	 */
+	public LatencyHistogram getLatency(Phase aPhase) {
+		return mLatencies.get(aPhase);
+	}
+
+	public long getRequestCount() {
+		return mRequestCount.sum();
+	}
+
+	public long getFailureCount() {
+		return mFailureCount.sum();
+	}
+
+	public long getRetriedRequestCount() {
+		return mRetriedRequestCount.sum();
+	}
+
+	public long getRequestBytes() {
+		return mRequestBytes.sum();
+	}
+
+	public long getRequestWireBytes() {
+		return mRequestWireBytes.sum();
+	}
+
+	public long getResponseWireBytes() {
+		return mResponseWireBytes.sum();
+	}
+
+	public long getResponseBytes() {
+		return mResponseBytes.sum();
+	}
+
+	public long getEntityCount() {
+		return mEntityCount.sum();
+	}
+
+	public Map<Integer, Long> getStatusCounts() {
+		Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, LongAdder> entry : mStatusCounts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	public double getLatencyP50() {
+		return toMillis(mLatencies.get(Phase.TOTAL).getPercentile(50));
+	}
+
+	public double getLatencyP99() {
+		return toMillis(mLatencies.get(Phase.TOTAL).getPercentile(99));
+	}
+
+	public double getLatencyP999() {
+		return toMillis(mLatencies.get(Phase.TOTAL).getPercentile(99.9));
+	}
+
+	public Map<String, Double> getPhaseP50() {
+		return getPhasePercentile(50);
+	}
+
+	public Map<String, Double> getPhaseP99() {
+		return getPhasePercentile(99);
+	}
+
+	public Map<String, Double> getPhaseP999() {
+		return getPhasePercentile(99.9);
+	}
+
+	private Map<String, Double> getPhasePercentile(double aPercentile) {
+		Map<String, Double> percentiles = new LinkedHashMap<String, Double>();
+		for (Phase phase : Phase.values()) {
+			percentiles.put(phase.name(), toMillis(mLatencies.get(phase)
+					.getPercentile(aPercentile)));
+		}
+		return percentiles;
+	}
+
+	private static double toMillis(long aNanos) {
+		return aNanos / 1e6;
+	}
+
+	public void reset() {
+		for (LatencyHistogram histogram : mLatencies.values()) {
+			histogram.reset();
+		}
+		mRequestCount.reset();
+		mFailureCount.reset();
+		mRetriedRequestCount.reset();
+		mRequestBytes.reset();
+		mRequestWireBytes.reset();
+		mResponseWireBytes.reset();
+		mResponseBytes.reset();
+		mEntityCount.reset();
+		mStatusCounts.clear();
+	}
+
+	/**
+	 * Registers the metrics in the platform MBean server as
+	 * <code>com.ltasks:type=ClientMetrics,name=</code><i>aName</i>
+	 * 
+	 * @param aName
+	 *            the name of the metrics, unique in the JVM
+	 * @throws JMException
+	 *             if the name is invalid or already registered
+	 */
+	public synchronized void register(String aName) throws JMException {
+		ObjectName objectName = new ObjectName("com.ltasks:type=ClientMetrics,name="
+				+ ObjectName.quote(aName));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		mObjectName = objectName;
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server, if registered
+	 * 
+	 * @throws JMException
+	 *             if they could not be removed
+	 */
+	public synchronized void unregister() throws JMException {
+		if (mObjectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					mObjectName);
+			mObjectName = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ClientMetrics [requests=" + getRequestCount() + ", failures="
+				+ getFailureCount() + ", p50=" + getLatencyP50() + "ms, p99="
+				+ getLatencyP99() + "ms, p999=" + getLatencyP999() + "ms]";
+	}
+
+}
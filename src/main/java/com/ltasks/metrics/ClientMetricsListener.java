@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+/**
+ * Receives the metrics of each request of a client. It is called on the
+ * thread that completed the request, so it must be thread-safe and return
+ * quickly.
+ */
+public interface ClientMetricsListener {
+
+	/**
+	 * Called when a request completes, successfully or not.
+	 * 
+	 * @param aMetrics
+	 *            the metrics of the request
+	 */
+	void onRequest(RequestMetrics aMetrics);
+
+}
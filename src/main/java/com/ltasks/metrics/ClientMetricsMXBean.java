@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link ClientMetrics}. Latencies are in milliseconds.
+ */
+public interface ClientMetricsMXBean {
+
+	/** @return the number of requests */
+	long getRequestCount();
+
+	/** @return the number of requests that failed without a result */
+	long getFailureCount();
+
+	/** @return the number of requests sent more than once */
+	long getRetriedRequestCount();
+
+	/** @return the request bytes before compression */
+	long getRequestBytes();
+
+	/** @return the request bytes sent */
+	long getRequestWireBytes();
+
+	/** @return the response bytes received */
+	long getResponseWireBytes();
+
+	/** @return the response bytes after decompression */
+	long getResponseBytes();
+
+	/** @return the number of named entities received */
+	long getEntityCount();
+
+	/** @return the number of responses by HTTP status */
+	Map<Integer, Long> getStatusCounts();
+
+	/** @return the median request latency */
+	double getLatencyP50();
+
+	/** @return the 99th percentile of the request latency */
+	double getLatencyP99();
+
+	/** @return the 99.9th percentile of the request latency */
+	double getLatencyP999();
+
+	/** @return the median latency of each phase */
+	Map<String, Double> getPhaseP50();
+
+	/** @return the 99th percentile of the latency of each phase */
+	Map<String, Double> getPhaseP99();
+
+	/** @return the 99.9th percentile of the latency of each phase */
+	Map<String, Double> getPhaseP999();
+
+	/** Clears all the metrics. */
+	void reset();
+
+}
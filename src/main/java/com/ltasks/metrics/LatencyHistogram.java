@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A lock-free histogram of durations, cheap enough to record every request.
+ * </p>
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split in 16
+ * buckets, so a percentile is within about 6% of the exact value, using a
+ * fixed 8 KB whatever the range or the number of values.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	/** Buckets per power of two, as a power of two */
+	private static final int SUB_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder mCount = new LongAdder();
+
+	private final LongAdder mSum = new LongAdder();
+
+	/**
+	 * Records a value
+	 * 
+	 * @param aValue
+	 *            the value, negative values count as 0
+	 */
+	public void record(long aValue) {
+		long value = Math.max(0, aValue);
+		mCounts.incrementAndGet(indexOf(value));
+		mCount.increment();
+		mSum.add(value);
+	}
+
+	/**
+	 * Gets the number of values recorded
+	 * 
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return mCount.sum();
+	}
+
+	/**
+	 * Gets the mean of the values recorded
+	 * 
+	 * @return the mean, 0 if there are no values
+	 */
+	public double getMean() {
+		long count = mCount.sum();
+		return count == 0 ? 0 : (double) mSum.sum() / count;
+	}
+
+	/**
+	 * Gets a percentile of the values recorded
+	 * 
+	 * @param aPercentile
+	 *            the percentile, from 0 to 100
+	 * @return the value at the percentile, 0 if there are no values
+	 */
+	public long getPercentile(double aPercentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = mCounts.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(aPercentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return valueOf(i);
+			}
+		}
+		return valueOf(BUCKETS - 1);
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts.set(i, 0);
+		}
+		mCount.reset();
+		mSum.reset();
+	}
+
+	static int indexOf(long aValue) {
+		if (aValue < SUB_BUCKETS) {
+			return (int) aValue;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(aValue);
+		int sub = (int) (aValue >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Gets the middle of a bucket.
+	 */
+	static long valueOf(int aIndex) {
+		if (aIndex < SUB_BUCKETS) {
+			return aIndex;
+		}
+		int exponent = aIndex / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = aIndex % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		return (1L << exponent) + sub * width + width / 2;
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+/**
+ * The phases of a request, in the order they run.
+ */
+public enum Phase {
+
+	/** Url-encoding the form parameters */
+	ENCODE,
+
+	/** Gzipping the request body */
+	COMPRESS,
+
+	/** Writing the request body to the connection */
+	SEND,
+
+	/**
+	 * Everything else until the response arrives: connecting, writing the
+	 * headers, and waiting for the server
+	 */
+	WAIT,
+
+	/** Reading the response body from the connection */
+	RECEIVE,
+
+	/** Gunzipping the response body */
+	DECOMPRESS,
+
+	/** Parsing the result XML */
+	PARSE,
+
+	/** The whole request, including retries */
+	TOTAL
+
+}
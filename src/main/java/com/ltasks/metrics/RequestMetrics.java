@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of one request: the time spent in each {@link Phase}, the bytes
+ * sent and received, and its outcome. Times and bytes add up over all the
+ * attempts of a retried request.
+ */
+public final class RequestMetrics {
+
+	private final long[] mDurations;
+
+	private final long mRequestBytes;
+
+	private final long mRequestWireBytes;
+
+	private final long mResponseWireBytes;
+
+	private final long mResponseBytes;
+
+	private final int mEntityCount;
+
+	private final int mStatusCode;
+
+	private final int mAttempts;
+
+	private final Throwable mFailure;
+
+	/**
+	 * Creates the metrics of a request
+	 * 
+	 * @param aDurations
+	 *            the time, in nanoseconds, of each phase, indexed by
+	 *            {@link Phase#ordinal()}
+	 * @param aRequestBytes
+	 *            the request body size before compression
+	 * @param aRequestWireBytes
+	 *            the request body size sent
+	 * @param aResponseWireBytes
+	 *            the response body size received
+	 * @param aResponseBytes
+	 *            the response body size after decompression
+	 * @param aEntityCount
+	 *            the number of named entities in the result
+	 * @param aStatusCode
+	 *            the HTTP status of the last response, or -1 if none
+	 * @param aAttempts
+	 *            the number of attempts sent
+	 * @param aFailure
+	 *            the failure, or null if a result was returned
+	 */
+	public RequestMetrics(long[] aDurations, long aRequestBytes,
+			long aRequestWireBytes, long aResponseWireBytes,
+			long aResponseBytes, int aEntityCount, int aStatusCode,
+			int aAttempts, Throwable aFailure) {
+		if (aDurations.length != Phase.values().length) {
+			throw new IllegalArgumentException(
+					"there must be a duration per phase.");
+		}
+		mDurations = aDurations.clone();
+		mRequestBytes = aRequestBytes;
+		mRequestWireBytes = aRequestWireBytes;
+		mResponseWireBytes = aResponseWireBytes;
+		mResponseBytes = aResponseBytes;
+		mEntityCount = aEntityCount;
+		mStatusCode = aStatusCode;
+		mAttempts = aAttempts;
+		mFailure = aFailure;
+	}
+
+	/**
+	 * Gets the time spent in a phase
+	 * 
+	 * @param aPhase
+	 *            the phase
+	 * @param aUnit
+	 *            the unit of the result
+	 * @return the duration
+	 */
+	public long getDuration(Phase aPhase, TimeUnit aUnit) {
+		return aUnit.convert(mDurations[aPhase.ordinal()],
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the request body size before compression
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getRequestBytes() {
+		return mRequestBytes;
+	}
+
+	/**
+	 * Gets the request body size sent, after compression
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getRequestWireBytes() {
+		return mRequestWireBytes;
+	}
+
+	/**
+	 * Gets the response body size received, before decompression
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getResponseWireBytes() {
+		return mResponseWireBytes;
+	}
+
+	/**
+	 * Gets the response body size after decompression
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getResponseBytes() {
+		return mResponseBytes;
+	}
+
+	/**
+	 * Gets the number of named entities in the result
+	 * 
+	 * @return the number of entities
+	 */
+	public int getEntityCount() {
+		return mEntityCount;
+	}
+
+	/**
+	 * Gets the HTTP status of the last response
+	 * 
+	 * @return the status, or -1 if no response was received
+	 */
+	public int getStatusCode() {
+		return mStatusCode;
+	}
+
+	/**
+	 * Gets the number of attempts sent
+	 * 
+	 * @return the number of attempts
+	 */
+	public int getAttempts() {
+		return mAttempts;
+	}
+
+	/**
+	 * Gets the failure of the request
+	 * 
+	 * @return the failure, or null if a result was returned
+	 */
+	public Throwable getFailure() {
+		return mFailure;
+	}
+
+	/**
+	 * Checks if the request failed without a result
+	 * 
+	 * @return true if the request failed
+	 */
+	public boolean isFailed() {
+		return mFailure != null;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("RequestMetrics [");
+		for (Phase phase : Phase.values()) {
+			sb.append(phase.name().toLowerCase()).append('=')
+					.append(getDuration(phase, TimeUnit.MICROSECONDS))
+					.append("us, ");
+		}
+		return sb.append("requestBytes=").append(mRequestBytes)
+				.append('/').append(mRequestWireBytes)
+				.append(", responseBytes=").append(mResponseBytes)
+				.append('/').append(mResponseWireBytes)
+				.append(", entities=").append(mEntityCount)
+				.append(", status=").append(mStatusCode)
+				.append(", attempts=").append(mAttempts)
+				.append(", failed=").append(isFailed()).append(']')
+				.toString();
+	}
+
+}
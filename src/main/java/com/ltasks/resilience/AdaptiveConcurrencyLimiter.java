@@ -0,0 +1,439 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>
+ * Limits the number of requests in flight, adapting the limit to how the
+ * service is coping (additive increase, multiplicative decrease).
+ * </p>
+ * <p>
+ * Each successful response while the limit is in use raises it by one per
+ * window of requests. A throttling or unavailable status (429, 502, 503,
+ * 504), a failure to communicate, or a response much slower than the average
+ * cuts it by the backoff ratio, once per congestion event. Requests beyond
+ * the limit wait, in order, for a permit.
+ * </p>
+ * <p>
+ * A limiter is thread-safe and may be shared by clients calling the same
+ * service.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	/** Default ratio applied to the limit on congestion */
+	public static final double DEFAULT_BACKOFF_RATIO = 0.75;
+
+	/** Default ratio to the average latency above which a response is slow */
+	public static final double DEFAULT_LATENCY_TOLERANCE = 3.0;
+
+	/** Weight of a new sample in the average latency */
+	private static final double LATENCY_SMOOTHING = 0.05;
+
+	private final int mMinLimit;
+
+	private final int mMaxLimit;
+
+	private double mLimit;
+
+	private int mInFlight;
+
+	private final ArrayDeque<CompletableFuture<Permit>> mWaiters = new ArrayDeque<CompletableFuture<Permit>>();
+
+	private volatile double mBackoffRatio = DEFAULT_BACKOFF_RATIO;
+
+	private volatile double mLatencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+	private volatile long mAcquireTimeout;
+
+	/** Average latency of successful responses, 0 before the first one */
+	private double mAverageLatency;
+
+	/** When the limit was last cut; permits granted before are ignored */
+	private long mLastDecrease = Long.MIN_VALUE;
+
+	private long mDecreaseCount;
+
+	/**
+	 * Creates a new limiter
+	 * 
+	 * @param aInitialLimit
+	 *            the limit to start with
+	 * @param aMinLimit
+	 *            the lowest limit
+	 * @param aMaxLimit
+	 *            the highest limit
+	 * @throws IllegalArgumentException
+	 *             if the minimum is not positive, or the limits are not in
+	 *             order
+	 */
+	public AdaptiveConcurrencyLimiter(int aInitialLimit, int aMinLimit,
+			int aMaxLimit) throws IllegalArgumentException {
+		if (aMinLimit <= 0) {
+			throw new IllegalArgumentException(
+					"the minimum limit must be positive.");
+		}
+		if (aInitialLimit < aMinLimit || aMaxLimit < aInitialLimit) {
+			throw new IllegalArgumentException(
+					"the initial limit must be between the minimum and the maximum.");
+		}
+		mMinLimit = aMinLimit;
+		mMaxLimit = aMaxLimit;
+		mLimit = aInitialLimit;
+	}
+
+	/**
+	 * Gets the lowest limit
+	 * 
+	 * @return the lowest limit
+	 */
+	public int getMinLimit() {
+		return mMinLimit;
+	}
+
+	/**
+	 * Gets the highest limit
+	 * 
+	 * @return the highest limit
+	 */
+	public int getMaxLimit() {
+		return mMaxLimit;
+	}
+
+	/**
+	 * Gets the current number of requests allowed in flight
+	 * 
+	 * @return the current limit
+	 */
+	public synchronized int getLimit() {
+		return (int) mLimit;
+	}
+
+	/**
+	 * Gets the number of requests in flight
+	 * 
+	 * @return the number of requests holding a permit
+	 */
+	public synchronized int getInFlight() {
+		return mInFlight;
+	}
+
+	/**
+	 * Gets the number of requests waiting for a permit
+	 * 
+	 * @return the number of waiting requests
+	 */
+	public synchronized int getWaiting() {
+		return mWaiters.size();
+	}
+
+	/**
+	 * Gets the number of times the limit was cut
+	 * 
+	 * @return the number of congestion events
+	 */
+	public synchronized long getDecreaseCount() {
+		return mDecreaseCount;
+	}
+
+	/**
+	 * Gets the ratio applied to the limit on congestion
+	 * 
+	 * @return the backoff ratio
+	 */
+	public double getBackoffRatio() {
+		return mBackoffRatio;
+	}
+
+	/**
+	 * Sets the ratio applied to the limit on congestion. Default is
+	 * {@link #DEFAULT_BACKOFF_RATIO}.
+	 * 
+	 * @param aBackoffRatio
+	 *            the backoff ratio, greater than 0 and less than 1
+	 * @throws IllegalArgumentException
+	 *             if the ratio is out of range
+	 */
+	public void setBackoffRatio(double aBackoffRatio)
+			throws IllegalArgumentException {
+		if (!(aBackoffRatio > 0 && aBackoffRatio < 1)) {
+			throw new IllegalArgumentException(
+					"the backoff ratio must be between 0 and 1.");
+		}
+		mBackoffRatio = aBackoffRatio;
+	}
+
+	/**
+	 * Gets the ratio to the average latency above which a response counts as
+	 * congestion
+	 * 
+	 * @return the latency tolerance
+	 */
+	public double getLatencyTolerance() {
+		return mLatencyTolerance;
+	}
+
+	/**
+	 * Sets the ratio to the average latency above which a response counts as
+	 * congestion. Default is {@link #DEFAULT_LATENCY_TOLERANCE}. Use
+	 * {@link Double#POSITIVE_INFINITY} to adapt to status codes and failures
+	 * only.
+	 * 
+	 * @param aLatencyTolerance
+	 *            the latency tolerance, greater than 1
+	 * @throws IllegalArgumentException
+	 *             if the tolerance is not greater than 1
+	 */
+	public void setLatencyTolerance(double aLatencyTolerance)
+			throws IllegalArgumentException {
+		if (!(aLatencyTolerance > 1)) {
+			throw new IllegalArgumentException(
+					"the latency tolerance must be greater than 1.");
+		}
+		mLatencyTolerance = aLatencyTolerance;
+	}
+
+	/**
+	 * Gets the time, in milliseconds, a request waits for a permit
+	 * 
+	 * @return the acquire timeout, or 0 to wait indefinitely
+	 */
+	public long getAcquireTimeout() {
+		return mAcquireTimeout;
+	}
+
+	/**
+	 * Sets the time, in milliseconds, a blocking request waits for a permit.
+	 * If the timeout expires the request fails with a
+	 * {@link LimitExceededException}. Default is 0, wait indefinitely.
+	 * 
+	 * @param aAcquireTimeout
+	 *            the acquire timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the timeout is negative
+	 */
+	public void setAcquireTimeout(long aAcquireTimeout)
+			throws IllegalArgumentException {
+		if (aAcquireTimeout < 0) {
+			throw new IllegalArgumentException(
+					"the acquire timeout can not be negative.");
+		}
+		mAcquireTimeout = aAcquireTimeout;
+	}
+
+	/**
+	 * Gets a permit, waiting up to the acquire timeout
+	 * 
+	 * @return the permit, which must be released when the request completes
+	 * @throws LimitExceededException
+	 *             if the timeout expired
+	 * @throws InterruptedIOException
+	 *             if interrupted while waiting
+	 */
+	public Permit acquire() throws LimitExceededException,
+			InterruptedIOException {
+		CompletableFuture<Permit> permit = acquireAsync();
+		long timeout = mAcquireTimeout;
+		try {
+			return timeout == 0 ? permit.get() : permit.get(timeout,
+					TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if (!permit.cancel(false)) {
+				// granted meanwhile
+				return permit.join();
+			}
+			throw new LimitExceededException("Timeout waiting for a permit: "
+					+ getInFlight() + " requests in flight.");
+		} catch (InterruptedException e) {
+			if (!permit.cancel(false)) {
+				permit.join().release();
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for a permit.");
+		} catch (ExecutionException e) {
+			// permits are never completed exceptionally
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gets a permit without blocking the calling thread
+	 * 
+	 * @return a future that completes with the permit, which must be released
+	 *         when the request completes. Cancelling the future gives up the
+	 *         place in the queue.
+	 */
+	public CompletableFuture<Permit> acquireAsync() {
+		CompletableFuture<Permit> permit = new CompletableFuture<Permit>();
+		synchronized (this) {
+			if (mWaiters.isEmpty() && mInFlight < (int) mLimit) {
+				mInFlight++;
+				permit.complete(new Permit(mInFlight));
+				return permit;
+			}
+			mWaiters.add(permit);
+		}
+		permit.whenComplete((result, error) -> {
+			if (permit.isCancelled()) {
+				synchronized (this) {
+					mWaiters.remove(permit);
+				}
+			}
+		});
+		return permit;
+	}
+
+	/**
+	 * Gives a permit back and hands the free permits to the waiters.
+	 */
+	private void release(Permit aPermit, boolean aIsCongested,
+			long aLatency) {
+		List<CompletableFuture<Permit>> waiters = null;
+		List<Permit> granted = null;
+		synchronized (this) {
+			mInFlight--;
+			if (aIsCongested) {
+				if (aPermit.mStart > mLastDecrease) {
+					// one cut per congestion event, not per request dropped
+					mLimit = Math.max(mMinLimit, mLimit * mBackoffRatio);
+					mLastDecrease = System.nanoTime();
+					mDecreaseCount++;
+				}
+			} else if (aLatency >= 0) {
+				mAverageLatency = mAverageLatency == 0 ? aLatency
+						: mAverageLatency + LATENCY_SMOOTHING
+								* (aLatency - mAverageLatency);
+				if (aPermit.mInFlight >= mLimit / 2) {
+					// the limit was in use, so it may be too low
+					mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+				}
+			}
+			while (!mWaiters.isEmpty() && mInFlight < (int) mLimit) {
+				if (waiters == null) {
+					waiters = new ArrayList<CompletableFuture<Permit>>();
+					granted = new ArrayList<Permit>();
+				}
+				waiters.add(mWaiters.poll());
+				mInFlight++;
+				granted.add(new Permit(mInFlight));
+			}
+		}
+		if (granted != null) {
+			// completed outside the lock, as the waiters may run right away
+			for (int i = 0; i < waiters.size(); i++) {
+				if (!waiters.get(i).complete(granted.get(i))) {
+					// the waiter gave up
+					granted.get(i).release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if a response is much slower than the average
+	 */
+	private synchronized boolean isSlow(long aLatency) {
+		return mAverageLatency > 0
+				&& aLatency > mAverageLatency * mLatencyTolerance;
+	}
+
+	@Override
+	public String toString() {
+		synchronized (this) {
+			return "AdaptiveConcurrencyLimiter [limit=" + (int) mLimit
+					+ ", inFlight=" + mInFlight + ", waiting="
+					+ mWaiters.size() + "]";
+		}
+	}
+
+	/**
+	 * The right to send one request. Exactly one of the release methods must
+	 * be called when the request completes; later calls are ignored.
+	 */
+	public final class Permit {
+
+		private final long mStart = System.nanoTime();
+
+		/** Requests in flight when the permit was granted */
+		private final int mInFlight;
+
+		private boolean mIsReleased;
+
+		private Permit(int aInFlight) {
+			mInFlight = aInFlight;
+		}
+
+		/**
+		 * Releases the permit after a response was received, adapting the
+		 * limit to its status and latency.
+		 * 
+		 * @param aStatusCode
+		 *            the HTTP status of the response
+		 */
+		public void onResponse(int aStatusCode) {
+			if (take()) {
+				long latency = System.nanoTime() - mStart;
+				boolean isCongested = aStatusCode == 429
+						|| aStatusCode == 502 || aStatusCode == 503
+						|| aStatusCode == 504 || isSlow(latency);
+				AdaptiveConcurrencyLimiter.this.release(this, isCongested,
+						latency);
+			}
+		}
+
+		/**
+		 * Releases the permit after failing to communicate, cutting the
+		 * limit.
+		 */
+		public void onFailure() {
+			if (take()) {
+				AdaptiveConcurrencyLimiter.this.release(this, true, -1);
+			}
+		}
+
+		/**
+		 * Releases the permit without adapting the limit, for a request that
+		 * was not sent or whose outcome says nothing about the service.
+		 */
+		public void release() {
+			if (take()) {
+				AdaptiveConcurrencyLimiter.this.release(this, false, -1);
+			}
+		}
+
+		private synchronized boolean take() {
+			if (mIsReleased) {
+				return false;
+			}
+			mIsReleased = true;
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,489 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Stops sending requests to a service that is failing, so callers fail fast
+ * instead of waiting for timeouts.
+ * </p>
+ * <p>
+ * While <i>closed</i>, the outcomes of the last calls are kept in a sliding
+ * window. When the window holds the minimum number of calls and the failure
+ * rate or the slow call rate reaches its threshold, the breaker <i>opens</i>
+ * and rejects all calls with a {@link CircuitOpenException}. After the open
+ * duration it goes <i>half-open</i> and lets a few probe calls through: if
+ * they fail or are slow as often as the thresholds, it opens again, otherwise
+ * it closes.
+ * </p>
+ * <p>
+ * A failure is a failure to communicate or a 5xx status. A breaker is
+ * thread-safe and may be shared by clients calling the same service.
+ * </p>
+ */
+public class CircuitBreaker {
+
+	/** The state of a breaker */
+	public enum State {
+		/** Calls are sent and their outcomes recorded */
+		CLOSED,
+		/** Calls are rejected */
+		OPEN,
+		/** A few probe calls are sent */
+		HALF_OPEN
+	}
+
+	private final int mWindowSize;
+
+	private final double mFailureRateThreshold;
+
+	private final long mOpenDuration;
+
+	private volatile int mMinimumCalls;
+
+	private volatile long mSlowCallDuration;
+
+	private volatile double mSlowCallRateThreshold = 1;
+
+	private volatile int mHalfOpenCalls = 5;
+
+	private final List<CircuitBreakerListener> mListeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+
+	private State mState = State.CLOSED;
+
+	/** Outcomes in the window, or of the probes while half-open */
+	private final boolean[] mFailed;
+
+	private final boolean[] mSlow;
+
+	private int mCount;
+
+	private int mNext;
+
+	private int mFailureCount;
+
+	private int mSlowCount;
+
+	/** When the breaker opened */
+	private long mOpenedAt;
+
+	/** Probe calls sent while half-open */
+	private int mProbeCount;
+
+	private long mRejectedCount;
+
+	/**
+	 * Creates a new closed breaker
+	 * 
+	 * @param aWindowSize
+	 *            the number of calls in the sliding window
+	 * @param aFailureRateThreshold
+	 *            the failure rate that opens the breaker, greater than 0 and
+	 *            at most 1
+	 * @param aOpenDuration
+	 *            the time, in milliseconds, the breaker stays open before
+	 *            probing
+	 * @throws IllegalArgumentException
+	 *             if a parameter is out of range
+	 */
+	public CircuitBreaker(int aWindowSize, double aFailureRateThreshold,
+			long aOpenDuration) throws IllegalArgumentException {
+		if (aWindowSize <= 0) {
+			throw new IllegalArgumentException(
+					"the window size must be positive.");
+		}
+		checkRate(aFailureRateThreshold);
+		if (aOpenDuration <= 0) {
+			throw new IllegalArgumentException(
+					"the open duration must be positive.");
+		}
+		mWindowSize = aWindowSize;
+		mFailureRateThreshold = aFailureRateThreshold;
+		mOpenDuration = TimeUnit.MILLISECONDS.toNanos(aOpenDuration);
+		mMinimumCalls = Math.min(aWindowSize, 10);
+		mFailed = new boolean[aWindowSize];
+		mSlow = new boolean[aWindowSize];
+	}
+
+	private static void checkRate(double aRate) {
+		if (!(aRate > 0 && aRate <= 1)) {
+			throw new IllegalArgumentException(
+					"the rate threshold must be between 0 and 1.");
+		}
+	}
+
+	/**
+	 * Gets the number of calls in the sliding window
+	 * 
+	 * @return the window size
+	 */
+	public int getWindowSize() {
+		return mWindowSize;
+	}
+
+	/**
+	 * Gets the failure rate that opens the breaker
+	 * 
+	 * @return the failure rate threshold
+	 */
+	public double getFailureRateThreshold() {
+		return mFailureRateThreshold;
+	}
+
+	/**
+	 * Gets the time, in milliseconds, the breaker stays open before probing
+	 * 
+	 * @return the open duration in milliseconds
+	 */
+	public long getOpenDuration() {
+		return TimeUnit.NANOSECONDS.toMillis(mOpenDuration);
+	}
+
+	/**
+	 * Gets the number of calls needed in the window before the rates are
+	 * checked
+	 * 
+	 * @return the minimum number of calls
+	 */
+	public int getMinimumCalls() {
+		return mMinimumCalls;
+	}
+
+	/**
+	 * Sets the number of calls needed in the window before the rates are
+	 * checked. Default is 10, or the window size if smaller.
+	 * 
+	 * @param aMinimumCalls
+	 *            the minimum number of calls, at most the window size
+	 * @throws IllegalArgumentException
+	 *             if the number is out of range
+	 */
+	public void setMinimumCalls(int aMinimumCalls)
+			throws IllegalArgumentException {
+		if (aMinimumCalls <= 0 || aMinimumCalls > mWindowSize) {
+			throw new IllegalArgumentException(
+					"the minimum calls must be between 1 and the window size.");
+		}
+		mMinimumCalls = aMinimumCalls;
+	}
+
+	/**
+	 * Gets the duration, in milliseconds, above which a call is slow
+	 * 
+	 * @return the slow call duration, or 0 if calls are never slow
+	 */
+	public long getSlowCallDuration() {
+		return mSlowCallDuration;
+	}
+
+	/**
+	 * Sets the duration, in milliseconds, above which a call is slow. Default
+	 * is 0, calls are never slow.
+	 * 
+	 * @param aSlowCallDuration
+	 *            the slow call duration in milliseconds, or 0
+	 * @throws IllegalArgumentException
+	 *             if the duration is negative
+	 */
+	public void setSlowCallDuration(long aSlowCallDuration)
+			throws IllegalArgumentException {
+		if (aSlowCallDuration < 0) {
+			throw new IllegalArgumentException(
+					"the slow call duration can not be negative.");
+		}
+		mSlowCallDuration = aSlowCallDuration;
+	}
+
+	/**
+	 * Gets the slow call rate that opens the breaker
+	 * 
+	 * @return the slow call rate threshold
+	 */
+	public double getSlowCallRateThreshold() {
+		return mSlowCallRateThreshold;
+	}
+
+	/**
+	 * Sets the slow call rate that opens the breaker. Default is 1, when all
+	 * calls in the window are slow.
+	 * 
+	 * @param aSlowCallRateThreshold
+	 *            the slow call rate threshold, greater than 0 and at most 1
+	 * @throws IllegalArgumentException
+	 *             if the rate is out of range
+	 */
+	public void setSlowCallRateThreshold(double aSlowCallRateThreshold)
+			throws IllegalArgumentException {
+		checkRate(aSlowCallRateThreshold);
+		mSlowCallRateThreshold = aSlowCallRateThreshold;
+	}
+
+	/**
+	 * Gets the number of probe calls sent while half-open
+	 * 
+	 * @return the number of probe calls
+	 */
+	public int getHalfOpenCalls() {
+		return mHalfOpenCalls;
+	}
+
+	/**
+	 * Sets the number of probe calls sent while half-open. Default is 5.
+	 * 
+	 * @param aHalfOpenCalls
+	 *            the number of probe calls, at most the window size
+	 * @throws IllegalArgumentException
+	 *             if the number is out of range
+	 */
+	public void setHalfOpenCalls(int aHalfOpenCalls)
+			throws IllegalArgumentException {
+		if (aHalfOpenCalls <= 0 || aHalfOpenCalls > mWindowSize) {
+			throw new IllegalArgumentException(
+					"the half-open calls must be between 1 and the window size.");
+		}
+		mHalfOpenCalls = aHalfOpenCalls;
+	}
+
+	/**
+	 * Adds a listener of the state transitions
+	 * 
+	 * @param aListener
+	 *            the listener
+	 */
+	public void addListener(CircuitBreakerListener aListener) {
+		mListeners.add(aListener);
+	}
+
+	/**
+	 * Removes a listener of the state transitions
+	 * 
+	 * @param aListener
+	 *            the listener
+	 */
+	public void removeListener(CircuitBreakerListener aListener) {
+		mListeners.remove(aListener);
+	}
+
+	/**
+	 * Gets the current state
+	 * 
+	 * @return the state
+	 */
+	public State getState() {
+		State from;
+		State to;
+		synchronized (this) {
+			from = mState;
+			to = probeIfDue();
+		}
+		fireStateChange(from, to);
+		return to;
+	}
+
+	/**
+	 * Gets the failure rate of the calls in the window
+	 * 
+	 * @return the failure rate, 0 if there are no calls
+	 */
+	public synchronized double getFailureRate() {
+		return mCount == 0 ? 0 : (double) mFailureCount / mCount;
+	}
+
+	/**
+	 * Gets the slow call rate of the calls in the window
+	 * 
+	 * @return the slow call rate, 0 if there are no calls
+	 */
+	public synchronized double getSlowCallRate() {
+		return mCount == 0 ? 0 : (double) mSlowCount / mCount;
+	}
+
+	/**
+	 * Gets the number of calls rejected while open
+	 * 
+	 * @return the number of rejected calls
+	 */
+	public synchronized long getRejectedCount() {
+		return mRejectedCount;
+	}
+
+	/**
+	 * Gets the permission to send a call. Each permitted call must be
+	 * followed by {@link #onResult(boolean, long)} or {@link #onIgnored()}.
+	 * 
+	 * @throws CircuitOpenException
+	 *             if the breaker is open, or half-open with all probes sent
+	 */
+	public void acquire() throws CircuitOpenException {
+		State from;
+		State to;
+		synchronized (this) {
+			from = mState;
+			to = probeIfDue();
+			if (to == State.OPEN
+					|| (to == State.HALF_OPEN && mProbeCount >= mHalfOpenCalls)) {
+				mRejectedCount++;
+				to = null;
+			} else if (to == State.HALF_OPEN) {
+				mProbeCount++;
+			}
+		}
+		if (to == null) {
+			throw new CircuitOpenException("The circuit breaker is open.");
+		}
+		fireStateChange(from, to);
+	}
+
+	/**
+	 * Records the outcome of a permitted call
+	 * 
+	 * @param aIsFailure
+	 *            true if the call failed
+	 * @param aDuration
+	 *            the duration of the call in nanoseconds
+	 */
+	public void onResult(boolean aIsFailure, long aDuration) {
+		long slowCallDuration = mSlowCallDuration;
+		boolean isSlow = slowCallDuration > 0
+				&& aDuration > TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+		State from;
+		State to;
+		synchronized (this) {
+			from = mState;
+			if (from == State.OPEN) {
+				// sent before the breaker opened
+				return;
+			}
+			record(aIsFailure, isSlow);
+			to = from;
+			if (from == State.CLOSED) {
+				if (mCount >= mMinimumCalls && isOverThreshold()) {
+					to = open();
+				}
+			} else if (mCount >= mHalfOpenCalls) {
+				to = isOverThreshold() ? open() : close();
+			}
+		}
+		fireStateChange(from, to);
+	}
+
+	/**
+	 * Gives back the permission of a call whose outcome says nothing about
+	 * the service, for example a cancelled call.
+	 */
+	public synchronized void onIgnored() {
+		if (mState == State.HALF_OPEN && mProbeCount > 0) {
+			mProbeCount--;
+		}
+	}
+
+	/**
+	 * Closes the breaker and clears the window.
+	 */
+	public void reset() {
+		State from;
+		synchronized (this) {
+			from = mState;
+			close();
+		}
+		fireStateChange(from, State.CLOSED);
+	}
+
+	private void record(boolean aIsFailure, boolean aIsSlow) {
+		if (mCount == mWindowSize) {
+			// the oldest outcome leaves the window
+			if (mFailed[mNext]) {
+				mFailureCount--;
+			}
+			if (mSlow[mNext]) {
+				mSlowCount--;
+			}
+		} else {
+			mCount++;
+		}
+		mFailed[mNext] = aIsFailure;
+		mSlow[mNext] = aIsSlow;
+		if (aIsFailure) {
+			mFailureCount++;
+		}
+		if (aIsSlow) {
+			mSlowCount++;
+		}
+		mNext = (mNext + 1) % mWindowSize;
+	}
+
+	private boolean isOverThreshold() {
+		return mFailureCount >= mFailureRateThreshold * mCount
+				|| mSlowCount >= mSlowCallRateThreshold * mCount;
+	}
+
+	/**
+	 * Goes half-open if the breaker has been open long enough.
+	 */
+	private State probeIfDue() {
+		if (mState == State.OPEN
+				&& System.nanoTime() - mOpenedAt >= mOpenDuration) {
+			mState = State.HALF_OPEN;
+			mProbeCount = 0;
+			clear();
+		}
+		return mState;
+	}
+
+	private State open() {
+		mState = State.OPEN;
+		mOpenedAt = System.nanoTime();
+		clear();
+		return mState;
+	}
+
+	private State close() {
+		mState = State.CLOSED;
+		clear();
+		return mState;
+	}
+
+	private void clear() {
+		mCount = 0;
+		mNext = 0;
+		mFailureCount = 0;
+		mSlowCount = 0;
+	}
+
+	private void fireStateChange(State aFrom, State aTo) {
+		if (aFrom != aTo) {
+			for (CircuitBreakerListener listener : mListeners) {
+				listener.onStateChange(this, aFrom, aTo);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (this) {
+			return "CircuitBreaker [state=" + mState + ", calls=" + mCount
+					+ ", failures=" + mFailureCount + ", slow=" + mSlowCount
+					+ ", rejected=" + mRejectedCount + "]";
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+/**
+ * Receives the state transitions of a {@link CircuitBreaker}, for example to
+ * pause or queue work while the service is down.
+ */
+public interface CircuitBreakerListener {
+
+	/**
+	 * Called after the breaker changed state. It is called on the thread that
+	 * caused the transition and must return quickly.
+	 * 
+	 * @param aBreaker
+	 *            the breaker
+	 * @param aFrom
+	 *            the previous state
+	 * @param aTo
+	 *            the new state
+	 */
+	void onStateChange(CircuitBreaker aBreaker, CircuitBreaker.State aFrom,
+			CircuitBreaker.State aTo);
+
+}
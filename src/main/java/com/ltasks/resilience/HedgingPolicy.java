@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Decides when a slow request is raced by a duplicate. If a request has not
+ * completed after the hedging delay, the same request is sent again and the
+ * first response wins; the other request is aborted.
+ * </p>
+ * <p>
+ * The delay is fixed, or follows a percentile of the observed latency, so
+ * only the slowest requests are hedged. Hedges are capped to a ratio of the
+ * requests, so hedging never adds more than that extra load on the service,
+ * even when the service is slow for everyone.
+ * </p>
+ * <p>
+ * A policy is thread-safe and may be shared by clients calling the same
+ * service.
+ * </p>
+ */
+public class HedgingPolicy {
+
+	/** Default maximum ratio of hedges to requests */
+	public static final double DEFAULT_MAX_EXTRA_LOAD = 0.1;
+
+	/** Number of latencies kept to compute the percentile */
+	private static final int SAMPLES = 1024;
+
+	/** Samples needed before the percentile replaces the fixed delay */
+	private static final int MIN_SAMPLES = 100;
+
+	/** The percentile is computed again after this many samples */
+	private static final int UPDATE_INTERVAL = 64;
+
+	private final long mDelay;
+
+	private volatile double mPercentile;
+
+	private volatile double mMaxExtraLoad = DEFAULT_MAX_EXTRA_LOAD;
+
+	private final long[] mLatencies = new long[SAMPLES];
+
+	private long mSampleCount;
+
+	/** The delay, in nanoseconds, from the percentile; 0 if not computed */
+	private volatile long mPercentileDelay;
+
+	private long mRequestCount;
+
+	private long mHedgeCount;
+
+	private long mHedgeWinCount;
+
+	/**
+	 * Creates a new policy with a fixed delay
+	 * 
+	 * @param aDelay
+	 *            the time, in milliseconds, after which a request is hedged
+	 * @throws IllegalArgumentException
+	 *             if the delay is not positive
+	 */
+	public HedgingPolicy(long aDelay) throws IllegalArgumentException {
+		if (aDelay <= 0) {
+			throw new IllegalArgumentException("the delay must be positive.");
+		}
+		mDelay = aDelay;
+	}
+
+	/**
+	 * Gets the percentile of the observed latency used as delay
+	 * 
+	 * @return the percentile, or 0 if the delay is fixed
+	 */
+	public double getPercentile() {
+		return mPercentile;
+	}
+
+	/**
+	 * Sets the percentile of the observed latency used as delay, for example
+	 * 95 to hedge the slowest 5% of the requests. The fixed delay is used
+	 * until enough latencies are observed. Default is 0, always use the fixed
+	 * delay.
+	 * 
+	 * @param aPercentile
+	 *            the percentile, greater than 0 and less than 100, or 0 for a
+	 *            fixed delay
+	 * @throws IllegalArgumentException
+	 *             if the percentile is out of range
+	 */
+	public void setPercentile(double aPercentile)
+			throws IllegalArgumentException {
+		if (!(aPercentile >= 0 && aPercentile < 100)) {
+			throw new IllegalArgumentException(
+					"the percentile must be between 0 and 100.");
+		}
+		mPercentile = aPercentile;
+		synchronized (this) {
+			mPercentileDelay = aPercentile == 0 ? 0 : computePercentile();
+		}
+	}
+
+	/**
+	 * Gets the maximum ratio of hedges to requests
+	 * 
+	 * @return the maximum extra load
+	 */
+	public double getMaxExtraLoad() {
+		return mMaxExtraLoad;
+	}
+
+	/**
+	 * Sets the maximum ratio of hedges to requests. Default is
+	 * {@link #DEFAULT_MAX_EXTRA_LOAD}, at most one hedge per ten requests.
+	 * 
+	 * @param aMaxExtraLoad
+	 *            the maximum extra load, greater than 0 and at most 1
+	 * @throws IllegalArgumentException
+	 *             if the ratio is out of range
+	 */
+	public void setMaxExtraLoad(double aMaxExtraLoad)
+			throws IllegalArgumentException {
+		if (!(aMaxExtraLoad > 0 && aMaxExtraLoad <= 1)) {
+			throw new IllegalArgumentException(
+					"the maximum extra load must be between 0 and 1.");
+		}
+		mMaxExtraLoad = aMaxExtraLoad;
+	}
+
+	/**
+	 * Gets the time, in milliseconds, after which a request is hedged now
+	 * 
+	 * @return the current delay in milliseconds
+	 */
+	public long getDelay() {
+		return TimeUnit.NANOSECONDS.toMillis(getDelayNanos());
+	}
+
+	/**
+	 * Gets the time, in nanoseconds, after which a request is hedged now
+	 * 
+	 * @return the current delay in nanoseconds
+	 */
+	public long getDelayNanos() {
+		long delay = mPercentileDelay;
+		return delay > 0 ? delay : TimeUnit.MILLISECONDS.toNanos(mDelay);
+	}
+
+	/**
+	 * Gets the number of requests that could be hedged
+	 * 
+	 * @return the number of requests
+	 */
+	public synchronized long getRequestCount() {
+		return mRequestCount;
+	}
+
+	/**
+	 * Gets the number of hedges sent
+	 * 
+	 * @return the number of hedges
+	 */
+	public synchronized long getHedgeCount() {
+		return mHedgeCount;
+	}
+
+	/**
+	 * Gets the number of hedges that completed before the original request
+	 * 
+	 * @return the number of hedges that won
+	 */
+	public synchronized long getHedgeWinCount() {
+		return mHedgeWinCount;
+	}
+
+	/**
+	 * Records a request that may be hedged.
+	 */
+	public synchronized void onRequest() {
+		mRequestCount++;
+	}
+
+	/**
+	 * Takes the right to send a hedge, if the extra load allows it
+	 * 
+	 * @return true if the hedge may be sent
+	 */
+	public synchronized boolean tryHedge() {
+		if (mHedgeCount + 1 > mRequestCount * mMaxExtraLoad) {
+			return false;
+		}
+		mHedgeCount++;
+		return true;
+	}
+
+	/**
+	 * Records a hedge that completed first.
+	 */
+	public synchronized void onHedgeWin() {
+		mHedgeWinCount++;
+	}
+
+	/**
+	 * Records the latency of a request
+	 * 
+	 * @param aLatency
+	 *            the latency in nanoseconds
+	 */
+	public synchronized void onLatency(long aLatency) {
+		mLatencies[(int) (mSampleCount++ % SAMPLES)] = aLatency;
+		if (mPercentile > 0 && mSampleCount >= MIN_SAMPLES
+				&& mSampleCount % UPDATE_INTERVAL == 0) {
+			mPercentileDelay = computePercentile();
+		}
+	}
+
+	private long computePercentile() {
+		int count = (int) Math.min(mSampleCount, SAMPLES);
+		if (count < MIN_SAMPLES) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(mLatencies, count);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(mPercentile / 100 * count) - 1;
+		return sorted[Math.max(0, index)];
+	}
+
+	@Override
+	public String toString() {
+		synchronized (this) {
+			return "HedgingPolicy [delay=" + getDelay() + "ms, requests="
+					+ mRequestCount + ", hedges=" + mHedgeCount + ", wins="
+					+ mHedgeWinCount + "]";
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request could not get a permit to be sent in time, because
+ * the client is already running as many requests as the service can take.
+ */
+public class LimitExceededException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new exception
+	 * 
+	 * @param aMessage
+	 *            the detail message
+	 */
+	public LimitExceededException(String aMessage) {
+		super(aMessage);
+	}
+
+}
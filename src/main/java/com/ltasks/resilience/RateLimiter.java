@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A token bucket that caps the rate of requests. Tokens are added at a fixed
+ * rate up to a burst size, and each request takes one, waiting if the bucket
+ * is empty. Waiting requests reserve their tokens in order, so the rate holds
+ * however many threads are waiting.
+ * </p>
+ * <p>
+ * The service enforces its limits per API key: clients sharing a key should
+ * share one limiter.
+ * </p>
+ */
+public class RateLimiter {
+
+	private final double mPermitsPerNano;
+
+	private final double mBurst;
+
+	/** Tokens available, negative when tokens were reserved ahead of time */
+	private double mTokens;
+
+	private long mLastRefill;
+
+	/**
+	 * Creates a new limiter, initially full
+	 * 
+	 * @param aPermitsPerSecond
+	 *            the sustained number of requests per second
+	 * @param aBurst
+	 *            the maximum number of requests sent at once after an idle
+	 *            period
+	 * @throws IllegalArgumentException
+	 *             if the rate or the burst is not positive
+	 */
+	public RateLimiter(double aPermitsPerSecond, int aBurst)
+			throws IllegalArgumentException {
+		if (!(aPermitsPerSecond > 0)) {
+			throw new IllegalArgumentException("the rate must be positive.");
+		}
+		if (aBurst <= 0) {
+			throw new IllegalArgumentException("the burst must be positive.");
+		}
+		mPermitsPerNano = aPermitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		mBurst = aBurst;
+		mTokens = aBurst;
+		mLastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Gets the sustained number of requests per second
+	 * 
+	 * @return the number of requests per second
+	 */
+	public double getRate() {
+		return mPermitsPerNano * TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * Gets the maximum number of requests sent at once
+	 * 
+	 * @return the burst size
+	 */
+	public int getBurst() {
+		return (int) mBurst;
+	}
+
+	/**
+	 * Takes a token, waiting until it is available
+	 * 
+	 * @throws InterruptedIOException
+	 *             if interrupted while waiting. The token is not given back.
+	 */
+	public void acquire() throws InterruptedIOException {
+		long wait = reserve();
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for the rate limit.");
+			}
+		}
+	}
+
+	/**
+	 * Takes a token without blocking the calling thread
+	 * 
+	 * @return a future that completes when the token is available
+	 */
+	public CompletableFuture<Void> acquireAsync() {
+		long wait = reserve();
+		if (wait <= 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return CompletableFuture.runAsync(() -> {
+		}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * Takes a token, possibly ahead of time.
+	 * 
+	 * @return the time, in nanoseconds, until the token is available
+	 */
+	synchronized long reserve() {
+		long now = System.nanoTime();
+		mTokens = Math.min(mBurst, mTokens + (now - mLastRefill)
+				* mPermitsPerNano);
+		mLastRefill = now;
+		mTokens -= 1;
+		return mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens / mPermitsPerNano);
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimiter [rate=" + getRate() + "/s, burst=" + getBurst()
+				+ "]";
+	}
+
+}
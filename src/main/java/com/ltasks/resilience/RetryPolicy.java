@@ -0,0 +1,513 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.NoHttpResponseException;
+
+/**
+ * <p>
+ * Decides when a failed request is sent again. A request is retried when the
+ * server answers with a retryable status, or when it fails with a retryable
+ * exception, until the maximum number of attempts or the time budget is
+ * reached.
+ * </p>
+ * <p>
+ * Attempts are spaced by an exponential backoff with full jitter: the wait
+ * before retry <i>n</i> is random between 0 and
+ * <code>min(maxBackoff, initialBackoff * multiplier^(n-1))</code>, so clients
+ * failing at the same moment do not retry at the same moment. A
+ * <code>Retry-After</code> header makes the wait at least as long as the
+ * server asks; if it asks for more than the maximum backoff the request is
+ * not retried.
+ * </p>
+ * <p>
+ * A policy is thread-safe and may be shared by clients. Its settings are read
+ * when each request starts.
+ * </p>
+ */
+public class RetryPolicy {
+
+	/** Status codes retried by default: timeout, throttling and unavailable */
+	private static final int[] DEFAULT_RETRYABLE_STATUS_CODES = { 408, 429,
+			502, 503, 504 };
+
+	/** Exceptions retried by default: failures to connect or to get a reply */
+	private static final List<Class<? extends IOException>> DEFAULT_RETRYABLE_EXCEPTIONS = Collections
+			.unmodifiableList(Arrays.<Class<? extends IOException>> asList(
+					ConnectException.class, ConnectTimeoutException.class,
+					NoHttpResponseException.class, SocketException.class,
+					SocketTimeoutException.class, HttpTimeoutException.class));
+
+	private final int mMaxAttempts;
+
+	private volatile long mInitialBackoff = 100;
+
+	private volatile long mMaxBackoff = 10000;
+
+	private volatile double mMultiplier = 2;
+
+	private volatile long mTimeBudget;
+
+	private volatile int[] mRetryableStatusCodes = DEFAULT_RETRYABLE_STATUS_CODES
+			.clone();
+
+	private volatile List<Class<? extends IOException>> mRetryableExceptions = DEFAULT_RETRYABLE_EXCEPTIONS;
+
+	private final AtomicLong mRetryCount = new AtomicLong();
+
+	private final AtomicLong mExhaustedCount = new AtomicLong();
+
+	/**
+	 * Creates a new policy with the default backoff (100 ms doubling up to 10
+	 * s), no time budget, and the default retryable status codes and
+	 * exceptions
+	 * 
+	 * @param aMaxAttempts
+	 *            the maximum number of attempts, including the first one
+	 * @throws IllegalArgumentException
+	 *             if the maximum number of attempts is not positive
+	 */
+	public RetryPolicy(int aMaxAttempts) throws IllegalArgumentException {
+		if (aMaxAttempts <= 0) {
+			throw new IllegalArgumentException(
+					"the maximum number of attempts must be positive.");
+		}
+		mMaxAttempts = aMaxAttempts;
+	}
+
+	/**
+	 * Gets the status codes retried by default: 408, 429, 502, 503 and 504
+	 * 
+	 * @return a copy of the default retryable status codes
+	 */
+	public static int[] getDefaultRetryableStatusCodes() {
+		return DEFAULT_RETRYABLE_STATUS_CODES.clone();
+	}
+
+	/**
+	 * Gets the exceptions retried by default: failures to connect or to get a
+	 * reply
+	 * 
+	 * @return the default retryable exceptions, an unmodifiable list
+	 */
+	public static List<Class<? extends IOException>> getDefaultRetryableExceptions() {
+		return DEFAULT_RETRYABLE_EXCEPTIONS;
+	}
+
+	/**
+	 * Gets the maximum number of attempts, including the first one
+	 * 
+	 * @return the maximum number of attempts
+	 */
+	public int getMaxAttempts() {
+		return mMaxAttempts;
+	}
+
+	/**
+	 * Gets the upper bound, in milliseconds, of the wait before the first
+	 * retry
+	 * 
+	 * @return the initial backoff in milliseconds
+	 */
+	public long getInitialBackoff() {
+		return mInitialBackoff;
+	}
+
+	/**
+	 * Sets the upper bound, in milliseconds, of the wait before the first
+	 * retry. Default is 100.
+	 * 
+	 * @param aInitialBackoff
+	 *            the initial backoff in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the backoff is not positive
+	 */
+	public void setInitialBackoff(long aInitialBackoff)
+			throws IllegalArgumentException {
+		if (aInitialBackoff <= 0) {
+			throw new IllegalArgumentException(
+					"the initial backoff must be positive.");
+		}
+		mInitialBackoff = aInitialBackoff;
+	}
+
+	/**
+	 * Gets the upper bound, in milliseconds, of the wait before any retry
+	 * 
+	 * @return the maximum backoff in milliseconds
+	 */
+	public long getMaxBackoff() {
+		return mMaxBackoff;
+	}
+
+	/**
+	 * Sets the upper bound, in milliseconds, of the wait before any retry.
+	 * Default is 10000.
+	 * 
+	 * @param aMaxBackoff
+	 *            the maximum backoff in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the backoff is not positive
+	 */
+	public void setMaxBackoff(long aMaxBackoff)
+			throws IllegalArgumentException {
+		if (aMaxBackoff <= 0) {
+			throw new IllegalArgumentException(
+					"the maximum backoff must be positive.");
+		}
+		mMaxBackoff = aMaxBackoff;
+	}
+
+	/**
+	 * Gets the factor applied to the backoff after each retry
+	 * 
+	 * @return the backoff multiplier
+	 */
+	public double getMultiplier() {
+		return mMultiplier;
+	}
+
+	/**
+	 * Sets the factor applied to the backoff after each retry. Default is 2.
+	 * 
+	 * @param aMultiplier
+	 *            the backoff multiplier, at least 1
+	 * @throws IllegalArgumentException
+	 *             if the multiplier is less than 1
+	 */
+	public void setMultiplier(double aMultiplier)
+			throws IllegalArgumentException {
+		if (!(aMultiplier >= 1)) {
+			throw new IllegalArgumentException(
+					"the multiplier must be at least 1.");
+		}
+		mMultiplier = aMultiplier;
+	}
+
+	/**
+	 * Gets the time, in milliseconds, a request may take including its
+	 * retries
+	 * 
+	 * @return the time budget in milliseconds, or 0 if not limited
+	 */
+	public long getTimeBudget() {
+		return mTimeBudget;
+	}
+
+	/**
+	 * Sets the time, in milliseconds, a request may take including its
+	 * retries. A retry is not attempted if its wait would end after the
+	 * budget. Default is 0, not limited.
+	 * 
+	 * @param aTimeBudget
+	 *            the time budget in milliseconds, or 0 to not limit it
+	 * @throws IllegalArgumentException
+	 *             if the budget is negative
+	 */
+	public void setTimeBudget(long aTimeBudget)
+			throws IllegalArgumentException {
+		if (aTimeBudget < 0) {
+			throw new IllegalArgumentException(
+					"the time budget can not be negative.");
+		}
+		mTimeBudget = aTimeBudget;
+	}
+
+	/**
+	 * Gets the status codes that are retried
+	 * 
+	 * @return the retryable status codes
+	 */
+	public int[] getRetryableStatusCodes() {
+		return mRetryableStatusCodes.clone();
+	}
+
+	/**
+	 * Sets the status codes that are retried. Default is
+	 * {@link #getDefaultRetryableStatusCodes()}.
+	 * 
+	 * @param aStatusCodes
+	 *            the retryable status codes
+	 */
+	public void setRetryableStatusCodes(int... aStatusCodes) {
+		int[] codes = aStatusCodes.clone();
+		Arrays.sort(codes);
+		mRetryableStatusCodes = codes;
+	}
+
+	/**
+	 * Gets the exceptions that are retried
+	 * 
+	 * @return the retryable exceptions, an unmodifiable list
+	 */
+	public List<Class<? extends IOException>> getRetryableExceptions() {
+		return mRetryableExceptions;
+	}
+
+	/**
+	 * Sets the exceptions that are retried, subclasses included. Default is
+	 * {@link #getDefaultRetryableExceptions()}.
+	 * 
+	 * @param aExceptions
+	 *            the retryable exceptions
+	 */
+	@SafeVarargs
+	public final void setRetryableExceptions(
+			Class<? extends IOException>... aExceptions) {
+		List<Class<? extends IOException>> exceptions = new ArrayList<Class<? extends IOException>>(
+				aExceptions.length);
+		for (Class<? extends IOException> type : aExceptions) {
+			exceptions.add(type);
+		}
+		mRetryableExceptions = Collections.unmodifiableList(exceptions);
+	}
+
+	/**
+	 * Checks if a status code is retried
+	 * 
+	 * @param aStatusCode
+	 *            the HTTP status
+	 * @return true if the status is retryable
+	 */
+	public boolean isRetryable(int aStatusCode) {
+		return Arrays.binarySearch(mRetryableStatusCodes, aStatusCode) >= 0;
+	}
+
+	/**
+	 * Checks if an exception is retried
+	 * 
+	 * @param aException
+	 *            the failure
+	 * @return true if the exception is retryable
+	 */
+	public boolean isRetryable(IOException aException) {
+		for (Class<? extends IOException> type : mRetryableExceptions) {
+			if (type.isInstance(aException)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the number of retries sent
+	 * 
+	 * @return the number of retries
+	 */
+	public long getRetryCount() {
+		return mRetryCount.get();
+	}
+
+	/**
+	 * Gets the number of requests that failed with a retryable error but were
+	 * not retried, because the attempts or the time budget ran out
+	 * 
+	 * @return the number of requests that gave up
+	 */
+	public long getExhaustedCount() {
+		return mExhaustedCount.get();
+	}
+
+	/**
+	 * Starts tracking the attempts of a request
+	 * 
+	 * @return the attempts of a new request
+	 */
+	public Execution newExecution() {
+		return new Execution();
+	}
+
+	/**
+	 * Gets the upper bound, in nanoseconds, of the wait before a retry
+	 */
+	long getBackoff(int aRetry) {
+		double backoff = mInitialBackoff * Math.pow(mMultiplier, aRetry - 1);
+		return TimeUnit.MILLISECONDS.toNanos((long) Math.min(backoff,
+				mMaxBackoff));
+	}
+
+	/**
+	 * Parses a <code>Retry-After</code> header.
+	 * 
+	 * @return the wait in nanoseconds, or -1 if missing or invalid
+	 */
+	static long parseRetryAfter(String aValue) {
+		if (aValue == null) {
+			return -1;
+		}
+		String value = aValue.trim();
+		try {
+			return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value)));
+		} catch (NumberFormatException e) {
+			// not seconds, may be a date
+		}
+		try {
+			ZonedDateTime date = ZonedDateTime.parse(value,
+					DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Math.max(0, Duration.between(ZonedDateTime.now(), date)
+					.toNanos());
+		} catch (DateTimeParseException e) {
+			return -1;
+		} catch (ArithmeticException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RetryPolicy [maxAttempts=" + mMaxAttempts + ", retries="
+				+ mRetryCount.get() + ", exhausted=" + mExhaustedCount.get()
+				+ "]";
+	}
+
+	/**
+	 * The attempts of one request. Not thread-safe: the attempts of a request
+	 * run one after the other.
+	 */
+	public final class Execution {
+
+		private final long mStart = System.nanoTime();
+
+		private final long mBudget = TimeUnit.MILLISECONDS
+				.toNanos(mTimeBudget);
+
+		private final long mMaxBackoffNanos = TimeUnit.MILLISECONDS
+				.toNanos(mMaxBackoff);
+
+		private int mAttempt = 1;
+
+		private long mDelay;
+
+		private Execution() {
+		}
+
+		/**
+		 * Gets the number of the current attempt, starting at 1
+		 * 
+		 * @return the current attempt
+		 */
+		public int getAttempt() {
+			return mAttempt;
+		}
+
+		/**
+		 * Checks if a response with the given status should be retried, and
+		 * if so schedules the retry
+		 * 
+		 * @param aStatusCode
+		 *            the HTTP status
+		 * @param aRetryAfter
+		 *            the <code>Retry-After</code> header, or null
+		 * @return true if the request must be sent again after
+		 *         {@link #pause()}
+		 */
+		public boolean canRetry(int aStatusCode, String aRetryAfter) {
+			if (!isRetryable(aStatusCode)) {
+				return false;
+			}
+			long retryAfter = parseRetryAfter(aRetryAfter);
+			if (retryAfter > mMaxBackoffNanos) {
+				mExhaustedCount.incrementAndGet();
+				return false;
+			}
+			return schedule(retryAfter);
+		}
+
+		/**
+		 * Checks if a failure should be retried, and if so schedules the
+		 * retry
+		 * 
+		 * @param aException
+		 *            the failure
+		 * @return true if the request must be sent again after
+		 *         {@link #pause()}
+		 */
+		public boolean canRetry(IOException aException) {
+			return isRetryable(aException) && schedule(-1);
+		}
+
+		private boolean schedule(long aMinDelay) {
+			long delay = Math.max(aMinDelay, ThreadLocalRandom.current()
+					.nextLong(getBackoff(mAttempt) + 1));
+			if (mAttempt >= mMaxAttempts
+					|| (mBudget > 0 && System.nanoTime() + delay - mStart > mBudget)) {
+				mExhaustedCount.incrementAndGet();
+				return false;
+			}
+			mDelay = delay;
+			return true;
+		}
+
+		/**
+		 * Waits before the scheduled retry
+		 * 
+		 * @throws InterruptedIOException
+		 *             if interrupted while waiting
+		 */
+		public void pause() throws InterruptedIOException {
+			next();
+			try {
+				TimeUnit.NANOSECONDS.sleep(mDelay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting to retry.");
+			}
+		}
+
+		/**
+		 * Waits before the scheduled retry without blocking the calling
+		 * thread
+		 * 
+		 * @return a future that completes when the retry may be sent
+		 */
+		public CompletableFuture<Void> pauseAsync() {
+			next();
+			return CompletableFuture.runAsync(() -> {
+			}, CompletableFuture.delayedExecutor(mDelay,
+					TimeUnit.NANOSECONDS));
+		}
+
+		private void next() {
+			mAttempt++;
+			mRetryCount.incrementAndGet();
+		}
+
+	}
+
+}
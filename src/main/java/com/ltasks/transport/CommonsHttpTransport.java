@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * A transport on commons-httpclient 3.1. It speaks HTTP/1.1, with one request
+ * at a time on each connection, so concurrent requests need as many
+ * connections: give it a client with a multi-threaded connection manager,
+ * such as the one of a {@link com.ltasks.ConnectionPool}. Bodies are sent
+ * chunked while they are written.
+ */
+public class CommonsHttpTransport implements Transport {
+
+	private final HttpClient mClient;
+
+	/**
+	 * Creates a new transport with a single connection, which should not be
+	 * used by more than one thread at a time.
+	 */
+	public CommonsHttpTransport() {
+		this(new HttpClient());
+	}
+
+	/**
+	 * Creates a new transport
+	 * 
+	 * @param aClient
+	 *            the client that sends the requests
+	 */
+	public CommonsHttpTransport(HttpClient aClient) {
+		mClient = aClient;
+	}
+
+	/**
+	 * Gets the client that sends the requests
+	 * 
+	 * @return the client
+	 */
+	public HttpClient getHttpClient() {
+		return mClient;
+	}
+
+	public Exchange newExchange(TransportRequest aRequest) {
+		return new CommonsExchange(aRequest);
+	}
+
+	/**
+	 * Gets the per host connection limit of a multi-threaded connection
+	 * manager, capped at its total limit. Any other manager is assumed to
+	 * hold a single connection.
+	 */
+	public int getMaxConcurrency() {
+		HttpConnectionManager manager = mClient.getHttpConnectionManager();
+		if (!(manager instanceof MultiThreadedHttpConnectionManager)) {
+			return 1;
+		}
+		HttpConnectionManagerParams params = manager.getParams();
+		return Math.min(params.getDefaultMaxConnectionsPerHost(),
+				params.getMaxTotalConnections());
+	}
+
+	public void close() {
+		mClient.getHttpConnectionManager().closeIdleConnections(0);
+	}
+
+	private final class CommonsExchange implements Exchange {
+
+		private final PostMethod mMethod;
+
+		private volatile boolean mIsAborted;
+
+		CommonsExchange(TransportRequest aRequest) {
+			mMethod = new PostMethod(aRequest.getUrl());
+			for (Map.Entry<String, String> header : aRequest.getHeaders()
+					.entrySet()) {
+				mMethod.setRequestHeader(header.getKey(), header.getValue());
+			}
+			mMethod.setRequestEntity(new Entity(aRequest.getBody()));
+			mMethod.setContentChunked(true);
+		}
+
+		public int execute() throws IOException {
+			if (mIsAborted) {
+				throw new InterruptedIOException("Request aborted.");
+			}
+			try {
+				return mClient.executeMethod(mMethod);
+			} catch (IllegalStateException e) {
+				if (mIsAborted) {
+					// aborted before it started
+					throw new InterruptedIOException("Request aborted.");
+				}
+				throw e;
+			}
+		}
+
+		public String getResponseHeader(String aName) {
+			Header header = mMethod.getResponseHeader(aName);
+			return header == null ? null : header.getValue();
+		}
+
+		public InputStream getResponseBody() throws IOException {
+			return mMethod.getResponseBodyAsStream();
+		}
+
+		public void abort() {
+			mIsAborted = true;
+			mMethod.abort();
+		}
+
+		public void release() {
+			mMethod.releaseConnection();
+		}
+
+	}
+
+	/** Writes a body as the method sends it */
+	private static final class Entity implements RequestEntity {
+
+		private final RequestBody mBody;
+
+		Entity(RequestBody aBody) {
+			mBody = aBody;
+		}
+
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		public void writeRequest(OutputStream aOut) throws IOException {
+			mBody.writeRequest(aOut);
+		}
+
+		public long getContentLength() {
+			return -1;
+		}
+
+		public String getContentType() {
+			return mBody.getContentType();
+		}
+
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A single request and its response. An exchange is used by one thread, but
+ * it can be aborted from any thread.
+ */
+public interface Exchange {
+
+	/**
+	 * Sends the request and reads the response status and headers.
+	 * 
+	 * @return the HTTP status code
+	 * @throws IOException
+	 *             if it failed to communicate, or the exchange was aborted
+	 */
+	int execute() throws IOException;
+
+	/**
+	 * Gets a header of the response
+	 * 
+	 * @param aName
+	 *            the header name, not case sensitive
+	 * @return the first value of the header, or null if there is none
+	 */
+	String getResponseHeader(String aName);
+
+	/**
+	 * Gets the response body, read from the network as it is consumed
+	 * 
+	 * @return the body, or null if there is none
+	 * @throws IOException
+	 *             if it failed to communicate
+	 */
+	InputStream getResponseBody() throws IOException;
+
+	/**
+	 * Aborts the exchange. A thread blocked in it fails with an
+	 * {@link IOException}, and an exchange not executed yet fails when it
+	 * is.
+	 */
+	void abort();
+
+	/**
+	 * Releases the connection of the exchange. It must be called once the
+	 * response was read, or the exchange failed.
+	 */
+	void release();
+
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>
+ * A transport on the JDK HTTP client. It negotiates HTTP/2 when the server
+ * supports it, over TLS or by upgrading a cleartext connection, and then
+ * multiplexes concurrent requests on a few connections instead of holding
+ * one connection per request in flight. Otherwise it falls back to HTTP/1.1
+ * with a connection per concurrent request.
+ * </p>
+ * <p>
+ * The body is written to memory before it is sent, since the JDK client
+ * takes a publisher of the whole body. Responses are read from the network
+ * as they are consumed.
+ * </p>
+ */
+public class JdkHttpTransport implements Transport {
+
+	private final HttpClient mClient;
+
+	/**
+	 * Creates a new transport that prefers HTTP/2
+	 */
+	public JdkHttpTransport() {
+		this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NEVER).build());
+	}
+
+	/**
+	 * Creates a new transport
+	 * 
+	 * @param aClient
+	 *            the client that sends the requests
+	 */
+	public JdkHttpTransport(HttpClient aClient) {
+		mClient = aClient;
+	}
+
+	/**
+	 * Gets the client that sends the requests
+	 * 
+	 * @return the client
+	 */
+	public HttpClient getHttpClient() {
+		return mClient;
+	}
+
+	public Exchange newExchange(TransportRequest aRequest) {
+		return new JdkExchange(aRequest);
+	}
+
+	/**
+	 * Has no limit: the JDK client opens or multiplexes connections as they
+	 * are needed.
+	 */
+	public int getMaxConcurrency() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Closes the client if the JVM supports it (Java 21 or later), otherwise
+	 * its connections are closed when they are idle.
+	 */
+	public void close() {
+		Object client = mClient;
+		if (client instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) client).close();
+			} catch (Exception e) {
+				// nothing left to release
+			}
+		}
+	}
+
+	private final class JdkExchange implements Exchange {
+
+		private final TransportRequest mRequest;
+
+		private CompletableFuture<HttpResponse<InputStream>> mFuture;
+
+		private HttpResponse<InputStream> mResponse;
+
+		private boolean mIsAborted;
+
+		JdkExchange(TransportRequest aRequest) {
+			mRequest = aRequest;
+		}
+
+		public int execute() throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			mRequest.getBody().writeRequest(body);
+			HttpRequest.Builder request = HttpRequest.newBuilder(
+					URI.create(mRequest.getUrl())).POST(
+					HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+			Map<String, String> headers = mRequest.getHeaders();
+			if (!headers.containsKey("Content-Type")) {
+				request.header("Content-Type", mRequest.getBody()
+						.getContentType());
+			}
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				request.header(header.getKey(), header.getValue());
+			}
+
+			CompletableFuture<HttpResponse<InputStream>> future;
+			synchronized (this) {
+				if (mIsAborted) {
+					throw new InterruptedIOException("Request aborted.");
+				}
+				future = mClient.sendAsync(request.build(),
+						HttpResponse.BodyHandlers.ofInputStream());
+				mFuture = future;
+			}
+			HttpResponse<InputStream> response;
+			try {
+				response = future.get();
+			} catch (InterruptedException e) {
+				abort();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting.");
+			} catch (CancellationException e) {
+				throw new InterruptedIOException("Request aborted.");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			synchronized (this) {
+				mResponse = response;
+				if (mIsAborted) {
+					closeQuietly(response.body());
+					throw new InterruptedIOException("Request aborted.");
+				}
+			}
+			return response.statusCode();
+		}
+
+		public String getResponseHeader(String aName) {
+			return mResponse.headers().firstValue(aName).orElse(null);
+		}
+
+		public InputStream getResponseBody() {
+			return mResponse.body();
+		}
+
+		public void abort() {
+			CompletableFuture<HttpResponse<InputStream>> future;
+			HttpResponse<InputStream> response;
+			synchronized (this) {
+				mIsAborted = true;
+				future = mFuture;
+				response = mResponse;
+			}
+			if (response != null) {
+				// a blocked read fails, and the stream or connection is reset
+				closeQuietly(response.body());
+			} else if (future != null) {
+				future.cancel(true);
+			}
+		}
+
+		public void release() {
+			HttpResponse<InputStream> response;
+			synchronized (this) {
+				response = mResponse;
+			}
+			if (response != null) {
+				closeQuietly(response.body());
+			}
+		}
+
+	}
+
+	private static void closeQuietly(InputStream aIn) {
+		try {
+			aIn.close();
+		} catch (IOException e) {
+			// the exchange is over anyway
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of a request, written by the transport while it is sent. It may
+ * be written more than once, if a transport has to repeat the request.
+ */
+public interface RequestBody {
+
+	/**
+	 * Writes the body
+	 * 
+	 * @param aOut
+	 *            the stream that sends it
+	 * @throws IOException
+	 *             if the stream fails
+	 */
+	void writeRequest(OutputStream aOut) throws IOException;
+
+	/**
+	 * Gets the content type of the body
+	 * 
+	 * @return the content type
+	 */
+	String getContentType();
+
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import java.io.Closeable;
+
+/**
+ * Sends the requests of a {@link com.ltasks.BaseClient} to the server. The
+ * client builds the request, with its headers and body, and reads the
+ * response; a transport only moves the bytes. Implementations must be
+ * thread-safe.
+ * 
+ * @see CommonsHttpTransport
+ * @see JdkHttpTransport
+ */
+public interface Transport extends Closeable {
+
+	/**
+	 * Creates the exchange of a request. Nothing is sent until it is
+	 * executed.
+	 * 
+	 * @param aRequest
+	 *            the request
+	 * @return the exchange
+	 */
+	Exchange newExchange(TransportRequest aRequest);
+
+	/**
+	 * Gets the maximum number of requests to one host this transport runs at
+	 * the same time. Requests beyond it wait, or fail, until one is done.
+	 * 
+	 * @return the maximum number of concurrent requests, or
+	 *         {@link Integer#MAX_VALUE} if there is no limit
+	 */
+	int getMaxConcurrency();
+
+	/**
+	 * Releases the connections of this transport that are not in use.
+	 * Connections shared with other transports are not closed.
+	 */
+	void close();
+
+}
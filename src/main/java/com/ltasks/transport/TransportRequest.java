@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A POST request: its URL, headers and body. The headers are sent in the
+ * order they were set.
+ */
+public final class TransportRequest {
+
+	private final String mUrl;
+
+	private final RequestBody mBody;
+
+	private final Map<String, String> mHeaders = new LinkedHashMap<String, String>();
+
+	/**
+	 * Creates a new request
+	 * 
+	 * @param aUrl
+	 *            the absolute URL, with the query string if any
+	 * @param aBody
+	 *            the body
+	 */
+	public TransportRequest(String aUrl, RequestBody aBody) {
+		mUrl = aUrl;
+		mBody = aBody;
+	}
+
+	/**
+	 * Sets a header, replacing its value if it was already set
+	 * 
+	 * @param aName
+	 *            the header name
+	 * @param aValue
+	 *            the header value
+	 */
+	public void setHeader(String aName, String aValue) {
+		mHeaders.put(aName, aValue);
+	}
+
+	/**
+	 * Gets the URL
+	 * 
+	 * @return the URL
+	 */
+	public String getUrl() {
+		return mUrl;
+	}
+
+	/**
+	 * Gets the headers
+	 * 
+	 * @return the values by name, in the order they were set
+	 */
+	public Map<String, String> getHeaders() {
+		return Collections.unmodifiableMap(mHeaders);
+	}
+
+	/**
+	 * Gets the body
+	 * 
+	 * @return the body
+	 */
+	public RequestBody getBody() {
+		return mBody;
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BulkProcessorTest {
+
+	private static final String KEY = "b2c4cf5c-52d3-4fef-ac9b-67dbe6b5e52d";
+
+	private final ConnectionPool mPool = new ConnectionPool(8, 4);
+
+	private final AtomicInteger mRunning = new AtomicInteger();
+
+	private final AtomicInteger mMaxRunning = new AtomicInteger();
+
+	/**
+	 * Echoes the text back, failing on texts starting with "fail", and
+	 * throwing an error on texts starting with "error"
+	 */
+	private final LtasksNameFinderClient mClient = new LtasksNameFinderClient(
+			KEY, true, true, mPool) {
+		@Override
+		public LtasksObject processText(String aText) throws IOException {
+			int running = mRunning.incrementAndGet();
+			mMaxRunning.accumulateAndGet(running, Math::max);
+			try {
+				Thread.sleep(5);
+				if (aText.startsWith("fail")) {
+					throw new IOException(aText);
+				}
+				if (aText.startsWith("error")) {
+					throw new AssertionError(aText);
+				}
+				return new LtasksObject(aText, null, true,
+						Collections.<NamedEntity> emptyList());
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				mRunning.decrementAndGet();
+			}
+		}
+	};
+
+	@After
+	public void shutdown() {
+		mPool.shutdown();
+	}
+
+	@Test
+	public void testInputOrderAndFailures() throws InterruptedException {
+		List<String> texts = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			texts.add((i % 7 == 0 ? "fail " : "text ") + i);
+		}
+
+		List<BulkResult<String>> results = mClient.processAll(texts, 16);
+
+		assertEquals(50, results.size());
+		for (int i = 0; i < 50; i++) {
+			BulkResult<String> result = results.get(i);
+			assertEquals(i, result.getIndex());
+			assertEquals(texts.get(i), result.getInput());
+			if (i % 7 == 0) {
+				assertTrue(result.isFailed());
+				assertNull(result.getResult());
+				assertEquals(texts.get(i), result.getError().getMessage());
+			} else {
+				assertFalse(result.isFailed());
+				assertEquals(texts.get(i), result.getResult().getSourceText());
+			}
+		}
+		// capped at the pool per host limit
+		assertTrue(mMaxRunning.get() <= 4);
+	}
+
+	@Test
+	public void testCompletionOrderListener() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		new BulkProcessor(mClient, 2).processTexts(
+				Collections.nCopies(20, "text"), new BulkListener<String>() {
+					public void onResult(BulkResult<String> aResult) {
+						count.incrementAndGet();
+					}
+				});
+
+		assertEquals(20, count.get());
+		assertTrue(mMaxRunning.get() <= 2);
+	}
+
+	@Test(timeout = 10000)
+	public void testErrorIsThrown() throws InterruptedException {
+		List<String> texts = new ArrayList<String>(Collections.nCopies(20,
+				"text"));
+		texts.set(3, "error 3");
+		try {
+			mClient.processAll(texts, 2);
+			fail();
+		} catch (AssertionError e) {
+			// the permit of the failed item was given back
+			assertEquals("error 3", e.getMessage());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testListenerFailureIsThrown() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		try {
+			new BulkProcessor(mClient, 2).processTexts(
+					Collections.nCopies(100, "text"),
+					new BulkListener<String>() {
+						public void onResult(BulkResult<String> aResult) {
+							if (count.incrementAndGet() == 5) {
+								throw new IllegalStateException("listener");
+							}
+						}
+					});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("listener", e.getMessage());
+		}
+		// no more items were started after the failure
+		assertTrue(count.get() < 100);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConcurrencyNeedsPool() {
+		new BulkProcessor(new LtasksNameFinderClient(KEY), 2);
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+public class CodecPoolTest {
+
+	private static final byte[] DATA = data();
+
+	private static byte[] data() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			text.append("Ele se encontrará com José em Brasília. ").append(i);
+		}
+		try {
+			return text.toString().getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testSameBytesAsJdk() throws IOException {
+		CodecPool pool = new CodecPool(2);
+		for (int level = -1; level <= 9; level++) {
+			final int jdkLevel = level;
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			GZIPOutputStream jdk = new GZIPOutputStream(expected) {
+				{
+					def.setLevel(jdkLevel);
+				}
+			};
+			jdk.write(DATA);
+			jdk.close();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			// a tiny buffer forces many deflate calls
+			OutputStream pooled = pool.newGZIPOutputStream(out, level, 16);
+			pooled.write(DATA, 0, 1000);
+			pooled.write(DATA[1000]);
+			pooled.write(DATA, 1001, DATA.length - 1001);
+			pooled.close();
+
+			assertArrayEquals(expected.toByteArray(), out.toByteArray());
+		}
+		assertEquals(1, pool.getStats().getDeflaterCreatedCount());
+		assertEquals(10, pool.getStats().getDeflaterReusedCount());
+	}
+
+	@Test
+	public void testReadsJdkGzip() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream jdk = new GZIPOutputStream(out);
+		jdk.write(DATA);
+		jdk.close();
+
+		CodecPool pool = new CodecPool(2);
+		for (int bufferSize : new int[] { 1, 7, 8192 }) {
+			InputStream in = pool.newGZIPInputStream(new ByteArrayInputStream(
+					out.toByteArray()), bufferSize);
+			assertArrayEquals(DATA, readAll(in));
+			assertEquals(-1, in.read());
+			in.close();
+		}
+		assertEquals(1, pool.getStats().getInflaterCreatedCount());
+		assertEquals(2, pool.getStats().getInflaterReusedCount());
+	}
+
+	@Test
+	public void testHeaderFlags() throws IOException {
+		// extra field, name, comment and header checksum
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		header.write(new byte[] { 0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0,
+				0, 0, 0, 3, 3, 0, 'a', 'b', 'c', 'n', 'e', 'r', 0, 'o', 'k',
+				0 });
+		CRC32 crc = new CRC32();
+		crc.update(header.toByteArray());
+		header.write((int) crc.getValue());
+		header.write((int) crc.getValue() >> 8);
+
+		ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+		gzip.write(header.toByteArray());
+		gzip.write(deflate(DATA));
+		crc.reset();
+		crc.update(DATA);
+		writeInt(gzip, (int) crc.getValue());
+		writeInt(gzip, DATA.length);
+		byte[] bytes = gzip.toByteArray();
+
+		// the JDK agrees it is valid
+		assertArrayEquals(DATA, readAll(new GZIPInputStream(
+				new ByteArrayInputStream(bytes))));
+		assertArrayEquals(DATA, readAll(new CodecPool(0).newGZIPInputStream(
+				new ByteArrayInputStream(bytes), 5)));
+
+		// a wrong header checksum
+		bytes[header.size() - 1] ^= 1;
+		try {
+			new CodecPool(0).newGZIPInputStream(
+					new ByteArrayInputStream(bytes), 64);
+			fail();
+		} catch (ZipException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCorruptData() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream gzip = CodecPool.getDefault()
+				.newGZIPOutputStream(out, -1, 512);
+		gzip.write(DATA);
+		gzip.close();
+		byte[] bytes = out.toByteArray();
+		CodecPool pool = new CodecPool(4);
+
+		byte[] crc = bytes.clone();
+		crc[crc.length - 8] ^= 1;
+		try {
+			readAll(pool.newGZIPInputStream(new ByteArrayInputStream(crc),
+					512));
+			fail();
+		} catch (ZipException e) {
+			// expected
+		}
+
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+		try {
+			readAll(pool.newGZIPInputStream(new ByteArrayInputStream(
+					truncated), 512));
+			fail();
+		} catch (EOFException e) {
+			// expected
+		}
+
+		try {
+			pool.newGZIPInputStream(new ByteArrayInputStream(DATA), 512);
+			fail();
+		} catch (ZipException e) {
+			// expected
+		}
+		// a stream that failed in its constructor gave its inflater back
+		assertEquals(1, pool.getStats().getIdleInflaterCount());
+	}
+
+	@Test
+	public void testMaxIdle() {
+		CodecPool pool = new CodecPool(2);
+		Deflater[] deflaters = new Deflater[3];
+		for (int i = 0; i < deflaters.length; i++) {
+			deflaters[i] = pool.acquireDeflater(1);
+		}
+		for (Deflater deflater : deflaters) {
+			pool.releaseDeflater(deflater);
+		}
+		CodecPoolStats stats = pool.getStats();
+		assertEquals(3, stats.getDeflaterCreatedCount());
+		assertEquals(0, stats.getDeflaterReusedCount());
+		assertEquals(2, stats.getIdleDeflaterCount());
+		assertSame(deflaters[0], pool.acquireDeflater(9));
+		assertEquals(1, pool.getStats().getDeflaterReusedCount());
+
+		byte[] small = pool.acquireBuffer(16);
+		byte[] large = pool.acquireBuffer(1024);
+		pool.releaseBuffer(small);
+		pool.releaseBuffer(large);
+		assertSame(large, pool.acquireBuffer(1024));
+		assertSame(small, pool.acquireBuffer(16));
+		assertEquals(2, pool.getStats().getBufferReusedCount());
+	}
+
+	@Test
+	public void testNoIdle() throws Exception {
+		CodecPool pool = new CodecPool(0);
+		Inflater inflater = pool.acquireInflater();
+		pool.releaseInflater(inflater);
+		try {
+			// ended, not kept
+			inflater.inflate(new byte[1]);
+			fail();
+		} catch (NullPointerException e) {
+			// expected
+		}
+		pool.releaseBuffer(pool.acquireBuffer(16));
+		CodecPoolStats stats = pool.getStats();
+		assertEquals(0, stats.getIdleInflaterCount());
+		assertEquals(0, stats.getIdleBufferCount());
+		assertEquals(0, pool.getMaxIdle());
+
+		try {
+			new CodecPool(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static byte[] deflate(byte[] aData) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(aData);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		while (!deflater.finished()) {
+			out.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static void writeInt(OutputStream aOut, int aValue)
+			throws IOException {
+		for (int i = 0; i < 4; i++) {
+			aOut.write(aValue >> (i * 8));
+		}
+	}
+
+	private static byte[] readAll(InputStream aIn) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while ((read = aIn.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompactEntityListTest {
+
+	private static final String TEXT = "Ele encontrou José Silva em Brasília.";
+
+	@Test
+	public void testTextsFromSource() {
+		CompactEntityList.Builder builder = new CompactEntityList.Builder();
+		for (int i = 0; i < 100; i++) {
+			builder.add("José Silva", NerType.PERSON, 14, 24);
+			builder.add("Brasília", NerType.PLACE, 28, 36);
+		}
+		List<NamedEntity> entities = builder.build(TEXT);
+		assertEquals(200, entities.size());
+		NamedEntity entity = entities.get(199);
+		assertEquals("Brasília", entity.getText());
+		assertEquals(NerType.PLACE, entity.getType());
+		assertEquals(28, entity.getBegin());
+		assertEquals(36, entity.getEnd());
+		assertEquals("José Silva", entities.get(0).getText());
+	}
+
+	@Test
+	public void testTextsNotInSource() {
+		CompactEntityList.Builder builder = new CompactEntityList.Builder();
+		builder.add("José", NerType.PERSON, 14, 24);
+		builder.add(null, null, 28, 36);
+		builder.add("Brasília", NerType.PLACE, 28, 36);
+		builder.add("fora", NerType.THING, 100, 104);
+		List<NamedEntity> entities = builder.build(TEXT);
+		assertEquals("José", entities.get(0).getText());
+		assertNull(entities.get(1).getText());
+		assertNull(entities.get(1).getType());
+		assertEquals("Brasília", entities.get(2).getText());
+		assertEquals("fora", entities.get(3).getText());
+
+		entities = builder.build(null);
+		assertEquals("Brasília", entities.get(2).getText());
+	}
+
+	@Test
+	public void testWithSourceText() {
+		CompactEntityList.Builder builder = new CompactEntityList.Builder();
+		builder.add("José Silva", NerType.PERSON, 14, 24);
+		builder.add(null, null, 28, 36);
+		builder.add("fora", NerType.THING, 100, 104);
+		CompactEntityList entities = builder.build(null);
+		assertNull(entities.get(1).getText());
+
+		String source = new String(TEXT);
+		CompactEntityList local = entities.withSourceText(source);
+		assertEquals(3, local.size());
+		assertEquals("José Silva", local.get(0).getText());
+		assertEquals(NerType.PERSON, local.get(0).getType());
+		assertNull(local.get(1).getText());
+		assertEquals("fora", local.get(2).getText());
+		assertEquals(100, local.get(2).getBegin());
+
+		// texts read from the old source are kept if the new one differs
+		local = builder.build(TEXT).withSourceText("outro texto");
+		assertEquals("José Silva", local.get(0).getText());
+	}
+
+	@Test
+	public void testViews() {
+		CompactEntityList.Builder builder = new CompactEntityList.Builder();
+		builder.add("José Silva", NerType.PERSON, 14, 24);
+		builder.add("Brasília", NerType.PLACE, 28, 36);
+		List<NamedEntity> entities = builder.build(TEXT);
+		assertEquals(entities.get(1), entities.get(1));
+		assertEquals(entities.get(1).hashCode(), entities.get(1).hashCode());
+		assertFalse(entities.get(0).equals(entities.get(1)));
+		assertEquals(1, entities.indexOf(entities.get(1)));
+		assertTrue(entities.contains(entities.get(0)));
+		try {
+			entities.get(2);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			entities.remove(0);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		StringBuilder xml = new StringBuilder(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?><result><text>")
+				.append(TEXT).append("</text><namedEntities>");
+		xml.append("<namedEntity text=\"José Silva\" type=\"person\" begin=\"14\" end=\"24\"/>");
+		xml.append("<namedEntity text=\"Brasília\" type=\"place\" begin=\"28\" end=\"36\"/>");
+		xml.append("</namedEntities></result>");
+		byte[] bytes = xml.toString().getBytes("UTF-8");
+
+		LtasksObject plain = ResultParser.parse(
+				new ByteArrayInputStream(bytes), true);
+		LtasksObject compact = ResultParser.parse(new ByteArrayInputStream(
+				bytes), true, null, true);
+		assertTrue(compact.getNamedEntities() instanceof CompactEntityList);
+		assertEquals(plain.getSourceText(), compact.getSourceText());
+		assertEquals(plain.getNamedEntities().size(), compact
+				.getNamedEntities().size());
+		for (int i = 0; i < plain.getNamedEntities().size(); i++) {
+			NamedEntity expected = plain.getNamedEntities().get(i);
+			NamedEntity actual = compact.getNamedEntities().get(i);
+			assertEquals(expected.getText(), actual.getText());
+			assertEquals(expected.getType(), actual.getType());
+			assertEquals(expected.getBegin(), actual.getBegin());
+			assertEquals(expected.getEnd(), actual.getEnd());
+		}
+		assertEquals(plain.toString(), compact.toString());
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+	private static final String KEY = "b2c4cf5c-52d3-4fef-ac9b-67dbe6b5e52d";
+
+	@Test
+	public void testSharedPool() {
+		ConnectionPool pool = new ConnectionPool(10, 5);
+		try {
+			LtasksNameFinderClient a = new LtasksNameFinderClient(KEY, true,
+					true, pool);
+			LtasksNameFinderClient b = new LtasksNameFinderClient(KEY, false,
+					false, pool);
+
+			assertSame(pool, a.getConnectionPool());
+			assertSame(pool, b.getConnectionPool());
+			assertEquals(10, pool.getMaxTotal());
+			assertEquals(5, pool.getMaxPerHost());
+			assertTrue(pool.isStaleCheckingEnabled());
+			assertEquals(0, pool.getConnectionsInPool());
+			assertEquals(0, pool.getConnectionsInUse());
+			assertEquals(0, pool.getIdleConnections());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testConnectionsInUse() throws Exception {
+		StandInNerServer server = new StandInNerServer();
+		ConnectionPool pool = new ConnectionPool(4, 4);
+		try {
+			final LtasksNameFinderClient client = new LtasksNameFinderClient(
+					KEY, true, true, pool);
+			client.setEndpoint(server.getEndpoint());
+			assertTrue(client.processText("Ele viu José.").isProcessedOk());
+			assertEquals(1, pool.getConnectionsInPool());
+			assertEquals(0, pool.getConnectionsInUse());
+			assertEquals(1, pool.getIdleConnections());
+
+			server.setLatency(300);
+			Thread request = new Thread() {
+				public void run() {
+					try {
+						client.processText("Ele viu José.");
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+			request.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getConnectionsInUse() == 0
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(1, pool.getConnectionsInUse());
+			assertEquals(0, pool.getIdleConnections());
+			request.join();
+			assertEquals(0, pool.getConnectionsInUse());
+			assertEquals(1, pool.getIdleConnections());
+		} finally {
+			pool.shutdown();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testSharedCheckoutLimit() throws Exception {
+		final StandInNerServer server = new StandInNerServer();
+		server.setLatency(300);
+		ConnectionPool pool = new ConnectionPool(1, 1);
+		pool.setAcquireTimeout(50);
+		try {
+			LtasksNameFinderClient a = new LtasksNameFinderClient(KEY, true,
+					true, pool);
+			LtasksNameFinderClient b = new LtasksNameFinderClient(KEY, true,
+					true, pool);
+			a.setEndpoint(server.getEndpoint());
+			b.setEndpoint(server.getEndpoint());
+			final LtasksNameFinderClient holder = a;
+			Thread request = new Thread() {
+				public void run() {
+					try {
+						holder.processText("Ele viu José.");
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+			request.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getConnectionsInUse() == 0
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			try {
+				// the other client waits for the only connection and gives up
+				b.processText("Ele viu José.");
+				fail();
+			} catch (ConnectionPoolTimeoutException e) {
+				// expected
+			}
+			request.join();
+			assertEquals(0, pool.getConnectionsInUse());
+			assertTrue(b.processText("Ele viu José.").isProcessedOk());
+		} finally {
+			pool.shutdown();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testNoPool() {
+		assertNull(new LtasksNameFinderClient(KEY).getConnectionPool());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidTotal() {
+		new ConnectionPool(0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPerHostLargerThanTotal() {
+		new ConnectionPool(2, 4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeIdleTimeout() {
+		ConnectionPool pool = new ConnectionPool(2, 2);
+		try {
+			pool.setIdleTimeout(-1);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
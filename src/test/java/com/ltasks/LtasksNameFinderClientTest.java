@@ -0,0 +1,707 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.net.ConnectException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ltasks.htmlfilteroptions.HtmlFilterOptions;
+import com.ltasks.htmlfilteroptions.SimpleXPath;
+import com.ltasks.metrics.ClientMetrics;
+import com.ltasks.metrics.ClientMetricsListener;
+import com.ltasks.metrics.Phase;
+import com.ltasks.metrics.RequestMetrics;
+import com.ltasks.resilience.AdaptiveConcurrencyLimiter;
+import com.ltasks.resilience.CircuitBreaker;
+import com.ltasks.resilience.CircuitOpenException;
+import com.ltasks.resilience.HedgingPolicy;
+import com.ltasks.resilience.RetryPolicy;
+import com.ltasks.transport.CommonsHttpTransport;
+import com.ltasks.transport.Exchange;
+import com.ltasks.transport.JdkHttpTransport;
+import com.ltasks.transport.Transport;
+import com.ltasks.transport.TransportRequest;
+
+/**
+ * Runs the whole request path against a {@link StandInNerServer}.
+ */
+public class LtasksNameFinderClientTest {
+
+	private static final String KEY = "b2c4cf5c-52d3-4fef-ac9b-67dbe6b5e52d";
+
+	private static final String TEXT = "Ele se encontrará com José Silva em Brasília.";
+
+	private StandInNerServer mServer;
+
+	@Before
+	public void start() throws Exception {
+		mServer = new StandInNerServer();
+	}
+
+	@After
+	public void stop() {
+		mServer.close();
+	}
+
+	private LtasksNameFinderClient client(boolean aIsGzip) {
+		LtasksNameFinderClient client = new LtasksNameFinderClient(KEY, true,
+				aIsGzip);
+		client.setEndpoint(mServer.getEndpoint());
+		return client;
+	}
+
+	private static void assertEntities(LtasksObject aResult) {
+		assertTrue(aResult.isProcessedOk());
+		assertEquals(TEXT, aResult.getSourceText());
+		List<NamedEntity> entities = aResult.getNamedEntities();
+		assertEquals(3, entities.size());
+		assertEquals("Ele", entities.get(0).getText());
+		assertEquals("José Silva", entities.get(1).getText());
+		assertEquals(NerType.PERSON, entities.get(1).getType());
+		assertEquals("Brasília", TEXT.substring(entities.get(2).getBegin(),
+				entities.get(2).getEnd()));
+	}
+
+	@Test
+	public void testEndpoint() {
+		LtasksNameFinderClient client = new LtasksNameFinderClient(KEY);
+		assertEquals(LtasksNameFinderClient.DEFAULT_ENDPOINT,
+				client.getEndpoint());
+		client.setEndpoint("https://staging.example.com/app/v0b/ner");
+		assertEquals("https://staging.example.com/app/v0b/ner",
+				client.getEndpoint());
+		for (String invalid : new String[] { null, "ftp://example.com/ner",
+				"/ner", "http://exa mple.com/" }) {
+			try {
+				client.setEndpoint(invalid);
+				fail(invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testProcessText() throws Exception {
+		assertEntities(client(false).processText(TEXT));
+		assertFalse(mServer.isLastRequestGzipped());
+		assertEquals(TEXT, mServer.getLastParameters().get("text"));
+		assertEquals(KEY, mServer.getLastParameters().get("apikey"));
+
+		assertEntities(client(true).processText(TEXT));
+		assertTrue(mServer.isLastRequestGzipped());
+		assertEquals(2, mServer.getRequestCount());
+	}
+
+	@Test
+	public void testProcessTextAsync() throws Exception {
+		assertEntities(client(true).processTextAsync(TEXT).get(10,
+				TimeUnit.SECONDS));
+		assertEntities(client(false).processTextAsync(TEXT).get(10,
+				TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testProcessHtml() throws Exception {
+		HtmlFilterOptions options = new HtmlFilterOptions();
+		options.setExclude(SimpleXPath.parse("//p[@id='a']"));
+		LtasksObject result = client(true).processHtml(
+				"<html><p>Ele viu Maria.</p></html>", options);
+		assertTrue(result.isProcessedOk());
+		assertEquals("//p[@id='a']", mServer.getLastParameters()
+				.get("exclude"));
+		assertEquals("Maria", result.getNamedEntities().get(1).getText());
+	}
+
+	@Test
+	public void testErrorResponse() throws Exception {
+		mServer.setErrorRate(1);
+		LtasksObject result = client(true).processText(TEXT);
+		assertFalse(result.isProcessedOk());
+		assertEquals("Serviço indisponível.", result.getMessage());
+	}
+
+	@Test
+	public void testRetryRecovers() throws Exception {
+		mServer.setErrorRate(0.5);
+		LtasksNameFinderClient client = client(true);
+		RetryPolicy retry = new RetryPolicy(20);
+		retry.setInitialBackoff(1);
+		retry.setMaxBackoff(5);
+		client.setRetryPolicy(retry);
+		for (int i = 0; i < 10; i++) {
+			assertEntities(client.processText(TEXT));
+		}
+		assertTrue(retry.getRetryCount() > 0);
+		assertEquals(10 + retry.getRetryCount(), mServer.getRequestCount());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		LtasksNameFinderClient client = client(true);
+		ClientMetrics metrics = new ClientMetrics();
+		final List<RequestMetrics> requests = new ArrayList<RequestMetrics>();
+		client.addMetricsListener(metrics);
+		client.addMetricsListener(new ClientMetricsListener() {
+			public void onRequest(RequestMetrics aMetrics) {
+				requests.add(aMetrics);
+			}
+		});
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			text.append(TEXT).append(' ');
+		}
+		mServer.setLatency(20);
+		LtasksObject result = client.processText(text.toString());
+		assertTrue(result.isProcessedOk());
+
+		RequestMetrics request = requests.get(0);
+		assertEquals(200, request.getStatusCode());
+		assertEquals(1, request.getAttempts());
+		assertFalse(request.isFailed());
+		assertEquals(result.getNamedEntities().size(), request.getEntityCount());
+		// gzipped both ways: the repeated text compresses well
+		assertTrue(request.getRequestBytes() > text.length());
+		assertTrue(request.getRequestWireBytes() > 0);
+		assertTrue(request.getRequestWireBytes() < request.getRequestBytes() / 4);
+		assertTrue(request.getResponseWireBytes() > 0);
+		assertTrue(request.getResponseWireBytes() < request.getResponseBytes() / 4);
+		assertTrue(request.getDuration(Phase.WAIT, TimeUnit.MILLISECONDS) >= 20);
+		assertTrue(request.getDuration(Phase.PARSE, TimeUnit.NANOSECONDS) > 0);
+		assertTrue(request.getDuration(Phase.TOTAL, TimeUnit.NANOSECONDS) >= request
+				.getDuration(Phase.WAIT, TimeUnit.NANOSECONDS));
+
+		// a 503 retried until the attempts run out
+		mServer.setLatency(0);
+		mServer.setErrorRate(1);
+		RetryPolicy retry = new RetryPolicy(3);
+		retry.setInitialBackoff(1);
+		client.setRetryPolicy(retry);
+		assertFalse(client.processText(TEXT).isProcessedOk());
+		request = requests.get(1);
+		assertEquals(503, request.getStatusCode());
+		assertEquals(3, request.getAttempts());
+		assertEquals(4, mServer.getRequestCount());
+
+		assertEquals(2, metrics.getRequestCount());
+		assertEquals(1, metrics.getRetriedRequestCount());
+		Map<Integer, Long> statusCounts = metrics.getStatusCounts();
+		assertEquals(Long.valueOf(1), statusCounts.get(200));
+		assertEquals(Long.valueOf(1), statusCounts.get(503));
+		assertEquals(2, statusCounts.size());
+	}
+
+	@Test
+	public void testLargeResponse() throws Exception {
+		mServer.setEntityCount(20000);
+		final AtomicInteger count = new AtomicInteger();
+		LtasksObject result = client(true).processText(TEXT,
+				new NamedEntityListener() {
+					public void onNamedEntity(NamedEntity aEntity) {
+						count.incrementAndGet();
+					}
+				});
+		assertTrue(result.isProcessedOk());
+		assertEquals(20000, count.get());
+	}
+
+	@Test
+	public void testChunkedText() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			sb.append("Ontem ").append(i).append(" Ana Costa foi a Recife. ");
+		}
+		String text = sb.toString();
+		LtasksObject whole = client(true).processText(text);
+
+		ConnectionPool pool = new ConnectionPool(8, 4);
+		try {
+			LtasksNameFinderClient client = new LtasksNameFinderClient(KEY,
+					true, true, pool);
+			client.setEndpoint(mServer.getEndpoint());
+			client.setChunker(new TextChunker(1000, 200));
+			int before = mServer.getRequestCount();
+
+			LtasksObject chunked = client.processText(text);
+			assertTrue(mServer.getRequestCount() - before > text.length() / 1000);
+			assertEquals(text, chunked.getSourceText());
+			assertEquals(whole.getNamedEntities().size(), chunked
+					.getNamedEntities().size());
+			for (int i = 0; i < whole.getNamedEntities().size(); i++) {
+				NamedEntity expected = whole.getNamedEntities().get(i);
+				NamedEntity actual = chunked.getNamedEntities().get(i);
+				assertEquals(expected.getText(), actual.getText());
+				assertEquals(expected.getBegin(), actual.getBegin());
+				assertEquals(expected.getEnd(), actual.getEnd());
+			}
+
+			LtasksObject async = client.processTextAsync(text).get(10,
+					TimeUnit.SECONDS);
+			assertEquals(whole.getNamedEntities().size(), async
+					.getNamedEntities().size());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testChunkedTextFails() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("Ontem ").append(i).append(" Ana Costa foi a Recife. ");
+		}
+		String text = sb.toString();
+		LtasksNameFinderClient client = client(true);
+		client.setChunker(new TextChunker(1000, 200));
+
+		// a failed chunk is returned, and the listener is not called
+		mServer.setErrorRate(1);
+		final AtomicInteger count = new AtomicInteger();
+		LtasksObject result = client.processText(text,
+				new NamedEntityListener() {
+					public void onNamedEntity(NamedEntity aEntity) {
+						count.incrementAndGet();
+					}
+				});
+		assertFalse(result.isProcessedOk());
+		assertEquals(0, count.get());
+
+		// the failure of a chunk is thrown as it is
+		client.setEndpoint("http://127.0.0.1:1/ner");
+		try {
+			client.processText(text);
+			fail();
+		} catch (ConnectException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBatchedTexts() throws Exception {
+		LtasksNameFinderClient client = client(true);
+		TextBatcher batcher = new TextBatcher(10, 1000);
+		client.setBatcher(batcher);
+		List<CompletableFuture<LtasksObject>> futures = new ArrayList<CompletableFuture<LtasksObject>>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(client.processTextAsync(i % 2 == 0 ? TEXT
+					: "nada a declarar " + i));
+		}
+		for (int i = 0; i < 20; i++) {
+			LtasksObject result = futures.get(i).get(10, TimeUnit.SECONDS);
+			if (i % 2 == 0) {
+				assertEntities(result);
+			} else {
+				assertEquals("nada a declarar " + i, result.getSourceText());
+				assertTrue(result.getNamedEntities().isEmpty());
+			}
+		}
+		assertEquals(2, mServer.getRequestCount());
+		assertEquals(2, batcher.getBatchCount());
+
+		// a blocking call waits for the batch delay
+		batcher = new TextBatcher(10, 20);
+		client.setBatcher(batcher);
+		assertEntities(client.processText(TEXT));
+		assertEquals(1, batcher.getBatchCount());
+	}
+
+	@Test
+	public void testLocalSourceText() throws Exception {
+		LtasksNameFinderClient client = client(true);
+		client.setLocalSourceText(true);
+		LtasksObject result = client.processText(TEXT);
+		assertEquals("false",
+				mServer.getLastParameters().get("includeSourceText"));
+		assertEntities(result);
+		assertSame(TEXT, result.getSourceText());
+
+		client.setCompactEntities(true);
+		result = client.processTextAsync(TEXT).get(10, TimeUnit.SECONDS);
+		assertEntities(result);
+		assertSame(TEXT, result.getSourceText());
+
+		final List<NamedEntity> streamed = new ArrayList<NamedEntity>();
+		result = client.processText(TEXT, new NamedEntityListener() {
+			public void onNamedEntity(NamedEntity aEntity) {
+				streamed.add(aEntity);
+			}
+		});
+		assertSame(TEXT, result.getSourceText());
+		assertEquals(3, streamed.size());
+
+		// batched texts get their own text back
+		client.setBatcher(new TextBatcher(10, 20));
+		assertEntities(client.processText(TEXT));
+		assertEquals("false",
+				mServer.getLastParameters().get("includeSourceText"));
+
+		// HTMLs are normalized by the server
+		client.setBatcher(null);
+		client.processHtml("<p>" + TEXT + "</p>");
+		assertEquals("true",
+				mServer.getLastParameters().get("includeSourceText"));
+
+		// nothing to attach when the client does not include the source
+		LtasksNameFinderClient noSource = new LtasksNameFinderClient(KEY,
+				false, true);
+		noSource.setEndpoint(mServer.getEndpoint());
+		noSource.setLocalSourceText(true);
+		assertNull(noSource.processText(TEXT).getSourceText());
+	}
+
+	@Test
+	public void testRawBody() throws Exception {
+		for (boolean gzip : new boolean[] { false, true }) {
+			LtasksNameFinderClient client = client(gzip);
+			client.setRawBody(true);
+			assertEntities(client.processText(TEXT));
+			assertEquals("text/plain; charset=utf-8",
+					mServer.getLastContentType());
+			assertEquals(KEY, mServer.getLastParameters().get("apikey"));
+			assertEquals("true",
+					mServer.getLastParameters().get("includeSourceText"));
+			assertEquals(gzip, mServer.isLastRequestGzipped());
+
+			assertEntities(client.processTextAsync(TEXT).get(10,
+					TimeUnit.SECONDS));
+			assertEquals("text/plain; charset=utf-8",
+					mServer.getLastContentType());
+		}
+
+		LtasksNameFinderClient client = client(true);
+		client.setRawBody(true);
+		HtmlFilterOptions options = new HtmlFilterOptions();
+		options.setExclude(SimpleXPath.parse("//p[@id='a']"));
+		String html = "<p id='a'>Nada.</p><p>" + TEXT + "</p>";
+		client.processHtml(html, options);
+		assertEquals("text/html; charset=utf-8", mServer.getLastContentType());
+		assertEquals(html, mServer.getLastParameters().get("html"));
+		assertEquals("//p[@id='a']",
+				mServer.getLastParameters().get("exclude"));
+
+		// URLs have no document to send
+		client.processUrl(new URL("http://example.com/José"));
+		assertTrue(mServer.getLastContentType().startsWith(
+				"application/x-www-form-urlencoded"));
+	}
+
+	@Test
+	public void testJdkTransport() throws Exception {
+		LtasksNameFinderClient client = client(true);
+		JdkHttpTransport transport = new JdkHttpTransport();
+		client.setTransport(transport);
+		assertSame(transport, client.getTransport());
+		try {
+			assertEntities(client.processText(TEXT));
+			assertTrue(mServer.isLastRequestGzipped());
+
+			// not limited by a connection pool
+			mServer.setLatency(50);
+			List<String> texts = Collections.nCopies(16, TEXT);
+			long start = System.nanoTime();
+			List<BulkResult<String>> results = client.processAll(texts, 16);
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS
+					.toNanos(16 * 50));
+			for (BulkResult<String> result : results) {
+				assertEntities(result.getResult());
+			}
+		} finally {
+			transport.close();
+		}
+		try {
+			client.setTransport(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testConcurrencyOfTransport() throws Exception {
+		ConnectionPool pool = new ConnectionPool(8, 4);
+		try {
+			LtasksNameFinderClient client = new LtasksNameFinderClient(KEY,
+					true, true, pool);
+			assertEquals(4, client.getConcurrencyLimit());
+			client.setTransport(new CommonsHttpTransport());
+			assertEquals(1, client.getConcurrencyLimit());
+			try {
+				new BulkProcessor(client, 2);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		// hedging needs concurrent requests, not a pool
+		LtasksNameFinderClient client = client(true);
+		try {
+			client.setHedgingPolicy(new HedgingPolicy(50));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		JdkHttpTransport transport = new JdkHttpTransport();
+		try {
+			client.setTransport(transport);
+			assertEquals(Integer.MAX_VALUE, client.getConcurrencyLimit());
+			HedgingPolicy policy = new HedgingPolicy(50);
+			client.setHedgingPolicy(policy);
+			assertSame(policy, client.getHedgingPolicy());
+			assertEntities(client.processText(TEXT));
+			try {
+				client.setTransport(new CommonsHttpTransport());
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			assertSame(transport, client.getTransport());
+		} finally {
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testCodecPool() throws Exception {
+		LtasksNameFinderClient client = client(true);
+		assertSame(CodecPool.getDefault(), client.getCodecPool());
+		CodecPool pool = new CodecPool(4);
+		client.setCodecPool(pool);
+		for (int i = 0; i < 3; i++) {
+			assertEntities(client.processText(TEXT));
+		}
+		assertEntities(client.processTextAsync(TEXT).get(10,
+				TimeUnit.SECONDS));
+
+		// one deflater and inflater serve all the requests
+		CodecPoolStats stats = pool.getStats();
+		assertEquals(1, stats.getDeflaterCreatedCount());
+		assertEquals(3, stats.getDeflaterReusedCount());
+		assertEquals(1, stats.getIdleDeflaterCount());
+		assertEquals(1, stats.getInflaterCreatedCount());
+		assertEquals(3, stats.getInflaterReusedCount());
+		assertEquals(1, stats.getIdleInflaterCount());
+		// the encoding and compression buffers are in use at the same time
+		assertEquals(2, stats.getBufferCreatedCount());
+		assertEquals(10, stats.getBufferReusedCount());
+		try {
+			client.setCodecPool(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSlowListenerKeepsLimit() throws Exception {
+		LtasksNameFinderClient client = client(true);
+		mServer.setLatency(20);
+		// warmed up, so the average latency is that of the server
+		assertEntities(client.processText(TEXT));
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4,
+				1, 8);
+		client.setConcurrencyLimiter(limiter);
+		for (int i = 0; i < 5; i++) {
+			assertEntities(client.processText(TEXT));
+		}
+		// the listener is not the service being slow
+		LtasksObject result = client.processText(TEXT,
+				new NamedEntityListener() {
+					public void onNamedEntity(NamedEntity aEntity) {
+						try {
+							Thread.sleep(100);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+		assertTrue(result.isProcessedOk());
+		assertEquals(0, limiter.getDecreaseCount());
+	}
+
+	@Test
+	public void testCircuitBreaker() throws Exception {
+		LtasksNameFinderClient client = client(true);
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.5, 60000);
+		breaker.setMinimumCalls(4);
+		client.setCircuitBreaker(breaker);
+		final Transport transport = client.getTransport();
+		final AtomicInteger exchanges = new AtomicInteger();
+		client.setTransport(new Transport() {
+			public Exchange newExchange(TransportRequest aRequest) {
+				exchanges.incrementAndGet();
+				return transport.newExchange(aRequest);
+			}
+
+			public int getMaxConcurrency() {
+				return transport.getMaxConcurrency();
+			}
+
+			public void close() {
+				transport.close();
+			}
+		});
+		mServer.setErrorRate(1);
+		for (int i = 0; i < 4; i++) {
+			assertFalse(client.processText(TEXT).isProcessedOk());
+		}
+		// the 5xx responses opened the breaker
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		mServer.setErrorRate(0);
+		try {
+			client.processText(TEXT);
+			fail();
+		} catch (CircuitOpenException e) {
+			// expected
+		}
+		try {
+			client.processTextAsync(TEXT).get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof CircuitOpenException);
+		}
+		// failed fast, without calling the server or creating an exchange
+		assertEquals(4, mServer.getRequestCount());
+		assertEquals(4, exchanges.get());
+		assertEquals(2, breaker.getRejectedCount());
+	}
+
+	@Test
+	public void testHedgeWins() throws Exception {
+		ConnectionPool pool = new ConnectionPool(4, 4);
+		try {
+			LtasksNameFinderClient client = new LtasksNameFinderClient(KEY,
+					true, true, pool);
+			client.setEndpoint(mServer.getEndpoint());
+			HedgingPolicy policy = new HedgingPolicy(50);
+			policy.setMaxExtraLoad(1);
+			client.setHedgingPolicy(policy);
+			// the original is stuck, the hedge is fast
+			mServer.setNextLatencies(2000, 0);
+
+			long start = System.nanoTime();
+			assertEntities(client.processText(TEXT));
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS
+					.toNanos(1000));
+			assertEquals(2, mServer.getRequestCount());
+			assertEquals(1, policy.getHedgeCount());
+			assertEquals(1, policy.getHedgeWinCount());
+			// the original was aborted and its connection given back
+			assertEquals(0, pool.getConnectionsInUse());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testNoHedgeAfterFailure() throws Exception {
+		ConnectionPool pool = new ConnectionPool(4, 4);
+		try {
+			LtasksNameFinderClient client = new LtasksNameFinderClient(KEY,
+					true, true, pool);
+			// nothing listens there: the connection is refused at once
+			client.setEndpoint("http://127.0.0.1:1/ner");
+			HedgingPolicy policy = new HedgingPolicy(100);
+			policy.setMaxExtraLoad(1);
+			client.setHedgingPolicy(policy);
+			try {
+				client.processText(TEXT);
+				fail();
+			} catch (ConnectException e) {
+				// expected
+			}
+			Thread.sleep(300);
+			assertEquals(1, policy.getRequestCount());
+			assertEquals(0, policy.getHedgeCount());
+			assertEquals(0, pool.getConnectionsInUse());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testHedgeExtraLoad() throws Exception {
+		ConnectionPool pool = new ConnectionPool(4, 4);
+		try {
+			LtasksNameFinderClient client = new LtasksNameFinderClient(KEY,
+					true, true, pool);
+			client.setEndpoint(mServer.getEndpoint());
+			// every request is slow enough to be hedged
+			mServer.setLatency(40);
+			HedgingPolicy policy = new HedgingPolicy(5);
+			client.setHedgingPolicy(policy);
+			for (int i = 0; i < 20; i++) {
+				assertEntities(client.processText(TEXT));
+			}
+			assertEquals(20, policy.getRequestCount());
+			// one hedge per ten requests
+			assertEquals(2, policy.getHedgeCount());
+			// the losing hedges give their connections back on their threads
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getConnectionsInUse() > 0
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(0, pool.getConnectionsInUse());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		mServer.setLatency(20, 40);
+		ConnectionPool pool = new ConnectionPool(16, 8);
+		try {
+			LtasksNameFinderClient client = new LtasksNameFinderClient(KEY,
+					true, true, pool);
+			client.setEndpoint(mServer.getEndpoint());
+			List<String> texts = new ArrayList<String>(Collections.nCopies(
+					40, TEXT));
+			long start = System.nanoTime();
+			List<BulkResult<String>> results = client.processAll(texts, 8);
+			long elapsed = System.nanoTime() - start;
+			for (BulkResult<String> result : results) {
+				assertFalse(result.isFailed());
+				assertEntities(result.getResult());
+			}
+			// 40 requests of at least 20 ms each, 8 at a time
+			assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(40 * 20));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ltasks.cache.MemoryResultCache;
+import com.ltasks.htmlfilteroptions.HtmlFilter;
+import com.ltasks.htmlfilteroptions.HtmlFilterOptions;
+import com.ltasks.htmlfilteroptions.SimpleXPath;
+
+public class RequestTemplateTest {
+
+	private static final String KEY = "b2c4cf5c-52d3-4fef-ac9b-67dbe6b5e52d";
+
+	private static final String TEXT = "Ele se encontrará com José Silva em Brasília.";
+
+	private StandInNerServer mServer;
+
+	private LtasksNameFinderClient mClient;
+
+	@Before
+	public void start() throws Exception {
+		mServer = new StandInNerServer();
+		mClient = new LtasksNameFinderClient(KEY, true, true);
+		mClient.setEndpoint(mServer.getEndpoint());
+	}
+
+	@After
+	public void stop() {
+		mServer.close();
+	}
+
+	@Test
+	public void testProcessText() throws Exception {
+		RequestTemplate template = new RequestTemplate(mClient, null);
+		LtasksObject result = template.processText(TEXT);
+		assertEquals(TEXT, result.getSourceText());
+		assertEquals(3, result.getNamedEntities().size());
+		assertEquals(TEXT, mServer.getLastParameters().get("text"));
+		assertEquals(KEY, mServer.getLastParameters().get("apikey"));
+		assertEquals("true",
+				mServer.getLastParameters().get("includeSourceText"));
+		assertEquals(3, mServer.getLastParameters().size());
+
+		result = template.processTextAsync(TEXT).get(10, TimeUnit.SECONDS);
+		assertEquals(3, result.getNamedEntities().size());
+		assertSame(mClient, template.getClient());
+	}
+
+	@Test
+	public void testFrozenFilterOptions() throws Exception {
+		HtmlFilterOptions options = new HtmlFilterOptions();
+		options.setFilter(HtmlFilter.none);
+		options.setExclude(SimpleXPath.parse("//p[@id='a']"));
+		RequestTemplate template = new RequestTemplate(mClient, options);
+		options.setExclude(SimpleXPath.parse("//div"));
+
+		String html = "<p id='a'>Nada.</p><p>" + TEXT + "</p>";
+		template.processHtml(html);
+		assertEquals(html, mServer.getLastParameters().get("html"));
+		assertEquals("//p[@id='a']",
+				mServer.getLastParameters().get("exclude"));
+		assertEquals("none", mServer.getLastParameters().get("filter"));
+
+		template.processUrlAsync(new URL("http://example.com/"))
+				.get(10, TimeUnit.SECONDS);
+		assertEquals("http://example.com/",
+				mServer.getLastParameters().get("url"));
+		assertEquals("//p[@id='a']",
+				mServer.getLastParameters().get("exclude"));
+
+		// texts are not filtered
+		template.processText(TEXT);
+		assertNull(mServer.getLastParameters().get("exclude"));
+	}
+
+	@Test
+	public void testSameRequestAsClient() throws Exception {
+		HtmlFilterOptions options = new HtmlFilterOptions();
+		options.setExclude(SimpleXPath.parse("//p[@id='a']"));
+		mClient.setResultCache(new MemoryResultCache(100, 1, TimeUnit.HOURS));
+		RequestTemplate template = new RequestTemplate(mClient, options);
+
+		mClient.processText(TEXT);
+		mClient.processHtml("<p>" + TEXT + "</p>", options);
+		assertEquals(2, mServer.getRequestCount());
+		// the bodies are the same, so the results are cached
+		template.processText(TEXT);
+		template.processHtml("<p>" + TEXT + "</p>");
+		assertEquals(2, mServer.getRequestCount());
+	}
+
+	@Test
+	public void testRawBodyAndLocalSourceText() throws Exception {
+		mClient.setRawBody(true);
+		mClient.setLocalSourceText(true);
+		RequestTemplate template = new RequestTemplate(mClient, null);
+		LtasksObject result = template.processText(TEXT);
+		assertSame(TEXT, result.getSourceText());
+		assertEquals(3, result.getNamedEntities().size());
+		assertEquals("text/plain; charset=utf-8",
+				mServer.getLastContentType());
+		assertEquals(KEY, mServer.getLastParameters().get("apikey"));
+		assertEquals("false",
+				mServer.getLastParameters().get("includeSourceText"));
+
+		// the source text setting is read when the template is created
+		mClient.setLocalSourceText(false);
+		assertSame(TEXT, template.processTextAsync(TEXT)
+				.get(10, TimeUnit.SECONDS).getSourceText());
+	}
+
+}
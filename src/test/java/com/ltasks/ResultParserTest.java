@@ -20,6 +20,8 @@ package com.ltasks;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -88,4 +90,24 @@ public class ResultParserTest {
 
 		assertFalse(result.isProcessedOk());
 	}
+
+	@Test
+	public void testListener() throws IOException,
+			ParserConfigurationException, SAXException {
+		final List<NamedEntity> entities = new ArrayList<NamedEntity>();
+		LtasksObject result = ResultParser.parse(getClass().getClassLoader()
+				.getResourceAsStream("com/ltasks/sample1.xml"), true,
+				new NamedEntityListener() {
+					public void onNamedEntity(NamedEntity aEntity) {
+						entities.add(aEntity);
+					}
+				});
+
+		assertEquals("Ele se encontra com Daniel em Minas Gerais.",
+				result.getSourceText());
+		assertEquals(0, result.getNamedEntities().size());
+		assertEquals(2, entities.size());
+		assertEquals("Daniel", entities.get(0).getText());
+		assertEquals("Minas Gerais", entities.get(1).getText());
+	}
 }
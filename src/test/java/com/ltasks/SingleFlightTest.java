@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ltasks.cache.CacheKey;
+import com.ltasks.resilience.CircuitOpenException;
+
+public class SingleFlightTest {
+
+	private static final CacheKey KEY = new CacheKey(new byte[32]);
+
+	private final SingleFlight mSingleFlight = new SingleFlight();
+
+	private final AtomicInteger mCalls = new AtomicInteger();
+
+	private final CountDownLatch mRelease = new CountDownLatch(1);
+
+	/** Blocks until released, then answers, or throws the failure if any */
+	private SingleFlight.Call call(final Throwable aFailure) {
+		return new SingleFlight.Call() {
+			public LtasksObject call() throws IOException {
+				mCalls.incrementAndGet();
+				try {
+					mRelease.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				if (aFailure instanceof IOException) {
+					throw (IOException) aFailure;
+				} else if (aFailure instanceof RuntimeException) {
+					throw (RuntimeException) aFailure;
+				} else if (aFailure instanceof Error) {
+					throw (Error) aFailure;
+				}
+				return new LtasksObject("text", null, true,
+						Collections.<NamedEntity> emptyList());
+			}
+		};
+	}
+
+	private List<Future<LtasksObject>> submit(ExecutorService aExecutor,
+			int aCount, final Throwable aFailure) throws InterruptedException {
+		List<Future<LtasksObject>> futures = new ArrayList<Future<LtasksObject>>();
+		for (int i = 0; i < aCount; i++) {
+			futures.add(aExecutor.submit(() -> mSingleFlight.execute(KEY,
+					call(aFailure))));
+		}
+		// wait for the followers to join the leader
+		while (mSingleFlight.getCoalescedCount() < aCount - 1) {
+			Thread.sleep(1);
+		}
+		return futures;
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<LtasksObject>> futures = submit(executor, 8, null);
+			mRelease.countDown();
+
+			LtasksObject first = futures.get(0).get(5, TimeUnit.SECONDS);
+			for (Future<LtasksObject> future : futures) {
+				assertSame(first, future.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, mCalls.get());
+			assertEquals(7, mSingleFlight.getCoalescedCount());
+
+			// the next request goes to the server again
+			mSingleFlight.execute(KEY, call(null));
+			assertEquals(2, mCalls.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSharedFailure() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			CircuitOpenException failure = new CircuitOpenException("open");
+			List<Future<LtasksObject>> futures = submit(executor, 4, failure);
+			mRelease.countDown();
+
+			for (Future<LtasksObject> future : futures) {
+				try {
+					future.get(5, TimeUnit.SECONDS);
+					fail();
+				} catch (ExecutionException e) {
+					// the same type, so callers can shed load
+					assertSame(failure, e.getCause());
+				}
+			}
+			assertEquals(1, mCalls.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSharedError() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<LtasksObject>> futures = submit(executor, 4,
+					new AssertionError("error"));
+			mRelease.countDown();
+
+			for (Future<LtasksObject> future : futures) {
+				try {
+					// the followers do not wait forever
+					future.get(5, TimeUnit.SECONDS);
+					fail();
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof AssertionError);
+				}
+			}
+			assertEquals(1, mCalls.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		CompletableFuture<LtasksObject> response = new CompletableFuture<LtasksObject>();
+		CompletableFuture<LtasksObject> first = mSingleFlight.executeAsync(
+				KEY, () -> {
+					mCalls.incrementAndGet();
+					return response;
+				});
+		CompletableFuture<LtasksObject> second = mSingleFlight.executeAsync(
+				KEY, () -> {
+					mCalls.incrementAndGet();
+					return response;
+				});
+		// cancelling one waiter does not affect the others
+		second.cancel(false);
+
+		LtasksObject result = new LtasksObject("text", null, true,
+				Collections.<NamedEntity> emptyList());
+		response.complete(result);
+
+		assertSame(result, first.get(5, TimeUnit.SECONDS));
+		assertEquals(1, mCalls.get());
+		assertEquals(1, mSingleFlight.getCoalescedCount());
+	}
+
+}
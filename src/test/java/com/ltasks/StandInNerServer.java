@@ -0,0 +1,445 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * A local stand-in for the NER service, for tests that must not depend on
+ * the live service. It reads the same url-encoded, optionally gzipped form,
+ * or a plain text or HTML body with the other parameters in the query
+ * string, and answers with the XML read by {@link ResultParser}, gzipped
+ * when the client accepts it.
+ * </p>
+ * <p>
+ * Every run of capitalized words of the text is returned as a person. The
+ * latency, the rate of failed responses and the number of entities per
+ * response can be set to test the client under load or failures. Point a
+ * client to it with
+ * {@link LtasksNameFinderClient#setEndpoint(String) setEndpoint}(
+ * {@link #getEndpoint()}).
+ * </p>
+ */
+public class StandInNerServer implements Closeable {
+
+	/** A run of capitalized words */
+	private static final Pattern NAME = Pattern
+			.compile("\\p{Lu}\\p{L}*(?:\\s+\\p{Lu}\\p{L}*)*");
+
+	private static final Pattern TAG = Pattern.compile("<[^>]*>");
+
+	static {
+		// read once by the JDK server: without it small responses wait for
+		// the delayed ACK of the client
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final HttpServer mServer;
+
+	private final ExecutorService mExecutor;
+
+	private final Random mRandom = new Random(0);
+
+	private final AtomicInteger mRequestCount = new AtomicInteger();
+
+	private volatile long mMinLatency;
+
+	private volatile long mMaxLatency;
+
+	/** Latencies of the next requests, taken before the range */
+	private final Queue<Long> mNextLatencies = new ConcurrentLinkedQueue<Long>();
+
+	private volatile double mErrorRate;
+
+	private volatile int mErrorStatus = 503;
+
+	private volatile int mEntityCount = -1;
+
+	private volatile Map<String, String> mLastParameters = Collections
+			.emptyMap();
+
+	private volatile boolean mIsLastRequestGzipped;
+
+	private volatile String mLastContentType;
+
+	/**
+	 * Starts a server on a free port of the loopback address
+	 * 
+	 * @throws IOException
+	 *             if the server could not be started
+	 */
+	public StandInNerServer() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * Starts a server on a free port of the loopback address
+	 * 
+	 * @param aBacklog
+	 *            the maximum number of pending connections, or 0 for the
+	 *            system default
+	 * @throws IOException
+	 *             if the server could not be started
+	 */
+	public StandInNerServer(int aBacklog) throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0), aBacklog);
+		mExecutor = Executors.newCachedThreadPool();
+		mServer.setExecutor(mExecutor);
+		mServer.createContext("/ner", new HttpHandler() {
+			public void handle(HttpExchange aExchange) throws IOException {
+				try {
+					StandInNerServer.this.handle(aExchange);
+				} finally {
+					aExchange.close();
+				}
+			}
+		});
+		mServer.start();
+	}
+
+	/**
+	 * Gets the URL of the NER resource of this server
+	 * 
+	 * @return the resource URL
+	 */
+	public String getEndpoint() {
+		return "http://" + mServer.getAddress().getHostString() + ":"
+				+ mServer.getAddress().getPort() + "/ner";
+	}
+
+	/**
+	 * Sets a fixed time taken to answer each request
+	 * 
+	 * @param aMillis
+	 *            the latency in milliseconds
+	 */
+	public void setLatency(long aMillis) {
+		setLatency(aMillis, aMillis);
+	}
+
+	/**
+	 * Sets the time taken to answer each request, uniformly distributed in a
+	 * range
+	 * 
+	 * @param aMinMillis
+	 *            the minimum latency in milliseconds
+	 * @param aMaxMillis
+	 *            the maximum latency in milliseconds
+	 */
+	public void setLatency(long aMinMillis, long aMaxMillis) {
+		if (aMinMillis < 0 || aMaxMillis < aMinMillis) {
+			throw new IllegalArgumentException("invalid latency range.");
+		}
+		mMinLatency = aMinMillis;
+		mMaxLatency = aMaxMillis;
+	}
+
+	/**
+	 * Sets the time taken to answer the next requests, in the order they are
+	 * received. Later requests take the latency of the range again.
+	 * 
+	 * @param aMillis
+	 *            the latencies in milliseconds
+	 */
+	public void setNextLatencies(long... aMillis) {
+		for (long millis : aMillis) {
+			mNextLatencies.add(millis);
+		}
+	}
+
+	/**
+	 * Sets the rate of requests answered with an error
+	 * 
+	 * @param aErrorRate
+	 *            the rate, from 0 to 1
+	 */
+	public void setErrorRate(double aErrorRate) {
+		if (aErrorRate < 0 || aErrorRate > 1) {
+			throw new IllegalArgumentException(
+					"the error rate must be between 0 and 1.");
+		}
+		mErrorRate = aErrorRate;
+	}
+
+	/**
+	 * Sets the HTTP status of the error responses. Default is 503.
+	 * 
+	 * @param aStatus
+	 *            the HTTP status
+	 */
+	public void setErrorStatus(int aStatus) {
+		mErrorStatus = aStatus;
+	}
+
+	/**
+	 * Sets the number of entities of each response, which sets the response
+	 * size. The entities found in the text are repeated, or the whole text is
+	 * returned as an entity if there are none.
+	 * 
+	 * @param aEntityCount
+	 *            the number of entities, or -1 to return the entities found
+	 */
+	public void setEntityCount(int aEntityCount) {
+		mEntityCount = aEntityCount;
+	}
+
+	/**
+	 * Gets the number of requests received
+	 * 
+	 * @return the number of requests
+	 */
+	public int getRequestCount() {
+		return mRequestCount.get();
+	}
+
+	/**
+	 * Gets the parameters of the last request, from the form or the query
+	 * string and the plain body
+	 * 
+	 * @return the parameters by name
+	 */
+	public Map<String, String> getLastParameters() {
+		return mLastParameters;
+	}
+
+	/**
+	 * Tells if the body of the last request was gzipped
+	 * 
+	 * @return true if it was gzipped
+	 */
+	public boolean isLastRequestGzipped() {
+		return mIsLastRequestGzipped;
+	}
+
+	/**
+	 * Gets the content type of the last request
+	 * 
+	 * @return the content type, or null if there was none
+	 */
+	public String getLastContentType() {
+		return mLastContentType;
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void close() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	private void handle(HttpExchange aExchange) throws IOException {
+		mRequestCount.incrementAndGet();
+		boolean gzipped = "gzip".equals(aExchange.getRequestHeaders()
+				.getFirst("Content-Encoding"));
+		InputStream in = aExchange.getRequestBody();
+		if (gzipped) {
+			in = new GZIPInputStream(in);
+		}
+		String contentType = aExchange.getRequestHeaders().getFirst(
+				"Content-Type");
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = aExchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			parseForm(query, parameters);
+		}
+		byte[] request = in.readAllBytes();
+		if (contentType != null && contentType.startsWith("text/plain")) {
+			parameters.put("text", new String(request, StandardCharsets.UTF_8));
+		} else if (contentType != null && contentType.startsWith("text/html")) {
+			parameters.put("html", new String(request, StandardCharsets.UTF_8));
+		} else {
+			parseForm(new String(request, StandardCharsets.US_ASCII), parameters);
+		}
+		mLastParameters = Collections.unmodifiableMap(parameters);
+		mLastContentType = contentType;
+		mIsLastRequestGzipped = gzipped;
+
+		sleep();
+		int status;
+		String xml;
+		if (!"POST".equals(aExchange.getRequestMethod())) {
+			status = 405;
+			xml = message("Método não permitido.");
+		} else if (mErrorRate > 0 && mRandom.nextDouble() < mErrorRate) {
+			status = mErrorStatus;
+			xml = message("Serviço indisponível.");
+		} else if (parameters.get("apikey") == null) {
+			status = 401;
+			xml = message("Chave de API inválida.");
+		} else {
+			String text = getText(parameters);
+			if (text == null) {
+				status = 400;
+				xml = message("Nenhum texto para anotar.");
+			} else {
+				status = 200;
+				xml = result(text,
+						!"false".equals(parameters.get("includeSourceText")));
+			}
+		}
+
+		byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+		String accept = aExchange.getRequestHeaders().getFirst(
+				"Accept-Encoding");
+		if (accept != null && accept.contains("gzip")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(out);
+			gzip.write(body);
+			gzip.close();
+			body = out.toByteArray();
+			aExchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		aExchange.getResponseHeaders().set("Content-Type",
+				"text/xml; charset=UTF-8");
+		aExchange.sendResponseHeaders(status, body.length);
+		OutputStream out = aExchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private void sleep() {
+		Long next = mNextLatencies.poll();
+		long latency = next != null ? next : mMinLatency;
+		if (next == null && mMaxLatency > mMinLatency) {
+			latency += (long) (mRandom.nextDouble() * (mMaxLatency - mMinLatency));
+		}
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void parseForm(String aForm, Map<String, String> aParameters) {
+		for (String pair : aForm.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int eq = pair.indexOf('=');
+			String name = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			aParameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+					URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+	}
+
+	private static String getText(Map<String, String> aParameters) {
+		if (aParameters.containsKey("text")) {
+			return aParameters.get("text");
+		}
+		if (aParameters.containsKey("html")) {
+			return TAG.matcher(aParameters.get("html")).replaceAll(" ").trim();
+		}
+		// pages are not fetched, the URL is the text
+		return aParameters.get("url");
+	}
+
+	private String result(String aText, boolean aIsIncludeSourceText) {
+		List<int[]> found = new ArrayList<int[]>();
+		Matcher m = NAME.matcher(aText);
+		while (m.find()) {
+			found.add(new int[] { m.start(), m.end() });
+		}
+		int count = mEntityCount < 0 ? found.size() : mEntityCount;
+		if (found.isEmpty()) {
+			found.add(new int[] { 0, aText.length() });
+		}
+
+		StringBuilder xml = new StringBuilder(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><result>");
+		if (aIsIncludeSourceText) {
+			xml.append("<text>");
+			escape(xml, aText);
+			xml.append("</text>");
+		}
+		xml.append("<namedEntities>");
+		for (int i = 0; i < count; i++) {
+			int[] span = found.get(i % found.size());
+			xml.append("<namedEntity text=\"");
+			escape(xml, aText.substring(span[0], span[1]));
+			xml.append("\" type=\"").append(NerType.PERSON.value())
+					.append("\" begin=\"").append(span[0]).append("\" end=\"")
+					.append(span[1]).append("\"/>");
+		}
+		return xml.append("</namedEntities></result>").toString();
+	}
+
+	private static String message(String aMessage) {
+		StringBuilder xml = new StringBuilder(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><result><message>");
+		escape(xml, aMessage);
+		return xml.append("</message></result>").toString();
+	}
+
+	private static void escape(StringBuilder aXml, String aValue) {
+		for (int i = 0; i < aValue.length(); i++) {
+			char c = aValue.charAt(i);
+			switch (c) {
+			case '<':
+				aXml.append("&lt;");
+				break;
+			case '>':
+				aXml.append("&gt;");
+				break;
+			case '&':
+				aXml.append("&amp;");
+				break;
+			case '"':
+				aXml.append("&quot;");
+				break;
+			default:
+				aXml.append(c);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.util.EncodingUtil;
+import org.junit.Test;
+
+public class StreamingFormRequestEntityTest {
+
+	private static final NameValuePair[] PARAMETERS = {
+			new NameValuePair("text",
+					"Ele se encontrará com José em Brasília. 1+1=2 & 50% 😀 *-_.~!"),
+			new NameValuePair("apikey", "b2c4cf5c-52d3-4fef-ac9b-67dbe6b5e52d"),
+			new NameValuePair("empty", null) };
+
+	@Test
+	public void testSameEncodingAsEncodingUtil() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// a tiny buffer forces many flushes
+		new StreamingFormRequestEntity(PARAMETERS, false, -1, 16)
+				.writeRequest(out);
+
+		assertEquals(EncodingUtil.formUrlEncode(PARAMETERS, "UTF-8"),
+				new String(out.toByteArray(), "US-ASCII"));
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		for (int level = -1; level <= 9; level++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new StreamingFormRequestEntity(PARAMETERS, true, level, 64)
+					.writeRequest(out);
+
+			assertEquals(EncodingUtil.formUrlEncode(PARAMETERS, "UTF-8"),
+					new String(readAll(new GZIPInputStream(
+							new ByteArrayInputStream(out.toByteArray()))),
+							"US-ASCII"));
+		}
+	}
+
+	@Test
+	public void testRepeatable() throws IOException {
+		StreamingFormRequestEntity entity = new StreamingFormRequestEntity(
+				PARAMETERS, false, -1, 1024);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		entity.writeRequest(first);
+		entity.writeRequest(second);
+
+		assertTrue(entity.isRepeatable());
+		assertEquals(-1, entity.getContentLength());
+		assertArrayEquals(first.toByteArray(), second.toByteArray());
+	}
+
+	@Test
+	public void testCompiledParameters() throws IOException {
+		NameValuePair[] compiled = { PARAMETERS[0],
+				FormEncoder.compile(new NameValuePair[] { PARAMETERS[1],
+						PARAMETERS[2] }) };
+		for (int bufferSize : new int[] { 16, 1024 }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new StreamingFormRequestEntity(compiled, false, -1, bufferSize)
+					.writeRequest(out);
+
+			assertEquals(EncodingUtil.formUrlEncode(PARAMETERS, "UTF-8"),
+					new String(out.toByteArray(), "US-ASCII"));
+		}
+	}
+
+	@Test
+	public void testPlainDocument() throws IOException {
+		String text = PARAMETERS[0].getValue() + " \ud800 fim";
+		for (boolean gzip : new boolean[] { false, true }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			StreamingFormRequestEntity entity = new StreamingFormRequestEntity(
+					new StringBuilder(text), "text/plain; charset=utf-8",
+					gzip, -1, 16, null, CodecPool.getDefault());
+			entity.writeRequest(out);
+
+			byte[] body = out.toByteArray();
+			if (gzip) {
+				body = readAll(new GZIPInputStream(new ByteArrayInputStream(
+						body)));
+			}
+			assertArrayEquals(text.getBytes("UTF-8"), body);
+			assertEquals("text/plain; charset=utf-8", entity.getContentType());
+		}
+	}
+
+	private static byte[] readAll(InputStream aIn) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while ((read = aIn.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
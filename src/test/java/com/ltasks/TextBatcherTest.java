@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TextBatcherTest {
+
+	/** Finds every "José", and an entity over each separator */
+	private static class Sender implements TextBatcher.Sender {
+
+		final List<String> mSent = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		public CompletableFuture<LtasksObject> send(String aText) {
+			mSent.add(aText);
+			List<NamedEntity> entities = new ArrayList<NamedEntity>();
+			for (int i = aText.indexOf("José"); i >= 0; i = aText.indexOf(
+					"José", i + 1)) {
+				entities.add(new NamedEntity("José", NerType.PERSON, i, i + 4));
+			}
+			for (int i = aText.indexOf(TextBatcher.SEPARATOR); i >= 0; i = aText
+					.indexOf(TextBatcher.SEPARATOR, i + 1)) {
+				entities.add(new NamedEntity("?", NerType.THING, i - 1, i + 4));
+			}
+			return CompletableFuture.completedFuture(new LtasksObject(aText,
+					null, true, entities));
+		}
+
+	}
+
+	@Test
+	public void testBatchByCount() throws Exception {
+		TextBatcher batcher = new TextBatcher(3, 10000);
+		Sender sender = new Sender();
+		CompletableFuture<LtasksObject> a = batcher.submit("Ele viu José.",
+				sender);
+		CompletableFuture<LtasksObject> b = batcher.submit("Nada aqui.",
+				sender);
+		assertFalse(a.isDone());
+		CompletableFuture<LtasksObject> c = batcher.submit("José e José.",
+				sender);
+
+		assertEquals(1, sender.mSent.size());
+		assertEquals("Ele viu José." + TextBatcher.SEPARATOR + "Nada aqui."
+				+ TextBatcher.SEPARATOR + "José e José.", sender.mSent.get(0));
+		assertEquals(1, batcher.getBatchCount());
+		assertEquals(3, batcher.getTextCount());
+
+		LtasksObject result = a.get();
+		assertEquals("Ele viu José.", result.getSourceText());
+		assertEquals(1, result.getNamedEntities().size());
+		assertEquals(8, result.getNamedEntities().get(0).getBegin());
+		assertEquals(12, result.getNamedEntities().get(0).getEnd());
+		assertTrue(b.get().getNamedEntities().isEmpty());
+		assertEquals(2, c.get().getNamedEntities().size());
+		assertEquals(7, c.get().getNamedEntities().get(1).getBegin());
+	}
+
+	@Test
+	public void testBatchByDelay() throws Exception {
+		TextBatcher batcher = new TextBatcher(100, 50);
+		Sender sender = new Sender();
+		long start = System.nanoTime();
+		CompletableFuture<LtasksObject> a = batcher.submit("José", sender);
+		CompletableFuture<LtasksObject> b = batcher.submit("José", sender);
+		assertEquals("José", a.get(5, TimeUnit.SECONDS).getNamedEntities()
+				.get(0).getText());
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+				.toNanos(45));
+		assertEquals(1, b.get(1, TimeUnit.SECONDS).getNamedEntities().size());
+		assertEquals(1, sender.mSent.size());
+	}
+
+	@Test
+	public void testBatchByLength() throws Exception {
+		TextBatcher batcher = new TextBatcher(100, 10000);
+		batcher.setMaxLength(20);
+		batcher.setMaxTextLength(10);
+		Sender sender = new Sender();
+		assertTrue(batcher.accepts("0123456789"));
+		assertFalse(batcher.accepts("0123456789A"));
+		batcher.submit("0123456789", sender);
+		// does not fit: the first batch is sent alone
+		batcher.submit("ABCDEFGHI", sender);
+		assertEquals(Collections.singletonList("0123456789"), sender.mSent);
+		batcher.flush();
+		assertEquals(2, sender.mSent.size());
+		assertEquals("ABCDEFGHI", sender.mSent.get(1));
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		TextBatcher batcher = new TextBatcher(2, 10000);
+		final AtomicInteger calls = new AtomicInteger();
+		TextBatcher.Sender failing = new TextBatcher.Sender() {
+			public CompletableFuture<LtasksObject> send(String aText) {
+				calls.incrementAndGet();
+				return CompletableFuture.failedFuture(new IOException("down"));
+			}
+		};
+		CompletableFuture<LtasksObject> a = batcher.submit("a", failing);
+		try {
+			batcher.process("b", failing);
+			fail();
+		} catch (IOException e) {
+			assertEquals("down", e.getMessage());
+			assertNull(e.getCause());
+		}
+		try {
+			a.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals("down", e.getCause().getMessage());
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testNotProcessedOk() throws Exception {
+		TextBatcher batcher = new TextBatcher(2, 10000);
+		TextBatcher.Sender rejecting = new TextBatcher.Sender() {
+			public CompletableFuture<LtasksObject> send(String aText) {
+				return CompletableFuture.completedFuture(new LtasksObject(null,
+						"erro", false, Collections.<NamedEntity> emptyList()));
+			}
+		};
+		CompletableFuture<LtasksObject> a = batcher.submit("a", rejecting);
+		LtasksObject b = batcher.process("b", rejecting);
+		assertFalse(b.isProcessedOk());
+		assertEquals("erro", a.get().getMessage());
+		assertNull(a.get().getSourceText());
+	}
+
+	@Test
+	public void testFailedBatchWithoutEntities() throws Exception {
+		TextBatcher batcher = new TextBatcher(2, 10000);
+		final LtasksObject failed = new LtasksObject(null, "sem resposta",
+				false, null);
+		TextBatcher.Sender sender = new TextBatcher.Sender() {
+			public CompletableFuture<LtasksObject> send(String aText) {
+				return CompletableFuture.completedFuture(failed);
+			}
+		};
+		CompletableFuture<LtasksObject> a = batcher.submit("a", sender);
+		CompletableFuture<LtasksObject> b = batcher.submit("b", sender);
+		assertSame(failed, a.get(2, TimeUnit.SECONDS));
+		assertSame(failed, b.get(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSplitFailure() throws Exception {
+		TextBatcher batcher = new TextBatcher(2, 10000);
+		TextBatcher.Sender broken = new TextBatcher.Sender() {
+			public CompletableFuture<LtasksObject> send(String aText) {
+				return CompletableFuture.completedFuture(null);
+			}
+		};
+		CompletableFuture<LtasksObject> a = batcher.submit("a", broken);
+		try {
+			batcher.process("b", broken);
+			fail();
+		} catch (NullPointerException e) {
+			// expected
+		}
+		try {
+			a.get(2, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof NullPointerException);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCount() {
+		new TextBatcher(0, 10);
+	}
+
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TextChunkerTest {
+
+	private static String text(int aSentences) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < aSentences; i++) {
+			sb.append("Ele encontrou José Silva em Brasília ").append(i)
+					.append(". ");
+			if (i % 10 == 9) {
+				sb.append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testShortText() {
+		List<TextChunker.Chunk> chunks = new TextChunker(100, 10)
+				.split("Ele viu José.");
+		assertEquals(1, chunks.size());
+		assertEquals("Ele viu José.", chunks.get(0).getText());
+		assertEquals(0, chunks.get(0).getOffset());
+	}
+
+	@Test
+	public void testSplitOnSentences() {
+		String text = text(200);
+		TextChunker chunker = new TextChunker(500, 100);
+		List<TextChunker.Chunk> chunks = chunker.split(text);
+		assertTrue(chunks.size() > 1);
+		assertEquals(0, chunks.get(0).getOffset());
+		assertEquals(text.length(), chunks.get(chunks.size() - 1).getEnd());
+		for (int i = 0; i < chunks.size(); i++) {
+			TextChunker.Chunk chunk = chunks.get(i);
+			assertTrue(chunk.getText().length() <= 500);
+			assertEquals(text.substring(chunk.getOffset(), chunk.getEnd()),
+					chunk.getText());
+			// starts at a sentence and ends after a sentence or a paragraph
+			assertTrue(chunk.getText().startsWith("Ele"));
+			if (i + 1 < chunks.size()) {
+				assertTrue(chunk.getText().endsWith(". ")
+						|| chunk.getText().endsWith("\n"));
+				TextChunker.Chunk next = chunks.get(i + 1);
+				assertTrue(next.getOffset() > chunk.getOffset());
+				assertTrue(next.getOffset() <= chunk.getEnd());
+				assertTrue(chunk.getEnd() - next.getOffset() <= 100);
+			}
+		}
+	}
+
+	@Test
+	public void testSplitWithoutSpaces() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("a😀");
+		}
+		String text = sb.toString();
+		List<TextChunker.Chunk> chunks = new TextChunker(31, 5).split(text);
+		for (TextChunker.Chunk chunk : chunks) {
+			String part = chunk.getText();
+			assertTrue(part.length() <= 31);
+			assertFalse(Character.isLowSurrogate(part.charAt(0)));
+			assertFalse(Character.isHighSurrogate(part.charAt(part.length() - 1)));
+		}
+		assertEquals(text.length(), chunks.get(chunks.size() - 1).getEnd());
+	}
+
+	@Test
+	public void testNoOverlap() {
+		String text = text(50);
+		List<TextChunker.Chunk> chunks = new TextChunker(300, 0).split(text);
+		StringBuilder joined = new StringBuilder();
+		for (TextChunker.Chunk chunk : chunks) {
+			assertEquals(joined.length(), chunk.getOffset());
+			joined.append(chunk.getText());
+		}
+		assertEquals(text, joined.toString());
+	}
+
+	@Test
+	public void testMerge() {
+		String text = "Ele viu José Silva. Ela viu Maria Souza em Lisboa.";
+		TextChunker chunker = new TextChunker(40, 15);
+		List<TextChunker.Chunk> chunks = Arrays.asList(new TextChunker.Chunk(
+				text.substring(0, 33), 0), new TextChunker.Chunk(
+				text.substring(25), 25));
+		// the first chunk cuts Maria Souza, the second finds it whole
+		LtasksObject first = new LtasksObject(chunks.get(0).getText(), null,
+				true, Arrays.asList(new NamedEntity("José Silva",
+						NerType.PERSON, 8, 18), new NamedEntity("Maria",
+						NerType.PERSON, 28, 33)));
+		LtasksObject second = new LtasksObject(chunks.get(1).getText(), null,
+				true, Arrays.asList(new NamedEntity("Maria Souza",
+						NerType.PERSON, 3, 14), new NamedEntity("Lisboa",
+						NerType.PLACE, 18, 24)));
+
+		LtasksObject result = chunker.merge(text, chunks,
+				Arrays.asList(first, second));
+
+		assertTrue(result.isProcessedOk());
+		assertEquals(text, result.getSourceText());
+		List<NamedEntity> entities = result.getNamedEntities();
+		assertEquals(3, entities.size());
+		for (NamedEntity entity : entities) {
+			assertEquals(entity.getText(),
+					text.substring(entity.getBegin(), entity.getEnd()));
+		}
+		assertEquals("Maria Souza", entities.get(1).getText());
+		assertEquals(NerType.PLACE, entities.get(2).getType());
+	}
+
+	@Test
+	public void testMergeDuplicates() {
+		String text = text(100);
+		TextChunker chunker = new TextChunker(400, 120);
+		List<TextChunker.Chunk> chunks = chunker.split(text);
+		List<LtasksObject> results = new ArrayList<LtasksObject>();
+		List<NamedEntity> expected = new ArrayList<NamedEntity>();
+		for (int i = text.indexOf("José"); i >= 0; i = text.indexOf("José",
+				i + 1)) {
+			expected.add(new NamedEntity("José Silva", NerType.PERSON, i,
+					i + 10));
+		}
+		for (TextChunker.Chunk chunk : chunks) {
+			List<NamedEntity> entities = new ArrayList<NamedEntity>();
+			for (NamedEntity e : expected) {
+				if (e.getBegin() >= chunk.getOffset()
+						&& e.getEnd() <= chunk.getEnd()) {
+					entities.add(new NamedEntity(e.getText(), e.getType(), e
+							.getBegin() - chunk.getOffset(), e.getEnd()
+							- chunk.getOffset()));
+				}
+			}
+			results.add(new LtasksObject(null, null, true, entities));
+		}
+
+		LtasksObject result = chunker.merge(text, chunks, results);
+
+		assertNull(result.getSourceText());
+		assertEquals(expected.size(), result.getNamedEntities().size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getBegin(), result.getNamedEntities()
+					.get(i).getBegin());
+		}
+	}
+
+	@Test
+	public void testMergeFailure() {
+		List<TextChunker.Chunk> chunks = new TextChunker(10, 2).split(text(2));
+		List<LtasksObject> results = new ArrayList<LtasksObject>();
+		for (int i = 0; i < chunks.size(); i++) {
+			results.add(new LtasksObject(null, i == 1 ? "erro" : null, i != 1,
+					Collections.<NamedEntity> emptyList()));
+		}
+		LtasksObject result = new TextChunker(10, 2).merge(text(2), chunks,
+				results);
+		assertFalse(result.isProcessedOk());
+		assertEquals("erro", result.getMessage());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOverlapTooLarge() {
+		new TextChunker(100, 50);
+	}
+
+}
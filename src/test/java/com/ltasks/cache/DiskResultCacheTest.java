@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ltasks.LtasksObject;
+import com.ltasks.NamedEntity;
+import com.ltasks.NerType;
+
+public class DiskResultCacheTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	@Test
+	public void testSurvivesRestart() throws IOException {
+		File dir = mFolder.newFolder("cache");
+		DiskResultCache cache = new DiskResultCache(dir, 4096, 4, 0,
+				TimeUnit.SECONDS);
+		cache.put(key(1), result("Ele se encontrará com José em Brasília."));
+		assertNull(cache.get(key(2)));
+		cache.close();
+
+		cache = new DiskResultCache(dir, 4096, 4, 0, TimeUnit.SECONDS);
+		try {
+			LtasksObject result = cache.get(key(1));
+			assertNotNull(result);
+			assertTrue(result.isProcessedOk());
+			assertEquals("Ele se encontrará com José em Brasília.",
+					result.getSourceText());
+			assertNull(result.getMessage());
+			assertEquals(1, result.getNamedEntities().size());
+			NamedEntity entity = result.getNamedEntities().get(0);
+			assertEquals("José", entity.getText());
+			assertEquals(NerType.PERSON, entity.getType());
+			assertEquals(22, entity.getBegin());
+			assertEquals(26, entity.getEnd());
+			assertEquals(1, cache.getStats().getHitCount());
+			assertEquals(1, cache.getStats().getSize());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testPartialRecordIsIgnored() throws IOException {
+		File dir = mFolder.newFolder("cache");
+		DiskResultCache cache = new DiskResultCache(dir, 4096, 4, 0,
+				TimeUnit.SECONDS);
+		cache.put(key(1), result("first"));
+		cache.put(key(2), result("second"));
+		cache.close();
+
+		// corrupt the last byte of the second record's payload
+		RandomAccessFile file = new RandomAccessFile(new File(dir,
+				"segment-00000000.dat"), "rw");
+		try {
+			int first = file.readInt() + 4;
+			file.seek(first);
+			int second = file.readInt() + 4;
+			file.seek(first + second - 5);
+			file.write(file.read() ^ 0xFF);
+		} finally {
+			file.close();
+		}
+
+		cache = new DiskResultCache(dir, 4096, 4, 0, TimeUnit.SECONDS);
+		try {
+			assertEquals("first", cache.get(key(1)).getSourceText());
+			assertNull(cache.get(key(2)));
+			// the corrupt record is overwritten by the next one
+			cache.put(key(3), result("third"));
+			assertEquals("third", cache.get(key(3)).getSourceText());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testEvictsOldestSegment() throws IOException {
+		DiskResultCache cache = new DiskResultCache(
+				mFolder.newFolder("cache"), 1024, 2, 0, TimeUnit.SECONDS);
+		try {
+			char[] text = new char[300];
+			Arrays.fill(text, 'a');
+			for (int i = 0; i < 20; i++) {
+				cache.put(key(i), result(new String(text)));
+			}
+
+			assertEquals(2, cache.getSegmentCount());
+			assertNull(cache.get(key(0)));
+			assertNotNull(cache.get(key(19)));
+			assertTrue(cache.getStats().getEvictionCount() > 0);
+			assertEquals(20 - cache.getStats().getEvictionCount(), cache
+					.getStats().getSize());
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		File dir = mFolder.newFolder("cache");
+		DiskResultCache cache = new DiskResultCache(dir, 1024, 8, 0,
+				TimeUnit.SECONDS);
+		try {
+			char[] text = new char[300];
+			Arrays.fill(text, 'a');
+			// fill the first segment, then overwrite most of its records
+			for (int i = 0; i < 3; i++) {
+				cache.put(key(i), result(new String(text)));
+			}
+			for (int i = 0; i < 2; i++) {
+				cache.put(key(i), result(new String(text)));
+			}
+			int segments = cache.getSegmentCount();
+			assertTrue(segments > 1);
+
+			cache.compact();
+
+			assertEquals(segments - 1, cache.getSegmentCount());
+			assertFalse(new File(dir, "segment-00000000.dat").exists());
+			for (int i = 0; i < 3; i++) {
+				assertNotNull(cache.get(key(i)));
+			}
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testTimeToLive() throws IOException, InterruptedException {
+		DiskResultCache cache = new DiskResultCache(
+				mFolder.newFolder("cache"), 4096, 2, 20, TimeUnit.MILLISECONDS);
+		try {
+			cache.put(key(1), result("a"));
+			Thread.sleep(40);
+
+			assertNull(cache.get(key(1)));
+			assertEquals(1, cache.getStats().getExpirationCount());
+			assertEquals(0, cache.getStats().getSize());
+		} finally {
+			cache.close();
+		}
+	}
+
+	private static CacheKey key(int i) {
+		byte[] digest = new byte[32];
+		digest[0] = (byte) (i >> 8);
+		digest[1] = (byte) i;
+		return new CacheKey(digest);
+	}
+
+	private static LtasksObject result(String aText) {
+		return new LtasksObject(aText, null, true,
+				Arrays.asList(new NamedEntity("José", NerType.PERSON, 22, 26)));
+	}
+}
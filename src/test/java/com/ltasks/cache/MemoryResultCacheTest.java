@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ltasks.LtasksObject;
+import com.ltasks.NamedEntity;
+
+public class MemoryResultCacheTest {
+
+	@Test
+	public void testHitAndMiss() {
+		MemoryResultCache cache = new MemoryResultCache(10, 0, TimeUnit.SECONDS);
+		LtasksObject result = result("a");
+
+		assertNull(cache.get(key(1)));
+		cache.put(key(1), result);
+		assertSame(result, cache.get(key(1)));
+
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(1, stats.getSize());
+		assertEquals(0.5, stats.getHitRate(), 0.0);
+	}
+
+	@Test
+	public void testFailedResultsAreNotCached() {
+		MemoryResultCache cache = new MemoryResultCache(10, 0, TimeUnit.SECONDS);
+		cache.put(key(1), new LtasksObject(null, "error", false, null));
+
+		assertNull(cache.get(key(1)));
+	}
+
+	@Test
+	public void testTimeToLive() throws InterruptedException {
+		MemoryResultCache cache = new MemoryResultCache(10, 20,
+				TimeUnit.MILLISECONDS);
+		cache.put(key(1), result("a"));
+		Thread.sleep(40);
+
+		assertNull(cache.get(key(1)));
+		assertEquals(1, cache.getStats().getExpirationCount());
+		assertEquals(0, cache.getStats().getSize());
+	}
+
+	@Test
+	public void testPopularResultSurvivesScan() {
+		MemoryResultCache cache = new MemoryResultCache(4, 0, TimeUnit.SECONDS);
+		cache.put(key(0), result("popular"));
+		for (int i = 0; i < 10; i++) {
+			assertNotNull(cache.get(key(0)));
+		}
+		// a scan of documents seen only once
+		for (int i = 1; i <= 100; i++) {
+			if (cache.get(key(i)) == null) {
+				cache.put(key(i), result("once"));
+			}
+		}
+
+		assertNotNull(cache.get(key(0)));
+		assertTrue(cache.getStats().getSize() <= 4);
+		assertTrue(cache.getStats().getEvictionCount() > 0);
+	}
+
+	private static CacheKey key(int i) {
+		return new CacheKey(new byte[] { (byte) (i >> 8), (byte) i });
+	}
+
+	private static LtasksObject result(String aText) {
+		return new LtasksObject(aText, null, true,
+				Collections.<NamedEntity> emptyList());
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class ClientMetricsTest {
+
+	private static RequestMetrics metrics(long aTotalMillis, int aStatusCode,
+			int aAttempts, Throwable aFailure) {
+		long[] durations = new long[Phase.values().length];
+		durations[Phase.WAIT.ordinal()] = TimeUnit.MILLISECONDS
+				.toNanos(aTotalMillis / 2);
+		durations[Phase.TOTAL.ordinal()] = TimeUnit.MILLISECONDS
+				.toNanos(aTotalMillis);
+		return new RequestMetrics(durations, 1000, 200, 50, 400, 3,
+				aStatusCode, aAttempts, aFailure);
+	}
+
+	@Test
+	public void testAggregate() {
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.onRequest(metrics(10, 200, 1, null));
+		metrics.onRequest(metrics(20, 200, 2, null));
+		metrics.onRequest(metrics(40, 503, 3, new IOException()));
+
+		assertEquals(3, metrics.getRequestCount());
+		assertEquals(1, metrics.getFailureCount());
+		assertEquals(2, metrics.getRetriedRequestCount());
+		assertEquals(3000, metrics.getRequestBytes());
+		assertEquals(600, metrics.getRequestWireBytes());
+		assertEquals(150, metrics.getResponseWireBytes());
+		assertEquals(1200, metrics.getResponseBytes());
+		assertEquals(9, metrics.getEntityCount());
+		assertEquals(Long.valueOf(2), metrics.getStatusCounts().get(200));
+		assertEquals(Long.valueOf(1), metrics.getStatusCounts().get(503));
+		assertEquals(20, metrics.getLatencyP50(), 1);
+		assertEquals(40, metrics.getLatencyP99(), 2);
+		assertEquals(10, metrics.getPhaseP50().get("WAIT"), 0.5);
+		assertEquals(3, metrics.getLatency(Phase.WAIT).getCount());
+
+		metrics.reset();
+		assertEquals(0, metrics.getRequestCount());
+		assertTrue(metrics.getStatusCounts().isEmpty());
+		assertEquals(0, metrics.getLatencyP99(), 0);
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.onRequest(metrics(10, 200, 1, null));
+		metrics.register("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(
+					"com.ltasks:type=ClientMetrics,name=\"test\"");
+			assertEquals(1L, server.getAttribute(name, "RequestCount"));
+		} finally {
+			metrics.unregister();
+		}
+		metrics.unregister();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDurationPerPhase() {
+		new RequestMetrics(new long[1], 0, 0, 0, 0, 0, 200, 1, null);
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBucketRoundTrip() {
+		for (long value = 0; value < 1L << 40; value = value * 3 / 2 + 1) {
+			long middle = LatencyHistogram.valueOf(LatencyHistogram
+					.indexOf(value));
+			// 16 buckets per power of two: within about 3%
+			assertEquals(value, middle, Math.max(1, value / 32.0));
+			assertEquals(LatencyHistogram.indexOf(value),
+					LatencyHistogram.indexOf(middle));
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(10000, histogram.getCount());
+		assertEquals(5000500, histogram.getMean(), 0.001);
+		assertEquals(5000000, histogram.getPercentile(50), 5000000 * 0.04);
+		assertEquals(9900000, histogram.getPercentile(99), 9900000 * 0.04);
+		assertEquals(9990000, histogram.getPercentile(99.9), 9990000 * 0.04);
+	}
+
+	@Test
+	public void testNegativeAndReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(99));
+		histogram.record(-5);
+		assertEquals(0, histogram.getPercentile(50));
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean(), 0);
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.ltasks.resilience.AdaptiveConcurrencyLimiter.Permit;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	@Test
+	public void testWaitersGetReleasedPermits() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2,
+				1, 10);
+		Permit first = limiter.acquire();
+		limiter.acquire();
+		CompletableFuture<Permit> waiting = limiter.acquireAsync();
+		assertFalse(waiting.isDone());
+		assertEquals(1, limiter.getWaiting());
+
+		first.release();
+
+		assertTrue(waiting.isDone());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(0, limiter.getWaiting());
+	}
+
+	@Test
+	public void testIncreaseWhileInUse() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4,
+				1, 10);
+		limiter.setLatencyTolerance(Double.POSITIVE_INFINITY);
+		for (int i = 0; i < 100; i++) {
+			Permit[] permits = new Permit[limiter.getLimit()];
+			for (int j = 0; j < permits.length; j++) {
+				permits[j] = limiter.acquire();
+			}
+			for (Permit permit : permits) {
+				permit.onResponse(200);
+			}
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void testDecreaseOncePerCongestion() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8,
+				2, 10);
+		limiter.setBackoffRatio(0.5);
+		Permit[] permits = new Permit[8];
+		for (int i = 0; i < permits.length; i++) {
+			permits[i] = limiter.acquire();
+		}
+		// all requests in flight hit the same overload
+		for (Permit permit : permits) {
+			permit.onResponse(503);
+		}
+		assertEquals(4, limiter.getLimit());
+		assertEquals(1, limiter.getDecreaseCount());
+
+		limiter.acquire().onFailure();
+		assertEquals(2, limiter.getLimit());
+		limiter.acquire().onResponse(429);
+		assertEquals(2, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testReleaseOnce() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1,
+				1, 1);
+		Permit permit = limiter.acquire();
+		permit.onResponse(200);
+		permit.release();
+		permit.onFailure();
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(0, limiter.getDecreaseCount());
+	}
+
+	@Test(expected = LimitExceededException.class)
+	public void testAcquireTimeout() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1,
+				1, 1);
+		limiter.setAcquireTimeout(10);
+		limiter.acquire();
+		try {
+			limiter.acquire();
+		} finally {
+			assertEquals(0, limiter.getWaiting());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimits() {
+		new AdaptiveConcurrencyLimiter(1, 2, 10);
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ltasks.resilience.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+	private final CircuitBreaker mBreaker = new CircuitBreaker(10, 0.5, 50);
+
+	private final List<String> mTransitions = new ArrayList<String>();
+
+	@Before
+	public void listen() {
+		mBreaker.setMinimumCalls(4);
+		mBreaker.setHalfOpenCalls(2);
+		mBreaker.addListener(new CircuitBreakerListener() {
+			public void onStateChange(CircuitBreaker aBreaker, State aFrom,
+					State aTo) {
+				mTransitions.add(aFrom + ">" + aTo);
+			}
+		});
+	}
+
+	private void call(boolean aIsFailure) throws CircuitOpenException {
+		mBreaker.acquire();
+		mBreaker.onResult(aIsFailure, 0);
+	}
+
+	@Test
+	public void testOpensOnFailureRate() throws Exception {
+		call(true);
+		call(true);
+		call(false);
+		// below the minimum calls
+		assertEquals(State.CLOSED, mBreaker.getState());
+		call(true);
+		assertEquals(State.OPEN, mBreaker.getState());
+
+		try {
+			call(false);
+			fail();
+		} catch (CircuitOpenException e) {
+			// fails fast
+		}
+		assertEquals(1, mBreaker.getRejectedCount());
+	}
+
+	@Test
+	public void testHalfOpenCloses() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			call(true);
+		}
+		Thread.sleep(60);
+
+		mBreaker.acquire();
+		mBreaker.acquire();
+		assertEquals(State.HALF_OPEN, mBreaker.getState());
+		try {
+			// only two probes
+			mBreaker.acquire();
+			fail();
+		} catch (CircuitOpenException e) {
+			// expected
+		}
+		mBreaker.onResult(false, 0);
+		mBreaker.onResult(false, 0);
+
+		assertEquals(State.CLOSED, mBreaker.getState());
+		assertEquals("[CLOSED>OPEN, OPEN>HALF_OPEN, HALF_OPEN>CLOSED]",
+				mTransitions.toString());
+	}
+
+	@Test
+	public void testHalfOpenReopens() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			call(true);
+		}
+		Thread.sleep(60);
+		call(false);
+		call(true);
+		assertEquals(State.OPEN, mBreaker.getState());
+	}
+
+	@Test
+	public void testIgnoredProbe() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			call(true);
+		}
+		Thread.sleep(60);
+		mBreaker.acquire();
+		mBreaker.acquire();
+		mBreaker.onIgnored();
+		// the ignored probe is given back
+		mBreaker.acquire();
+	}
+
+	@Test
+	public void testSlowCalls() throws Exception {
+		mBreaker.setSlowCallDuration(100);
+		mBreaker.setSlowCallRateThreshold(0.75);
+		for (int i = 0; i < 4; i++) {
+			mBreaker.acquire();
+			mBreaker.onResult(false, TimeUnit.MILLISECONDS.toNanos(i == 0 ? 1
+					: 200));
+		}
+		assertEquals(State.OPEN, mBreaker.getState());
+	}
+
+	@Test
+	public void testSlidingWindow() throws Exception {
+		for (int i = 0; i < 14; i++) {
+			call(i == 0 || i == 5);
+		}
+		assertEquals(0.1, mBreaker.getFailureRate(), 0.001);
+		for (int i = 0; i < 6; i++) {
+			call(false);
+		}
+		// the failures left the window
+		assertEquals(0, mBreaker.getFailureRate(), 0);
+		assertEquals(State.CLOSED, mBreaker.getState());
+	}
+
+}
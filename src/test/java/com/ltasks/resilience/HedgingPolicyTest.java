@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HedgingPolicyTest {
+
+	@Test
+	public void testExtraLoadCap() {
+		HedgingPolicy policy = new HedgingPolicy(50);
+		policy.setMaxExtraLoad(0.2);
+		for (int i = 0; i < 4; i++) {
+			policy.onRequest();
+		}
+		assertFalse(policy.tryHedge());
+		policy.onRequest();
+		assertTrue(policy.tryHedge());
+		assertFalse(policy.tryHedge());
+		for (int i = 0; i < 5; i++) {
+			policy.onRequest();
+		}
+		assertTrue(policy.tryHedge());
+		assertEquals(2, policy.getHedgeCount());
+		assertEquals(10, policy.getRequestCount());
+	}
+
+	@Test
+	public void testPercentileDelay() {
+		HedgingPolicy policy = new HedgingPolicy(50);
+		policy.setPercentile(95);
+		assertEquals(50, policy.getDelay());
+		// 1 ms to 128 ms
+		for (int i = 1; i <= 128; i++) {
+			policy.onLatency(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		assertEquals(122, policy.getDelay());
+
+		policy.setPercentile(0);
+		assertEquals(50, policy.getDelay());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDelay() {
+		new HedgingPolicy(0);
+	}
+
+}
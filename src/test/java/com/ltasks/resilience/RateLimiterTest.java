@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	@Test
+	public void testBurstThenRate() {
+		RateLimiter limiter = new RateLimiter(10, 3);
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		// the bucket is empty: a token every 100 ms
+		long wait = limiter.reserve();
+		assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(90));
+		assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(limiter.reserve() > TimeUnit.MILLISECONDS.toNanos(190));
+	}
+
+	@Test
+	public void testAcquireWaits() throws Exception {
+		RateLimiter limiter = new RateLimiter(50, 1);
+		long start = System.nanoTime();
+		for (int i = 0; i < 6; i++) {
+			limiter.acquire();
+		}
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+				.toNanos(90));
+	}
+
+	@Test
+	public void testAcquireAsync() throws Exception {
+		RateLimiter limiter = new RateLimiter(50, 1);
+		assertTrue(limiter.acquireAsync().isDone());
+		long start = System.nanoTime();
+		limiter.acquireAsync().get(1, TimeUnit.SECONDS);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+				.toNanos(15));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRate() {
+		new RateLimiter(0, 1);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.ltasks.resilience;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+	@Test
+	public void testBackoff() {
+		RetryPolicy policy = new RetryPolicy(10);
+		policy.setInitialBackoff(100);
+		policy.setMaxBackoff(1000);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), policy.getBackoff(1));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(400), policy.getBackoff(3));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), policy.getBackoff(8));
+	}
+
+	@Test
+	public void testMaxAttempts() throws IOException {
+		RetryPolicy policy = new RetryPolicy(3);
+		policy.setInitialBackoff(1);
+		RetryPolicy.Execution execution = policy.newExecution();
+		assertTrue(execution.canRetry(503, null));
+		execution.pause();
+		assertTrue(execution.canRetry(new ConnectException()));
+		execution.pause();
+		assertEquals(3, execution.getAttempt());
+		assertFalse(execution.canRetry(503, null));
+
+		assertEquals(2, policy.getRetryCount());
+		assertEquals(1, policy.getExhaustedCount());
+	}
+
+	@Test
+	public void testRetryable() {
+		RetryPolicy policy = new RetryPolicy(3);
+		RetryPolicy.Execution execution = policy.newExecution();
+		assertFalse(execution.canRetry(200, null));
+		assertFalse(execution.canRetry(400, null));
+		assertFalse(execution.canRetry(new UnknownHostException()));
+
+		policy.setRetryableStatusCodes(500);
+		policy.setRetryableExceptions(UnknownHostException.class);
+		assertTrue(policy.isRetryable(500));
+		assertFalse(policy.isRetryable(503));
+		assertTrue(policy.isRetryable(new UnknownHostException()));
+		assertFalse(policy.isRetryable(new ConnectException()));
+		assertEquals(0, policy.getExhaustedCount());
+	}
+
+	@Test
+	public void testDefaultsCanNotChange() {
+		RetryPolicy.getDefaultRetryableStatusCodes()[0] = 500;
+		try {
+			RetryPolicy.getDefaultRetryableExceptions().set(0,
+					UnknownHostException.class);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		RetryPolicy policy = new RetryPolicy(3);
+		assertTrue(policy.isRetryable(408));
+		assertFalse(policy.isRetryable(500));
+		assertEquals(RetryPolicy.getDefaultRetryableExceptions(),
+				policy.getRetryableExceptions());
+		assertTrue(policy.isRetryable(new ConnectException()));
+	}
+
+	@Test
+	public void testRetryAfter() {
+		assertEquals(TimeUnit.SECONDS.toNanos(2),
+				RetryPolicy.parseRetryAfter(" 2"));
+		assertEquals(-1, RetryPolicy.parseRetryAfter(null));
+		assertEquals(-1, RetryPolicy.parseRetryAfter("soon"));
+		String date = DateTimeFormatter.RFC_1123_DATE_TIME
+				.format(ZonedDateTime.now().plusSeconds(30));
+		long wait = RetryPolicy.parseRetryAfter(date);
+		assertTrue(wait > TimeUnit.SECONDS.toNanos(25));
+		assertTrue(wait <= TimeUnit.SECONDS.toNanos(30));
+
+		// the server asks for more than the policy is willing to wait
+		RetryPolicy policy = new RetryPolicy(3);
+		policy.setMaxBackoff(1000);
+		assertFalse(policy.newExecution().canRetry(503, "5"));
+		assertTrue(policy.newExecution().canRetry(503, "1"));
+	}
+
+	@Test
+	public void testTimeBudget() {
+		RetryPolicy policy = new RetryPolicy(10);
+		policy.setInitialBackoff(10000);
+		policy.setMaxBackoff(10000);
+		policy.setTimeBudget(100);
+		// the server asks for a wait longer than the budget
+		assertFalse(policy.newExecution().canRetry(429, "1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidAttempts() {
+		new RetryPolicy(0);
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.junit.Test;
+
+public class CommonsHttpTransportTest extends TransportConformance {
+
+	@Override
+	protected Transport createTransport(int aMaxConcurrency) {
+		MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+		manager.getParams().setDefaultMaxConnectionsPerHost(aMaxConcurrency);
+		manager.getParams().setMaxTotalConnections(aMaxConcurrency);
+		return new CommonsHttpTransport(new HttpClient(manager));
+	}
+
+	@Test
+	public void testConnectionLimits() {
+		assertEquals(1, new CommonsHttpTransport().getMaxConcurrency());
+		MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+		manager.getParams().setDefaultMaxConnectionsPerHost(8);
+		manager.getParams().setMaxTotalConnections(4);
+		assertEquals(4, new CommonsHttpTransport(new HttpClient(manager))
+				.getMaxConcurrency());
+		manager.getParams().setMaxTotalConnections(20);
+		assertEquals(8, new CommonsHttpTransport(new HttpClient(manager))
+				.getMaxConcurrency());
+	}
+
+}
@@ -0,0 +1,290 @@
+/*
+ *  Copyright 2011 LTasks
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.ltasks.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ltasks.StandInNerServer;
+
+/**
+ * The behavior every {@link Transport} must have, checked against a
+ * {@link StandInNerServer}. A test of a transport extends it and creates the
+ * transport.
+ */
+public abstract class TransportConformance {
+
+	private static final String KEY = "b2c4cf5c-52d3-4fef-ac9b-67dbe6b5e52d";
+
+	private static final String TEXT = "Ele se encontrará com José Silva em Brasília.";
+
+	private StandInNerServer mServer;
+
+	private Transport mTransport;
+
+	/**
+	 * Creates the transport under test
+	 * 
+	 * @param aMaxConcurrency
+	 *            the number of requests it must run at the same time
+	 * @return the transport
+	 */
+	protected abstract Transport createTransport(int aMaxConcurrency);
+
+	@Before
+	public void start() throws Exception {
+		mServer = new StandInNerServer();
+		mTransport = createTransport(16);
+	}
+
+	@After
+	public void stop() {
+		mTransport.close();
+		mServer.close();
+	}
+
+	@Test
+	public void testForm() throws Exception {
+		Exchange exchange = mTransport.newExchange(form(TEXT, false));
+		try {
+			assertEquals(200, exchange.execute());
+			assertTrue(exchange.getResponseHeader("content-type").startsWith(
+					"text/xml"));
+			assertNull(exchange.getResponseHeader("Content-Encoding"));
+			assertNull(exchange.getResponseHeader("X-Not-Sent"));
+			String xml = read(exchange.getResponseBody());
+			assertTrue(xml, xml.contains("text=\"José Silva\""));
+		} finally {
+			exchange.release();
+		}
+		assertEquals(TEXT, mServer.getLastParameters().get("text"));
+		assertEquals(KEY, mServer.getLastParameters().get("apikey"));
+		assertEquals("ltasks4j-test", mServer.getLastParameters().get("agent"));
+		assertFalse(mServer.isLastRequestGzipped());
+	}
+
+	@Test
+	public void testMaxConcurrency() {
+		assertTrue(mTransport.getMaxConcurrency() >= 16);
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		Exchange exchange = mTransport.newExchange(form(TEXT, true));
+		try {
+			assertEquals(200, exchange.execute());
+			assertEquals("gzip", exchange.getResponseHeader("Content-Encoding"));
+			String xml = read(new GZIPInputStream(exchange.getResponseBody()));
+			assertTrue(xml, xml.contains("text=\"José Silva\""));
+		} finally {
+			exchange.release();
+		}
+		assertTrue(mServer.isLastRequestGzipped());
+		assertEquals(TEXT, mServer.getLastParameters().get("text"));
+	}
+
+	@Test
+	public void testQueryStringAndPlainBody() throws Exception {
+		TransportRequest request = new TransportRequest(mServer.getEndpoint()
+				+ "?apikey=" + KEY + "&includeSourceText=false", new Body(
+				TEXT.getBytes(StandardCharsets.UTF_8),
+				"text/plain; charset=utf-8"));
+		Exchange exchange = mTransport.newExchange(request);
+		try {
+			assertEquals(200, exchange.execute());
+			String xml = read(exchange.getResponseBody());
+			assertFalse(xml, xml.contains("<text>"));
+		} finally {
+			exchange.release();
+		}
+		assertEquals("text/plain; charset=utf-8", mServer.getLastContentType());
+		assertEquals(TEXT, mServer.getLastParameters().get("text"));
+		assertEquals("false",
+				mServer.getLastParameters().get("includeSourceText"));
+	}
+
+	@Test
+	public void testErrorStatus() throws Exception {
+		mServer.setErrorRate(1);
+		mServer.setErrorStatus(503);
+		Exchange exchange = mTransport.newExchange(form(TEXT, false));
+		try {
+			assertEquals(503, exchange.execute());
+			assertTrue(read(exchange.getResponseBody()).contains("<message>"));
+		} finally {
+			exchange.release();
+		}
+	}
+
+	@Test
+	public void testSequentialExchanges() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			Exchange exchange = mTransport.newExchange(form(TEXT + " " + i,
+					i % 2 == 0));
+			try {
+				assertEquals(200, exchange.execute());
+				exchange.getResponseBody().close();
+			} finally {
+				exchange.release();
+			}
+		}
+		assertEquals(50, mServer.getRequestCount());
+	}
+
+	@Test
+	public void testConcurrentExchanges() throws Exception {
+		mServer.setLatency(50);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			long start = System.nanoTime();
+			for (int i = 0; i < 16; i++) {
+				final String text = "Ana " + i + " Costa";
+				results.add(executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						Exchange exchange = mTransport.newExchange(form(text,
+								true));
+						try {
+							assertEquals(200, exchange.execute());
+							return read(new GZIPInputStream(exchange
+									.getResponseBody()));
+						} finally {
+							exchange.release();
+						}
+					}
+				}));
+			}
+			for (int i = 0; i < 16; i++) {
+				assertTrue(results.get(i).get(10, TimeUnit.SECONDS).contains(
+						"<text>Ana " + i + " Costa</text>"));
+			}
+			// far less than 16 requests one after the other
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS
+					.toNanos(16 * 50));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAbortBeforeExecute() throws Exception {
+		Exchange exchange = mTransport.newExchange(form(TEXT, false));
+		exchange.abort();
+		try {
+			exchange.execute();
+			fail();
+		} catch (IOException e) {
+			// expected
+		} finally {
+			exchange.release();
+		}
+		assertEquals(0, mServer.getRequestCount());
+	}
+
+	@Test
+	public void testAbortWhileWaiting() throws Exception {
+		mServer.setLatency(3000);
+		final Exchange exchange = mTransport.newExchange(form(TEXT, false));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		long start = System.nanoTime();
+		try {
+			executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					Thread.sleep(200);
+					exchange.abort();
+					return null;
+				}
+			});
+			exchange.execute();
+			fail();
+		} catch (IOException e) {
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS
+					.toNanos(2500));
+		} finally {
+			exchange.release();
+			executor.shutdownNow();
+		}
+	}
+
+	private TransportRequest form(String aText, boolean aIsGzip)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream body = aIsGzip ? new GZIPOutputStream(out) : out;
+		body.write(("text=" + java.net.URLEncoder.encode(aText, "UTF-8")
+				+ "&apikey=" + KEY + "&agent=ltasks4j-test")
+				.getBytes(StandardCharsets.US_ASCII));
+		body.close();
+		TransportRequest request = new TransportRequest(mServer.getEndpoint(),
+				new Body(out.toByteArray(),
+						"application/x-www-form-urlencoded; charset=utf-8"));
+		request.setHeader("Accept", "application/xml");
+		if (aIsGzip) {
+			request.setHeader("Content-Encoding", "gzip");
+			request.setHeader("Accept-Encoding", "gzip");
+		}
+		return request;
+	}
+
+	private static String read(InputStream aIn) throws IOException {
+		try {
+			return new String(aIn.readAllBytes(), StandardCharsets.UTF_8);
+		} finally {
+			aIn.close();
+		}
+	}
+
+	/** A body of fixed bytes */
+	private static final class Body implements RequestBody {
+
+		private final byte[] mBytes;
+
+		private final String mContentType;
+
+		Body(byte[] aBytes, String aContentType) {
+			mBytes = aBytes;
+			mContentType = aContentType;
+		}
+
+		public void writeRequest(OutputStream aOut) throws IOException {
+			aOut.write(mBytes);
+		}
+
+		public String getContentType() {
+			return mContentType;
+		}
+
+	}
+
+}